@@ -0,0 +1,101 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmark of {@link JA3Cache} hits from several threads sharing one cache, as the I/O threads of a server do. A few hot structures
+ * make up all lookups, so the threads keep hitting the same stripes.
+ *
+ * Run with {@code mvn -P benchmark clean test-compile exec:exec -Djmh.args="JA3CacheBenchmark"}; {@code -t} overrides the number of
+ * threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class JA3CacheBenchmark {
+
+    /**
+     * Number of distinct structures looked up.
+     */
+    @Param({ "1", "64" })
+    private int structures;
+
+    /**
+     * Cache shared by all threads, holding every structure.
+     */
+    private JA3Cache cache;
+
+    /**
+     * Structure keys.
+     */
+    private char[][] keys;
+
+    /**
+     * Hashes of the structure keys.
+     */
+    private long[] hashes;
+
+    /**
+     * Fills the cache with the structures.
+     */
+    @Setup
+    public void setup() {
+        cache = new JA3Cache(4096);
+        keys = new char[structures][];
+        hashes = new long[structures];
+        final Random random = new Random(1);
+        for (int i = 0; i < structures; i++) {
+            keys[i] = new char[48];
+            for (int j = 0; j < keys[i].length; j++) {
+                keys[i][j] = (char) random.nextInt(0x10000);
+            }
+            hashes[i] = JA3Cache.hash(keys[i], keys[i].length);
+            cache.put(hashes[i], keys[i], keys[i].length, "ja3-" + i, null);
+        }
+    }
+
+    /**
+     * Position of a thread in the structures.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        /**
+         * Index of the next structure to look up.
+         */
+        private int next;
+    }
+
+    /**
+     * @param cursor position of the thread
+     * @return the cached entry of the next structure
+     */
+    @Benchmark
+    public JA3Cache.Entry hit(final Cursor cursor) {
+        final int i = cursor.next;
+        cursor.next = i + 1 == structures ? 0 : i + 1;
+        return cache.get(hashes[i], keys[i], keys[i].length);
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmark of full TLS handshakes between in-JVM client and server engines, see {@link LoopbackHandshake}, with the server engine
+ * wrapped by {@link JA3Provider} or not. Each operation is one handshake without resumption followed by a short request and response.
+ *
+ * Run with {@code mvn -P benchmark clean test-compile exec:exec -Djmh.args="-prof gc -t 4 JA3HandshakeBenchmark"}: {@code handshakes}
+ * reports handshakes per second, {@code handshakeLatency} the latency percentiles including p0.99, and {@code gc.alloc.rate.norm} the bytes
+ * allocated per handshake by both engines, so the cost of the wrapper is the difference between {@code wrapped=true} and
+ * {@code wrapped=false}. {@code -t} sets the number of threads running handshakes concurrently on shared contexts.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JA3HandshakeBenchmark {
+
+    /**
+     * Whether the server engines are wrapped by {@link JA3SSLEngineWrapper}.
+     */
+    @Param({ "false", "true" })
+    private boolean wrapped;
+
+    /**
+     * Protocol and the only cipher suite offered by the client, separated by a colon.
+     */
+    @Param({ "TLSv1.2:TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256", "TLSv1.2:TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384",
+            "TLSv1.3:TLS_AES_128_GCM_SHA256", "TLSv1.3:TLS_AES_256_GCM_SHA384" })
+    private String handshake;
+
+    /**
+     * Contexts shared by all the benchmark threads, like a listener shares its context across event loops.
+     */
+    private LoopbackHandshake loopback;
+
+    /**
+     * Builds the contexts and checks one handshake goes through.
+     *
+     * @throws GeneralSecurityException if the contexts cannot be built
+     * @throws IOException if the key cannot be generated or the handshake fails
+     */
+    @Setup
+    public void setup() throws GeneralSecurityException, IOException {
+        final String[] parts = handshake.split(":");
+        loopback = new LoopbackHandshake(wrapped, JA3Configuration.DEFAULT, parts[0], parts[1]);
+        final SSLEngine server = loopback.run();
+        if (!parts[1].equals(server.getSession().getCipherSuite()) || wrapped != server instanceof JA3SSLEngineWrapper) {
+            throw new IllegalStateException("Unexpected handshake: " + server.getSession().getCipherSuite() + " on " + server);
+        }
+    }
+
+    /**
+     * @return the server engine after one handshake and exchange
+     * @throws SSLException if the handshake fails
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public SSLEngine handshakes() throws SSLException {
+        return loopback.run();
+    }
+
+    /**
+     * @return the server engine after one handshake and exchange
+     * @throws SSLException if the handshake fails
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public SSLEngine handshakeLatency() throws SSLException {
+        return loopback.run();
+    }
+}
@@ -0,0 +1,173 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmark for {@link JA3Signature#ja3Signature(ByteBuffer)} over the OpenSSL fixtures and synthetic modern ClientHellos.
+ *
+ * Run with {@code mvn -P benchmark clean test-compile exec:exec}; the default arguments enable the GC profiler so that
+ * {@code gc.alloc.rate.norm} reports the bytes allocated per call.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JA3SignatureBenchmark {
+
+    /**
+     * ClientHello to parse; openssl-* names refer to the test resources.
+     */
+    @Param({ "openssl-ssl3", "openssl-tls1", "openssl-tls1_1", "openssl-tls1_2", "chrome", "firefox" })
+    private String clientHello;
+
+    /**
+     * Whether the packet is held in a heap, a direct or a read-only heap buffer; the last one has no accessible array and goes through
+     * {@link ByteBuffer#get(int)}.
+     */
+    @Param({ "heap", "direct", "readonly" })
+    private String bufferType;
+
+    /**
+     * Packet under test.
+     */
+    private ByteBuffer packet;
+
+    /**
+     * Parser under test.
+     */
+    private JA3Signature signature;
+
+    /**
+     * Reusable output for the allocation-free variant.
+     */
+    private final byte[] out = new byte[4096];
+
+    /**
+     * Reusable holder for the single pass variant.
+     */
+    private final ClientHelloFingerprints fingerprints = new ClientHelloFingerprints();
+
+    /**
+     * Fingerprints computed by the single pass variant.
+     */
+    private final Set<FingerprintType> allTypes = EnumSet.allOf(FingerprintType.class);
+
+    /**
+     * Loads the ClientHello into the requested buffer type.
+     *
+     * @throws IOException if a fixture cannot be read
+     */
+    @Setup
+    public void setup() throws IOException {
+        final byte[] bytes;
+        if ("chrome".equals(clientHello)) {
+            bytes = ClientHelloBuilder.chrome(1);
+        } else if ("firefox".equals(clientHello)) {
+            bytes = ClientHelloBuilder.firefox(1);
+        } else {
+            bytes = readResource(clientHello + ".bin");
+        }
+        if ("direct".equals(bufferType)) {
+            packet = ByteBuffer.allocateDirect(bytes.length);
+            packet.put(bytes);
+            packet.flip();
+        } else if ("readonly".equals(bufferType)) {
+            packet = ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+        } else {
+            packet = ByteBuffer.wrap(bytes);
+        }
+        signature = new JA3Signature();
+        if (signature.ja3Signature(packet) == null) {
+            throw new IllegalStateException("Not a ClientHello: " + clientHello);
+        }
+    }
+
+    /**
+     * @return JA3 string for the packet
+     */
+    @Benchmark
+    public String ja3Signature() {
+        return signature.ja3Signature(packet);
+    }
+
+    /**
+     * @return length of the JA3 text written to a reused array
+     */
+    @Benchmark
+    public int ja3SignatureToArray() {
+        return signature.ja3Signature(packet, out, 0);
+    }
+
+    /**
+     * @return JA3 MD5 hash streamed while walking the packet
+     */
+    @Benchmark
+    public JA3Fingerprint ja3Fingerprint() {
+        return signature.ja3Fingerprint(packet);
+    }
+
+    /**
+     * @return normalized JA3 string, with the extension types sorted
+     */
+    @Benchmark
+    public String ja3nSignature() {
+        return signature.ja3nSignature(packet);
+    }
+
+    /**
+     * @return JA4 fingerprint for the packet
+     */
+    @Benchmark
+    public String ja4Signature() {
+        return signature.ja4Signature(packet);
+    }
+
+    /**
+     * @return holder of JA3, its hash and JA4 computed in one pass
+     */
+    @Benchmark
+    public ClientHelloFingerprints allFingerprints() {
+        signature.fingerprints(packet, allTypes, fingerprints);
+        return fingerprints;
+    }
+
+    private static byte[] readResource(final String name) throws IOException {
+        try (InputStream in = JA3SignatureBenchmark.class.getClassLoader().getResourceAsStream(name)) {
+            if (in == null) {
+                throw new IOException("Missing resource: " + name);
+            }
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] chunk = new byte[4096];
+            int n;
+            while ((n = in.read(chunk)) != -1) {
+                out.write(chunk, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,316 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Per-connection state machine that collects the ClientHello handshake message from the start of an inbound TLS stream, across records
+ * and across reads. Bytes can be fed in chunks of any size, as long as they are fed in stream order and exactly once.
+ * <p>
+ * When the ClientHello arrives in one record, as it usually does, nothing is copied and {@link #clientHello()} is a view of the fed buffer.
+ * A ClientHello fragmented over several records or reads is reassembled into a single synthetic record so that {@link JA3Signature} can
+ * parse it.
+ */
+final class ClientHelloAccumulator {
+    /**
+     * More bytes are needed to complete the ClientHello.
+     */
+    static final int NEED_MORE = 0;
+
+    /**
+     * The ClientHello is complete and available from {@link #clientHello()}.
+     */
+    static final int COMPLETE = 1;
+
+    /**
+     * The stream does not start with a TLS ClientHello, or the ClientHello is too large.
+     */
+    static final int NOT_CLIENT_HELLO = 2;
+
+    /**
+     * Handshake record content type.
+     */
+    private static final byte HANDSHAKE = 22;
+
+    /**
+     * ClientHello handshake type.
+     */
+    private static final byte CLIENT_HELLO = 1;
+
+    /**
+     * Length of a TLS record header.
+     */
+    private static final int RECORD_HEADER_LENGTH = 5;
+
+    /**
+     * Length of a handshake message header.
+     */
+    private static final int HANDSHAKE_HEADER_LENGTH = 4;
+
+    /**
+     * Offset of the length in a TLS record header.
+     */
+    private static final int RECORD_LENGTH_OFFSET = 3;
+
+    /**
+     * Largest handshake message that fits in the synthetic record.
+     */
+    private static final int MAX_MESSAGE_LENGTH = 0xFFFF;
+
+    /**
+     * Initial size of the reassembly buffer.
+     */
+    private static final int INITIAL_BUFFER_LENGTH = 1024;
+
+    /**
+     * Number of bits in byte.
+     */
+    private static final int ONE_BYTE = 8;
+
+    /**
+     * Number of bits in 2 bytes.
+     */
+    private static final int TWO_BYTES = 16;
+
+    /**
+     * Byte bit mask.
+     */
+    private static final int BITMASK = 0xFF;
+
+    /**
+     * Largest handshake message reassembled, header included.
+     */
+    private final int maxReassembledLength;
+
+    /**
+     * Current state, one of {@link #NEED_MORE}, {@link #COMPLETE} or {@link #NOT_CLIENT_HELLO}.
+     */
+    private int state = NEED_MORE;
+
+    /**
+     * Header of the record being read.
+     */
+    private final byte[] header = new byte[RECORD_HEADER_LENGTH];
+
+    /**
+     * Number of header bytes read for the current record.
+     */
+    private int headerLength;
+
+    /**
+     * Payload bytes left to read in the current record.
+     */
+    private int recordRemaining;
+
+    /**
+     * Synthetic record: a record header followed by the handshake bytes collected so far. Allocated on the first fragmented read.
+     */
+    private byte[] buffer;
+
+    /**
+     * Number of bytes in use in {@link #buffer}, including the record header.
+     */
+    private int bufferLength;
+
+    /**
+     * The complete ClientHello record.
+     */
+    private ByteBuffer clientHello;
+
+    /**
+     * Reason why the state is {@link #NOT_CLIENT_HELLO}.
+     */
+    private ParseFailure failure;
+
+    /**
+     * Creates an accumulator that reassembles ClientHellos up to the 64 KiB bound of a synthetic record.
+     */
+    ClientHelloAccumulator() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates an accumulator.
+     *
+     * @param maxReassembledLength largest handshake message reassembled across records or reads, header included; larger ones are given up
+     *            as over budget as soon as their length is read, before being buffered
+     */
+    ClientHelloAccumulator(final int maxReassembledLength) {
+        this.maxReassembledLength = maxReassembledLength;
+    }
+
+    /**
+     * @return current state, one of {@link #NEED_MORE}, {@link #COMPLETE} or {@link #NOT_CLIENT_HELLO}
+     */
+    int state() {
+        return state;
+    }
+
+    /**
+     * @return the complete ClientHello as a single TLS record, or null until the state is {@link #COMPLETE}
+     */
+    ByteBuffer clientHello() {
+        return clientHello;
+    }
+
+    /**
+     * @return reason why the state is {@link #NOT_CLIENT_HELLO}, null in other states
+     */
+    ParseFailure failure() {
+        return failure;
+    }
+
+    /**
+     * @return true if the complete ClientHello was reassembled from several records or reads
+     */
+    boolean isReassembled() {
+        return buffer != null;
+    }
+
+    /**
+     * @return number of bytes of the reassembly buffer, 0 if none
+     */
+    int bufferedBytes() {
+        return buffer == null ? 0 : buffer.length;
+    }
+
+    /**
+     * Feed the next bytes of the inbound stream. The position of the source is not changed.
+     *
+     * @param src buffer holding the bytes
+     * @param start offset of the first byte
+     * @param end offset (exclusive) of the last byte
+     * @return the new state
+     */
+    int feed(final ByteBuffer src, final int start, final int end) {
+        if (state != NEED_MORE || start >= end) {
+            return state;
+        }
+        if (buffer == null && headerLength == 0 && isSingleRecordClientHello(src, start, end)) {
+            clientHello = src.duplicate();
+            clientHello.limit(end).position(start);
+            state = COMPLETE;
+            return state;
+        }
+
+        int off = start;
+        while (off < end && state == NEED_MORE) {
+            if (recordRemaining == 0) {
+                header[headerLength++] = src.get(off++);
+                if (headerLength == RECORD_HEADER_LENGTH) {
+                    headerLength = 0;
+                    recordRemaining = ((header[RECORD_LENGTH_OFFSET] & BITMASK) << ONE_BYTE) + (header[RECORD_LENGTH_OFFSET + 1] & BITMASK);
+                    if (header[0] != HANDSHAKE || recordRemaining == 0) {
+                        failure = header[0] != HANDSHAKE ? ParseFailure.NOT_HANDSHAKE : ParseFailure.UNDERFLOW;
+                        state = NOT_CLIENT_HELLO;
+                    }
+                }
+            } else {
+                final int n = Math.min(recordRemaining, end - off);
+                append(src, off, n);
+                off += n;
+                recordRemaining -= n;
+                state = checkMessage();
+            }
+        }
+        if (state == NOT_CLIENT_HELLO) {
+            buffer = null;
+        }
+        return state;
+    }
+
+    /**
+     * Check whether the given bytes start with a record that holds a complete ClientHello.
+     *
+     * @param src buffer holding the bytes
+     * @param start offset of the first byte
+     * @param end offset (exclusive) of the last byte
+     * @return true if the ClientHello can be parsed in place
+     */
+    private static boolean isSingleRecordClientHello(final ByteBuffer src, final int start, final int end) {
+        if (end - start < RECORD_HEADER_LENGTH + HANDSHAKE_HEADER_LENGTH || src.get(start) != HANDSHAKE
+                || src.get(start + RECORD_HEADER_LENGTH) != CLIENT_HELLO) {
+            return false;
+        }
+        final int recordLength = ((src.get(start + RECORD_LENGTH_OFFSET) & BITMASK) << ONE_BYTE)
+                + (src.get(start + RECORD_LENGTH_OFFSET + 1) & BITMASK);
+        final int messageLength = HANDSHAKE_HEADER_LENGTH + readUInt24(src, start + RECORD_HEADER_LENGTH + 1);
+        return messageLength <= recordLength && start + RECORD_HEADER_LENGTH + recordLength <= end;
+    }
+
+    /**
+     * Append handshake bytes to the reassembly buffer.
+     *
+     * @param src buffer holding the bytes
+     * @param off offset of the first byte
+     * @param length number of bytes
+     */
+    private void append(final ByteBuffer src, final int off, final int length) {
+        if (buffer == null) {
+            buffer = new byte[INITIAL_BUFFER_LENGTH];
+            bufferLength = RECORD_HEADER_LENGTH;
+        }
+        if (bufferLength + length > buffer.length) {
+            final byte[] grown = new byte[Math.min(Math.max(buffer.length * 2, bufferLength + length), RECORD_HEADER_LENGTH + MAX_MESSAGE_LENGTH)];
+            System.arraycopy(buffer, 0, grown, 0, bufferLength);
+            buffer = grown;
+        }
+        final int n = Math.min(length, buffer.length - bufferLength);
+        for (int i = 0; i < n; i++) {
+            buffer[bufferLength + i] = src.get(off + i);
+        }
+        bufferLength += n;
+    }
+
+    /**
+     * Check the reassembled handshake bytes.
+     *
+     * @return the new state
+     */
+    private int checkMessage() {
+        final int collected = bufferLength - RECORD_HEADER_LENGTH;
+        if (buffer[RECORD_HEADER_LENGTH] != CLIENT_HELLO) {
+            failure = ParseFailure.NOT_CLIENT_HELLO;
+            return NOT_CLIENT_HELLO;
+        }
+        if (collected < HANDSHAKE_HEADER_LENGTH) {
+            return NEED_MORE;
+        }
+        final int lengthOffset = RECORD_HEADER_LENGTH + 1;
+        final int messageLength = HANDSHAKE_HEADER_LENGTH + ((buffer[lengthOffset] & BITMASK) << TWO_BYTES)
+                + ((buffer[lengthOffset + 1] & BITMASK) << ONE_BYTE) + (buffer[lengthOffset + 2] & BITMASK);
+        if (messageLength > MAX_MESSAGE_LENGTH) {
+            failure = ParseFailure.TOO_LARGE;
+            return NOT_CLIENT_HELLO;
+        }
+        if (messageLength > maxReassembledLength) {
+            failure = ParseFailure.OVER_BUDGET;
+            return NOT_CLIENT_HELLO;
+        }
+        if (collected < messageLength) {
+            return NEED_MORE;
+        }
+        buffer[0] = HANDSHAKE;
+        buffer[1] = header[1];
+        buffer[2] = header[2];
+        buffer[RECORD_LENGTH_OFFSET] = (byte) (messageLength >> ONE_BYTE);
+        buffer[RECORD_LENGTH_OFFSET + 1] = (byte) messageLength;
+        clientHello = ByteBuffer.wrap(buffer, 0, RECORD_HEADER_LENGTH + messageLength);
+        return COMPLETE;
+    }
+
+    /**
+     * Read unsigned 24-bit integer from a network byte ordered buffer.
+     *
+     * @param src buffer to read from
+     * @param off offset of the integer
+     * @return the integer
+     */
+    private static int readUInt24(final ByteBuffer src, final int off) {
+        return ((src.get(off) & BITMASK) << TWO_BYTES) + ((src.get(off + 1) & BITMASK) << ONE_BYTE) + (src.get(off + 2) & BITMASK);
+    }
+}
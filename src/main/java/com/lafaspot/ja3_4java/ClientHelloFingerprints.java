@@ -0,0 +1,118 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+/**
+ * Fingerprints of a ClientHello computed by {@link JA3Signature#fingerprints(java.nio.ByteBuffer, java.util.Set, ClientHelloFingerprints)}.
+ * Fingerprints that were not asked for are null. Instances can be reused across calls.
+ */
+public final class ClientHelloFingerprints {
+    /**
+     * JA3 string.
+     */
+    private String ja3;
+
+    /**
+     * JA3 MD5 hash.
+     */
+    private JA3Fingerprint ja3Hash;
+
+    /**
+     * Normalized JA3 string.
+     */
+    private String ja3n;
+
+    /**
+     * Normalized JA3 MD5 hash.
+     */
+    private JA3Fingerprint ja3nHash;
+
+    /**
+     * JA4 fingerprint.
+     */
+    private String ja4;
+
+    /**
+     * @return JA3 string, or null if not computed
+     */
+    public String getJa3() {
+        return ja3;
+    }
+
+    /**
+     * @return JA3 MD5 hash, or null if not computed
+     */
+    public JA3Fingerprint getJa3Hash() {
+        return ja3Hash;
+    }
+
+    /**
+     * @return normalized JA3 string, or null if not computed
+     */
+    public String getJa3n() {
+        return ja3n;
+    }
+
+    /**
+     * @return normalized JA3 MD5 hash, or null if not computed
+     */
+    public JA3Fingerprint getJa3nHash() {
+        return ja3nHash;
+    }
+
+    /**
+     * @return JA4 fingerprint, or null if not computed
+     */
+    public String getJa4() {
+        return ja4;
+    }
+
+    /**
+     * @param ja3 JA3 string
+     */
+    void setJa3(final String ja3) {
+        this.ja3 = ja3;
+    }
+
+    /**
+     * @param ja3Hash JA3 MD5 hash
+     */
+    void setJa3Hash(final JA3Fingerprint ja3Hash) {
+        this.ja3Hash = ja3Hash;
+    }
+
+    /**
+     * @param ja3n normalized JA3 string
+     */
+    void setJa3n(final String ja3n) {
+        this.ja3n = ja3n;
+    }
+
+    /**
+     * @param ja3nHash normalized JA3 MD5 hash
+     */
+    void setJa3nHash(final JA3Fingerprint ja3nHash) {
+        this.ja3nHash = ja3nHash;
+    }
+
+    /**
+     * @param ja4 JA4 fingerprint
+     */
+    void setJa4(final String ja4) {
+        this.ja4 = ja4;
+    }
+
+    /**
+     * Reset all fingerprints to null.
+     */
+    void clear() {
+        ja3 = null;
+        ja3Hash = null;
+        ja3n = null;
+        ja3nHash = null;
+        ja4 = null;
+    }
+}
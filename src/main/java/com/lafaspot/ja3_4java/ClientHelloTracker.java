@@ -0,0 +1,248 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Per-connection fingerprinting of the start of an inbound stream, shared by {@link JA3SSLEngineWrapper} and {@link JA3SniffingHandler}: it
+ * collects the ClientHello, fingerprints it, checks it against the filters, and feeds the metrics, the heavy hitters tracker, the registry, the
+ * events and the log as set in the configuration.
+ */
+final class ClientHelloTracker {
+    /**
+     * Options of the connection.
+     */
+    private final JA3Configuration configuration;
+
+    /**
+     * Per-thread parsers.
+     */
+    private final ThreadLocal<JA3Signature> signatures;
+
+    /**
+     * Collects the ClientHello from the inbound stream, null once done.
+     */
+    private ClientHelloAccumulator accumulator;
+
+    /**
+     * Fingerprints of the ClientHello, null until it has been parsed.
+     */
+    private ClientHelloFingerprints fingerprints;
+
+    /**
+     * JA3 signature in lazy mode.
+     */
+    private JA3LazySignature lazySignature;
+
+    /**
+     * Entry of the fingerprint in the registry of the configuration, referenced until released, or null.
+     */
+    private JA3FingerprintRegistry.Entry registryEntry;
+
+    /**
+     * JA3 hash published in the event and the log, kept before the filters drop it, or null without either or once logged.
+     */
+    private JA3Fingerprint reportedHash;
+
+    /**
+     * Server name published in the event, or null.
+     */
+    private String serverName;
+
+    /**
+     * True if the handshake is rejected.
+     */
+    private boolean rejected;
+
+    /**
+     * Creates a tracker.
+     *
+     * @param configuration options of the connection
+     * @param signatures per-thread parsers
+     */
+    ClientHelloTracker(final JA3Configuration configuration, final ThreadLocal<JA3Signature> signatures) {
+        this.configuration = configuration;
+        this.signatures = signatures;
+        this.accumulator = new ClientHelloAccumulator(configuration.getParseLimits().getMaxReassembledLength());
+    }
+
+    /**
+     * Feed the next bytes of the inbound stream, fingerprinting the ClientHello once complete. Bytes fed once done are ignored.
+     *
+     * @param src buffer holding the bytes
+     * @param start offset of the first byte
+     * @param end offset (exclusive) of the last byte
+     * @return true once done: the ClientHello was parsed, or the stream does not start with one
+     */
+    boolean feed(final ByteBuffer src, final int start, final int end) {
+        if (accumulator == null) {
+            return true;
+        }
+        final int state = accumulator.feed(src, start, end);
+        if (state == ClientHelloAccumulator.NEED_MORE) {
+            return false;
+        }
+        final JA3Metrics metrics = configuration.getMetrics();
+        if (state == ClientHelloAccumulator.COMPLETE) {
+            complete(metrics);
+        } else {
+            failed(accumulator.failure(), metrics);
+        }
+        accumulator = null;
+        return true;
+    }
+
+    /**
+     * Fingerprint the complete ClientHello and check it against the filters.
+     *
+     * @param metrics metrics to record to, or null
+     */
+    private void complete(final JA3Metrics metrics) {
+        final long begin = metrics == null ? 0 : System.nanoTime();
+        final JA3Signature signature = signatures.get();
+        final ClientHelloFingerprints found = new ClientHelloFingerprints();
+        if (!signature.fingerprints(accumulator.clientHello(), configuration.computedFingerprints(), configuration.getParseLimits(), found)) {
+            failed(signature.lastFailure(), metrics);
+            return;
+        }
+        if (configuration.isLazyJA3()) {
+            lazySignature = new JA3LazySignature(signature.lastKey(), signatures);
+        }
+        if (metrics != null) {
+            metrics.fingerprinted(System.nanoTime() - begin, accumulator.isReassembled());
+        }
+        final JA3HeavyHitters heavyHitters = configuration.getHeavyHitters();
+        if (heavyHitters != null) {
+            heavyHitters.add(found.getJa3Hash());
+        }
+        final JA3FingerprintRegistry registry = configuration.getRegistry();
+        if (registry != null) {
+            registryEntry = registry.register(found.getJa3Hash(), found.getJa3());
+            if (registryEntry != null) {
+                found.setJa3Hash(registryEntry.getJa3Hash());
+                if (found.getJa3() != null && registryEntry.getJa3() != null) {
+                    found.setJa3(registryEntry.getJa3());
+                }
+            }
+        }
+        if (configuration.getEvents() != null) {
+            reportedHash = found.getJa3Hash();
+            serverName = signature.lastServerName();
+        }
+        if (configuration.getLog() != null) {
+            reportedHash = found.getJa3Hash();
+        }
+        if (!configuration.accept(found)) {
+            rejected = true;
+            if (metrics != null) {
+                metrics.rejected();
+            }
+        }
+        fingerprints = found;
+    }
+
+    /**
+     * Record a ClientHello that could not be fingerprinted, rejecting the handshake if it was over budget and the configuration says so.
+     *
+     * @param reason reason of the failure
+     * @param metrics metrics to record to, or null
+     */
+    private void failed(final ParseFailure reason, final JA3Metrics metrics) {
+        if (metrics != null) {
+            metrics.failed(reason);
+        }
+        if (reason == ParseFailure.OVER_BUDGET && configuration.isRejectOverBudget()) {
+            rejected = true;
+            if (metrics != null) {
+                metrics.rejected();
+            }
+        }
+    }
+
+    /**
+     * Publish the event of the fingerprinted ClientHello to the publisher of the configuration, if any. Called once done, by the owner of the
+     * tracker that knows the address of the client.
+     *
+     * @param peerHost host of the client, or null if unknown
+     * @param peerPort port of the client, or -1 if unknown
+     */
+    void publish(final String peerHost, final int peerPort) {
+        final JA3EventPublisher events = configuration.getEvents();
+        if (events != null && reportedHash != null) {
+            events.offer(new JA3Event(peerHost, peerPort, serverName, reportedHash, fingerprints.getJa3(), fingerprints.getJa4(), rejected));
+        }
+    }
+
+    /**
+     * Append the record of the fingerprinted ClientHello to the log of the configuration, if any, once per connection. Called once done, by
+     * the owner of the tracker that knows the address of the client and the ServerHello.
+     *
+     * @param peerHost host of the client, or null if unknown
+     * @param peerPort port of the client, or -1 if unknown
+     * @param ja3sHash JA3S hash of the ServerHello, or null if unknown
+     */
+    void log(final String peerHost, final int peerPort, final JA3Fingerprint ja3sHash) {
+        final JA3FingerprintLog log = configuration.getLog();
+        if (log != null && reportedHash != null) {
+            log.append(peerHost, peerPort, reportedHash, ja3sHash, rejected);
+            reportedHash = null;
+        }
+    }
+
+    /**
+     * Drop the values of the ClientHello once the owner of the tracker has copied them to the connection and published the event, so that a
+     * long-lived connection only keeps its session values. The reference to the registry entry is given back, the connection holds its own.
+     * The hash is kept until it is logged.
+     */
+    void release() {
+        fingerprints = null;
+        lazySignature = null;
+        if (registryEntry != null) {
+            registryEntry.release();
+            registryEntry = null;
+        }
+        serverName = null;
+        if (configuration.getLog() == null) {
+            reportedHash = null;
+        }
+    }
+
+    /**
+     * @return true once the ClientHello was parsed, or the stream turned out not to start with one
+     */
+    boolean isDone() {
+        return accumulator == null;
+    }
+
+    /**
+     * @return fingerprints of the ClientHello, null if none was parsed or once released
+     */
+    ClientHelloFingerprints fingerprints() {
+        return fingerprints;
+    }
+
+    /**
+     * @return JA3 signature in lazy mode, null otherwise
+     */
+    JA3LazySignature lazySignature() {
+        return lazySignature;
+    }
+
+    /**
+     * @return entry of the fingerprint in the registry of the configuration, null if there is none or it is full
+     */
+    JA3FingerprintRegistry.Entry registryEntry() {
+        return registryEntry;
+    }
+
+    /**
+     * @return true if a filter rejected the handshake, or the ClientHello was over budget with {@link JA3Configuration#isRejectOverBudget()}
+     */
+    boolean isRejected() {
+        return rejected;
+    }
+}
@@ -0,0 +1,936 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reusable flyweight view of the fields of a TLS ClientHello record. {@link #wrap(ByteBuffer)} walks the record once, checking every length
+ * against its enclosing structure, and indexes the offsets of the fields; the accessors then read the values straight from the buffer. Nothing
+ * is copied and, apart from the slice accessors, nothing is allocated.
+ * <p>
+ * Heap buffers are read straight from their backing array, and big-endian direct buffers with one {@link ByteBuffer#getShort(int)} per 16-bit
+ * value; other buffers, such as read-only ones, go through {@link ByteBuffer#get(int)}. All three give the same results.
+ * <p>
+ * A view is only valid while its buffer is not modified, until the next call to {@link #wrap(ByteBuffer)}. Instances are not thread safe.
+ *
+ * <pre>
+ * &#064;code
+ * {
+ *     ClientHelloView view = new ClientHelloView();
+ *     if (view.wrap(packet)) {
+ *         for (int i = 0; i &lt; view.cipherCount(); i++) {
+ *             int cipher = view.cipherAt(i);
+ *         }
+ *     }
+ * }
+ * </pre>
+ */
+public final class ClientHelloView {
+    /**
+     * Handshake identifier.
+     */
+    static final byte HANDSHAKE = 22;
+
+    /**
+     * Client hello.
+     */
+    static final byte CLIENT_HELLO = 1;
+
+    /**
+     * Server name extension type.
+     */
+    static final int SERVER_NAME = 0x0000;
+
+    /**
+     * Supported groups (elliptic curves) extension type.
+     */
+    static final int SUPPORTED_GROUPS = 0x000a;
+
+    /**
+     * Elliptic curve point formats extension type.
+     */
+    static final int EC_POINT_FORMATS = 0x000b;
+
+    /**
+     * Signature algorithms extension type.
+     */
+    static final int SIGNATURE_ALGORITHMS = 0x000d;
+
+    /**
+     * Application layer protocol negotiation extension type.
+     */
+    static final int ALPN = 0x0010;
+
+    /**
+     * Supported versions extension type.
+     */
+    static final int SUPPORTED_VERSIONS = 0x002b;
+
+    /**
+     * Bytes in 16 bit unsigned integer.
+     */
+    static final int UINT16_LENGTH = 2;
+
+    /**
+     * Bytes in 24 bit unsigned integer.
+     */
+    static final int UINT24_LENGTH = 3;
+
+    /**
+     * Bytes used by an extension type and length header.
+     */
+    static final int EXTENSION_HEADER_LENGTH = 4;
+
+    /**
+     * Bytes used by a handshake message type and length header.
+     */
+    static final int HANDSHAKE_HEADER_LENGTH = 4;
+
+    /**
+     * Client hello random length.
+     */
+    static final int RANDOM_LENGTH = 32;
+
+    /**
+     * Minimum packet length to locate a handshake message.
+     */
+    private static final int MIN_PACKET_LENGTH = 4;
+
+    /**
+     * {@link #handshakeBody(ByteBuffer, byte)} result when the packet does not start with a handshake record.
+     */
+    static final int NOT_HANDSHAKE_RECORD = -1;
+
+    /**
+     * {@link #handshakeBody(ByteBuffer, byte)} result when the handshake message is not of the expected type.
+     */
+    static final int OTHER_HANDSHAKE_TYPE = -2;
+
+    /**
+     * {@link #handshakeBody(ByteBuffer, byte)} result when the record or handshake message is longer than the packet.
+     */
+    static final int TRUNCATED_HANDSHAKE = -3;
+
+    /**
+     * Number of bytes used to identify the SSL Version Length in payload.
+     */
+    private static final int SSL_VERSION_LENGTH = 3;
+
+    /**
+     * Host name type of a server name entry.
+     */
+    private static final int HOST_NAME = 0;
+
+    /**
+     * Bytes used by a server name entry header: the name type and the name length.
+     */
+    private static final int SERVER_NAME_HEADER_LENGTH = 3;
+
+    /**
+     * Initial size of the offset indexes, large enough for most ClientHellos.
+     */
+    private static final int INITIAL_INDEX_LENGTH = 32;
+
+    /**
+     * Number of bits in byte.
+     */
+    private static final int ONE_BYTE = 8;
+
+    /**
+     * Number of bits in 2 bytes.
+     */
+    private static final int TWO_BYTES = 16;
+
+    /**
+     * Byte bit mask.
+     */
+    private static final int BITMASK = 0xFF;
+
+    /**
+     * Unsigned 16-bit integer mask.
+     */
+    private static final int UINT16_MASK = 0xFFFF;
+
+    /**
+     * Buffer holding the ClientHello, null when the view is not valid.
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * Array backing the buffer, null if it has none that is accessible.
+     */
+    private byte[] array;
+
+    /**
+     * Index in {@link #array} of the byte at offset 0 of the buffer.
+     */
+    private int arrayOffset;
+
+    /**
+     * True if the buffer has no accessible array and reads 16-bit values in network order.
+     */
+    private boolean bigEndian;
+
+    /**
+     * Legacy client version.
+     */
+    private int legacyVersion;
+
+    /**
+     * Offset of the cipher suite list.
+     */
+    private int ciphersOffset;
+
+    /**
+     * Number of cipher suites.
+     */
+    private int cipherCount;
+
+    /**
+     * Offset of the first extension header.
+     */
+    private int extensionsOffset;
+
+    /**
+     * End offset (exclusive) of the extensions.
+     */
+    private int extensionsEnd;
+
+    /**
+     * Number of extensions.
+     */
+    private int extensionCount;
+
+    /**
+     * Offset of the header of each extension.
+     */
+    private int[] extensionOffsets = new int[INITIAL_INDEX_LENGTH];
+
+    /**
+     * Offset of the supported groups list.
+     */
+    private int supportedGroupsOffset;
+
+    /**
+     * Number of supported groups.
+     */
+    private int supportedGroupCount;
+
+    /**
+     * Offset of the point formats list.
+     */
+    private int ecPointFormatsOffset;
+
+    /**
+     * Number of point formats.
+     */
+    private int ecPointFormatCount;
+
+    /**
+     * True if the ClientHello has a server name extension.
+     */
+    private boolean serverName;
+
+    /**
+     * Offset of the first host name of the server name extension.
+     */
+    private int serverNameOffset;
+
+    /**
+     * Length of the first host name of the server name extension, or -1 without one.
+     */
+    private int serverNameLength;
+
+    /**
+     * Number of ALPN protocols.
+     */
+    private int alpnCount;
+
+    /**
+     * Offset of the length byte of each ALPN protocol.
+     */
+    private int[] alpnOffsets = new int[INITIAL_INDEX_LENGTH];
+
+    /**
+     * Offset of the supported versions list.
+     */
+    private int supportedVersionsOffset;
+
+    /**
+     * Number of supported versions.
+     */
+    private int supportedVersionCount;
+
+    /**
+     * Offset of the signature algorithms list.
+     */
+    private int signatureAlgorithmsOffset;
+
+    /**
+     * Number of signature algorithms.
+     */
+    private int signatureAlgorithmCount;
+
+    /**
+     * Reason why the last call to {@link #wrap(ByteBuffer)} failed, null if it succeeded.
+     */
+    private ParseFailure failure;
+
+    /**
+     * Limits of the last call to {@link #wrap(ByteBuffer, JA3ParseLimits)}.
+     */
+    private JA3ParseLimits limits = JA3ParseLimits.UNLIMITED;
+
+    /**
+     * Index the ClientHello at the position of a buffer. The position and limit of the buffer are not changed.
+     * <p>
+     * The record header, handshake header, cipher suite, supported groups and point formats lengths must be consistent for the ClientHello to
+     * be accepted. Malformed server name, ALPN, supported versions or signature algorithms extensions are treated as empty.
+     *
+     * @param packet buffer starting with a TLS record
+     * @return true if the buffer holds a ClientHello, false otherwise in which case the view is not valid
+     */
+    public boolean wrap(final ByteBuffer packet) {
+        return wrap(packet, JA3ParseLimits.UNLIMITED);
+    }
+
+    /**
+     * Index the ClientHello at the position of a buffer, giving up on ClientHellos beyond the limits before walking their lists.
+     *
+     * @param packet buffer starting with a TLS record
+     * @param parseLimits bounds on the size of the ClientHello and on the number of cipher suites and extensions
+     * @return true if the buffer holds a ClientHello within the limits, false otherwise in which case the view is not valid
+     * @see #isOverBudget()
+     */
+    public boolean wrap(final ByteBuffer packet, final JA3ParseLimits parseLimits) {
+        limits = parseLimits;
+        buffer = null;
+        failure = null;
+        if (packet.remaining() < MIN_PACKET_LENGTH) {
+            failure = ParseFailure.UNDERFLOW;
+            return false;
+        }
+        if (packet.hasArray()) {
+            array = packet.array();
+            arrayOffset = packet.arrayOffset();
+            bigEndian = false;
+        } else {
+            array = null;
+            arrayOffset = 0;
+            bigEndian = packet.order() == ByteOrder.BIG_ENDIAN;
+        }
+        buffer = packet;
+        try {
+            if (!index(packet)) {
+                buffer = null;
+                return false;
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            buffer = null;
+            failure = ParseFailure.UNDERFLOW;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return reason why the last call to {@link #wrap(ByteBuffer)} failed, null if it succeeded
+     */
+    ParseFailure failure() {
+        return failure;
+    }
+
+    /**
+     * @return true if the last call to {@link #wrap(ByteBuffer, JA3ParseLimits)} gave up on a ClientHello beyond the limits
+     */
+    public boolean isOverBudget() {
+        return failure == ParseFailure.OVER_BUDGET;
+    }
+
+    /**
+     * @return true if the last call to {@link #wrap(ByteBuffer)} found a ClientHello
+     */
+    public boolean isValid() {
+        return buffer != null;
+    }
+
+    /**
+     * @return buffer holding the ClientHello, the offsets returned by this view are absolute indexes in it
+     */
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    /**
+     * @return legacy client version, such as 0x0303 for TLS 1.2
+     */
+    public int legacyVersion() {
+        return legacyVersion;
+    }
+
+    /**
+     * @return number of cipher suites, including GREASE values
+     */
+    public int cipherCount() {
+        return cipherCount;
+    }
+
+    /**
+     * @param index index of the cipher suite
+     * @return cipher suite
+     * @throws IndexOutOfBoundsException when the index is not below {@link #cipherCount()}
+     */
+    public int cipherAt(final int index) throws IndexOutOfBoundsException {
+        return readUInt16(ciphersOffset, index, cipherCount);
+    }
+
+    /**
+     * @return number of extensions, including GREASE values
+     */
+    public int extensionCount() {
+        return extensionCount;
+    }
+
+    /**
+     * @param index index of the extension
+     * @return extension type
+     * @throws IndexOutOfBoundsException when the index is not below {@link #extensionCount()}
+     */
+    public int extensionTypeAt(final int index) throws IndexOutOfBoundsException {
+        return u16(extensionOffsets[checkIndex(index, extensionCount)]);
+    }
+
+    /**
+     * @param index index of the extension
+     * @return offset of the extension data in {@link #buffer()}
+     * @throws IndexOutOfBoundsException when the index is not below {@link #extensionCount()}
+     */
+    public int extensionDataOffset(final int index) throws IndexOutOfBoundsException {
+        return extensionOffsets[checkIndex(index, extensionCount)] + EXTENSION_HEADER_LENGTH;
+    }
+
+    /**
+     * @param index index of the extension
+     * @return length of the extension data, truncated to the end of the ClientHello
+     * @throws IndexOutOfBoundsException when the index is not below {@link #extensionCount()}
+     */
+    public int extensionDataLength(final int index) throws IndexOutOfBoundsException {
+        final int offset = extensionOffsets[checkIndex(index, extensionCount)];
+        return Math.min(u16(offset + UINT16_LENGTH), extensionsEnd - offset - EXTENSION_HEADER_LENGTH);
+    }
+
+    /**
+     * @return number of supported groups (elliptic curves), including GREASE values
+     */
+    public int supportedGroupCount() {
+        return supportedGroupCount;
+    }
+
+    /**
+     * @param index index of the group
+     * @return named group
+     * @throws IndexOutOfBoundsException when the index is not below {@link #supportedGroupCount()}
+     */
+    public int supportedGroupAt(final int index) throws IndexOutOfBoundsException {
+        return readUInt16(supportedGroupsOffset, index, supportedGroupCount);
+    }
+
+    /**
+     * @return number of elliptic curve point formats
+     */
+    public int ecPointFormatCount() {
+        return ecPointFormatCount;
+    }
+
+    /**
+     * @param index index of the point format
+     * @return point format
+     * @throws IndexOutOfBoundsException when the index is not below {@link #ecPointFormatCount()}
+     */
+    public int ecPointFormatAt(final int index) throws IndexOutOfBoundsException {
+        return u8(ecPointFormatsOffset + checkIndex(index, ecPointFormatCount));
+    }
+
+    /**
+     * @return true if the ClientHello has a server name extension, even one without a host name
+     */
+    public boolean hasServerName() {
+        return serverName;
+    }
+
+    /**
+     * @return offset of the first host name of the server name extension in {@link #buffer()}
+     */
+    public int serverNameOffset() {
+        return serverNameOffset;
+    }
+
+    /**
+     * @return length of the first host name of the server name extension, or -1 without one
+     */
+    public int serverNameLength() {
+        return serverNameLength;
+    }
+
+    /**
+     * @return a slice of the buffer holding the ASCII bytes of the first host name, or null without one
+     */
+    public ByteBuffer sniBytes() {
+        return serverNameLength < 0 ? null : slice(serverNameOffset, serverNameLength);
+    }
+
+    /**
+     * @return number of ALPN protocols
+     */
+    public int alpnCount() {
+        return alpnCount;
+    }
+
+    /**
+     * @param index index of the protocol
+     * @return offset of the protocol name in {@link #buffer()}
+     * @throws IndexOutOfBoundsException when the index is not below {@link #alpnCount()}
+     */
+    public int alpnOffset(final int index) throws IndexOutOfBoundsException {
+        return alpnOffsets[checkIndex(index, alpnCount)] + 1;
+    }
+
+    /**
+     * @param index index of the protocol
+     * @return length of the protocol name
+     * @throws IndexOutOfBoundsException when the index is not below {@link #alpnCount()}
+     */
+    public int alpnLength(final int index) throws IndexOutOfBoundsException {
+        return u8(alpnOffsets[checkIndex(index, alpnCount)]);
+    }
+
+    /**
+     * @param index index of the protocol
+     * @return a slice of the buffer holding the protocol name
+     * @throws IndexOutOfBoundsException when the index is not below {@link #alpnCount()}
+     */
+    public ByteBuffer alpnBytes(final int index) throws IndexOutOfBoundsException {
+        return slice(alpnOffset(index), alpnLength(index));
+    }
+
+    /**
+     * @return number of versions of the supported versions extension, including GREASE values
+     */
+    public int supportedVersionCount() {
+        return supportedVersionCount;
+    }
+
+    /**
+     * @param index index of the version
+     * @return supported version
+     * @throws IndexOutOfBoundsException when the index is not below {@link #supportedVersionCount()}
+     */
+    public int supportedVersionAt(final int index) throws IndexOutOfBoundsException {
+        return readUInt16(supportedVersionsOffset, index, supportedVersionCount);
+    }
+
+    /**
+     * @return number of signature algorithms
+     */
+    public int signatureAlgorithmCount() {
+        return signatureAlgorithmCount;
+    }
+
+    /**
+     * @param index index of the signature algorithm
+     * @return signature scheme
+     * @throws IndexOutOfBoundsException when the index is not below {@link #signatureAlgorithmCount()}
+     */
+    public int signatureAlgorithmAt(final int index) throws IndexOutOfBoundsException {
+        return readUInt16(signatureAlgorithmsOffset, index, signatureAlgorithmCount);
+    }
+
+    /**
+     * Walk the ClientHello and index its fields.
+     *
+     * @param packet buffer starting with a TLS record
+     * @return true if the buffer holds a ClientHello
+     * @throws BufferUnderflowException when a field does not fit in the ClientHello
+     */
+    private boolean index(final ByteBuffer packet) {
+        int off = handshakeBody(packet, CLIENT_HELLO);
+        if (off < 0) {
+            failure = off == NOT_HANDSHAKE_RECORD ? ParseFailure.NOT_HANDSHAKE
+                    : off == OTHER_HANDSHAKE_TYPE ? ParseFailure.NOT_CLIENT_HELLO : ParseFailure.UNDERFLOW;
+            return false;
+        }
+        final int end = handshakeBodyEnd(packet, off);
+        if (end - off + HANDSHAKE_HEADER_LENGTH > limits.getMaxBytes()) {
+            failure = ParseFailure.OVER_BUDGET;
+            return false;
+        }
+
+        legacyVersion = checkedU16(off, end);
+        off += UINT16_LENGTH + RANDOM_LENGTH;
+        off += checkedU8(off, end) + 1; // Skip Session ID
+
+        final int cipherSuiteLength = checkedU16(off, end);
+        off += UINT16_LENGTH;
+        if (cipherSuiteLength % 2 != 0) {
+            failure = ParseFailure.ODD_CIPHER_LENGTH; // invalid packet, cipher suite length must always be even
+            return false;
+        }
+        if (off + cipherSuiteLength > end) {
+            failure = ParseFailure.UNDERFLOW;
+            return false;
+        }
+        if (cipherSuiteLength / UINT16_LENGTH > limits.getMaxCiphers()) {
+            failure = ParseFailure.OVER_BUDGET;
+            return false;
+        }
+        ciphersOffset = off;
+        cipherCount = cipherSuiteLength / UINT16_LENGTH;
+        off += cipherSuiteLength;
+
+        off += checkedU8(off, end) + SSL_VERSION_LENGTH; // Skip Compression Methods and length of extensions
+        extensionsOffset = off;
+        extensionsEnd = Math.max(off, end);
+        if (!indexExtensions(end)) {
+            if (failure == null) {
+                failure = ParseFailure.MALFORMED_EXTENSION;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Index the extensions of the ClientHello.
+     *
+     * @param end end offset (exclusive) of the ClientHello
+     * @return true if the extensions are well formed and within the limits, false otherwise
+     * @throws BufferUnderflowException when an extension header or list does not fit in the ClientHello
+     */
+    private boolean indexExtensions(final int end) {
+        extensionCount = 0;
+        supportedGroupCount = 0;
+        ecPointFormatCount = 0;
+        serverName = false;
+        serverNameLength = -1;
+        alpnCount = 0;
+        supportedVersionCount = 0;
+        signatureAlgorithmCount = 0;
+        int offset = extensionsOffset;
+        while (offset < end) {
+            final int extensionType = checkedU16(offset, end);
+            final int extensionLength = checkedU16(offset + UINT16_LENGTH, end);
+            if (extensionCount == limits.getMaxExtensions()) {
+                failure = ParseFailure.OVER_BUDGET;
+                return false;
+            }
+            if (extensionCount == extensionOffsets.length) {
+                extensionOffsets = grow(extensionOffsets);
+            }
+            extensionOffsets[extensionCount++] = offset;
+            offset += EXTENSION_HEADER_LENGTH;
+
+            if (extensionType == SUPPORTED_GROUPS) {
+                final int groupListLength = checkedU16(offset, end);
+                if (groupListLength % 2 != 0 || offset + UINT16_LENGTH + groupListLength > end) {
+                    return false;
+                }
+                supportedGroupsOffset = offset + UINT16_LENGTH;
+                supportedGroupCount = groupListLength / UINT16_LENGTH;
+            } else if (extensionType == EC_POINT_FORMATS) {
+                final int formatListLength = checkedU8(offset, end);
+                if (offset + 1 + formatListLength > end) {
+                    return false;
+                }
+                ecPointFormatsOffset = offset + 1;
+                ecPointFormatCount = formatListLength;
+            } else {
+                indexOptionalExtension(extensionType, offset, Math.min(offset + extensionLength, end));
+            }
+
+            offset += extensionLength;
+        }
+        return true;
+    }
+
+    /**
+     * Index an extension that is not needed by JA3. Malformed extensions are treated as empty, so that they do not invalidate the view.
+     *
+     * @param extensionType type of the extension
+     * @param start start offset of the extension data
+     * @param end end offset (exclusive) of the extension data
+     */
+    private void indexOptionalExtension(final int extensionType, final int start, final int end) {
+        if (extensionType == SERVER_NAME) {
+            serverName = true;
+            final int entry = start + UINT16_LENGTH;
+            if (entry + SERVER_NAME_HEADER_LENGTH <= end && u8(entry) == HOST_NAME) {
+                final int nameLength = u16(entry + 1);
+                if (entry + SERVER_NAME_HEADER_LENGTH + nameLength <= end) {
+                    serverNameOffset = entry + SERVER_NAME_HEADER_LENGTH;
+                    serverNameLength = nameLength;
+                }
+            }
+        } else if (extensionType == ALPN) {
+            if (start + UINT16_LENGTH <= end) {
+                final int listEnd = Math.min(start + UINT16_LENGTH + u16(start), end);
+                int offset = start + UINT16_LENGTH;
+                while (offset < listEnd && offset + 1 + u8(offset) <= listEnd) {
+                    if (alpnCount == alpnOffsets.length) {
+                        alpnOffsets = grow(alpnOffsets);
+                    }
+                    alpnOffsets[alpnCount++] = offset;
+                    offset += 1 + u8(offset);
+                }
+            }
+        } else if (extensionType == SUPPORTED_VERSIONS) {
+            if (start < end && start + 1 + u8(start) <= end) {
+                supportedVersionsOffset = start + 1;
+                supportedVersionCount = u8(start) / UINT16_LENGTH;
+            }
+        } else if (extensionType == SIGNATURE_ALGORITHMS) {
+            if (start + UINT16_LENGTH <= end) {
+                final int listLength = u16(start) & ~1;
+                if (start + UINT16_LENGTH + listLength <= end) {
+                    signatureAlgorithmsOffset = start + UINT16_LENGTH;
+                    signatureAlgorithmCount = listLength / UINT16_LENGTH;
+                }
+            }
+        }
+    }
+
+    /**
+     * Read an entry of an indexed unsigned 16-bit integer list.
+     *
+     * @param offset offset of the list
+     * @param index index of the entry
+     * @param count number of entries in the list
+     * @return the entry
+     */
+    private int readUInt16(final int offset, final int index, final int count) {
+        return u16(offset + checkIndex(index, count) * UINT16_LENGTH);
+    }
+
+    /**
+     * Read an unsigned byte of the buffer, without bounds check against the ClientHello.
+     *
+     * @param offset offset of the byte
+     * @return unsigned byte
+     */
+    private int u8(final int offset) {
+        if (array != null) {
+            return array[arrayOffset + offset] & BITMASK;
+        }
+        return buffer.get(offset) & BITMASK;
+    }
+
+    /**
+     * Read a network byte ordered unsigned 16-bit integer of the buffer, without bounds check against the ClientHello.
+     *
+     * @param offset offset of the integer
+     * @return unsigned integer
+     */
+    private int u16(final int offset) {
+        if (array != null) {
+            final int i = arrayOffset + offset;
+            return ((array[i] & BITMASK) << ONE_BYTE) | (array[i + 1] & BITMASK);
+        }
+        if (bigEndian) {
+            return buffer.getShort(offset) & UINT16_MASK;
+        }
+        return uint16(buffer, offset);
+    }
+
+    /**
+     * Read an unsigned byte of the buffer.
+     *
+     * @param start offset of the byte
+     * @param end end offset (exclusive) of the enclosing structure
+     * @return unsigned byte
+     * @throws BufferUnderflowException when the byte is not before the end
+     */
+    private int checkedU8(final int start, final int end) {
+        if (start + 1 > end) {
+            throw new BufferUnderflowException();
+        }
+        return u8(start);
+    }
+
+    /**
+     * Read a network byte ordered unsigned 16-bit integer of the buffer.
+     *
+     * @param start offset of the integer
+     * @param end end offset (exclusive) of the enclosing structure
+     * @return unsigned integer
+     * @throws BufferUnderflowException when the integer does not end before the end
+     */
+    private int checkedU16(final int start, final int end) {
+        if (start + UINT16_LENGTH > end) {
+            throw new BufferUnderflowException();
+        }
+        return u16(start);
+    }
+
+    /**
+     * Create a slice of the buffer.
+     *
+     * @param offset offset of the slice
+     * @param length length of the slice
+     * @return the slice
+     */
+    private ByteBuffer slice(final int offset, final int length) {
+        final ByteBuffer slice = buffer.duplicate();
+        slice.limit(offset + length).position(offset);
+        return slice.slice();
+    }
+
+    /**
+     * Check an index against a count.
+     *
+     * @param index index to check
+     * @param count number of entries
+     * @return the index
+     * @throws IndexOutOfBoundsException when the index is negative or not below the count
+     */
+    private static int checkIndex(final int index, final int count) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of " + count);
+        }
+        return index;
+    }
+
+    /**
+     * Double the size of an index.
+     *
+     * @param index index to grow
+     * @return the larger copy
+     */
+    private static int[] grow(final int[] index) {
+        final int[] grown = new int[index.length * 2];
+        System.arraycopy(index, 0, grown, 0, index.length);
+        return grown;
+    }
+
+    /**
+     * Locate the body of a handshake message at the start of a TLS record.
+     *
+     * @param packet packet to inspect
+     * @param type expected handshake type
+     * @return offset of the handshake body, or a negative value if the packet does not start with a complete handshake message of the given
+     *         type: {@link #NOT_HANDSHAKE_RECORD}, {@link #OTHER_HANDSHAKE_TYPE} or {@link #TRUNCATED_HANDSHAKE}
+     * @throws BufferUnderflowException when the headers do not fit in the packet
+     */
+    static int handshakeBody(final ByteBuffer packet, final byte type) {
+        int end = packet.remaining() + packet.position(); // non-inclusive
+        int off = packet.position();
+
+        final byte messageType = getByte(packet, off, end);
+        off += SSL_VERSION_LENGTH; // skip TLS Major/Minor
+
+        if (messageType != HANDSHAKE) {
+            return NOT_HANDSHAKE_RECORD;
+        }
+
+        final int length = getUInt16(packet, off, end);
+        off += UINT16_LENGTH;
+
+        if (end < off + length) {
+            return TRUNCATED_HANDSHAKE;
+        }
+        // ensure if TLS message length is smaller than packet length, we don't read over
+        end = off + length;
+
+        final byte handshakeType = getByte(packet, off, end);
+        off++;
+
+        if (handshakeType != type) {
+            return OTHER_HANDSHAKE_TYPE;
+        }
+
+        final int handshakeLength = getUInt24(packet, off, end);
+        off += UINT24_LENGTH;
+
+        if (end < off + handshakeLength) {
+            return TRUNCATED_HANDSHAKE;
+        }
+        return off;
+    }
+
+    /**
+     * @param packet packet holding the handshake message
+     * @param bodyOffset offset of the body as returned by {@link #handshakeBody(ByteBuffer, byte)}
+     * @return end offset (exclusive) of the handshake body
+     */
+    static int handshakeBodyEnd(final ByteBuffer packet, final int bodyOffset) {
+        final int lengthOffset = bodyOffset - UINT24_LENGTH;
+        return bodyOffset + getUInt24(packet, lengthOffset, bodyOffset);
+    }
+
+    /**
+     * Read unsigned 16-bit integer from a network byte ordered buffer, without bounds check.
+     *
+     * @param source buffer to read from
+     * @param start offset of the integer
+     * @return unsigned integer
+     */
+    static int uint16(final ByteBuffer source, final int start) {
+        return ((source.get(start) & BITMASK) << ONE_BYTE) + (source.get(start + 1) & BITMASK);
+    }
+
+    /**
+     * Read unsigned 24-bit integer from a network byte ordered buffer.
+     *
+     * @param source buffer to read from
+     * @param start start offset of integer in buffer
+     * @param end end offset of integer in buffer
+     * @return 24-bit integer from network
+     * @throws BufferUnderflowException when source buffer does not have enough bytes to read
+     */
+    static int getUInt24(final ByteBuffer source, final int start, final int end) {
+        if (start + UINT24_LENGTH > end) {
+            throw new BufferUnderflowException();
+        }
+
+        return ((source.get(start) & BITMASK) << TWO_BYTES)
+                + ((source.get(start + 1) & BITMASK) << ONE_BYTE) + (source.get(start + 2) & BITMASK);
+    }
+
+    /**
+     * Read unsigned 16-bit integer from a network byte ordered buffer.
+     *
+     * @param source buffer to read from
+     * @param start start offset of integer in buffer
+     * @param end end offset of integer in buffer
+     * @return unsigned integer
+     * @throws BufferUnderflowException when source buffer does not have enough bytes to read
+     */
+    static int getUInt16(final ByteBuffer source, final int start, final int end) {
+        if (start + UINT16_LENGTH > end) {
+            throw new BufferUnderflowException();
+        }
+
+        return uint16(source, start);
+    }
+
+    /**
+     * Read a single byte from a network byte ordered buffer.
+     *
+     * @param source buffer to read from
+     * @param start start offset of integer in buffer
+     * @param end end offset of integer in buffer
+     * @return a byte
+     * @throws BufferUnderflowException when source buffer does not have enough bytes to read
+     */
+    static byte getByte(final ByteBuffer source, final int start, final int end) {
+        if (start + 1 > end) {
+            throw new BufferUnderflowException();
+        }
+
+        return source.get(start);
+    }
+}
@@ -0,0 +1,39 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+/**
+ * Fingerprints that can be computed from a ClientHello in one pass.
+ *
+ * @see JA3Signature#fingerprints(java.nio.ByteBuffer, java.util.Set, ClientHelloFingerprints)
+ */
+public enum FingerprintType {
+    /**
+     * JA3 string, see https://github.com/salesforce/ja3.
+     */
+    JA3,
+
+    /**
+     * MD5 hash of the JA3 string.
+     */
+    JA3_HASH,
+
+    /**
+     * Normalized JA3 string: the JA3 string with the extension types sorted in ascending order, stable across connections of clients that
+     * randomize the order of their extensions.
+     */
+    JA3N,
+
+    /**
+     * MD5 hash of the normalized JA3 string.
+     */
+    JA3N_HASH,
+
+    /**
+     * JA4 fingerprint, see https://github.com/FoxIO-LLC/ja4.
+     */
+    JA4
+}
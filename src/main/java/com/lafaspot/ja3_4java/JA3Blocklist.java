@@ -0,0 +1,203 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Filter rejecting the handshakes whose JA3 hash is in a set of known bad digests, before the server does any key exchange work:
+ *
+ * <pre>
+ * JA3Blocklist blocklist = new JA3Blocklist();
+ * blocklist.reload(Paths.get("/etc/ja3/blocklist.txt"));
+ * JA3Configuration configuration = JA3Configuration.builder().filter(blocklist).build();
+ * </pre>
+ *
+ * The digests are held in an open addressing table of {@code long}s, two per digest, at most half full: a lookup reads one or two adjacent
+ * slots and allocates nothing. MD5 digests are uniformly distributed, so their low bits index the table as they are. The set can be
+ * replaced at any time with {@link #update(Collection)} or {@link #reload(Path)}; lookups in progress finish on the previous set, no lock
+ * is taken.
+ */
+public final class JA3Blocklist implements JA3HandshakeFilter {
+    /**
+     * Start of a comment line in a blocklist file.
+     */
+    private static final String COMMENT = "#";
+
+    /**
+     * Current set of digests, replaced as a whole on update.
+     */
+    private volatile Table table = new Table(Collections.<JA3Fingerprint>emptyList());
+
+    /**
+     * Creates an empty blocklist.
+     */
+    public JA3Blocklist() {
+    }
+
+    /**
+     * Creates a blocklist holding digests.
+     *
+     * @param digests JA3 hashes to reject
+     */
+    public JA3Blocklist(final Collection<JA3Fingerprint> digests) {
+        update(digests);
+    }
+
+    /**
+     * Replace the digests of the blocklist.
+     *
+     * @param digests JA3 hashes to reject
+     */
+    public void update(final Collection<JA3Fingerprint> digests) {
+        table = new Table(digests);
+    }
+
+    /**
+     * Replace the digests of the blocklist with those of a file holding one JA3 hash in hexadecimal per line. Blank lines and lines starting
+     * with {@code #} are ignored. The blocklist is left unchanged if the file cannot be read or parsed.
+     *
+     * @param file blocklist file
+     * @throws IOException when the file cannot be read
+     * @throws IllegalArgumentException when a line is not a JA3 hash
+     */
+    public void reload(final Path file) throws IOException, IllegalArgumentException {
+        final List<JA3Fingerprint> digests = new ArrayList<>();
+        for (final String line : Files.readAllLines(file, StandardCharsets.US_ASCII)) {
+            final String trimmed = line.trim();
+            if (!trimmed.isEmpty() && !trimmed.startsWith(COMMENT)) {
+                digests.add(JA3Fingerprint.fromHex(trimmed));
+            }
+        }
+        update(digests);
+    }
+
+    /**
+     * @param digest JA3 hash
+     * @return true if the digest is in the blocklist
+     */
+    public boolean contains(final JA3Fingerprint digest) {
+        return table.contains(digest.getHigh(), digest.getLow());
+    }
+
+    /**
+     * @return number of digests in the blocklist
+     */
+    public int size() {
+        return table.size;
+    }
+
+    @Override
+    public boolean accept(final ClientHelloFingerprints fingerprints) {
+        final JA3Fingerprint digest = fingerprints.getJa3Hash();
+        return digest == null || !contains(digest);
+    }
+
+    /**
+     * Immutable open addressing set of 128-bit digests with linear probing. The all zero digest marks empty slots and is tracked apart.
+     */
+    private static final class Table {
+        /**
+         * High and low halves of the digests, two slots per entry.
+         */
+        private final long[] slots;
+
+        /**
+         * Mask of the entry index, the number of entries minus one.
+         */
+        private final int mask;
+
+        /**
+         * Number of digests in the set.
+         */
+        private final int size;
+
+        /**
+         * True if the all zero digest is in the set.
+         */
+        private final boolean zero;
+
+        /**
+         * Creates a set.
+         *
+         * @param digests digests of the set, duplicates allowed
+         */
+        Table(final Collection<JA3Fingerprint> digests) {
+            int entries = 2;
+            while (entries < 2 * digests.size()) {
+                entries <<= 1;
+            }
+            this.slots = new long[2 * entries];
+            this.mask = entries - 1;
+            int count = 0;
+            boolean hasZero = false;
+            for (final JA3Fingerprint digest : digests) {
+                final long high = digest.getHigh();
+                final long low = digest.getLow();
+                if (high == 0 && low == 0) {
+                    if (!hasZero) {
+                        hasZero = true;
+                        count++;
+                    }
+                } else if (insert(high, low)) {
+                    count++;
+                }
+            }
+            this.size = count;
+            this.zero = hasZero;
+        }
+
+        /**
+         * Add a non zero digest while the set is built.
+         *
+         * @param high high half of the digest
+         * @param low low half of the digest
+         * @return false if the digest was already there
+         */
+        private boolean insert(final long high, final long low) {
+            int i = (int) low & mask;
+            while (slots[2 * i] != 0 || slots[2 * i + 1] != 0) {
+                if (slots[2 * i] == high && slots[2 * i + 1] == low) {
+                    return false;
+                }
+                i = (i + 1) & mask;
+            }
+            slots[2 * i] = high;
+            slots[2 * i + 1] = low;
+            return true;
+        }
+
+        /**
+         * @param high high half of the digest
+         * @param low low half of the digest
+         * @return true if the digest is in the set
+         */
+        boolean contains(final long high, final long low) {
+            if (high == 0 && low == 0) {
+                return zero;
+            }
+            int i = (int) low & mask;
+            while (true) {
+                final long h = slots[2 * i];
+                final long l = slots[2 * i + 1];
+                if (h == high && l == low) {
+                    return true;
+                }
+                if (h == 0 && l == 0) {
+                    return false;
+                }
+                i = (i + 1) & mask;
+            }
+        }
+    }
+}
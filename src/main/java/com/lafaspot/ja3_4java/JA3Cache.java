@@ -0,0 +1,394 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, concurrent cache of JA3 results keyed on the structure of the ClientHello: client version, cipher suites, extension types,
+ * elliptic curves and point formats, with GREASE values removed. A few hundred client stacks make up most connections, so most lookups
+ * replace decimal formatting and hashing with a key comparison.
+ * <p>
+ * Lookups do not lock: they read the hash table of a stripe and mark the entry they find as referenced, only writing it the first time. Adding
+ * an entry takes the lock of its stripe, so only misses contend, and evicts with the CLOCK approximation of LRU: a hand sweeps the entries of
+ * the stripe, sparing those referenced since it last passed. Lookups do not allocate; a miss allocates the key copy and the cached results.
+ *
+ * @see JA3Signature#JA3Signature(JA3Cache)
+ */
+public final class JA3Cache {
+    /**
+     * Number of stripes, a power of two.
+     */
+    private static final int STRIPES = 16;
+
+    /**
+     * Number of bits to shift a hash to get its stripe.
+     */
+    private static final int STRIPE_SHIFT = Long.SIZE - Integer.numberOfTrailingZeros(STRIPES);
+
+    /**
+     * FNV-1a 64-bit offset basis.
+     */
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    /**
+     * FNV-1a 64-bit prime.
+     */
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Stripes of the cache.
+     */
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    /**
+     * Number of lookups that found an entry.
+     */
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * Number of lookups that did not find an entry.
+     */
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Number of entries evicted to stay within the maximum size.
+     */
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Per-thread parsers backed by this cache.
+     */
+    private final ThreadLocal<JA3Signature> signatures = new ThreadLocal<JA3Signature>() {
+        @Override
+        protected JA3Signature initialValue() {
+            return new JA3Signature(JA3Cache.this);
+        }
+    };
+
+    /**
+     * Creates a cache.
+     *
+     * @param maximumSize maximum number of entries, spread evenly over the stripes
+     * @throws IllegalArgumentException when maximum size is not positive
+     */
+    public JA3Cache(final int maximumSize) throws IllegalArgumentException {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize must be positive: " + maximumSize);
+        }
+        final int stripeSize = (maximumSize + STRIPES - 1) / STRIPES;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(stripeSize);
+        }
+    }
+
+    /**
+     * @return number of lookups that found an entry
+     */
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return number of lookups that did not find an entry
+     */
+    public long missCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return number of entries evicted to stay within the maximum size
+     */
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return current number of entries
+     */
+    public int size() {
+        int size = 0;
+        for (final Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    /**
+     * Removes all entries, leaving the counters untouched.
+     */
+    public void clear() {
+        for (final Stripe stripe : stripes) {
+            stripe.clear();
+        }
+    }
+
+    /**
+     * @return per-thread parsers that use this cache
+     */
+    ThreadLocal<JA3Signature> signatures() {
+        return signatures;
+    }
+
+    /**
+     * Hash a structure key.
+     *
+     * @param key key to hash
+     * @param length number of key characters in use
+     * @return 64-bit hash of the key
+     */
+    static long hash(final char[] key, final int length) {
+        long h = FNV_OFFSET;
+        for (int i = 0; i < length; i++) {
+            h = (h ^ key[i]) * FNV_PRIME;
+        }
+        return h ^ (h >>> (Long.SIZE / 2));
+    }
+
+    /**
+     * Look up the entry for a structure key.
+     *
+     * @param hash hash of the key as computed by {@link #hash}
+     * @param key key to look up
+     * @param length number of key characters in use
+     * @return the cached entry or null
+     */
+    Entry get(final long hash, final char[] key, final int length) {
+        final Entry entry = stripes[(int) (hash >>> STRIPE_SHIFT)].get(hash, key, length);
+        if (entry == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return entry;
+    }
+
+    /**
+     * Add an entry, evicting an entry of its stripe not looked up recently if the stripe is full.
+     *
+     * @param hash hash of the key as computed by {@link #hash}
+     * @param key key of the entry
+     * @param length number of key characters in use
+     * @param ja3 JA3 string
+     * @param fingerprint JA3 MD5 hash
+     * @return the entry now cached for the key, which may have been added concurrently by another thread
+     */
+    Entry put(final long hash, final char[] key, final int length, final String ja3, final JA3Fingerprint fingerprint) {
+        return stripes[(int) (hash >>> STRIPE_SHIFT)].put(new Entry(hash, Arrays.copyOf(key, length), ja3, fingerprint));
+    }
+
+    /**
+     * Cached JA3 results for one ClientHello structure.
+     */
+    static final class Entry {
+        /**
+         * Hash of the key.
+         */
+        private final long hash;
+
+        /**
+         * Structure key.
+         */
+        private final char[] key;
+
+        /**
+         * JA3 string.
+         */
+        private final String ja3;
+
+        /**
+         * JA3 MD5 hash.
+         */
+        private final JA3Fingerprint fingerprint;
+
+        /**
+         * Next entry in the same hash bucket, changed under the lock of the stripe and read without it.
+         */
+        private volatile Entry next;
+
+        /**
+         * Whether the entry was looked up since the clock hand last passed it.
+         */
+        private volatile boolean referenced;
+
+        /**
+         * Creates an entry.
+         *
+         * @param hash hash of the key
+         * @param key structure key
+         * @param ja3 JA3 string
+         * @param fingerprint JA3 MD5 hash
+         */
+        Entry(final long hash, final char[] key, final String ja3, final JA3Fingerprint fingerprint) {
+            this.hash = hash;
+            this.key = key;
+            this.ja3 = ja3;
+            this.fingerprint = fingerprint;
+        }
+
+        /**
+         * @return JA3 string
+         */
+        String ja3() {
+            return ja3;
+        }
+
+        /**
+         * @return JA3 MD5 hash
+         */
+        JA3Fingerprint fingerprint() {
+            return fingerprint;
+        }
+
+        /**
+         * Compare the key of this entry.
+         *
+         * @param h hash of the other key
+         * @param other other key
+         * @param length number of characters in use in the other key
+         * @return true if the keys are equal
+         */
+        private boolean matches(final long h, final char[] other, final int length) {
+            if (hash != h || key.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (key[i] != other[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * One stripe of the cache: a chained hash table read without locking, and the ring of its entries swept by the clock hand.
+     */
+    private final class Stripe {
+        /**
+         * Hash buckets, written under the lock.
+         */
+        private final AtomicReferenceArray<Entry> table;
+
+        /**
+         * Entries of this stripe in the order the clock hand visits them, guarded by the lock.
+         */
+        private final Entry[] ring;
+
+        /**
+         * Position of the clock hand in {@link #ring}, guarded by the lock.
+         */
+        private int hand;
+
+        /**
+         * Number of entries in this stripe, guarded by the lock.
+         */
+        private int size;
+
+        /**
+         * Creates a stripe.
+         *
+         * @param capacity maximum number of entries
+         */
+        Stripe(final int capacity) {
+            this.table = new AtomicReferenceArray<>(Integer.highestOneBit(Math.max(1, capacity - 1)) << 1);
+            this.ring = new Entry[capacity];
+        }
+
+        /**
+         * Look up an entry and mark it referenced, without locking.
+         *
+         * @param hash hash of the key
+         * @param key key to look up
+         * @param length number of key characters in use
+         * @return the entry or null
+         */
+        Entry get(final long hash, final char[] key, final int length) {
+            for (Entry e = table.get((int) hash & (table.length() - 1)); e != null; e = e.next) {
+                if (e.matches(hash, key, length)) {
+                    // Hot entries are already marked, so hits do not keep writing to shared cache lines
+                    if (!e.referenced) {
+                        e.referenced = true;
+                    }
+                    return e;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Add an entry unless one with the same key exists.
+         *
+         * @param entry entry to add
+         * @return the entry now cached for the key
+         */
+        synchronized Entry put(final Entry entry) {
+            final int index = (int) entry.hash & (table.length() - 1);
+            for (Entry e = table.get(index); e != null; e = e.next) {
+                if (e.matches(entry.hash, entry.key, entry.key.length)) {
+                    return e;
+                }
+            }
+            if (size == ring.length) {
+                // Bounded by one sweep, as lookups may mark entries again behind the hand
+                for (int i = 0; i < ring.length && ring[hand].referenced; i++) {
+                    ring[hand].referenced = false;
+                    hand = (hand + 1) % ring.length;
+                }
+                removeFromTable(ring[hand]);
+                evictions.increment();
+            } else {
+                hand = size++;
+            }
+            // Linked in full before being published, a concurrent lookup sees the new entry or the previous head of the bucket
+            entry.next = table.get(index);
+            table.set(index, entry);
+            ring[hand] = entry;
+            hand = (hand + 1) % ring.length;
+            return entry;
+        }
+
+        /**
+         * @return number of entries
+         */
+        synchronized int size() {
+            return size;
+        }
+
+        /**
+         * Remove all entries.
+         */
+        synchronized void clear() {
+            for (int i = 0; i < table.length(); i++) {
+                table.set(i, null);
+            }
+            Arrays.fill(ring, null);
+            hand = 0;
+            size = 0;
+        }
+
+        /**
+         * Remove an entry from its hash bucket. Its own link is left untouched, so that a lookup standing on it goes on down the bucket.
+         *
+         * @param entry entry to remove
+         */
+        private void removeFromTable(final Entry entry) {
+            final int index = (int) entry.hash & (table.length() - 1);
+            if (table.get(index) == entry) {
+                table.set(index, entry.next);
+                return;
+            }
+            for (Entry e = table.get(index); e.next != null; e = e.next) {
+                if (e.next == entry) {
+                    e.next = entry.next;
+                    return;
+                }
+            }
+        }
+    }
+}
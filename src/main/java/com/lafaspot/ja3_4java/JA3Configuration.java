@@ -0,0 +1,482 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Immutable options of {@link JA3SSLEngineWrapper}, shared by all the engines of a {@link JA3SSLContextSpi}.
+ */
+public final class JA3Configuration {
+    /**
+     * Configuration with all options at their defaults: every connection fingerprinted, no cache, JA3 computed eagerly.
+     */
+    public static final JA3Configuration DEFAULT = new Builder().build();
+
+    /**
+     * Cache of JA3 results, or null to not cache results.
+     */
+    private final JA3Cache cache;
+
+    /**
+     * True to compute JA3 values only when first read from the session.
+     */
+    private final boolean lazy;
+
+    /**
+     * Policy deciding which connections get fingerprinted.
+     */
+    private final JA3SamplingPolicy sampling;
+
+    /**
+     * Fingerprints stored in the session.
+     */
+    private final Set<FingerprintType> fingerprints;
+
+    /**
+     * Fingerprints computed during the handshake: all of them, or only JA4 in lazy mode.
+     */
+    private final Set<FingerprintType> eagerFingerprints;
+
+    /**
+     * Fingerprints computed when the ClientHello is parsed: the eager fingerprints, plus the JA3 hash when filters, a heavy hitters
+     * tracker, a registry, an event publisher or a log are configured.
+     */
+    private final Set<FingerprintType> computedFingerprints;
+
+    /**
+     * True if JA3 is stored as a {@link JA3LazySignature}.
+     */
+    private final boolean lazyJA3;
+
+    /**
+     * Filters checked once the ClientHello is fingerprinted, in order.
+     */
+    private final JA3HandshakeFilter[] filters;
+
+    /**
+     * Metrics of fingerprinting, or null to not record any.
+     */
+    private final JA3Metrics metrics;
+
+    /**
+     * Tracker of the most frequent fingerprints, or null.
+     */
+    private final JA3HeavyHitters heavyHitters;
+
+    /**
+     * Dictionary sharing one copy of each fingerprint across connections, or null.
+     */
+    private final JA3FingerprintRegistry registry;
+
+    /**
+     * Publisher of an event for every fingerprinted ClientHello, or null.
+     */
+    private final JA3EventPublisher events;
+
+    /**
+     * Log of every fingerprinted handshake on disk, or null.
+     */
+    private final JA3FingerprintLog log;
+
+    /**
+     * Bounds on the work spent on one ClientHello.
+     */
+    private final JA3ParseLimits parseLimits;
+
+    /**
+     * True to reject handshakes whose ClientHello is over the limits.
+     */
+    private final boolean rejectOverBudget;
+
+    /**
+     * Creates a configuration from a builder.
+     *
+     * @param builder builder holding the options
+     */
+    private JA3Configuration(final Builder builder) {
+        this.cache = builder.cache;
+        this.lazy = builder.lazy;
+        this.sampling = builder.sampling;
+        this.fingerprints = Collections.unmodifiableSet(EnumSet.copyOf(builder.fingerprints));
+        final EnumSet<FingerprintType> eager = EnumSet.copyOf(builder.fingerprints);
+        if (lazy) {
+            eager.remove(FingerprintType.JA3);
+            eager.remove(FingerprintType.JA3_HASH);
+        }
+        this.eagerFingerprints = Collections.unmodifiableSet(eager);
+        this.filters = builder.filters.toArray(new JA3HandshakeFilter[builder.filters.size()]);
+        this.metrics = builder.metrics;
+        this.heavyHitters = builder.heavyHitters;
+        this.registry = builder.registry;
+        this.events = builder.events;
+        this.log = builder.log;
+        this.parseLimits = builder.parseLimits;
+        this.rejectOverBudget = builder.rejectOverBudget;
+        final EnumSet<FingerprintType> computed = EnumSet.copyOf(eager);
+        if (filters.length > 0 || heavyHitters != null || registry != null || events != null || log != null) {
+            computed.add(FingerprintType.JA3_HASH);
+        }
+        this.computedFingerprints = Collections.unmodifiableSet(computed);
+        this.lazyJA3 = lazy && (fingerprints.contains(FingerprintType.JA3) || fingerprints.contains(FingerprintType.JA3_HASH));
+    }
+
+    /**
+     * @return a builder with all options at their defaults
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return cache of JA3 results, or null if results are not cached
+     */
+    public JA3Cache getCache() {
+        return cache;
+    }
+
+    /**
+     * @return true if JA3 values are computed only when first read from the session
+     */
+    public boolean isLazy() {
+        return lazy;
+    }
+
+    /**
+     * @return policy deciding which connections get fingerprinted
+     */
+    public JA3SamplingPolicy getSampling() {
+        return sampling;
+    }
+
+    /**
+     * @return fingerprints stored in the session
+     */
+    public Set<FingerprintType> getFingerprints() {
+        return fingerprints;
+    }
+
+    /**
+     * @return metrics of fingerprinting, or null if none are recorded
+     */
+    public JA3Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return tracker of the most frequent fingerprints, or null
+     */
+    public JA3HeavyHitters getHeavyHitters() {
+        return heavyHitters;
+    }
+
+    /**
+     * @return dictionary sharing one copy of each fingerprint across connections, or null
+     */
+    public JA3FingerprintRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * @return publisher of an event for every fingerprinted ClientHello, or null
+     */
+    public JA3EventPublisher getEvents() {
+        return events;
+    }
+
+    /**
+     * @return log of every fingerprinted handshake on disk, or null
+     */
+    public JA3FingerprintLog getLog() {
+        return log;
+    }
+
+    /**
+     * @return bounds on the work spent on one ClientHello
+     */
+    public JA3ParseLimits getParseLimits() {
+        return parseLimits;
+    }
+
+    /**
+     * @return true if handshakes whose ClientHello is over the limits are rejected
+     */
+    public boolean isRejectOverBudget() {
+        return rejectOverBudget;
+    }
+
+    /**
+     * @return fingerprints computed during the handshake
+     */
+    Set<FingerprintType> eagerFingerprints() {
+        return eagerFingerprints;
+    }
+
+    /**
+     * @return fingerprints computed when the ClientHello is parsed
+     */
+    Set<FingerprintType> computedFingerprints() {
+        return computedFingerprints;
+    }
+
+    /**
+     * @return true if JA3 is stored as a {@link JA3LazySignature}
+     */
+    boolean isLazyJA3() {
+        return lazyJA3;
+    }
+
+    /**
+     * Check the fingerprints of a ClientHello against the filters, then drop the JA3 hash if it was only computed for them, the heavy
+     * hitters tracker, the registry, the events or the log.
+     *
+     * @param fingerprints fingerprints computed from {@link #computedFingerprints()}
+     * @return true if every filter accepts the handshake
+     */
+    boolean accept(final ClientHelloFingerprints fingerprints) {
+        for (final JA3HandshakeFilter filter : filters) {
+            if (!filter.accept(fingerprints)) {
+                return false;
+            }
+        }
+        if (!eagerFingerprints.contains(FingerprintType.JA3_HASH)) {
+            fingerprints.setJa3Hash(null);
+        }
+        return true;
+    }
+
+    /**
+     * Builder of {@link JA3Configuration}.
+     */
+    public static final class Builder {
+        /**
+         * Cache of JA3 results, or null to not cache results.
+         */
+        private JA3Cache cache;
+
+        /**
+         * True to compute JA3 values only when first read from the session.
+         */
+        private boolean lazy;
+
+        /**
+         * Policy deciding which connections get fingerprinted.
+         */
+        private JA3SamplingPolicy sampling = JA3SamplingPolicy.all();
+
+        /**
+         * Fingerprints stored in the session.
+         */
+        private EnumSet<FingerprintType> fingerprints = EnumSet.of(FingerprintType.JA3, FingerprintType.JA3_HASH);
+
+        /**
+         * Filters checked once the ClientHello is fingerprinted.
+         */
+        private final List<JA3HandshakeFilter> filters = new ArrayList<>();
+
+        /**
+         * Metrics of fingerprinting, or null to not record any.
+         */
+        private JA3Metrics metrics;
+
+        /**
+         * Tracker of the most frequent fingerprints, or null.
+         */
+        private JA3HeavyHitters heavyHitters;
+
+        /**
+         * Dictionary sharing one copy of each fingerprint across connections, or null.
+         */
+        private JA3FingerprintRegistry registry;
+
+        /**
+         * Publisher of an event for every fingerprinted ClientHello, or null.
+         */
+        private JA3EventPublisher events;
+
+        /**
+         * Log of every fingerprinted handshake on disk, or null.
+         */
+        private JA3FingerprintLog log;
+
+        /**
+         * Bounds on the work spent on one ClientHello.
+         */
+        private JA3ParseLimits parseLimits = JA3ParseLimits.DEFAULT;
+
+        /**
+         * True to reject handshakes whose ClientHello is over the limits.
+         */
+        private boolean rejectOverBudget;
+
+        /**
+         * Creates a builder with all options at their defaults.
+         */
+        private Builder() {
+        }
+
+        /**
+         * Look up JA3 results in a cache shared between engines.
+         *
+         * @param cache cache of JA3 results, or null to not cache results
+         * @return this builder
+         */
+        public Builder cache(final JA3Cache cache) {
+            this.cache = cache;
+            return this;
+        }
+
+        /**
+         * Only capture the ClientHello fields used by JA3 during the handshake. The session then holds a {@link JA3LazySignature} under
+         * {@link JA3Constants#JA3_FINGERPRINT}, which computes the JA3 string and hash the first time they are read. No value is stored under
+         * {@link JA3Constants#JA3_HASH}; use {@link JA3LazySignature#fingerprint()} instead.
+         *
+         * @param lazy true to compute JA3 values only when first read
+         * @return this builder
+         */
+        public Builder lazy(final boolean lazy) {
+            this.lazy = lazy;
+            return this;
+        }
+
+        /**
+         * Only fingerprint the connections picked by a policy, to bound the cost of fingerprinting on busy listeners. The policy is applied
+         * by {@link JA3SSLContextSpi} and {@link JA3SSLEngineWrapper#wrapIfSampled(javax.net.ssl.SSLEngine, JA3Configuration)}.
+         *
+         * @param sampling policy deciding which connections get fingerprinted
+         * @return this builder
+         * @throws NullPointerException when the policy is null
+         */
+        public Builder sampling(final JA3SamplingPolicy sampling) throws NullPointerException {
+            this.sampling = Objects.requireNonNull(sampling, "null sampling policy");
+            return this;
+        }
+
+        /**
+         * Choose the fingerprints stored in the session, by default JA3 and its MD5 hash. All of them are computed in one pass over the
+         * ClientHello; fingerprints that are not chosen cost nothing. In lazy mode JA4 and the normalized JA3 are still computed during the
+         * handshake.
+         *
+         * @param types fingerprints to store in the session
+         * @return this builder
+         */
+        public Builder fingerprints(final Set<FingerprintType> types) {
+            this.fingerprints = EnumSet.noneOf(FingerprintType.class);
+            this.fingerprints.addAll(types);
+            return this;
+        }
+
+        /**
+         * Add a filter deciding whether a handshake goes on once the ClientHello is fingerprinted. Filters are checked in the order they
+         * were added; the first one that rejects the handshake aborts it.
+         *
+         * @param filter filter to add
+         * @return this builder
+         * @throws NullPointerException when the filter is null
+         */
+        public Builder filter(final JA3HandshakeFilter filter) throws NullPointerException {
+            filters.add(Objects.requireNonNull(filter, "null filter"));
+            return this;
+        }
+
+        /**
+         * Record counters and latencies of fingerprinting.
+         *
+         * @param metrics metrics to record to, or null to not record any
+         * @return this builder
+         */
+        public Builder metrics(final JA3Metrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * Count the JA3 hash of every ClientHello fingerprinted, including those of handshakes rejected by a filter, in a tracker of the most
+         * frequent fingerprints.
+         *
+         * @param heavyHitters tracker to feed, or null
+         * @return this builder
+         */
+        public Builder heavyHitters(final JA3HeavyHitters heavyHitters) {
+            this.heavyHitters = heavyHitters;
+            return this;
+        }
+
+        /**
+         * Register every fingerprinted ClientHello in a dictionary, so that connections with the same fingerprint share one canonical JA3
+         * string and hash. The session then gets the shared entry with its compact id under {@link JA3Constants#JA3_ID}, in place of the values
+         * under {@link JA3Constants#JA3_FINGERPRINT} and {@link JA3Constants#JA3_HASH}.
+         *
+         * @param registry dictionary to register to, or null
+         * @return this builder
+         */
+        public Builder registry(final JA3FingerprintRegistry registry) {
+            this.registry = registry;
+            return this;
+        }
+
+        /**
+         * Publish an event for every fingerprinted ClientHello, including those of handshakes rejected by a filter, with the address of the
+         * client, the server name and the time. Publishing never blocks the I/O thread: the listener runs on the thread of the publisher.
+         *
+         * @param events publisher to publish to, or null
+         * @return this builder
+         */
+        public Builder events(final JA3EventPublisher events) {
+            this.events = events;
+            return this;
+        }
+
+        /**
+         * Append a record of every fingerprinted handshake, including those rejected by a filter, to a log on disk. {@link JA3SSLEngineWrapper}
+         * appends it once the ServerHello is written, with its JA3S hash, or when the handshake is rejected; {@link JA3SniffingHandler} does not
+         * see the ServerHello and appends it with the ClientHello.
+         *
+         * @param log log to append to, or null
+         * @return this builder
+         */
+        public Builder log(final JA3FingerprintLog log) {
+            this.log = log;
+            return this;
+        }
+
+        /**
+         * Bound the work spent on one ClientHello, by default {@link JA3ParseLimits#DEFAULT}. ClientHellos beyond the limits are not
+         * fingerprinted and are counted as {@code OVER_BUDGET} parse failures.
+         *
+         * @param limits bounds on the size of the ClientHello and on the number of cipher suites and extensions
+         * @return this builder
+         * @throws NullPointerException when the limits are null
+         */
+        public Builder parseLimits(final JA3ParseLimits limits) throws NullPointerException {
+            this.parseLimits = Objects.requireNonNull(limits, "null parse limits");
+            return this;
+        }
+
+        /**
+         * Reject handshakes whose ClientHello is over the parse limits, as a filter would. By default they go on without fingerprints.
+         *
+         * @param reject true to reject handshakes over budget
+         * @return this builder
+         */
+        public Builder rejectOverBudget(final boolean reject) {
+            this.rejectOverBudget = reject;
+            return this;
+        }
+
+        /**
+         * @return a configuration with the options of this builder
+         */
+        public JA3Configuration build() {
+            return new JA3Configuration(this);
+        }
+    }
+}
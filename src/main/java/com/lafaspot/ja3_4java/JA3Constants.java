@@ -14,14 +14,17 @@ package com.lafaspot.ja3_4java;
 public final class JA3Constants {
 
     /**
-     * Name of the SSLSession's application layer data binding for JA3 Digest value for the session.
+     * Name of the SSLSession's application layer data binding for JA3 Digest value for the session. The value is a {@link String}, or a
+     * {@link JA3LazySignature} when the wrapper is configured to compute it lazily; both are a {@link CharSequence}. When the fingerprint is
+     * registered in a {@link JA3FingerprintRegistry}, the string is not stored here but read from the entry under {@link #JA3_ID}; a lazy
+     * signature is still stored.
      *
      * Example usage:
      *
      * <pre>
      * &#064;code
      * {
-     *     String ja3Digest = sslSession.getValue(JA3Constants.JA3_FINGERPRINT);
+     *     String ja3Digest = sslSession.getValue(JA3Constants.JA3_FINGERPRINT).toString();
      * }
      * </pre>
      *
@@ -29,6 +32,129 @@ public final class JA3Constants {
      */
     public static final String JA3_FINGERPRINT = "ja3.digest";
 
+    /**
+     * Name of the SSLSession's application layer data binding for the JA3 MD5 hash of the session, stored as a {@link JA3Fingerprint}. When
+     * the fingerprint is registered in a {@link JA3FingerprintRegistry}, the hash is not stored here but read from the entry under
+     * {@link #JA3_ID}.
+     *
+     * Example usage:
+     *
+     * <pre>
+     * &#064;code
+     * {
+     *     JA3Fingerprint ja3Hash = (JA3Fingerprint) sslSession.getValue(JA3Constants.JA3_HASH);
+     * }
+     * </pre>
+     *
+     * @see javax.net.ssl.SSLSession#getValue(String)
+     */
+    public static final String JA3_HASH = "ja3.md5";
+
+    /**
+     * Name of the SSLSession's application layer data binding for the entry of the JA3 fingerprint in the registry set with
+     * {@link JA3Configuration.Builder#registry(JA3FingerprintRegistry)}, stored as a {@link JA3FingerprintRegistry.Entry} shared by every
+     * session with the same fingerprint. It is then the only key holding the JA3 string and hash, see
+     * {@link JA3FingerprintRegistry.Entry#getJa3()} and {@link JA3FingerprintRegistry.Entry#getJa3Hash()}. The session holds a reference to
+     * the entry while it is bound; remove the value to let the registry compact the fingerprint.
+     *
+     * Example usage:
+     *
+     * <pre>
+     * &#064;code
+     * {
+     *     JA3FingerprintRegistry.Entry entry = (JA3FingerprintRegistry.Entry) sslSession.getValue(JA3Constants.JA3_ID);
+     *     int ja3Id = entry.getId();
+     *     JA3Fingerprint ja3Hash = entry.getJa3Hash();
+     * }
+     * </pre>
+     *
+     * @see javax.net.ssl.SSLSession#getValue(String)
+     */
+    public static final String JA3_ID = "ja3.id";
+
+    /**
+     * Name of the SSLSession's application layer data binding for the normalized JA3 string of the session, the JA3 string with its extension
+     * types sorted, stored when enabled in {@link JA3Configuration.Builder#fingerprints(java.util.Set)}.
+     *
+     * Example usage:
+     *
+     * <pre>
+     * &#064;code
+     * {
+     *     String ja3n = (String) sslSession.getValue(JA3Constants.JA3N_FINGERPRINT);
+     * }
+     * </pre>
+     *
+     * @see javax.net.ssl.SSLSession#getValue(String)
+     */
+    public static final String JA3N_FINGERPRINT = "ja3n.digest";
+
+    /**
+     * Name of the SSLSession's application layer data binding for the MD5 hash of the normalized JA3 string of the session, stored as a
+     * {@link JA3Fingerprint} when enabled in {@link JA3Configuration.Builder#fingerprints(java.util.Set)}.
+     *
+     * Example usage:
+     *
+     * <pre>
+     * &#064;code
+     * {
+     *     JA3Fingerprint ja3nHash = (JA3Fingerprint) sslSession.getValue(JA3Constants.JA3N_HASH);
+     * }
+     * </pre>
+     *
+     * @see javax.net.ssl.SSLSession#getValue(String)
+     */
+    public static final String JA3N_HASH = "ja3n.md5";
+
+    /**
+     * Name of the SSLSession's application layer data binding for the JA4 fingerprint of the session, stored when enabled in
+     * {@link JA3Configuration.Builder#fingerprints(java.util.Set)}.
+     *
+     * Example usage:
+     *
+     * <pre>
+     * &#064;code
+     * {
+     *     String ja4 = (String) sslSession.getValue(JA3Constants.JA4_FINGERPRINT);
+     * }
+     * </pre>
+     *
+     * @see javax.net.ssl.SSLSession#getValue(String)
+     */
+    public static final String JA4_FINGERPRINT = "ja4";
+
+    /**
+     * Name of the SSLSession's application layer data binding for the JA3S string of the ServerHello sent by a server mode engine.
+     *
+     * Example usage:
+     *
+     * <pre>
+     * &#064;code
+     * {
+     *     String ja3s = (String) sslSession.getValue(JA3Constants.JA3S_FINGERPRINT);
+     * }
+     * </pre>
+     *
+     * @see javax.net.ssl.SSLSession#getValue(String)
+     */
+    public static final String JA3S_FINGERPRINT = "ja3s.digest";
+
+    /**
+     * Name of the SSLSession's application layer data binding for the JA3S MD5 hash of the session, stored as a {@link JA3Fingerprint}.
+     *
+     * Example usage:
+     *
+     * <pre>
+     * &#064;code
+     * {
+     *     JA3Fingerprint ja3sHash = (JA3Fingerprint) sslSession.getValue(JA3Constants.JA3S_HASH);
+     * }
+     * </pre>
+     *
+     * @see javax.net.ssl.SSLSession#getValue(String)
+     */
+    public static final String JA3S_HASH = "ja3s.md5";
+
     /**
      * Private constructor so that class is not initialized.
      */
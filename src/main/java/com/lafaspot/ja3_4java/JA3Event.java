@@ -0,0 +1,135 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+/**
+ * Immutable record of one fingerprinted ClientHello, handed to {@link JA3EventListener} by a {@link JA3EventPublisher}.
+ */
+public final class JA3Event {
+    /**
+     * Time the ClientHello was fingerprinted, in milliseconds since the epoch.
+     */
+    private final long timestamp;
+
+    /**
+     * Host of the client, or null if unknown.
+     */
+    private final String peerHost;
+
+    /**
+     * Port of the client, or -1 if unknown.
+     */
+    private final int peerPort;
+
+    /**
+     * First host name of the server name extension, or null.
+     */
+    private final String serverName;
+
+    /**
+     * JA3 hash of the ClientHello.
+     */
+    private final JA3Fingerprint ja3Hash;
+
+    /**
+     * JA3 string of the ClientHello, or null if it was not computed.
+     */
+    private final String ja3;
+
+    /**
+     * JA4 fingerprint of the ClientHello, or null if it was not computed.
+     */
+    private final String ja4;
+
+    /**
+     * True if the handshake was rejected by a filter.
+     */
+    private final boolean rejected;
+
+    /**
+     * Creates an event stamped with the current time.
+     *
+     * @param peerHost host of the client, or null
+     * @param peerPort port of the client, or -1
+     * @param serverName first host name of the server name extension, or null
+     * @param ja3Hash JA3 hash
+     * @param ja3 JA3 string, or null
+     * @param ja4 JA4 fingerprint, or null
+     * @param rejected true if the handshake was rejected
+     */
+    JA3Event(final String peerHost, final int peerPort, final String serverName, final JA3Fingerprint ja3Hash,
+            final String ja3, final String ja4, final boolean rejected) {
+        this.timestamp = System.currentTimeMillis();
+        this.peerHost = peerHost;
+        this.peerPort = peerPort;
+        this.serverName = serverName;
+        this.ja3Hash = ja3Hash;
+        this.ja3 = ja3;
+        this.ja4 = ja4;
+        this.rejected = rejected;
+    }
+
+    /**
+     * @return time the ClientHello was fingerprinted, in milliseconds since the epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return host of the client, or null if unknown
+     */
+    public String getPeerHost() {
+        return peerHost;
+    }
+
+    /**
+     * @return port of the client, or -1 if unknown
+     */
+    public int getPeerPort() {
+        return peerPort;
+    }
+
+    /**
+     * @return first host name of the server name extension, or null if the ClientHello has none
+     */
+    public String getServerName() {
+        return serverName;
+    }
+
+    /**
+     * @return JA3 hash of the ClientHello
+     */
+    public JA3Fingerprint getJa3Hash() {
+        return ja3Hash;
+    }
+
+    /**
+     * @return JA3 string of the ClientHello, or null if the configuration does not compute it eagerly
+     */
+    public String getJa3() {
+        return ja3;
+    }
+
+    /**
+     * @return JA4 fingerprint of the ClientHello, or null if the configuration does not compute it
+     */
+    public String getJa4() {
+        return ja4;
+    }
+
+    /**
+     * @return true if a filter of the configuration rejected the handshake
+     */
+    public boolean isRejected() {
+        return rejected;
+    }
+
+    @Override
+    public String toString() {
+        return timestamp + " " + peerHost + ":" + peerPort + " " + serverName + " " + ja3Hash + (rejected ? " rejected" : "");
+    }
+}
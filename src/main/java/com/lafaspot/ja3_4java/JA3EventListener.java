@@ -0,0 +1,25 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.util.List;
+
+/**
+ * Consumer of the fingerprint events of a {@link JA3EventPublisher}, such as a forwarder to an analytics pipeline.
+ * <p>
+ * Listeners are called on the thread of the publisher, never on an I/O thread, so they may block; events arriving meanwhile wait in the
+ * buffer of the publisher, or are dropped once it is full.
+ *
+ * @see JA3Configuration.Builder#events(JA3EventPublisher)
+ */
+public interface JA3EventListener {
+    /**
+     * Receive the next batch of events, in the order they were published by each connection.
+     *
+     * @param events events of the batch, never empty; the list is reused once the call returns and must not be kept
+     */
+    void onEvents(List<JA3Event> events);
+}
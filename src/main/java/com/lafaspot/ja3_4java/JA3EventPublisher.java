@@ -0,0 +1,321 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Publishes an event for every fingerprinted ClientHello to a {@link JA3EventListener}, without ever blocking the I/O threads:
+ *
+ * <pre>
+ * JA3EventPublisher events = new JA3EventPublisher(batch -&gt; analytics.send(batch), 65536, 512);
+ * JA3Configuration configuration = JA3Configuration.builder().events(events).build();
+ * ...
+ * events.close(); // on shutdown, delivers the events still buffered
+ * </pre>
+ *
+ * Events go through a bounded multi-producer, single-consumer ring buffer: publishing one is a compare-and-set on the tail and two ordered
+ * writes, with no lock and no allocation beyond the event. A daemon thread drains the buffer in batches of up to {@code batchSize} events and
+ * hands them to the listener, parking for a millisecond when the buffer is empty, so a slow listener only delays the events, never the
+ * handshakes. When the buffer is full new events are dropped and counted; with an overflow sampling policy, events are also only kept as the
+ * policy samples them once the buffer is half full, so that a lagging listener gets a sample of the traffic rather than the oldest events.
+ * A listener that throws is counted in {@link #getFailures()} and keeps receiving the following batches. Instances are thread safe.
+ */
+public final class JA3EventPublisher implements AutoCloseable {
+    /**
+     * Largest capacity of the buffer.
+     */
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE / 2 + 1;
+
+    /**
+     * Time the thread parks for when the buffer is empty.
+     */
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * Receiver of the events.
+     */
+    private final JA3EventListener listener;
+
+    /**
+     * Largest number of events handed to the listener at once.
+     */
+    private final int batchSize;
+
+    /**
+     * Policy keeping events once the buffer is half full, or null to keep them all until it is full.
+     */
+    private final JA3SamplingPolicy overflowSampling;
+
+    /**
+     * Mask of the slot index, the capacity being a power of two.
+     */
+    private final int mask;
+
+    /**
+     * Events of the ring, null once drained.
+     */
+    private final AtomicReferenceArray<JA3Event> slots;
+
+    /**
+     * Sequence of each slot: equal to the tail position when free, to the position plus one once written.
+     */
+    private final AtomicLongArray sequences;
+
+    /**
+     * Position of the next event published.
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Position of the next event drained, written by the thread of the publisher only.
+     */
+    private volatile long head;
+
+    /**
+     * Events drained and not yet delivered, used by the thread of the publisher only.
+     */
+    private final List<JA3Event> batch;
+
+    /**
+     * Read-only view of {@link #batch} handed to the listener.
+     */
+    private final List<JA3Event> batchView;
+
+    /**
+     * Number of events delivered to the listener.
+     */
+    private final AtomicLong delivered = new AtomicLong();
+
+    /**
+     * Number of events dropped, because the buffer was full, the overflow policy did not sample them, or the publisher was closed.
+     */
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Number of batches whose delivery threw.
+     */
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * True once closed.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Thread draining the buffer.
+     */
+    private final Thread thread;
+
+    /**
+     * Creates a publisher dropping the events that do not fit in the buffer, and starts its thread.
+     *
+     * @param listener receiver of the events
+     * @param capacity number of events buffered, rounded up to a power of two
+     * @param batchSize largest number of events handed to the listener at once
+     * @throws IllegalArgumentException when the capacity or the batch size is not positive, or the capacity is above 2^30
+     * @throws NullPointerException when the listener is null
+     */
+    public JA3EventPublisher(final JA3EventListener listener, final int capacity, final int batchSize)
+            throws IllegalArgumentException, NullPointerException {
+        this(listener, capacity, batchSize, null);
+    }
+
+    /**
+     * Creates a publisher sampling the events once the buffer is half full, and starts its thread.
+     *
+     * @param listener receiver of the events
+     * @param capacity number of events buffered, rounded up to a power of two
+     * @param batchSize largest number of events handed to the listener at once
+     * @param overflowSampling policy deciding which events are kept once the buffer is half full, or null to keep them all until it is full
+     * @throws IllegalArgumentException when the capacity or the batch size is not positive, or the capacity is above 2^30
+     * @throws NullPointerException when the listener is null
+     */
+    public JA3EventPublisher(final JA3EventListener listener, final int capacity, final int batchSize, final JA3SamplingPolicy overflowSampling)
+            throws IllegalArgumentException, NullPointerException {
+        if (capacity <= 0 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("capacity must be between 1 and 2^30: " + capacity);
+        }
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
+        this.listener = Objects.requireNonNull(listener, "null listener");
+        this.batchSize = batchSize;
+        this.overflowSampling = overflowSampling;
+        final int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = size - 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.batch = new ArrayList<>(Math.min(batchSize, size));
+        this.batchView = Collections.unmodifiableList(batch);
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drainLoop();
+            }
+        }, "ja3-events");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Publish an event without blocking.
+     *
+     * @param event event to publish
+     * @return true if the event was buffered, false if it was dropped
+     */
+    public boolean offer(final JA3Event event) {
+        if (closed) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        if (overflowSampling != null && tail.get() - head > (mask + 1) / 2 && !overflowSampling.sample()) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        while (true) {
+            final long position = tail.get();
+            final int index = (int) position & mask;
+            final long free = sequences.get(index) - position;
+            if (free == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots.lazySet(index, event);
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+            } else if (free < 0) {
+                // The slot still holds the event published one lap earlier
+                dropped.incrementAndGet();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Body of the thread: drain and deliver batches until closed and empty.
+     */
+    private void drainLoop() {
+        while (true) {
+            // Read before draining, so that everything published before close() is delivered
+            final boolean stopping = closed;
+            if (drain() > 0) {
+                deliver();
+            } else if (stopping) {
+                return;
+            } else {
+                LockSupport.parkNanos(this, IDLE_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Move up to {@link #batchSize} events from the ring to {@link #batch}.
+     *
+     * @return number of events moved
+     */
+    private int drain() {
+        long position = head;
+        int count = 0;
+        while (count < batchSize) {
+            final int index = (int) position & mask;
+            if (sequences.get(index) != position + 1) {
+                break;
+            }
+            batch.add(slots.get(index));
+            slots.lazySet(index, null);
+            sequences.lazySet(index, position + mask + 1);
+            position++;
+            count++;
+        }
+        head = position;
+        return count;
+    }
+
+    /**
+     * Hand {@link #batch} to the listener and clear it.
+     */
+    @SuppressWarnings("checkstyle:illegalcatch")
+    private void deliver() {
+        try {
+            listener.onEvents(batchView);
+            delivered.addAndGet(batch.size());
+        } catch (final RuntimeException e) {
+            failures.incrementAndGet();
+        } finally {
+            batch.clear();
+        }
+    }
+
+    /**
+     * @return number of events buffered, not yet handed to the listener
+     */
+    public int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+
+    /**
+     * @return number of events the buffer holds, a power of two
+     */
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return number of events delivered to the listener
+     */
+    public long getDelivered() {
+        return delivered.get();
+    }
+
+    /**
+     * @return number of events dropped, because the buffer was full, the overflow policy did not sample them, or the publisher was closed
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return number of batches whose delivery threw
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * Stop accepting events, deliver those already buffered and wait for the thread to end. Events published while closing may be neither
+     * delivered nor counted as dropped. Does nothing when called again, or by the listener itself.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (Thread.currentThread() == thread) {
+            return;
+        }
+        LockSupport.unpark(thread);
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (final InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+/**
+ * Immutable 128-bit JA3 MD5 hash. The value is held as two longs so that comparing and hashing fingerprints is cheap; the usual hex
+ * representation is only rendered when first asked for.
+ */
+public final class JA3Fingerprint {
+    /**
+     * Number of bytes in a fingerprint.
+     */
+    public static final int LENGTH = 16;
+
+    /**
+     * Number of hex characters in a fingerprint.
+     */
+    private static final int HEX_LENGTH = LENGTH * 2;
+
+    /**
+     * Number of bytes in a long.
+     */
+    private static final int LONG_BYTES = 8;
+
+    /**
+     * Number of bits in a byte.
+     */
+    private static final int BYTE_BITS = 8;
+
+    /**
+     * Number of bits in a hex digit.
+     */
+    private static final int HEX_BITS = 4;
+
+    /**
+     * Hex digit bit mask.
+     */
+    private static final int HEX_MASK = 0xF;
+
+    /**
+     * Byte bit mask.
+     */
+    private static final int BITMASK = 0xFF;
+
+    /**
+     * Lowercase hex digits.
+     */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Most significant 64 bits of the hash.
+     */
+    private final long high;
+
+    /**
+     * Least significant 64 bits of the hash.
+     */
+    private final long low;
+
+    /**
+     * Lazily rendered hex representation, safe to race on since strings are immutable.
+     */
+    private String hex;
+
+    /**
+     * Creates a fingerprint from the two halves of the hash.
+     *
+     * @param high most significant 64 bits of the hash
+     * @param low least significant 64 bits of the hash
+     */
+    public JA3Fingerprint(final long high, final long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    /**
+     * Creates a fingerprint from 16 bytes of MD5 hash.
+     *
+     * @param bytes array holding the hash
+     * @param offset offset of the hash in the array
+     * @return fingerprint of the hash
+     */
+    public static JA3Fingerprint fromBytes(final byte[] bytes, final int offset) {
+        return new JA3Fingerprint(readLong(bytes, offset), readLong(bytes, offset + LONG_BYTES));
+    }
+
+    /**
+     * Parses the 32 character hex representation of a JA3 hash.
+     *
+     * @param hex hex representation, upper or lower case
+     * @return fingerprint of the hash
+     * @throws IllegalArgumentException when the value is not 32 hex characters
+     */
+    public static JA3Fingerprint fromHex(final CharSequence hex) throws IllegalArgumentException {
+        if (hex.length() != HEX_LENGTH) {
+            throw new IllegalArgumentException("JA3 hash must be " + HEX_LENGTH + " hex characters: " + hex);
+        }
+        return new JA3Fingerprint(parseHex(hex, 0), parseHex(hex, HEX_LENGTH / 2));
+    }
+
+    /**
+     * @return most significant 64 bits of the hash
+     */
+    public long getHigh() {
+        return high;
+    }
+
+    /**
+     * @return least significant 64 bits of the hash
+     */
+    public long getLow() {
+        return low;
+    }
+
+    /**
+     * Copies the 16 bytes of the hash to an array.
+     *
+     * @param bytes array to copy to
+     * @param offset offset in the array to copy to
+     */
+    public void toBytes(final byte[] bytes, final int offset) {
+        writeLong(high, bytes, offset);
+        writeLong(low, bytes, offset + LONG_BYTES);
+    }
+
+    /**
+     * @return the lowercase hex representation of the hash, as used by JA3 tools
+     */
+    public String toHex() {
+        String h = hex;
+        if (h == null) {
+            final char[] chars = new char[HEX_LENGTH];
+            for (int i = 0; i < HEX_LENGTH / 2; i++) {
+                final int shift = (HEX_LENGTH / 2 - 1 - i) * HEX_BITS;
+                chars[i] = HEX[(int) (high >>> shift) & HEX_MASK];
+                chars[i + HEX_LENGTH / 2] = HEX[(int) (low >>> shift) & HEX_MASK];
+            }
+            h = new String(chars);
+            hex = h;
+        }
+        return h;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof JA3Fingerprint)) {
+            return false;
+        }
+        final JA3Fingerprint other = (JA3Fingerprint) obj;
+        return high == other.high && low == other.low;
+    }
+
+    @Override
+    public int hashCode() {
+        // MD5 output is uniformly distributed, any 32 bits make a good hash
+        return (int) low;
+    }
+
+    @Override
+    public String toString() {
+        return toHex();
+    }
+
+    /**
+     * Read a big endian long from an array.
+     *
+     * @param bytes array to read from
+     * @param offset offset to read at
+     * @return the long
+     */
+    private static long readLong(final byte[] bytes, final int offset) {
+        long value = 0;
+        for (int i = 0; i < LONG_BYTES; i++) {
+            value = (value << BYTE_BITS) | (bytes[offset + i] & BITMASK);
+        }
+        return value;
+    }
+
+    /**
+     * Write a long in big endian order to an array.
+     *
+     * @param value value to write
+     * @param bytes array to write to
+     * @param offset offset to write at
+     */
+    private static void writeLong(final long value, final byte[] bytes, final int offset) {
+        for (int i = 0; i < LONG_BYTES; i++) {
+            bytes[offset + i] = (byte) (value >>> ((LONG_BYTES - 1 - i) * BYTE_BITS));
+        }
+    }
+
+    /**
+     * Parse 16 hex characters into a long.
+     *
+     * @param hex characters to parse
+     * @param offset offset of the first character
+     * @return the parsed value
+     * @throws IllegalArgumentException when a character is not a hex digit
+     */
+    private static long parseHex(final CharSequence hex, final int offset) {
+        long value = 0;
+        for (int i = offset; i < offset + HEX_LENGTH / 2; i++) {
+            final int digit = Character.digit(hex.charAt(i), HEX.length);
+            if (digit < 0) {
+                throw new IllegalArgumentException("Invalid hex character in JA3 hash: " + hex);
+            }
+            value = (value << HEX_BITS) | digit;
+        }
+        return value;
+    }
+}
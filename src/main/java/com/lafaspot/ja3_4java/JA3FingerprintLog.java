@@ -0,0 +1,613 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Append-only log of fingerprinted handshakes on local disk, for forensics over days of traffic: each handshake is a fixed-width binary
+ * record of its time, client address, JA3 hash and JA3S hash, written into memory-mapped segment files:
+ *
+ * <pre>
+ * JA3FingerprintLog log = new JA3FingerprintLog(Paths.get("/var/log/ja3"), 1 &lt;&lt; 20, 72);
+ * JA3Configuration configuration = JA3Configuration.builder().log(log).build();
+ * ...
+ * log.close(); // on shutdown
+ * </pre>
+ *
+ * Writers reserve a record with an atomic compare and set and copy it into the mapping, so that appending a record takes no lock, no system call
+ * and no allocation. Filling a segment maps the next one: the writer that finds the segment full does it under a lock, once per
+ * {@code recordsPerSegment} records, and the oldest segments beyond {@code maxSegments} are deleted. When the next segment cannot be
+ * created, records are dropped without locking until it is tried again {@value #ROLL_RETRY_MILLIS} ms later. Segments are named after their
+ * sequence number, so their names sort in time order, and the header of each segment records the range of times of its records once it is
+ * full and every writer of the segment is done, which {@link JA3FingerprintLogReader} uses to skip the segments outside the range scanned.
+ * Full segments are then unmapped, so that only the segment appended to stays mapped. Records are flushed by the operating system;
+ * {@link #close()} forces them to disk. Instances are thread safe.
+ *
+ * @see JA3FingerprintLogReader
+ */
+public final class JA3FingerprintLog implements Closeable {
+    /**
+     * Magic number at the start of a segment, "JA3L".
+     */
+    static final int SEGMENT_MAGIC = 0x4A41334C;
+
+    /**
+     * Version of the segment format.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * Size of the segment header.
+     */
+    static final int HEADER_SIZE = 64;
+
+    /**
+     * Offset of the version in the header.
+     */
+    static final int HEADER_VERSION = 4;
+
+    /**
+     * Offset of the record size in the header.
+     */
+    static final int HEADER_RECORD_SIZE = 8;
+
+    /**
+     * Offset of the number of records the segment holds in the header.
+     */
+    static final int HEADER_CAPACITY = 12;
+
+    /**
+     * Offset of the sequence number of the segment in the header.
+     */
+    static final int HEADER_SEQUENCE = 16;
+
+    /**
+     * Offset of the time of the earliest record in the header, 0 while the segment is written.
+     */
+    static final int HEADER_FIRST = 24;
+
+    /**
+     * Offset of the time no record of the segment is later than in the header, 0 while the segment is written.
+     */
+    static final int HEADER_LAST = 32;
+
+    /**
+     * Offset of the number of records written in the header, 0 while the segment is written.
+     */
+    static final int HEADER_COUNT = 40;
+
+    /**
+     * Size of a record.
+     */
+    static final int RECORD_SIZE = 128;
+
+    /**
+     * Offset of the time of the handshake, in milliseconds since the epoch, in a record.
+     */
+    static final int RECORD_TIMESTAMP = 0;
+
+    /**
+     * Offset of the JA3 hash in a record.
+     */
+    static final int RECORD_JA3 = 8;
+
+    /**
+     * Offset of the JA3S hash in a record.
+     */
+    static final int RECORD_JA3S = 24;
+
+    /**
+     * Offset of the port of the client in a record.
+     */
+    static final int RECORD_PORT = 40;
+
+    /**
+     * Offset of the flags in a record.
+     */
+    static final int RECORD_FLAGS = 44;
+
+    /**
+     * Offset of the length of the host of the client in a record.
+     */
+    static final int RECORD_HOST_LENGTH = 45;
+
+    /**
+     * Offset of the ASCII host of the client in a record.
+     */
+    static final int RECORD_HOST = 46;
+
+    /**
+     * Largest length of the host of the client; longer hosts are truncated.
+     */
+    static final int MAX_HOST_LENGTH = 78;
+
+    /**
+     * Offset of the commit marker in a record, written last.
+     */
+    static final int RECORD_COMMIT = 124;
+
+    /**
+     * Commit marker of a complete record, "JA3R".
+     */
+    static final int RECORD_MAGIC = 0x4A413352;
+
+    /**
+     * Flag of a record with a JA3S hash.
+     */
+    static final int FLAG_JA3S = 1;
+
+    /**
+     * Flag of a record of a handshake rejected by a filter.
+     */
+    static final int FLAG_REJECTED = 2;
+
+    /**
+     * Glob matching the names of the segments.
+     */
+    static final String SEGMENT_GLOB = "ja3-*.log";
+
+    /**
+     * Delay before creating the next segment again after it failed, in milliseconds.
+     */
+    static final long ROLL_RETRY_MILLIS = 100;
+
+    /**
+     * Length of the prefix of the segment names.
+     */
+    private static final int SEGMENT_PREFIX_LENGTH = "ja3-".length();
+
+    /**
+     * Largest ASCII character.
+     */
+    private static final char MAX_ASCII = 0x7F;
+
+    /**
+     * Directory of the segments.
+     */
+    private final Path directory;
+
+    /**
+     * Number of records per segment.
+     */
+    private final int recordsPerSegment;
+
+    /**
+     * Largest number of segments kept.
+     */
+    private final int maxSegments;
+
+    /**
+     * Segments on disk, oldest first, guarded by {@link #lock}.
+     */
+    private final ArrayDeque<Path> segments = new ArrayDeque<>();
+
+    /**
+     * Guards rolling to the next segment and closing.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Segments no longer appended to, whose writers may still be copying records, guarded by {@link #lock}.
+     */
+    private final ArrayDeque<Segment> retired = new ArrayDeque<>();
+
+    /**
+     * Segment appended to, null once closed.
+     */
+    private volatile Segment current;
+
+    /**
+     * Number of records dropped because the log was closed or the next segment could not be created.
+     */
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * True while the last attempt to create the next segment failed.
+     */
+    private volatile boolean rollFailed;
+
+    /**
+     * Value of {@link System#nanoTime()} after which creating the next segment is tried again, set before {@link #rollFailed}.
+     */
+    private volatile long rollRetryAt;
+
+    /**
+     * Creates a log in a directory, after the segments already there.
+     *
+     * @param directory directory of the segments, created if missing
+     * @param recordsPerSegment number of records per segment
+     * @param maxSegments largest number of segments kept, including those already in the directory
+     * @throws IOException when the directory or the first segment cannot be created
+     * @throws IllegalArgumentException when the number of records or of segments is not positive, or a segment would be over 2 GB
+     */
+    public JA3FingerprintLog(final Path directory, final int recordsPerSegment, final int maxSegments) throws IOException, IllegalArgumentException {
+        if (recordsPerSegment <= 0 || recordsPerSegment > (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE) {
+            throw new IllegalArgumentException("recordsPerSegment out of range: " + recordsPerSegment);
+        }
+        if (maxSegments <= 0) {
+            throw new IllegalArgumentException("maxSegments must be positive: " + maxSegments);
+        }
+        this.directory = Files.createDirectories(directory);
+        this.recordsPerSegment = recordsPerSegment;
+        this.maxSegments = maxSegments;
+        segments.addAll(list(directory));
+        final long sequence = segments.isEmpty() ? 0 : sequence(segments.peekLast()) + 1;
+        current = openSegment(sequence);
+    }
+
+    /**
+     * Append the record of a handshake, without blocking unless the segment is full.
+     *
+     * @param peerHost host of the client, or null if unknown
+     * @param peerPort port of the client, or -1 if unknown
+     * @param ja3Hash JA3 hash of the ClientHello
+     * @param ja3sHash JA3S hash of the ServerHello, or null if there is none
+     * @param rejected true if a filter rejected the handshake
+     * @return true if the record was appended, false if it was dropped
+     */
+    public boolean append(final String peerHost, final int peerPort, final JA3Fingerprint ja3Hash, final JA3Fingerprint ja3sHash,
+            final boolean rejected) {
+        final long timestamp = System.currentTimeMillis();
+        Segment segment = current;
+        while (segment != null) {
+            final int slot = segment.reserve(recordsPerSegment);
+            if (slot >= 0) {
+                segment.write(slot, timestamp, peerHost, peerPort, ja3Hash, ja3sHash, rejected);
+                return true;
+            }
+            if (isRollDelayed()) {
+                break;
+            }
+            segment = roll(segment);
+        }
+        dropped.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * @return true if creating the next segment failed less than {@link #ROLL_RETRY_MILLIS} ago
+     */
+    private boolean isRollDelayed() {
+        return rollFailed && System.nanoTime() - rollRetryAt < 0;
+    }
+
+    /**
+     * Replace a full segment with a new one, unless another writer already did or it failed less than {@link #ROLL_RETRY_MILLIS} ago.
+     *
+     * @param full segment found full
+     * @return the segment to append to, or null if the log is closed or the new segment cannot be created
+     */
+    private Segment roll(final Segment full) {
+        lock.lock();
+        try {
+            if (current != full) {
+                return current;
+            }
+            if (isRollDelayed()) {
+                return null;
+            }
+            final Segment next;
+            try {
+                next = openSegment(full.sequence + 1);
+            } catch (final IOException e) {
+                rollRetryAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ROLL_RETRY_MILLIS);
+                rollFailed = true;
+                return null;
+            }
+            rollFailed = false;
+            full.stop(recordsPerSegment);
+            retired.addLast(full);
+            current = next;
+            release(false);
+            return next;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Create and map a segment, deleting the oldest segments beyond {@link #maxSegments}. A file that was created but could not be mapped is
+     * deleted, so that creating the segment can be tried again.
+     *
+     * @param sequence sequence number of the segment
+     * @return the segment
+     * @throws IOException when the segment cannot be created
+     */
+    private Segment openSegment(final long sequence) throws IOException {
+        final Path path = directory.resolve(String.format(Locale.ROOT, "ja3-%019d.log", sequence));
+        final MappedByteBuffer buffer;
+        final FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean mapped = false;
+        try {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) recordsPerSegment * RECORD_SIZE);
+            mapped = true;
+        } finally {
+            channel.close();
+            if (!mapped) {
+                Files.deleteIfExists(path);
+            }
+        }
+        buffer.putInt(0, SEGMENT_MAGIC);
+        buffer.putInt(HEADER_VERSION, VERSION);
+        buffer.putInt(HEADER_RECORD_SIZE, RECORD_SIZE);
+        buffer.putInt(HEADER_CAPACITY, recordsPerSegment);
+        buffer.putLong(HEADER_SEQUENCE, sequence);
+        segments.addLast(path);
+        while (segments.size() > maxSegments) {
+            final Path oldest = segments.removeFirst();
+            try {
+                Files.deleteIfExists(oldest);
+            } catch (final IOException e) {
+                // Left on disk rather than failing the segment already created, which would then be in the way of the next attempt
+            }
+        }
+        return new Segment(sequence, buffer);
+    }
+
+    /**
+     * @return number of records dropped because the log was closed or the next segment could not be created
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return directory of the segments
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Seal and unmap the retired segments whose writers are done, oldest first.
+     *
+     * @param force true to force the segments to disk first
+     */
+    private void release(final boolean force) {
+        final Iterator<Segment> iterator = retired.iterator();
+        while (iterator.hasNext()) {
+            final Segment segment = iterator.next();
+            if (segment.isCommitted()) {
+                iterator.remove();
+                segment.seal();
+                if (force) {
+                    segment.buffer.force();
+                }
+                unmap(segment.buffer);
+            }
+        }
+    }
+
+    /**
+     * Stop appending, wait for the records being copied, record the time range of the last segment, force it to disk and unmap it. Records
+     * appended while closing are dropped. Does nothing when called again.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            final Segment last = current;
+            if (last != null) {
+                current = null;
+                last.stop(recordsPerSegment);
+                retired.addLast(last);
+                release(true);
+                while (!retired.isEmpty()) {
+                    Thread.yield();
+                    release(true);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Unmap a buffer now rather than when it is garbage collected, when the JDK allows it: with {@code Unsafe.invokeCleaner} from Java 9,
+     * with the cleaner of the buffer before. The buffer must not be used afterwards.
+     *
+     * @param buffer mapping to release
+     */
+    @SuppressWarnings("checkstyle:illegalcatch")
+    private static void unmap(final MappedByteBuffer buffer) {
+        try {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            try {
+                final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            } catch (final NoSuchMethodException e) {
+                final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                final Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            }
+        } catch (final Exception e) {
+            // Left to the garbage collector
+        }
+    }
+
+    /**
+     * @param directory directory of a log
+     * @return the segments of the log, oldest first
+     * @throws IOException when the directory cannot be listed
+     */
+    static List<Path> list(final Path directory) throws IOException {
+        final List<Path> found = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_GLOB)) {
+            for (final Path path : stream) {
+                found.add(path);
+            }
+        }
+        Collections.sort(found);
+        return found;
+    }
+
+    /**
+     * @param path segment file
+     * @return sequence number in the name of the segment
+     * @throws IOException when the name is not the one of a segment
+     */
+    private static long sequence(final Path path) throws IOException {
+        final String name = path.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX_LENGTH, name.length() - ".log".length()));
+        } catch (final NumberFormatException e) {
+            throw new IOException("Not a JA3 log segment: " + path, e);
+        }
+    }
+
+    /**
+     * Mapped segment file being appended to.
+     */
+    private static final class Segment {
+        /**
+         * Sequence number of the segment.
+         */
+        private final long sequence;
+
+        /**
+         * Mapping of the whole file.
+         */
+        private final MappedByteBuffer buffer;
+
+        /**
+         * Number of records reserved, at most the capacity.
+         */
+        private final AtomicInteger reserved = new AtomicInteger();
+
+        /**
+         * Number of records completely written, including the time range.
+         */
+        private final AtomicInteger committed = new AtomicInteger();
+
+        /**
+         * Number of records of the segment once no more can be reserved, -1 before, guarded by the lock of the log.
+         */
+        private int count = -1;
+
+        /**
+         * Time of the earliest record.
+         */
+        private final AtomicLong first = new AtomicLong(Long.MAX_VALUE);
+
+        /**
+         * Creates a segment.
+         *
+         * @param sequence sequence number
+         * @param buffer mapping of the file, with its header written
+         */
+        Segment(final long sequence, final MappedByteBuffer buffer) {
+            this.sequence = sequence;
+            this.buffer = buffer;
+        }
+
+        /**
+         * Reserve the next record, without going past the capacity so that a full segment can be retried forever.
+         *
+         * @param capacity number of records of the segment
+         * @return index of the record, or -1 if the segment is full
+         */
+        int reserve(final int capacity) {
+            int slot;
+            do {
+                slot = reserved.get();
+                if (slot >= capacity) {
+                    return -1;
+                }
+            } while (!reserved.compareAndSet(slot, slot + 1));
+            return slot;
+        }
+
+        /**
+         * Write a reserved record, the commit marker last.
+         *
+         * @param slot index of the record
+         * @param timestamp time of the handshake
+         * @param peerHost host of the client, or null
+         * @param peerPort port of the client, or -1
+         * @param ja3Hash JA3 hash
+         * @param ja3sHash JA3S hash, or null
+         * @param rejected true if the handshake was rejected
+         */
+        void write(final int slot, final long timestamp, final String peerHost, final int peerPort, final JA3Fingerprint ja3Hash,
+                final JA3Fingerprint ja3sHash, final boolean rejected) {
+            final int base = HEADER_SIZE + slot * RECORD_SIZE;
+            buffer.putLong(base + RECORD_TIMESTAMP, timestamp);
+            buffer.putLong(base + RECORD_JA3, ja3Hash.getHigh());
+            buffer.putLong(base + RECORD_JA3 + JA3Fingerprint.LENGTH / 2, ja3Hash.getLow());
+            if (ja3sHash != null) {
+                buffer.putLong(base + RECORD_JA3S, ja3sHash.getHigh());
+                buffer.putLong(base + RECORD_JA3S + JA3Fingerprint.LENGTH / 2, ja3sHash.getLow());
+            }
+            buffer.putInt(base + RECORD_PORT, peerPort);
+            buffer.put(base + RECORD_FLAGS, (byte) ((ja3sHash != null ? FLAG_JA3S : 0) | (rejected ? FLAG_REJECTED : 0)));
+            final int length = peerHost == null ? 0 : Math.min(peerHost.length(), MAX_HOST_LENGTH);
+            buffer.put(base + RECORD_HOST_LENGTH, (byte) length);
+            for (int i = 0; i < length; i++) {
+                final char c = peerHost.charAt(i);
+                buffer.put(base + RECORD_HOST + i, (byte) (c <= MAX_ASCII ? c : '?'));
+            }
+            buffer.putInt(base + RECORD_COMMIT, RECORD_MAGIC);
+            long earliest = first.get();
+            while (timestamp < earliest && !first.compareAndSet(earliest, timestamp)) {
+                earliest = first.get();
+            }
+            committed.incrementAndGet();
+        }
+
+        /**
+         * Prevent any further reservation and record the number of records of the segment.
+         *
+         * @param capacity number of records of the segment
+         */
+        void stop(final int capacity) {
+            count = reserved.getAndSet(capacity);
+        }
+
+        /**
+         * @return true once stopped and every reserved record is written, after which the mapping is no longer accessed by writers
+         */
+        boolean isCommitted() {
+            return count >= 0 && committed.get() == count;
+        }
+
+        /**
+         * Record the time range and the number of records in the header, once every record is written so that the time range covers them
+         * all. Writers took the time of their record before reserving it, so no record is later than the time of the seal.
+         */
+        void seal() {
+            final long earliest = first.get();
+            buffer.putLong(HEADER_FIRST, earliest == Long.MAX_VALUE ? 0 : earliest);
+            buffer.putLong(HEADER_LAST, System.currentTimeMillis());
+            buffer.putInt(HEADER_COUNT, count);
+        }
+    }
+}
@@ -0,0 +1,329 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Range scan of the records of a {@link JA3FingerprintLog}, segment by segment in time order, and within a segment in the order the records
+ * were reserved, which is their time order give or take the scheduling of the writers. Segments whose time range, recorded in their header,
+ * is outside the range scanned are skipped without reading their records; records that were not completely written, because the log is
+ * still being written or the process died, are skipped. The log can be read while it is written.
+ *
+ * <pre>
+ * try (JA3FingerprintLogReader reader = new JA3FingerprintLogReader(directory, from, to)) {
+ *     while (reader.next()) {
+ *         reader.timestamp(); reader.peerHost(); reader.ja3Hash(); ...
+ *     }
+ * }
+ * </pre>
+ *
+ * The {@link #main(String[])} method exports a range of records:
+ *
+ * <pre>
+ * java -cp ja3_4java.jar com.lafaspot.ja3_4java.JA3FingerprintLogReader [--format csv|ndjson] [--from INSTANT] [--to INSTANT] [--out FILE] directory
+ * </pre>
+ *
+ * Instances are not thread safe.
+ */
+public final class JA3FingerprintLogReader implements Closeable {
+    /**
+     * Header line of the CSV output.
+     */
+    private static final String CSV_HEADER = "timestamp,peer_host,peer_port,ja3_hash,ja3s_hash,rejected\n";
+
+    /**
+     * Segments of the log, oldest first.
+     */
+    private final List<Path> segments;
+
+    /**
+     * Earliest time of the records read, in milliseconds since the epoch.
+     */
+    private final long from;
+
+    /**
+     * Latest time of the records read, in milliseconds since the epoch.
+     */
+    private final long to;
+
+    /**
+     * Index of the next segment in {@link #segments}.
+     */
+    private int nextSegment;
+
+    /**
+     * Mapping of the segment read, or null.
+     */
+    private MappedByteBuffer buffer;
+
+    /**
+     * Number of records to read in the segment.
+     */
+    private int count;
+
+    /**
+     * Index of the current record in the segment.
+     */
+    private int index;
+
+    /**
+     * Offset of the current record in the segment.
+     */
+    private int base;
+
+    /**
+     * Creates a reader of the records of a log between two times, both included.
+     *
+     * @param directory directory of the log
+     * @param from earliest time, in milliseconds since the epoch
+     * @param to latest time, in milliseconds since the epoch
+     * @throws IOException when the directory cannot be listed
+     */
+    public JA3FingerprintLogReader(final Path directory, final long from, final long to) throws IOException {
+        this.segments = JA3FingerprintLog.list(directory);
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Move to the next record in the range.
+     *
+     * @return false when there are no more records
+     * @throws IOException when a segment cannot be read or is not a segment of a log
+     */
+    public boolean next() throws IOException {
+        while (true) {
+            while (buffer != null && ++index < count) {
+                base = JA3FingerprintLog.HEADER_SIZE + index * JA3FingerprintLog.RECORD_SIZE;
+                final long timestamp = buffer.getLong(base + JA3FingerprintLog.RECORD_TIMESTAMP);
+                if (buffer.getInt(base + JA3FingerprintLog.RECORD_COMMIT) == JA3FingerprintLog.RECORD_MAGIC && timestamp >= from
+                        && timestamp <= to) {
+                    return true;
+                }
+            }
+            buffer = null;
+            if (nextSegment == segments.size()) {
+                return false;
+            }
+            openSegment(segments.get(nextSegment++));
+        }
+    }
+
+    /**
+     * Map a segment and position before its first record, unless its time range is outside the one scanned.
+     *
+     * @param path segment file
+     * @throws IOException when the segment cannot be read or is not a segment of a log
+     */
+    private void openSegment(final Path path) throws IOException {
+        final MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < JA3FingerprintLog.HEADER_SIZE) {
+                throw new IOException("Truncated JA3 log segment: " + path);
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (mapped.getInt(0) != JA3FingerprintLog.SEGMENT_MAGIC || mapped.getInt(JA3FingerprintLog.HEADER_VERSION) != JA3FingerprintLog.VERSION
+                || mapped.getInt(JA3FingerprintLog.HEADER_RECORD_SIZE) != JA3FingerprintLog.RECORD_SIZE) {
+            throw new IOException("Not a JA3 log segment: " + path);
+        }
+        final long last = mapped.getLong(JA3FingerprintLog.HEADER_LAST);
+        final int capacity = Math.min(mapped.getInt(JA3FingerprintLog.HEADER_CAPACITY),
+                (mapped.capacity() - JA3FingerprintLog.HEADER_SIZE) / JA3FingerprintLog.RECORD_SIZE);
+        if (last == 0) {
+            // Still written, or the writer died: every record is checked
+            count = capacity;
+        } else if (last < from || mapped.getLong(JA3FingerprintLog.HEADER_FIRST) > to) {
+            return;
+        } else {
+            count = Math.min(mapped.getInt(JA3FingerprintLog.HEADER_COUNT), capacity);
+        }
+        buffer = mapped;
+        index = -1;
+    }
+
+    /**
+     * @return time of the handshake, in milliseconds since the epoch
+     */
+    public long timestamp() {
+        return buffer.getLong(base + JA3FingerprintLog.RECORD_TIMESTAMP);
+    }
+
+    /**
+     * @return host of the client, possibly truncated, or null if unknown
+     */
+    public String peerHost() {
+        final int length = buffer.get(base + JA3FingerprintLog.RECORD_HOST_LENGTH);
+        if (length == 0) {
+            return null;
+        }
+        final byte[] host = new byte[length];
+        for (int i = 0; i < length; i++) {
+            host[i] = buffer.get(base + JA3FingerprintLog.RECORD_HOST + i);
+        }
+        return new String(host, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @return port of the client, or -1 if unknown
+     */
+    public int peerPort() {
+        return buffer.getInt(base + JA3FingerprintLog.RECORD_PORT);
+    }
+
+    /**
+     * @return JA3 hash of the ClientHello
+     */
+    public JA3Fingerprint ja3Hash() {
+        return fingerprint(JA3FingerprintLog.RECORD_JA3);
+    }
+
+    /**
+     * @return JA3S hash of the ServerHello, or null if there is none
+     */
+    public JA3Fingerprint ja3sHash() {
+        return (flags() & JA3FingerprintLog.FLAG_JA3S) == 0 ? null : fingerprint(JA3FingerprintLog.RECORD_JA3S);
+    }
+
+    /**
+     * @return true if a filter rejected the handshake
+     */
+    public boolean isRejected() {
+        return (flags() & JA3FingerprintLog.FLAG_REJECTED) != 0;
+    }
+
+    /**
+     * @return flags of the current record
+     */
+    private int flags() {
+        return buffer.get(base + JA3FingerprintLog.RECORD_FLAGS);
+    }
+
+    /**
+     * @param offset offset of the fingerprint in the record
+     * @return the fingerprint
+     */
+    private JA3Fingerprint fingerprint(final int offset) {
+        return new JA3Fingerprint(buffer.getLong(base + offset), buffer.getLong(base + offset + JA3Fingerprint.LENGTH / 2));
+    }
+
+    @Override
+    public void close() {
+        // Mappings are released by the garbage collector
+        buffer = null;
+        nextSegment = segments.size();
+    }
+
+    /**
+     * Export the records of a range to CSV or NDJSON lines.
+     *
+     * @param reader reader of the records
+     * @param format format of the lines
+     * @param out output of the lines
+     * @return number of records exported
+     * @throws IOException when a segment cannot be read or the output cannot be written
+     */
+    public static long export(final JA3FingerprintLogReader reader, final JA3OutputFormat format, final Writer out) throws IOException {
+        if (format == JA3OutputFormat.CSV) {
+            out.write(CSV_HEADER);
+        }
+        final StringBuilder line = new StringBuilder();
+        long exported = 0;
+        while (reader.next()) {
+            line.setLength(0);
+            final String host = reader.peerHost();
+            final JA3Fingerprint ja3s = reader.ja3sHash();
+            final String ja3sHex = ja3s == null ? "" : ja3s.toHex();
+            if (format == JA3OutputFormat.CSV) {
+                line.append(Instant.ofEpochMilli(reader.timestamp())).append(',').append(host == null ? "" : host).append(',')
+                        .append(reader.peerPort()).append(',').append(reader.ja3Hash().toHex()).append(',').append(ja3sHex).append(',')
+                        .append(reader.isRejected()).append('\n');
+            } else {
+                line.append("{\"ts\":\"").append(Instant.ofEpochMilli(reader.timestamp())).append("\",\"peer\":")
+                        .append(host == null ? "null" : "\"" + host.replace("\\", "\\\\").replace("\"", "\\\"") + "\"").append(",\"port\":")
+                        .append(reader.peerPort()).append(",\"ja3_hash\":\"").append(reader.ja3Hash().toHex()).append("\",\"ja3s_hash\":")
+                        .append(ja3s == null ? "null" : "\"" + ja3sHex + "\"").append(",\"rejected\":").append(reader.isRejected()).append("}\n");
+            }
+            out.append(line);
+            exported++;
+        }
+        return exported;
+    }
+
+    /**
+     * Export the records of a log to the standard output or a file.
+     *
+     * @param args options, then the directory of the log
+     * @throws IOException when the log cannot be read or the output cannot be written
+     * @throws IllegalArgumentException when the arguments are not valid
+     */
+    public static void main(final String[] args) throws IOException, IllegalArgumentException {
+        JA3OutputFormat format = JA3OutputFormat.CSV;
+        long from = Long.MIN_VALUE;
+        long to = Long.MAX_VALUE;
+        String outPath = "-";
+        int i = 0;
+        while (i < args.length && args[i].startsWith("--")) {
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value of " + args[i]);
+            }
+            final String value = args[i + 1];
+            switch (args[i]) {
+            case "--format":
+                format = JA3OutputFormat.valueOf(value.toUpperCase(Locale.ROOT));
+                break;
+            case "--from":
+                from = Instant.parse(value).toEpochMilli();
+                break;
+            case "--to":
+                to = Instant.parse(value).toEpochMilli();
+                break;
+            case "--out":
+                outPath = value;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+            i += 2;
+        }
+        if (i != args.length - 1) {
+            throw new IllegalArgumentException(
+                    "Usage: JA3FingerprintLogReader [--format csv|ndjson] [--from INSTANT] [--to INSTANT] [--out FILE|-] directory");
+        }
+        try (JA3FingerprintLogReader reader = new JA3FingerprintLogReader(Paths.get(args[i]), from, to); Writer out = open(outPath)) {
+            export(reader, format, out);
+        }
+    }
+
+    /**
+     * @param path file to write, or - for the standard output
+     * @return buffered writer of the file
+     * @throws IOException when the file cannot be created
+     */
+    private static Writer open(final String path) throws IOException {
+        if ("-".equals(path)) {
+            return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8));
+        }
+        return Files.newBufferedWriter(Paths.get(path), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,322 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.net.ssl.SSLSessionBindingEvent;
+import javax.net.ssl.SSLSessionBindingListener;
+
+/**
+ * Process-wide dictionary of JA3 fingerprints, giving each distinct fingerprint a compact {@code int} id and a single canonical copy of its
+ * JA3 string and hash. With a registry set, every connection with the same fingerprint shares the same instances instead of holding its own
+ * copy of a string that is often hundreds of characters long. The session gets the shared {@link Entry} under {@link JA3Constants#JA3_ID}
+ * instead of the JA3 string and hash:
+ *
+ * <pre>
+ * JA3FingerprintRegistry registry = new JA3FingerprintRegistry(65536);
+ * JA3Configuration configuration = JA3Configuration.builder().registry(registry).build();
+ * ...
+ * JA3FingerprintRegistry.Entry entry = (JA3FingerprintRegistry.Entry) sslSession.getValue(JA3Constants.JA3_ID);
+ * int id = entry.getId();
+ * String ja3 = entry.getJa3();
+ * ...
+ * registry.compact(); // every few minutes, drops the fingerprints no connection holds and not seen since the previous call
+ * </pre>
+ *
+ * Looking up a known fingerprint does not lock; new fingerprints are added under a lock. The registry holds at most {@code capacity}
+ * fingerprints, so that clients making up fingerprints cannot grow it without bound; once full, new fingerprints are not registered until a
+ * compaction frees room. Entries are reference counted: {@link #register} takes a reference that {@link Entry#release()} gives back, a session
+ * holds one while the entry is bound to it, and a channel of {@link JA3SniffingHandler} until it is closed. A fingerprint is only compacted, and
+ * its id reused, once no reference is left, so an id identifies the same fingerprint as long as its entry is held. The JDK does not unbind the
+ * values of sessions that are invalidated or leave the session cache; remove {@link JA3Constants#JA3_ID} from sessions that are done with to
+ * let their fingerprints be compacted. Instances are thread safe.
+ */
+public final class JA3FingerprintRegistry {
+    /**
+     * Entries by JA3 hash.
+     */
+    private final ConcurrentHashMap<JA3Fingerprint, Entry> byHash;
+
+    /**
+     * Entries by id, null for free ids.
+     */
+    private final AtomicReferenceArray<Entry> byId;
+
+    /**
+     * Guards the allocation of ids and compaction.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Ids freed by compaction, reused first, guarded by {@link #lock}.
+     */
+    private final int[] freeIds;
+
+    /**
+     * Number of ids in {@link #freeIds}, guarded by {@link #lock}.
+     */
+    private int freeCount;
+
+    /**
+     * Next id never allocated, guarded by {@link #lock}.
+     */
+    private int nextId;
+
+    /**
+     * Number of compactions so far; entries record the value when they were last registered.
+     */
+    private volatile int epoch;
+
+    /**
+     * Creates a registry.
+     *
+     * @param capacity largest number of fingerprints registered at once
+     * @throws IllegalArgumentException when the capacity is not positive
+     */
+    public JA3FingerprintRegistry(final int capacity) throws IllegalArgumentException {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.byHash = new ConcurrentHashMap<>();
+        this.byId = new AtomicReferenceArray<>(capacity);
+        this.freeIds = new int[capacity];
+    }
+
+    /**
+     * Register an occurrence of a fingerprint, adding it if new, and take a reference to its entry.
+     *
+     * @param ja3Hash JA3 hash of the fingerprint
+     * @param ja3 JA3 string of the fingerprint, or null if it was not computed; the first string given becomes the canonical one
+     * @return the entry of the fingerprint, to {@link Entry#release()} once done with, or null if the hash is null or the registry is full
+     */
+    public Entry register(final JA3Fingerprint ja3Hash, final String ja3) {
+        if (ja3Hash == null) {
+            return null;
+        }
+        final Entry known = byHash.get(ja3Hash);
+        // A known entry compacted since it was looked up is looked up again under the lock
+        if (known != null && known.retain()) {
+            return known.touch(epoch, ja3);
+        }
+        lock.lock();
+        try {
+            final Entry raced = byHash.get(ja3Hash);
+            // Entries are only compacted under the lock, so a registered entry can be retained
+            if (raced != null && raced.retain()) {
+                return raced.touch(epoch, ja3);
+            }
+            final int id;
+            if (freeCount > 0) {
+                id = freeIds[--freeCount];
+            } else if (nextId < byId.length()) {
+                id = nextId++;
+            } else {
+                return null;
+            }
+            final Entry entry = new Entry(id, ja3Hash, ja3, epoch);
+            byId.set(id, entry);
+            byHash.put(ja3Hash, entry);
+            return entry;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Look up the entry registered under an id, without taking a reference.
+     *
+     * @param id id of a fingerprint
+     * @return the entry registered under the id, or null if none
+     */
+    public Entry get(final int id) {
+        return id >= 0 && id < byId.length() ? byId.get(id) : null;
+    }
+
+    /**
+     * Look up the entry of a fingerprint, without taking a reference.
+     *
+     * @param ja3Hash JA3 hash of a fingerprint
+     * @return the entry of the fingerprint, or null if it is not registered
+     */
+    public Entry get(final JA3Fingerprint ja3Hash) {
+        return byHash.get(ja3Hash);
+    }
+
+    /**
+     * @return number of fingerprints registered
+     */
+    public int size() {
+        return byHash.size();
+    }
+
+    /**
+     * @return largest number of fingerprints registered at once
+     */
+    public int getCapacity() {
+        return byId.length();
+    }
+
+    /**
+     * Remove the fingerprints that no connection holds and that were not registered since the previous compaction, freeing their ids. The ids
+     * of fingerprints still held are never reused.
+     *
+     * @return number of fingerprints removed
+     */
+    public int compact() {
+        lock.lock();
+        try {
+            final int current = epoch;
+            int removed = 0;
+            final Iterator<Entry> entries = byHash.values().iterator();
+            while (entries.hasNext()) {
+                final Entry entry = entries.next();
+                if (entry.lastEpoch != current && entry.references.compareAndSet(0, -1)) {
+                    entries.remove();
+                    byId.set(entry.id, null);
+                    freeIds[freeCount++] = entry.id;
+                    removed++;
+                }
+            }
+            epoch = current + 1;
+            return removed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Registered fingerprint, shared by every connection presenting it. Binding it to a session takes a reference, unbinding it gives it back.
+     */
+    public static final class Entry implements SSLSessionBindingListener {
+        /**
+         * Compact id.
+         */
+        private final int id;
+
+        /**
+         * Canonical JA3 hash.
+         */
+        private final JA3Fingerprint ja3Hash;
+
+        /**
+         * Canonical JA3 string, null until one is registered.
+         */
+        private volatile String ja3;
+
+        /**
+         * Value of {@link JA3FingerprintRegistry#epoch} when last registered.
+         */
+        private volatile int lastEpoch;
+
+        /**
+         * Number of references held, -1 once compacted.
+         */
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        /**
+         * Creates an entry, with the reference of the registering connection.
+         *
+         * @param id compact id
+         * @param ja3Hash JA3 hash
+         * @param ja3 JA3 string, or null
+         * @param epoch current epoch of the registry
+         */
+        Entry(final int id, final JA3Fingerprint ja3Hash, final String ja3, final int epoch) {
+            this.id = id;
+            this.ja3Hash = ja3Hash;
+            this.ja3 = ja3;
+            this.lastEpoch = epoch;
+        }
+
+        /**
+         * Record an occurrence, keeping the first JA3 string given.
+         *
+         * @param epoch current epoch of the registry
+         * @param string JA3 string of the occurrence, or null
+         * @return this entry
+         */
+        Entry touch(final int epoch, final String string) {
+            if (lastEpoch != epoch) {
+                lastEpoch = epoch;
+            }
+            if (ja3 == null && string != null) {
+                ja3 = string;
+            }
+            return this;
+        }
+
+        /**
+         * Take a reference, unless the entry was compacted.
+         *
+         * @return true if the reference was taken
+         */
+        boolean retain() {
+            int count;
+            do {
+                count = references.get();
+                if (count < 0) {
+                    return false;
+                }
+            } while (!references.compareAndSet(count, count + 1));
+            return true;
+        }
+
+        /**
+         * Give back a reference taken by {@link JA3FingerprintRegistry#register} or by binding the entry to a session.
+         */
+        public void release() {
+            references.decrementAndGet();
+        }
+
+        /**
+         * @return number of references held, -1 once compacted
+         */
+        int references() {
+            return references.get();
+        }
+
+        @Override
+        public void valueBound(final SSLSessionBindingEvent event) {
+            retain();
+        }
+
+        @Override
+        public void valueUnbound(final SSLSessionBindingEvent event) {
+            release();
+        }
+
+        /**
+         * @return compact id, between 0 and the capacity of the registry
+         */
+        public int getId() {
+            return id;
+        }
+
+        /**
+         * @return canonical JA3 hash
+         */
+        public JA3Fingerprint getJa3Hash() {
+            return ja3Hash;
+        }
+
+        /**
+         * @return canonical JA3 string, or null if only the hash was registered so far
+         */
+        public String getJa3() {
+            return ja3;
+        }
+
+        @Override
+        public String toString() {
+            return id + ":" + ja3Hash;
+        }
+    }
+}
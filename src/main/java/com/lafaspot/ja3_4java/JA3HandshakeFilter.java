@@ -0,0 +1,30 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+/**
+ * Decides whether a handshake goes on once the ClientHello has been fingerprinted. Filters run before the server does any key exchange or
+ * signing work: {@link JA3SSLEngineWrapper} fails the handshake from the {@code unwrap} that read the ClientHello, before the engine hands
+ * out its delegated tasks, and {@link JA3SniffingHandler} closes the channel before the ClientHello reaches the {@code SslHandler}.
+ * <p>
+ * The JA3 hash is always computed when a filter is configured, even if it is not stored in the session. Filters are shared by all the
+ * engines of a configuration and must be thread safe. A lambda is enough for a one-off filter:
+ *
+ * <pre>{@code
+ * JA3Configuration.builder().filter(fingerprints -> !blocked.contains(fingerprints.getJa3Hash())).build();
+ * }</pre>
+ *
+ * @see JA3Configuration.Builder#filter(JA3HandshakeFilter)
+ */
+public interface JA3HandshakeFilter {
+    /**
+     * Decide whether a handshake goes on.
+     *
+     * @param fingerprints fingerprints of the ClientHello, including the JA3 hash
+     * @return true to go on with the handshake, false to abort it
+     */
+    boolean accept(ClientHelloFingerprints fingerprints);
+}
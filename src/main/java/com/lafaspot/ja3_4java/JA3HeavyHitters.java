@@ -0,0 +1,340 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Streaming tracker of the most frequent JA3 hashes, in fixed memory whatever the number of distinct fingerprints seen:
+ *
+ * <pre>
+ * JA3HeavyHitters top = new JA3HeavyHitters(100);
+ * JA3Configuration configuration = JA3Configuration.builder().heavyHitters(top).build();
+ * ...
+ * for (JA3HeavyHitters.Entry entry : top.snapshot()) {
+ *     log.info(entry.getFingerprint() + " " + entry.getCount());
+ * }
+ * </pre>
+ *
+ * Counts are estimated by a Count-Min sketch of 4 rows of atomic counters, indexed by the four 32-bit words of the MD5 digest, which are
+ * independent uniform hashes. Estimates never undercount and overcount by at most a small fraction of the total, set by the width of the
+ * sketch. Next to the sketch a set of at most {@code k} candidates holds the fingerprints with the highest estimates. Adding a
+ * fingerprint is four atomic increments; the candidate set is only locked when a fingerprint outside it overtakes the smallest candidate,
+ * and a thread that finds the lock taken leaves the update to the next occurrence.
+ * <p>
+ * So that threads adding the same hot fingerprints do not all increment the same counters, the sketch is striped, one stripe of
+ * {@code 4 * width} counters per processor up to 8: each thread adds to the stripe of its id, and estimates sum the stripes. Adding a
+ * candidate only touches the stripe of the thread; the stripes are only summed for the fingerprints outside the candidate set and for
+ * queries.
+ * <p>
+ * Counts grow for the life of the tracker; call {@link #decay()} periodically to favour recent traffic. Instances are thread safe.
+ */
+public final class JA3HeavyHitters {
+    /**
+     * Number of rows of the sketch, one per 32-bit word of the digest.
+     */
+    private static final int DEPTH = 4;
+
+    /**
+     * Default number of counters per row for each tracked fingerprint.
+     */
+    private static final int WIDTH_PER_ENTRY = 64;
+
+    /**
+     * Number of bits in an int.
+     */
+    private static final int INT_BITS = 32;
+
+    /**
+     * Largest number of stripes of the sketch.
+     */
+    private static final int MAX_STRIPES = 8;
+
+    /**
+     * Orders entries by decreasing count.
+     */
+    private static final Comparator<Entry> BY_COUNT = new Comparator<Entry>() {
+        @Override
+        public int compare(final Entry left, final Entry right) {
+            return Long.compare(right.count, left.count);
+        }
+    };
+
+    /**
+     * Number of fingerprints tracked.
+     */
+    private final int k;
+
+    /**
+     * Mask of the column index.
+     */
+    private final int mask;
+
+    /**
+     * Stripes of the sketch, each holding the counters of the threads mapped to it, row after row.
+     */
+    private final AtomicLongArray[] stripes;
+
+    /**
+     * Fingerprints with the highest estimates, at most {@link #k}.
+     */
+    private final ConcurrentHashMap<JA3Fingerprint, Boolean> candidates;
+
+    /**
+     * Guards changes to {@link #candidates}.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Smallest estimate of the candidates when the set was last changed. Estimates only grow between decays, so it is a lower bound.
+     */
+    private volatile long floor;
+
+    /**
+     * Creates a tracker with a sketch of 64 counters per row for each tracked fingerprint.
+     *
+     * @param k number of fingerprints tracked
+     * @throws IllegalArgumentException when k is not positive
+     */
+    public JA3HeavyHitters(final int k) throws IllegalArgumentException {
+        this(k, k * WIDTH_PER_ENTRY);
+    }
+
+    /**
+     * Creates a tracker. Estimates overcount by at most {@code e / width} of the total count with high probability.
+     *
+     * @param k number of fingerprints tracked
+     * @param width number of counters per row of the sketch, rounded up to a power of two
+     * @throws IllegalArgumentException when k or width is not positive
+     */
+    public JA3HeavyHitters(final int k, final int width) throws IllegalArgumentException {
+        this(k, width, Math.min(MAX_STRIPES, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Creates a tracker with a given number of stripes.
+     *
+     * @param k number of fingerprints tracked
+     * @param width number of counters per row of the sketch, rounded up to a power of two
+     * @param stripeCount number of stripes of the sketch, rounded up to a power of two
+     * @throws IllegalArgumentException when k or width is not positive
+     */
+    JA3HeavyHitters(final int k, final int width, final int stripeCount) throws IllegalArgumentException {
+        if (k <= 0) {
+            throw new IllegalArgumentException("k must be positive: " + k);
+        }
+        if (width <= 0) {
+            throw new IllegalArgumentException("width must be positive: " + width);
+        }
+        int columns = 1;
+        while (columns < width) {
+            columns <<= 1;
+        }
+        this.k = k;
+        this.mask = columns - 1;
+        this.stripes = new AtomicLongArray[Integer.highestOneBit(Math.max(1, stripeCount - 1)) << 1];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new AtomicLongArray(DEPTH * columns);
+        }
+        this.candidates = new ConcurrentHashMap<>(2 * k);
+    }
+
+    /**
+     * Count an occurrence of a fingerprint.
+     *
+     * @param digest JA3 hash
+     */
+    public void add(final JA3Fingerprint digest) {
+        final AtomicLongArray stripe = stripes[(int) Thread.currentThread().getId() & (stripes.length - 1)];
+        for (int row = 0; row < DEPTH; row++) {
+            stripe.incrementAndGet(index(digest, row));
+        }
+        if (candidates.containsKey(digest)) {
+            return;
+        }
+        final long estimate = estimate(digest);
+        if (estimate <= floor && candidates.size() >= k) {
+            return;
+        }
+        if (lock.tryLock()) {
+            try {
+                admit(digest, estimate);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @param digest JA3 hash
+     * @return estimated number of occurrences of the fingerprint, never below the actual number since the last reset
+     */
+    public long estimate(final JA3Fingerprint digest) {
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            final int index = index(digest, row);
+            long count = 0;
+            for (final AtomicLongArray stripe : stripes) {
+                count += stripe.get(index);
+            }
+            estimate = Math.min(estimate, count);
+        }
+        return estimate;
+    }
+
+    /**
+     * @return the tracked fingerprints with their estimated counts, by decreasing count
+     */
+    public List<Entry> snapshot() {
+        final List<Entry> entries = new ArrayList<>(k);
+        for (final JA3Fingerprint digest : candidates.keySet()) {
+            entries.add(new Entry(digest, estimate(digest)));
+        }
+        Collections.sort(entries, BY_COUNT);
+        return entries;
+    }
+
+    /**
+     * Halve all counts, so that older occurrences weigh less than recent ones. Occurrences added concurrently may be halved or not.
+     */
+    public void decay() {
+        for (final AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < stripe.length(); i++) {
+                long value;
+                do {
+                    value = stripe.get(i);
+                } while (!stripe.compareAndSet(i, value, value >>> 1));
+            }
+        }
+        floor = 0;
+    }
+
+    /**
+     * Forget all counts and fingerprints.
+     */
+    public void reset() {
+        lock.lock();
+        try {
+            for (final AtomicLongArray stripe : stripes) {
+                for (int i = 0; i < stripe.length(); i++) {
+                    stripe.set(i, 0);
+                }
+            }
+            candidates.clear();
+            floor = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Add a fingerprint to the candidates if there is room or it overtook the smallest one, holding the lock.
+     *
+     * @param digest JA3 hash
+     * @param estimate its estimated count
+     */
+    private void admit(final JA3Fingerprint digest, final long estimate) {
+        if (candidates.containsKey(digest)) {
+            return;
+        }
+        if (candidates.size() < k) {
+            candidates.put(digest, Boolean.TRUE);
+            if (candidates.size() == k) {
+                floor = smallest();
+            }
+            return;
+        }
+        JA3Fingerprint victim = null;
+        long victimEstimate = Long.MAX_VALUE;
+        for (final JA3Fingerprint candidate : candidates.keySet()) {
+            final long candidateEstimate = estimate(candidate);
+            if (candidateEstimate < victimEstimate) {
+                victim = candidate;
+                victimEstimate = candidateEstimate;
+            }
+        }
+        if (estimate > victimEstimate) {
+            candidates.remove(victim);
+            candidates.put(digest, Boolean.TRUE);
+            floor = smallest();
+        } else {
+            floor = victimEstimate;
+        }
+    }
+
+    /**
+     * @return smallest estimate of the candidates
+     */
+    private long smallest() {
+        long smallest = Long.MAX_VALUE;
+        for (final JA3Fingerprint candidate : candidates.keySet()) {
+            smallest = Math.min(smallest, estimate(candidate));
+        }
+        return smallest;
+    }
+
+    /**
+     * @param digest JA3 hash
+     * @param row row of the sketch
+     * @return index of the counter of the digest in the row
+     */
+    private int index(final JA3Fingerprint digest, final int row) {
+        final long word = row < 2 ? digest.getHigh() : digest.getLow();
+        final int hash = (int) (row % 2 == 0 ? word >>> INT_BITS : word);
+        return row * (mask + 1) + (hash & mask);
+    }
+
+    /**
+     * Fingerprint with its estimated count.
+     */
+    public static final class Entry {
+        /**
+         * JA3 hash.
+         */
+        private final JA3Fingerprint fingerprint;
+
+        /**
+         * Estimated number of occurrences.
+         */
+        private final long count;
+
+        /**
+         * Creates an entry.
+         *
+         * @param fingerprint JA3 hash
+         * @param count estimated number of occurrences
+         */
+        Entry(final JA3Fingerprint fingerprint, final long count) {
+            this.fingerprint = fingerprint;
+            this.count = count;
+        }
+
+        /**
+         * @return JA3 hash
+         */
+        public JA3Fingerprint getFingerprint() {
+            return fingerprint;
+        }
+
+        /**
+         * @return estimated number of occurrences
+         */
+        public long getCount() {
+            return count;
+        }
+
+        @Override
+        public String toString() {
+            return fingerprint + "=" + count;
+        }
+    }
+}
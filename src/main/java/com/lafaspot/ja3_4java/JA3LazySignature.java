@@ -0,0 +1,102 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.util.Arrays;
+
+/**
+ * JA3 signature computed on first use. Only the ClientHello fields JA3 is made of are kept, as a compact array of 16-bit values; the JA3
+ * string and MD5 hash are built the first time they are read, on the reading thread, and then memoized.
+ * <p>
+ * Being a {@link CharSequence}, the value reads like the JA3 string stored by the eager mode of {@link JA3SSLEngineWrapper}.
+ *
+ * @see JA3Configuration.Builder#lazy(boolean)
+ */
+public final class JA3LazySignature implements CharSequence {
+    /**
+     * ClientHello structure key, as built by {@link JA3Signature}.
+     */
+    private final char[] key;
+
+    /**
+     * Per-thread parsers used to compute the values.
+     */
+    private final ThreadLocal<JA3Signature> signatures;
+
+    /**
+     * Memoized JA3 string, safe to race on since strings are immutable.
+     */
+    private String ja3;
+
+    /**
+     * Memoized JA3 MD5 hash, safe to race on since fingerprints are immutable.
+     */
+    private JA3Fingerprint fingerprint;
+
+    /**
+     * Creates a lazy signature.
+     *
+     * @param key ClientHello structure key, not copied
+     * @param signatures per-thread parsers used to compute the values
+     */
+    JA3LazySignature(final char[] key, final ThreadLocal<JA3Signature> signatures) {
+        this.key = key;
+        this.signatures = signatures;
+    }
+
+    /**
+     * @return JA3 MD5 hash, computed without building the JA3 string if it has not been read yet
+     */
+    public JA3Fingerprint fingerprint() {
+        JA3Fingerprint f = fingerprint;
+        if (f == null) {
+            f = signatures.get().keyFingerprint(key);
+            fingerprint = f;
+        }
+        return f;
+    }
+
+    @Override
+    public String toString() {
+        String s = ja3;
+        if (s == null) {
+            s = signatures.get().keySignature(key);
+            ja3 = s;
+        }
+        return s;
+    }
+
+    @Override
+    public int length() {
+        return toString().length();
+    }
+
+    @Override
+    public char charAt(final int index) {
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(final int start, final int end) {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof JA3LazySignature)) {
+            return false;
+        }
+        return Arrays.equals(key, ((JA3LazySignature) obj).key);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(key);
+    }
+}
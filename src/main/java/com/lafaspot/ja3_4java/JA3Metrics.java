@@ -0,0 +1,462 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.beans.ConstructorProperties;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latency histograms of fingerprinting, exposed as an MXBean:
+ *
+ * <pre>
+ * JA3Metrics metrics = new JA3Metrics();
+ * metrics.register("frontend");
+ * JA3Configuration configuration = JA3Configuration.builder().metrics(metrics).build();
+ * </pre>
+ *
+ * Counters are {@link LongAdder}s, striped across threads under contention. Latencies go to log-linear histograms with 16 buckets per
+ * power of two, so percentiles are within about 6% of the recorded values, up to about 18 minutes; each record is three striped adds.
+ * Without metrics in the configuration nothing is recorded and the clock is not read.
+ * <p>
+ * Instances are thread safe and can be shared by several configurations.
+ */
+public final class JA3Metrics implements JA3MetricsMXBean {
+    /**
+     * Domain of the registered object names.
+     */
+    public static final String DOMAIN = "com.lafaspot.ja3_4java";
+
+    /**
+     * Reasons of parse failures.
+     */
+    private static final ParseFailure[] REASONS = ParseFailure.values();
+
+    /**
+     * Number of ClientHellos fingerprinted.
+     */
+    private final LongAdder fingerprints = new LongAdder();
+
+    /**
+     * Number of ClientHellos fingerprinted after reassembly.
+     */
+    private final LongAdder reassembled = new LongAdder();
+
+    /**
+     * Number of handshakes rejected by a filter.
+     */
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Number of parse failures, indexed by reason ordinal.
+     */
+    private final LongAdder[] failures = new LongAdder[REASONS.length];
+
+    /**
+     * Time spent fingerprinting ClientHellos.
+     */
+    private final Histogram parse = new Histogram();
+
+    /**
+     * Time spent by the wrapper in each unwrap beyond the wrapped engine.
+     */
+    private final Histogram unwrap = new Histogram();
+
+    /**
+     * Creates metrics with all counters at zero.
+     */
+    public JA3Metrics() {
+        for (int i = 0; i < failures.length; i++) {
+            failures[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Register these metrics in the platform MBean server, under {@code com.lafaspot.ja3_4java:type=JA3Metrics,name=<name>}.
+     *
+     * @param name name of the metrics, such as the name of the listener
+     * @return the name the metrics are registered under, to unregister them
+     * @throws JMException when the name is invalid or already registered
+     */
+    public ObjectName register(final String name) throws JMException {
+        final ObjectName objectName = ObjectName.getInstance(DOMAIN + ":type=JA3Metrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    @Override
+    public long getFingerprints() {
+        return fingerprints.sum();
+    }
+
+    @Override
+    public long getReassembledClientHellos() {
+        return reassembled.sum();
+    }
+
+    @Override
+    public long getRejectedHandshakes() {
+        return rejected.sum();
+    }
+
+    @Override
+    public Map<String, Long> getParseFailures() {
+        final Map<String, Long> counts = new LinkedHashMap<>();
+        for (final ParseFailure reason : REASONS) {
+            counts.put(reason.name(), failures[reason.ordinal()].sum());
+        }
+        return counts;
+    }
+
+    @Override
+    public Latency getParseLatency() {
+        return parse.snapshot();
+    }
+
+    @Override
+    public Latency getUnwrapOverhead() {
+        return unwrap.snapshot();
+    }
+
+    @Override
+    public void reset() {
+        fingerprints.reset();
+        reassembled.reset();
+        rejected.reset();
+        for (final LongAdder failure : failures) {
+            failure.reset();
+        }
+        parse.reset();
+        unwrap.reset();
+    }
+
+    /**
+     * Record a ClientHello fingerprinted.
+     *
+     * @param nanos time spent parsing it
+     * @param wasReassembled true if it was reassembled from several records or reads
+     */
+    void fingerprinted(final long nanos, final boolean wasReassembled) {
+        fingerprints.increment();
+        if (wasReassembled) {
+            reassembled.increment();
+        }
+        parse.record(nanos);
+    }
+
+    /**
+     * Record a connection that could not be fingerprinted.
+     *
+     * @param reason reason of the failure
+     */
+    void failed(final ParseFailure reason) {
+        failures[reason.ordinal()].increment();
+    }
+
+    /**
+     * Record a handshake rejected by a filter.
+     */
+    void rejected() {
+        rejected.increment();
+    }
+
+    /**
+     * Record the overhead of an unwrap.
+     *
+     * @param nanos time spent beyond the wrapped engine
+     */
+    void unwrapped(final long nanos) {
+        unwrap.record(nanos);
+    }
+
+    /**
+     * Snapshot of a latency histogram, in nanoseconds. Percentiles are the highest value of the histogram bucket they fall in.
+     */
+    public static final class Latency {
+        /**
+         * Number of values recorded.
+         */
+        private final long count;
+
+        /**
+         * Mean of the values.
+         */
+        private final double mean;
+
+        /**
+         * Median.
+         */
+        private final long p50;
+
+        /**
+         * 90th percentile.
+         */
+        private final long p90;
+
+        /**
+         * 99th percentile.
+         */
+        private final long p99;
+
+        /**
+         * 99.9th percentile.
+         */
+        private final long p999;
+
+        /**
+         * Largest value.
+         */
+        private final long max;
+
+        /**
+         * Creates a snapshot.
+         *
+         * @param count number of values recorded
+         * @param mean mean of the values
+         * @param p50 median
+         * @param p90 90th percentile
+         * @param p99 99th percentile
+         * @param p999 99.9th percentile
+         * @param max largest value
+         */
+        @ConstructorProperties({ "count", "mean", "p50", "p90", "p99", "p999", "max" })
+        public Latency(final long count, final double mean, final long p50, final long p90, final long p99, final long p999, final long max) {
+            this.count = count;
+            this.mean = mean;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.p999 = p999;
+            this.max = max;
+        }
+
+        /**
+         * @return number of values recorded
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return mean of the values, 0 if none
+         */
+        public double getMean() {
+            return mean;
+        }
+
+        /**
+         * @return median
+         */
+        public long getP50() {
+            return p50;
+        }
+
+        /**
+         * @return 90th percentile
+         */
+        public long getP90() {
+            return p90;
+        }
+
+        /**
+         * @return 99th percentile
+         */
+        public long getP99() {
+            return p99;
+        }
+
+        /**
+         * @return 99.9th percentile
+         */
+        public long getP999() {
+            return p999;
+        }
+
+        /**
+         * @return largest value
+         */
+        public long getMax() {
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count + " mean=" + mean + " p50=" + p50 + " p90=" + p90 + " p99=" + p99 + " p999=" + p999 + " max=" + max;
+        }
+    }
+
+    /**
+     * Log-linear histogram of non negative values: values below 16 have their own bucket, larger values share a bucket with values that have
+     * the same 4 most significant bits.
+     */
+    static final class Histogram {
+        /**
+         * Number of significant bits that select the bucket within a power of two.
+         */
+        private static final int SUB_BITS = 4;
+
+        /**
+         * Number of buckets per power of two.
+         */
+        private static final int SUB_COUNT = 16;
+
+        /**
+         * Largest value told apart, about 18 minutes in nanoseconds; larger values go to the last bucket.
+         */
+        private static final long MAX_VALUE = 1099511627775L;
+
+        /**
+         * Number of buckets.
+         */
+        private static final int BUCKETS = bucket(MAX_VALUE) + 1;
+
+        /**
+         * 50th percentile.
+         */
+        private static final double P50 = 0.5;
+
+        /**
+         * 90th percentile.
+         */
+        private static final double P90 = 0.9;
+
+        /**
+         * 99th percentile.
+         */
+        private static final double P99 = 0.99;
+
+        /**
+         * 99.9th percentile.
+         */
+        private static final double P999 = 0.999;
+
+        /**
+         * Operator keeping the largest value.
+         */
+        private static final LongBinaryOperator MAX = new LongBinaryOperator() {
+            @Override
+            public long applyAsLong(final long left, final long right) {
+                return Math.max(left, right);
+            }
+        };
+
+        /**
+         * Number of values in each bucket.
+         */
+        private final LongAdder[] counts = new LongAdder[BUCKETS];
+
+        /**
+         * Sum of the values.
+         */
+        private final LongAdder sum = new LongAdder();
+
+        /**
+         * Largest value.
+         */
+        private final LongAccumulator max = new LongAccumulator(MAX, 0);
+
+        /**
+         * Creates an empty histogram.
+         */
+        Histogram() {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * @param value value to record
+         * @return index of the bucket of the value
+         */
+        static int bucket(final long value) {
+            if (value < SUB_COUNT) {
+                return value < 0 ? 0 : (int) value;
+            }
+            final long v = Math.min(value, MAX_VALUE);
+            final int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(v);
+            return (exponent - SUB_BITS + 1) * SUB_COUNT + (int) ((v >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1));
+        }
+
+        /**
+         * @param bucket index of a bucket
+         * @return smallest value of the bucket
+         */
+        static long lowestValue(final int bucket) {
+            if (bucket < SUB_COUNT) {
+                return bucket;
+            }
+            final int exponent = bucket / SUB_COUNT + SUB_BITS - 1;
+            return (long) (SUB_COUNT + bucket % SUB_COUNT) << (exponent - SUB_BITS);
+        }
+
+        /**
+         * Record a value.
+         *
+         * @param value value to record
+         */
+        void record(final long value) {
+            counts[bucket(value)].increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        /**
+         * Set the histogram back to empty.
+         */
+        void reset() {
+            for (final LongAdder count : counts) {
+                count.reset();
+            }
+            sum.reset();
+            max.reset();
+        }
+
+        /**
+         * @return a snapshot of the histogram, consistent only if no value is recorded meanwhile
+         */
+        Latency snapshot() {
+            final long[] values = new long[BUCKETS];
+            long count = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                values[i] = counts[i].sum();
+                count += values[i];
+            }
+            final long largest = max.get();
+            return new Latency(count, count == 0 ? 0 : (double) sum.sum() / count, percentile(values, count, P50, largest),
+                    percentile(values, count, P90, largest), percentile(values, count, P99, largest), percentile(values, count, P999, largest),
+                    largest);
+        }
+
+        /**
+         * @param values number of values in each bucket
+         * @param count total number of values
+         * @param fraction percentile, from 0 to 1
+         * @param largest largest value recorded
+         * @return highest value of the bucket holding the percentile, at most the largest value recorded
+         */
+        private static long percentile(final long[] values, final long count, final double fraction, final long largest) {
+            if (count == 0) {
+                return 0;
+            }
+            final long rank = Math.max(1, (long) Math.ceil(fraction * count));
+            long seen = 0;
+            for (int i = 0; i < values.length; i++) {
+                seen += values[i];
+                if (seen >= rank) {
+                    return i + 1 < BUCKETS ? Math.min(lowestValue(i + 1) - 1, largest) : largest;
+                }
+            }
+            return largest;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link JA3Metrics}.
+ */
+public interface JA3MetricsMXBean {
+    /**
+     * @return number of ClientHellos fingerprinted
+     */
+    long getFingerprints();
+
+    /**
+     * @return number of ClientHellos fingerprinted after being reassembled from several TLS records or reads
+     */
+    long getReassembledClientHellos();
+
+    /**
+     * @return number of handshakes rejected by a {@link JA3HandshakeFilter}
+     */
+    long getRejectedHandshakes();
+
+    /**
+     * @return number of connections that could not be fingerprinted, by reason
+     */
+    Map<String, Long> getParseFailures();
+
+    /**
+     * @return time spent parsing ClientHellos and computing their fingerprints
+     */
+    JA3Metrics.Latency getParseLatency();
+
+    /**
+     * @return time spent by {@link JA3SSLEngineWrapper} in each {@code unwrap} beyond the wrapped engine, until the fingerprint is set
+     */
+    JA3Metrics.Latency getUnwrapOverhead();
+
+    /**
+     * Set all counters and histograms back to zero.
+     */
+    void reset();
+}
@@ -0,0 +1,24 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+/**
+ * Output format of the lines written by the command line tools.
+ *
+ * @see JA3PcapTool
+ * @see JA3FingerprintLogReader
+ */
+public enum JA3OutputFormat {
+    /**
+     * Comma separated values with a header line.
+     */
+    CSV,
+
+    /**
+     * One JSON object per line.
+     */
+    NDJSON
+}
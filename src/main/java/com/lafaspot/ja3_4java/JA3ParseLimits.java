@@ -0,0 +1,107 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+/**
+ * Immutable bounds on the work spent on one ClientHello, so that hostile clients sending maximum-size records packed with thousands of cipher
+ * suites or tiny extensions cannot make fingerprinting expensive. A ClientHello beyond a limit is given up as soon as the limit is known to be
+ * exceeded, before its lists are walked, and reported as over budget:
+ *
+ * <pre>
+ * JA3Configuration configuration = JA3Configuration.builder().parseLimits(new JA3ParseLimits(256, 64, 8192, 8192)).build();
+ * </pre>
+ *
+ * Over budget ClientHellos are counted by {@link JA3Metrics} under {@code OVER_BUDGET}, and can be rejected with
+ * {@link JA3Configuration.Builder#rejectOverBudget(boolean)}.
+ */
+public final class JA3ParseLimits {
+    /**
+     * No limits beyond the 64 KiB bound of a reassembled ClientHello.
+     */
+    public static final JA3ParseLimits UNLIMITED = new JA3ParseLimits(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+
+    /**
+     * Default limits of {@link JA3Configuration}, several times what browsers, TLS libraries and embedded stacks send: 512 cipher suites,
+     * 128 extensions and 16 KiB, the largest record payload, for both the message parsed and the message reassembled.
+     */
+    public static final JA3ParseLimits DEFAULT = new JA3ParseLimits(512, 128, 16384, 16384);
+
+    /**
+     * Largest number of cipher suites.
+     */
+    private final int maxCiphers;
+
+    /**
+     * Largest number of extensions.
+     */
+    private final int maxExtensions;
+
+    /**
+     * Largest ClientHello handshake message parsed, in bytes.
+     */
+    private final int maxBytes;
+
+    /**
+     * Largest ClientHello handshake message reassembled across records or reads, in bytes.
+     */
+    private final int maxReassembledLength;
+
+    /**
+     * Creates limits.
+     *
+     * @param maxCiphers largest number of cipher suites, GREASE values included
+     * @param maxExtensions largest number of extensions, GREASE values included
+     * @param maxBytes largest ClientHello handshake message parsed, in bytes, header included
+     * @param maxReassembledLength largest ClientHello handshake message buffered when it spans several records or reads, in bytes, header
+     *            included
+     * @throws IllegalArgumentException when a limit is not positive
+     */
+    public JA3ParseLimits(final int maxCiphers, final int maxExtensions, final int maxBytes, final int maxReassembledLength)
+            throws IllegalArgumentException {
+        if (maxCiphers <= 0 || maxExtensions <= 0 || maxBytes <= 0 || maxReassembledLength <= 0) {
+            throw new IllegalArgumentException("Limits must be positive: " + maxCiphers + ", " + maxExtensions + ", " + maxBytes + ", "
+                    + maxReassembledLength);
+        }
+        this.maxCiphers = maxCiphers;
+        this.maxExtensions = maxExtensions;
+        this.maxBytes = maxBytes;
+        this.maxReassembledLength = maxReassembledLength;
+    }
+
+    /**
+     * @return largest number of cipher suites
+     */
+    public int getMaxCiphers() {
+        return maxCiphers;
+    }
+
+    /**
+     * @return largest number of extensions
+     */
+    public int getMaxExtensions() {
+        return maxExtensions;
+    }
+
+    /**
+     * @return largest ClientHello handshake message parsed, in bytes
+     */
+    public int getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return largest ClientHello handshake message reassembled across records or reads, in bytes
+     */
+    public int getMaxReassembledLength() {
+        return maxReassembledLength;
+    }
+
+    @Override
+    public String toString() {
+        return "JA3ParseLimits[ciphers=" + maxCiphers + ", extensions=" + maxExtensions + ", bytes=" + maxBytes + ", reassembled="
+                + maxReassembledLength + "]";
+    }
+}
@@ -0,0 +1,719 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Offline bulk fingerprinting of pcap and pcapng capture files.
+ * <p>
+ * The capture is memory mapped one window at a time and its TCP packets are dealt to shards by flow, so that each flow is reassembled by a
+ * single shard in capture order. Shards run on a fork-join pool, one batch of packets at a time, while the next batch is read. Each
+ * ClientHello is run through {@link JA3Signature}; one line per fingerprinted flow is streamed to the flow output, in capture order, and
+ * the number of flows of each JA3 fingerprint is counted. Memory is bounded by the batch size, the number of flows tracked and the bytes
+ * they hold, whatever the size of the capture.
+ *
+ * <pre>
+ * java -cp ja3_4java.jar com.lafaspot.ja3_4java.JA3PcapTool [--format csv|ndjson] [--threads N] [--flows FILE] [--counts FILE] capture...
+ * </pre>
+ *
+ * Instances are not thread safe.
+ */
+public final class JA3PcapTool implements Closeable {
+    /**
+     * Default largest number of flows tracked at once, over all shards.
+     */
+    static final int DEFAULT_MAX_FLOWS = 1048576;
+
+    /**
+     * Default largest number of bytes held by the flows being reassembled, over all shards.
+     */
+    static final long DEFAULT_MAX_BYTES = 268435456L;
+
+    /**
+     * Number of packets read per batch.
+     */
+    private static final int BATCH_PACKETS = 16384;
+
+    /**
+     * Number of offsets stored per packet in a shard.
+     */
+    private static final int FIELDS = 4;
+
+    /**
+     * Index of the IP header offset among the offsets of a packet.
+     */
+    private static final int IP = 0;
+
+    /**
+     * Index of the TCP header offset among the offsets of a packet.
+     */
+    private static final int TCP = 1;
+
+    /**
+     * Index of the payload offset among the offsets of a packet.
+     */
+    private static final int PAYLOAD = 2;
+
+    /**
+     * Index of the payload length among the offsets of a packet.
+     */
+    private static final int LENGTH = 3;
+
+    /**
+     * Number of entries of the JA3 cache shared by the shards.
+     */
+    private static final int CACHE_SIZE = 4096;
+
+    /**
+     * Microseconds per second.
+     */
+    private static final int MICROS = 1000000;
+
+    /**
+     * Number of fraction digits of a timestamp.
+     */
+    private static final int MICROS_DIGITS = 6;
+
+    /**
+     * Header line of the CSV flow output.
+     */
+    private static final String CSV_HEADER = "timestamp,src_ip,src_port,dst_ip,dst_port,ja3_hash,ja4,ja3\n";
+
+    /**
+     * Header line of the counts output.
+     */
+    private static final String COUNTS_HEADER = "count,ja3_hash,ja3\n";
+
+    /**
+     * Orders flow records by packet.
+     */
+    private static final Comparator<FlowRecord> BY_PACKET = new Comparator<FlowRecord>() {
+        @Override
+        public int compare(final FlowRecord a, final FlowRecord b) {
+            return Long.compare(a.packet, b.packet);
+        }
+    };
+
+    /**
+     * Pool the shards run on.
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * Format of the flow lines.
+     */
+    private final JA3OutputFormat format;
+
+    /**
+     * Size of a mapped window.
+     */
+    private final int windowSize;
+
+    /**
+     * Flow tables, one per shard.
+     */
+    private final TcpFlowTable[] tables;
+
+    /**
+     * Flow counts of each JA3 fingerprint, one map per shard.
+     */
+    private final List<Map<JA3Fingerprint, FingerprintCount>> counts = new ArrayList<>();
+
+    /**
+     * Batches alternately read and processed.
+     */
+    private final Batch[] batches = new Batch[2];
+
+    /**
+     * Decoder of the packet headers.
+     */
+    private final TcpSegment segment = new TcpSegment();
+
+    /**
+     * Number of packets read.
+     */
+    private long packetCount;
+
+    /**
+     * Number of ClientHellos fingerprinted.
+     */
+    private long clientHelloCount;
+
+    /**
+     * True once the CSV header was written.
+     */
+    private boolean headerWritten;
+
+    /**
+     * Creates a tool.
+     *
+     * @param threads number of worker threads
+     * @param format format of the flow lines
+     * @throws IllegalArgumentException when the number of threads is not positive
+     */
+    public JA3PcapTool(final int threads, final JA3OutputFormat format) throws IllegalArgumentException {
+        this(threads, format, PcapReader.DEFAULT_WINDOW, DEFAULT_MAX_FLOWS, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Creates a tool.
+     *
+     * @param threads number of worker threads
+     * @param format format of the flow lines
+     * @param windowSize size of a mapped window
+     * @param maxFlows largest number of flows tracked at once, over all shards
+     * @param maxBytes largest number of bytes held by the flows being reassembled, over all shards
+     * @throws IllegalArgumentException when the number of threads is not positive
+     */
+    JA3PcapTool(final int threads, final JA3OutputFormat format, final int windowSize, final int maxFlows, final long maxBytes)
+            throws IllegalArgumentException {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        this.pool = new ForkJoinPool(threads);
+        this.format = format;
+        this.windowSize = windowSize;
+        final JA3Cache cache = new JA3Cache(CACHE_SIZE);
+        this.tables = new TcpFlowTable[threads];
+        for (int i = 0; i < threads; i++) {
+            tables[i] = new TcpFlowTable(Math.max(1, maxFlows / threads), maxBytes / threads, cache);
+            counts.add(new HashMap<JA3Fingerprint, FingerprintCount>());
+        }
+        for (int i = 0; i < batches.length; i++) {
+            batches[i] = new Batch(threads);
+        }
+    }
+
+    /**
+     * Fingerprint the ClientHellos of a capture file, writing one line per fingerprinted flow.
+     *
+     * @param file pcap or pcapng file
+     * @param flows output of the flow lines
+     * @throws IOException when the file cannot be read or is corrupt, or the output cannot be written
+     */
+    public void process(final Path file, final Writer flows) throws IOException {
+        if (format == JA3OutputFormat.CSV && !headerWritten) {
+            flows.write(CSV_HEADER);
+            headerWritten = true;
+        }
+        try (PcapReader reader = new PcapReader(file, windowSize)) {
+            Batch filling = batches[0];
+            Batch running = null;
+            ForkJoinTask<?> task = null;
+            boolean more = true;
+            while (more || task != null) {
+                filling.clear();
+                while (more && filling.size < BATCH_PACKETS) {
+                    more = reader.next();
+                    if (more) {
+                        read(reader, filling);
+                    }
+                }
+                if (task != null) {
+                    task.join();
+                    write(running, flows);
+                    task = null;
+                }
+                if (filling.size > 0) {
+                    task = pool.submit(filling);
+                    running = filling;
+                    filling = filling == batches[0] ? batches[1] : batches[0];
+                }
+            }
+        } finally {
+            for (final TcpFlowTable table : tables) {
+                table.clear();
+            }
+        }
+        flows.flush();
+    }
+
+    /**
+     * Write the number of fingerprinted flows of each JA3 fingerprint, most frequent first, as CSV.
+     *
+     * @param out output of the counts
+     * @throws IOException when the output cannot be written
+     */
+    public void writeCounts(final Writer out) throws IOException {
+        final List<FingerprintCount> all = new ArrayList<>(merge().values());
+        Collections.sort(all, new Comparator<FingerprintCount>() {
+            @Override
+            public int compare(final FingerprintCount a, final FingerprintCount b) {
+                return Long.compare(b.count, a.count);
+            }
+        });
+        out.write(COUNTS_HEADER);
+        for (final FingerprintCount count : all) {
+            out.write(Long.toString(count.count));
+            out.write(',');
+            out.write(count.hash.toHex());
+            out.write(",\"");
+            out.write(count.ja3);
+            out.write("\"\n");
+        }
+        out.flush();
+    }
+
+    /**
+     * @param hash JA3 hash
+     * @return number of flows fingerprinted with the hash
+     */
+    public long count(final JA3Fingerprint hash) {
+        final FingerprintCount count = merge().get(hash);
+        return count == null ? 0 : count.count;
+    }
+
+    /**
+     * @return number of packets read
+     */
+    public long packetCount() {
+        return packetCount;
+    }
+
+    /**
+     * @return number of ClientHellos fingerprinted
+     */
+    public long clientHelloCount() {
+        return clientHelloCount;
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    /**
+     * Command line entry point.
+     *
+     * @param args options followed by the capture files
+     * @throws IOException when a file cannot be read or an output cannot be written
+     * @throws IllegalArgumentException when the arguments are not valid
+     */
+    public static void main(final String[] args) throws IOException, IllegalArgumentException {
+        JA3OutputFormat format = JA3OutputFormat.CSV;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String flowsPath = "-";
+        String countsPath = null;
+        int i = 0;
+        while (i < args.length && args[i].startsWith("--")) {
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value of " + args[i]);
+            }
+            final String value = args[i + 1];
+            switch (args[i]) {
+            case "--format":
+                format = JA3OutputFormat.valueOf(value.toUpperCase(Locale.ROOT));
+                break;
+            case "--threads":
+                threads = Integer.parseInt(value);
+                break;
+            case "--flows":
+                flowsPath = value;
+                break;
+            case "--counts":
+                countsPath = value;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+            i += 2;
+        }
+        if (i == args.length) {
+            throw new IllegalArgumentException(
+                    "Usage: JA3PcapTool [--format csv|ndjson] [--threads N] [--flows FILE|-] [--counts FILE|-] capture...");
+        }
+        try (JA3PcapTool tool = new JA3PcapTool(threads, format); Writer flows = open(flowsPath)) {
+            for (final String file : Arrays.asList(args).subList(i, args.length)) {
+                tool.process(Paths.get(file), flows);
+            }
+            if (countsPath != null) {
+                try (Writer out = open(countsPath)) {
+                    tool.writeCounts(out);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param path file to write, or - for the standard output
+     * @return buffered writer of the file
+     * @throws IOException when the file cannot be created
+     */
+    private static Writer open(final String path) throws IOException {
+        if ("-".equals(path)) {
+            return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8));
+        }
+        return Files.newBufferedWriter(Paths.get(path), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decode the current packet of the reader and deal it to its shard.
+     *
+     * @param reader reader positioned on a packet
+     * @param batch batch to add the packet to
+     */
+    private void read(final PcapReader reader, final Batch batch) {
+        final ByteBuffer window = reader.window();
+        final long packet = packetCount++;
+        if (segment.decode(window, reader.dataOffset(), reader.dataLength(), reader.linkType())) {
+            final int shard = (segment.flowHash(window) & Integer.MAX_VALUE) % tables.length;
+            batch.shards[shard].add(window, segment, reader.timestamp(), packet);
+            batch.size++;
+        }
+    }
+
+    /**
+     * Write the flow lines of a processed batch in capture order and count its fingerprints.
+     *
+     * @param batch processed batch
+     * @param out output of the flow lines
+     * @throws IOException when the output cannot be written
+     */
+    private void write(final Batch batch, final Writer out) throws IOException {
+        final List<FlowRecord> records = new ArrayList<>();
+        for (final Shard shard : batch.shards) {
+            records.addAll(shard.records);
+        }
+        Collections.sort(records, BY_PACKET);
+        final StringBuilder line = new StringBuilder();
+        for (final FlowRecord record : records) {
+            line.setLength(0);
+            if (format == JA3OutputFormat.CSV) {
+                appendTimestamp(line, record.timestamp).append(',').append(record.source).append(',').append(record.sourcePort).append(',')
+                        .append(record.destination).append(',').append(record.destinationPort).append(',').append(record.ja3Hash.toHex())
+                        .append(',').append(record.ja4).append(",\"").append(record.ja3).append("\"\n");
+            } else {
+                appendTimestamp(line.append("{\"ts\":"), record.timestamp).append(",\"src\":\"").append(record.source).append("\",\"sport\":")
+                        .append(record.sourcePort).append(",\"dst\":\"").append(record.destination).append("\",\"dport\":")
+                        .append(record.destinationPort).append(",\"ja3_hash\":\"").append(record.ja3Hash.toHex()).append("\",\"ja4\":\"")
+                        .append(record.ja4).append("\",\"ja3\":\"").append(record.ja3).append("\"}\n");
+            }
+            out.append(line);
+        }
+        clientHelloCount += records.size();
+    }
+
+    /**
+     * Append a timestamp as seconds since the epoch with a microsecond fraction.
+     *
+     * @param line line to append to
+     * @param timestamp microseconds since the epoch
+     * @return the line
+     */
+    private static StringBuilder appendTimestamp(final StringBuilder line, final long timestamp) {
+        final String fraction = Long.toString(MICROS + Math.floorMod(timestamp, MICROS));
+        return line.append(Math.floorDiv(timestamp, MICROS)).append('.').append(fraction, 1, 1 + MICROS_DIGITS);
+    }
+
+    /**
+     * @return the flow counts of all shards
+     */
+    private Map<JA3Fingerprint, FingerprintCount> merge() {
+        final Map<JA3Fingerprint, FingerprintCount> merged = new HashMap<>();
+        for (final Map<JA3Fingerprint, FingerprintCount> shard : counts) {
+            for (final FingerprintCount count : shard.values()) {
+                final FingerprintCount total = merged.get(count.hash);
+                if (total == null) {
+                    merged.put(count.hash, new FingerprintCount(count.hash, count.ja3, count.count));
+                } else {
+                    total.count += count.count;
+                }
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Packets of one batch, dealt to shards; processing the batch processes the shards in parallel.
+     */
+    private final class Batch extends RecursiveAction {
+        /**
+         * Serialization version.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Packets of each shard.
+         */
+        private final Shard[] shards;
+
+        /**
+         * Number of packets in the batch.
+         */
+        private int size;
+
+        /**
+         * Creates an empty batch.
+         *
+         * @param count number of shards
+         */
+        Batch(final int count) {
+            shards = new Shard[count];
+            for (int i = 0; i < count; i++) {
+                shards[i] = new Shard(i);
+            }
+        }
+
+        /**
+         * Empty the batch so that it can be filled again.
+         */
+        void clear() {
+            reinitialize();
+            size = 0;
+            for (final Shard shard : shards) {
+                shard.clear();
+            }
+        }
+
+        @Override
+        protected void compute() {
+            final List<Shard> work = new ArrayList<>();
+            for (final Shard shard : shards) {
+                if (shard.size > 0) {
+                    work.add(shard);
+                }
+            }
+            invokeAll(work);
+        }
+    }
+
+    /**
+     * Packets of one shard in a batch, kept as offsets in the mapped windows.
+     */
+    private final class Shard extends RecursiveAction {
+        /**
+         * Serialization version.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Index of the shard.
+         */
+        private final int index;
+
+        /**
+         * Window of each packet.
+         */
+        private ByteBuffer[] windows = new ByteBuffer[0];
+
+        /**
+         * Offsets of the IP header, TCP header and payload, and length of the payload, of each packet.
+         */
+        private int[] offsets = new int[0];
+
+        /**
+         * Timestamp of each packet.
+         */
+        private long[] timestamps = new long[0];
+
+        /**
+         * Index of each packet in the capture.
+         */
+        private long[] packets = new long[0];
+
+        /**
+         * Number of packets.
+         */
+        private int size;
+
+        /**
+         * Flows fingerprinted by the last run.
+         */
+        private final List<FlowRecord> records = new ArrayList<>();
+
+        /**
+         * Creates an empty shard.
+         *
+         * @param index index of the shard
+         */
+        Shard(final int index) {
+            this.index = index;
+        }
+
+        /**
+         * Add a decoded packet.
+         *
+         * @param window window holding the packet
+         * @param decoded decoded headers of the packet
+         * @param timestamp timestamp of the packet
+         * @param packet index of the packet in the capture
+         */
+        void add(final ByteBuffer window, final TcpSegment decoded, final long timestamp, final long packet) {
+            if (size == windows.length) {
+                final int length = Math.max(1, size * 2);
+                windows = Arrays.copyOf(windows, length);
+                offsets = Arrays.copyOf(offsets, length * FIELDS);
+                timestamps = Arrays.copyOf(timestamps, length);
+                packets = Arrays.copyOf(packets, length);
+            }
+            windows[size] = window;
+            final int o = size * FIELDS;
+            offsets[o + IP] = decoded.ipOffset();
+            offsets[o + TCP] = decoded.tcpOffset();
+            offsets[o + PAYLOAD] = decoded.payloadOffset();
+            offsets[o + LENGTH] = decoded.payloadLength();
+            timestamps[size] = timestamp;
+            packets[size] = packet;
+            size++;
+        }
+
+        /**
+         * Empty the shard so that it can be filled again.
+         */
+        void clear() {
+            reinitialize();
+            Arrays.fill(windows, 0, size, null);
+            size = 0;
+            records.clear();
+        }
+
+        @Override
+        protected void compute() {
+            final TcpFlowTable table = tables[index];
+            final Map<JA3Fingerprint, FingerprintCount> shardCounts = counts.get(index);
+            for (int i = 0; i < size; i++) {
+                final int o = i * FIELDS;
+                final ClientHelloFingerprints found = table.segment(windows[i], offsets[o + IP], offsets[o + TCP], offsets[o + PAYLOAD],
+                        offsets[o + LENGTH]);
+                if (found != null) {
+                    records.add(new FlowRecord(packets[i], timestamps[i], table, found));
+                    final FingerprintCount count = shardCounts.get(found.getJa3Hash());
+                    if (count == null) {
+                        shardCounts.put(found.getJa3Hash(), new FingerprintCount(found.getJa3Hash(), found.getJa3(), 1));
+                    } else {
+                        count.count++;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Fingerprints of one flow.
+     */
+    private static final class FlowRecord {
+        /**
+         * Index of the packet that completed the ClientHello.
+         */
+        private final long packet;
+
+        /**
+         * Timestamp of that packet, in microseconds since the epoch.
+         */
+        private final long timestamp;
+
+        /**
+         * Source address.
+         */
+        private final String source;
+
+        /**
+         * Source port.
+         */
+        private final int sourcePort;
+
+        /**
+         * Destination address.
+         */
+        private final String destination;
+
+        /**
+         * Destination port.
+         */
+        private final int destinationPort;
+
+        /**
+         * JA3 string.
+         */
+        private final String ja3;
+
+        /**
+         * JA3 hash.
+         */
+        private final JA3Fingerprint ja3Hash;
+
+        /**
+         * JA4 fingerprint.
+         */
+        private final String ja4;
+
+        /**
+         * Creates a record.
+         *
+         * @param packet index of the packet that completed the ClientHello
+         * @param timestamp timestamp of that packet
+         * @param table flow table that fingerprinted the flow, still on its last segment
+         * @param found fingerprints of the flow
+         */
+        FlowRecord(final long packet, final long timestamp, final TcpFlowTable table, final ClientHelloFingerprints found) {
+            this.packet = packet;
+            this.timestamp = timestamp;
+            this.source = table.sourceAddress();
+            this.sourcePort = table.sourcePort();
+            this.destination = table.destinationAddress();
+            this.destinationPort = table.destinationPort();
+            this.ja3 = found.getJa3();
+            this.ja3Hash = found.getJa3Hash();
+            this.ja4 = found.getJa4();
+        }
+    }
+
+    /**
+     * Number of flows of one JA3 fingerprint.
+     */
+    private static final class FingerprintCount {
+        /**
+         * JA3 hash.
+         */
+        private final JA3Fingerprint hash;
+
+        /**
+         * JA3 string.
+         */
+        private final String ja3;
+
+        /**
+         * Number of flows.
+         */
+        private long count;
+
+        /**
+         * Creates a count.
+         *
+         * @param hash JA3 hash
+         * @param ja3 JA3 string
+         * @param count number of flows
+         */
+        FingerprintCount(final JA3Fingerprint hash, final String ja3, final long count) {
+            this.hash = hash;
+            this.ja3 = ja3;
+            this.count = count;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.Security;
+
+import javax.net.ssl.SSLContextSpi;
+
+/**
+ * JSSE provider whose {@code SSLContext} creates {@link JA3SSLEngineWrapper} engines. Each context wraps the context of the same algorithm
+ * from the next installed provider, usually SunJSSE.
+ * <p>
+ * The provider registers the standard algorithm names, so installing it first makes every {@code SSLContext.getInstance("TLS")} of the JVM
+ * fingerprint clients, with no code change. For example, in {@code java.security}:
+ *
+ * <pre>
+ * security.provider.1=com.lafaspot.ja3_4java.JA3Provider
+ * </pre>
+ *
+ * It can also be asked for explicitly, without being installed:
+ *
+ * <pre>{@code
+ * SSLContext context = SSLContext.getInstance("TLS", new JA3Provider(configuration));
+ * }</pre>
+ */
+public final class JA3Provider extends Provider {
+    /**
+     * Name of the provider.
+     */
+    public static final String NAME = "JA3";
+
+    /**
+     * SSLContext algorithms registered by the provider.
+     */
+    private static final String[] ALGORITHMS = { "Default", "TLS", "TLSv1", "TLSv1.1", "TLSv1.2", "TLSv1.3", "SSL", "SSLv3" };
+
+    /**
+     * Version of the provider.
+     */
+    private static final double VERSION = 1.0;
+
+    /**
+     * Serialization version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates a provider with the default options.
+     */
+    public JA3Provider() {
+        this(JA3Configuration.DEFAULT);
+    }
+
+    /**
+     * Creates a provider whose engines use the given options.
+     *
+     * @param configuration options of the engine wrappers
+     */
+    public JA3Provider(final JA3Configuration configuration) {
+        super(NAME, VERSION, "SSLContext computing JA3 fingerprints of TLS clients");
+        for (final String algorithm : ALGORITHMS) {
+            putService(new JA3Service(this, algorithm, configuration));
+        }
+    }
+
+    /**
+     * SSLContext service wrapping the service of the same algorithm from the next provider.
+     */
+    private static final class JA3Service extends Service {
+        /**
+         * Options of the engine wrappers.
+         */
+        private final transient JA3Configuration configuration;
+
+        /**
+         * Creates the service.
+         *
+         * @param provider provider of the service
+         * @param algorithm SSLContext algorithm
+         * @param configuration options of the engine wrappers
+         */
+        JA3Service(final Provider provider, final String algorithm, final JA3Configuration configuration) {
+            super(provider, "SSLContext", algorithm, JA3SSLContextSpi.class.getName(), null, null);
+            this.configuration = configuration;
+        }
+
+        @Override
+        public Object newInstance(final Object constructorParameter) throws NoSuchAlgorithmException {
+            for (final Provider provider : Security.getProviders()) {
+                if (provider instanceof JA3Provider) {
+                    continue;
+                }
+                final Service service = provider.getService(getType(), getAlgorithm());
+                if (service != null) {
+                    return new JA3SSLContextSpi((SSLContextSpi) service.newInstance(constructorParameter), configuration);
+                }
+            }
+            throw new NoSuchAlgorithmException("No provider to wrap for SSLContext " + getAlgorithm());
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Filter throttling new handshakes per JA3 hash: each fingerprint gets a token bucket of a number of permits per second, with bursts up to
+ * a given size. Handshakes over the rate are rejected before the server does any key exchange work:
+ *
+ * <pre>
+ * JA3Configuration configuration = JA3Configuration.builder().filter(new JA3RateLimiter(50, 200, 65536)).build();
+ * </pre>
+ *
+ * Buckets live in a fixed size table, so memory is bounded whatever the number of distinct fingerprints. The table is split in small sets
+ * of slots indexed by the low bits of the digest, which spreads contention between threads. Each bucket is a single atomic holding the
+ * theoretical arrival time of its next permit (generic cell rate algorithm, equivalent to a token bucket), updated without locks. A bucket
+ * that has refilled is indistinguishable from a new one, so idle buckets are reclaimed first when a set is full; otherwise the bucket
+ * closest to full is evicted.
+ * <p>
+ * Instances are thread safe and meant to be shared by all the engines of a node.
+ */
+public final class JA3RateLimiter implements JA3HandshakeFilter {
+    /**
+     * Number of slots of a set.
+     */
+    private static final int WAYS = 4;
+
+    /**
+     * Number of attempts to claim a slot for a new fingerprint before letting the handshake through.
+     */
+    private static final int CLAIM_ATTEMPTS = 2;
+
+    /**
+     * Tag of empty slots.
+     */
+    private static final long EMPTY = 0;
+
+    /**
+     * Nanoseconds in a second.
+     */
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Nanoseconds between two permits of a fingerprint.
+     */
+    private final long interval;
+
+    /**
+     * How far ahead of the clock the theoretical arrival time of a bucket may run, which bounds bursts.
+     */
+    private final long tolerance;
+
+    /**
+     * Mask of the set index.
+     */
+    private final int setMask;
+
+    /**
+     * Tags of the fingerprints owning the slots, {@link #EMPTY} if free.
+     */
+    private final AtomicLongArray tags;
+
+    /**
+     * Theoretical arrival time of the next permit of each slot, in {@link System#nanoTime()} units.
+     */
+    private final AtomicLongArray arrivals;
+
+    /**
+     * Creates a rate limiter.
+     *
+     * @param permitsPerSecond handshakes allowed per second for each fingerprint
+     * @param burst handshakes allowed at once for a fingerprint that was idle
+     * @param maxFingerprints number of fingerprints tracked at once, rounded up to a power of two
+     * @throws IllegalArgumentException when an argument is not positive
+     */
+    public JA3RateLimiter(final double permitsPerSecond, final int burst, final int maxFingerprints) throws IllegalArgumentException {
+        if (!(permitsPerSecond > 0)) {
+            throw new IllegalArgumentException("permitsPerSecond must be positive: " + permitsPerSecond);
+        }
+        if (burst <= 0) {
+            throw new IllegalArgumentException("burst must be positive: " + burst);
+        }
+        if (maxFingerprints <= 0) {
+            throw new IllegalArgumentException("maxFingerprints must be positive: " + maxFingerprints);
+        }
+        this.interval = Math.max(1, (long) (SECOND / permitsPerSecond));
+        this.tolerance = (burst - 1) * interval;
+        int slots = WAYS;
+        while (slots < maxFingerprints) {
+            slots <<= 1;
+        }
+        this.setMask = slots / WAYS - 1;
+        this.tags = new AtomicLongArray(slots);
+        this.arrivals = new AtomicLongArray(slots);
+    }
+
+    /**
+     * Take a permit for a fingerprint.
+     *
+     * @param digest JA3 hash of the client
+     * @return true if the handshake is within the rate of the fingerprint
+     */
+    public boolean tryAcquire(final JA3Fingerprint digest) {
+        return tryAcquire(digest.getHigh(), digest.getLow(), System.nanoTime());
+    }
+
+    @Override
+    public boolean accept(final ClientHelloFingerprints fingerprints) {
+        final JA3Fingerprint digest = fingerprints.getJa3Hash();
+        return digest == null || tryAcquire(digest);
+    }
+
+    /**
+     * @return number of fingerprints the limiter tracks at once
+     */
+    public int capacity() {
+        return tags.length();
+    }
+
+    /**
+     * Take a permit for a fingerprint at the given time.
+     *
+     * @param high high half of the JA3 hash
+     * @param low low half of the JA3 hash
+     * @param now current time in {@link System#nanoTime()} units
+     * @return true if the handshake is within the rate of the fingerprint
+     */
+    boolean tryAcquire(final long high, final long low, final long now) {
+        final long tag = high ^ low;
+        final long key = tag == EMPTY ? 1 : tag;
+        final int base = ((int) low & setMask) * WAYS;
+        for (int attempt = 0; attempt < CLAIM_ATTEMPTS; attempt++) {
+            int victim = base;
+            long victimTag = EMPTY;
+            long victimRank = Long.MAX_VALUE;
+            for (int i = base; i < base + WAYS; i++) {
+                final long owner = tags.get(i);
+                if (owner == key) {
+                    return take(i, now);
+                }
+                final long rank = rank(owner, i, now);
+                if (rank < victimRank) {
+                    victim = i;
+                    victimTag = owner;
+                    victimRank = rank;
+                }
+            }
+            if (tags.compareAndSet(victim, victimTag, key)) {
+                arrivals.set(victim, now);
+                return take(victim, now);
+            }
+        }
+        // Slots are fought over by other fingerprints, fail open rather than spin
+        return true;
+    }
+
+    /**
+     * Rank a slot for eviction, lowest first: free slots, then buckets that have refilled, then the buckets closest to full.
+     *
+     * @param owner tag of the slot
+     * @param slot index of the slot
+     * @param now current time in {@link System#nanoTime()} units
+     * @return the rank of the slot
+     */
+    private long rank(final long owner, final int slot, final long now) {
+        if (owner == EMPTY) {
+            return Long.MIN_VALUE;
+        }
+        final long ahead = arrivals.get(slot) - now;
+        return ahead <= 0 ? Long.MIN_VALUE + 1 : ahead;
+    }
+
+    /**
+     * Take a permit from the bucket of a slot.
+     *
+     * @param slot index of the slot
+     * @param now current time in {@link System#nanoTime()} units
+     * @return true if a permit was available
+     */
+    private boolean take(final int slot, final long now) {
+        while (true) {
+            final long current = arrivals.get(slot);
+            final long start = current - now < 0 ? now : current;
+            if (start - now > tolerance) {
+                return false;
+            }
+            if (arrivals.compareAndSet(slot, current, start + interval)) {
+                return true;
+            }
+        }
+    }
+}
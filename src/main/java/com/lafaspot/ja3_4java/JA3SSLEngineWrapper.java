@@ -10,12 +10,14 @@ import java.util.Objects;
 
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLEngineResult;
-import javax.net.ssl.SSLEngineResult.HandshakeStatus;
 import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLParameters;
 import javax.net.ssl.SSLSession;
 
 /**
- * This class wraps {@link SSLEngine} implementation and stores JA3 finger print to the handshake {@link SSLSession}.
+ * This class wraps {@link SSLEngine} implementation and stores JA3 finger print to the handshake {@link SSLSession}. In server mode the
+ * JA3S finger print of the ServerHello sent is stored next to it.
  */
 public class JA3SSLEngineWrapper extends SSLEngine {
 
@@ -25,14 +27,39 @@ public class JA3SSLEngineWrapper extends SSLEngine {
     private final SSLEngine engine;
 
     /**
-     * True if the ja3 signature has been set in the {@link SSLSession}.
+     * Per-thread parsers used by this wrapper.
+     */
+    private final ThreadLocal<JA3Signature> signatures;
+
+    /**
+     * Options of the wrapper.
+     */
+    private final JA3Configuration configuration;
+
+    /**
+     * True once the ja3 signature has been set in the {@link SSLSession}, or the inbound stream turned out not to start with a ClientHello.
      */
     private boolean ja3Done = false;
 
     /**
-     * JA3 signature for the client.
+     * True once the first outbound bytes, which hold the ServerHello of a server mode engine, have been inspected.
+     */
+    private boolean ja3sDone = false;
+
+    /**
+     * Fingerprints the ClientHello read from the inbound stream.
+     */
+    private final ClientHelloTracker tracker;
+
+    /**
+     * True once the mode of the engine has been checked, when the handshake starts.
      */
-    private String ja3Signature = null;
+    private boolean modeChecked = false;
+
+    /**
+     * True once the handshake was rejected, by a filter of the configuration or for being over the parse limits.
+     */
+    private boolean rejected = false;
 
     /**
      * Wrap an existing SSLEngine to add calculation of JA3 digest.
@@ -40,37 +67,187 @@ public class JA3SSLEngineWrapper extends SSLEngine {
      * @param engine existing engine
      */
     public JA3SSLEngineWrapper(final SSLEngine engine) {
+        this(engine, JA3Configuration.DEFAULT);
+    }
+
+    /**
+     * Wrap an existing SSLEngine to add calculation of JA3 digest, looking up results in a cache shared between engines.
+     *
+     * @param engine existing engine
+     * @param cache cache of JA3 results, or null to not cache results
+     */
+    public JA3SSLEngineWrapper(final SSLEngine engine, final JA3Cache cache) {
+        this(engine, JA3Configuration.builder().cache(cache).build());
+    }
+
+    /**
+     * Wrap an existing SSLEngine to add calculation of JA3 digest with the given options. The engine is always fingerprinted; use
+     * {@link #wrapIfSampled(SSLEngine, JA3Configuration)} to apply the sampling policy.
+     *
+     * @param engine existing engine
+     * @param configuration options of the wrapper
+     */
+    public JA3SSLEngineWrapper(final SSLEngine engine, final JA3Configuration configuration) {
         Objects.requireNonNull(engine, "null SSLEngine");
         this.engine = engine;
+        final JA3Cache cache = configuration.getCache();
+        this.signatures = cache == null ? JA3Signature.PER_THREAD : cache.signatures();
+        this.configuration = configuration;
+        this.tracker = new ClientHelloTracker(configuration, signatures);
+    }
+
+    /**
+     * Wrap an existing SSLEngine if the sampling policy of the configuration picks it.
+     *
+     * @param engine existing engine
+     * @param configuration options of the wrapper
+     * @return a wrapper of the engine, or the engine itself when the connection is not sampled
+     */
+    public static SSLEngine wrapIfSampled(final SSLEngine engine, final JA3Configuration configuration) {
+        return configuration.getSampling().sample() ? new JA3SSLEngineWrapper(engine, configuration) : engine;
     }
 
     @Override
     public SSLEngineResult wrap(final ByteBuffer[] srcs, final int offset, final int length, final ByteBuffer dst) throws SSLException {
-        return engine.wrap(srcs, offset, length, dst);
+        if (!modeChecked) {
+            checkMode();
+        }
+        if (!ja3Done && tracker.fingerprints() != null) {
+            putSessionValues();
+        }
+        if (ja3sDone) {
+            return engine.wrap(srcs, offset, length, dst);
+        }
+
+        final int start = dst.position();
+        final SSLEngineResult result = engine.wrap(srcs, offset, length, dst);
+        if (result.bytesProduced() > 0) {
+            ja3sDone = true;
+            putServerValues(dst, start, result.bytesProduced());
+        }
+        return result;
     }
 
     @Override
     public SSLEngineResult unwrap(final ByteBuffer src, final ByteBuffer[] dsts, final int offset, final int length) throws SSLException {
-        if (!ja3Done) {
-            if (ja3Signature != null) {
-                final SSLSession handshakeSession = engine.getHandshakeSession();
-                if (handshakeSession != null) {
-                    // Set ja3 signature in handshake session
-                    handshakeSession.putValue(JA3Constants.JA3_FINGERPRINT, ja3Signature);
-                    ja3Done = true;
-                }
+        if (rejected) {
+            throw new SSLHandshakeException("Handshake rejected by JA3 filter");
+        }
+        if (!modeChecked) {
+            checkMode();
+        }
+        if (ja3Done) {
+            return engine.unwrap(src, dsts, offset, length);
+        }
+
+        final int start = src.position();
+        final SSLEngineResult result = engine.unwrap(src, dsts, offset, length);
+        final JA3Metrics metrics = configuration.getMetrics();
+        final long begin = metrics == null ? 0 : System.nanoTime();
+        // Only the bytes consumed by the engine are fed, they are complete records that will not be seen again
+        if (tracker.feed(src, start, start + result.bytesConsumed())) {
+            tracker.publish(engine.getPeerHost(), engine.getPeerPort());
+            if (tracker.isRejected()) {
+                tracker.log(engine.getPeerHost(), engine.getPeerPort(), null);
+                final String message = tracker.fingerprints() == null ? "Handshake rejected: ClientHello over JA3 parse limits"
+                        : "Handshake rejected by JA3 filter for " + tracker.fingerprints().getJa3Hash();
+                tracker.release();
+                reject(message);
+            }
+            if (tracker.fingerprints() == null) {
+                ja3Done = true;
             } else {
-                // 1. Generate JA3 signature
-                final HandshakeStatus handshakeStatus = engine.getHandshakeStatus();
-                if (HandshakeStatus.FINISHED == handshakeStatus) {
-                    ja3Done = true;
-                } else {
-                    ja3Signature = new JA3Signature().ja3Signature(src);
+                putSessionValues();
+            }
+        }
+        if (metrics != null) {
+            metrics.unwrapped(System.nanoTime() - begin);
+        }
+        return result;
+    }
+
+    /**
+     * Turn fingerprinting off for a client mode engine, such as the engines of outbound connections created by {@link JA3Provider}: its
+     * inbound stream starts with a ServerHello and its outbound stream with its own ClientHello. The mode cannot change once the handshake
+     * has started.
+     */
+    private void checkMode() {
+        modeChecked = true;
+        if (engine.getUseClientMode()) {
+            ja3Done = true;
+            ja3sDone = true;
+        }
+    }
+
+    /**
+     * Abort the handshake rejected by a filter or over budget. The engine has only read the ClientHello: the tasks that would process it are
+     * never handed out and the outbound side is closed.
+     *
+     * @param message message of the exception
+     * @throws SSLHandshakeException always
+     */
+    private void reject(final String message) throws SSLHandshakeException {
+        rejected = true;
+        ja3Done = true;
+        engine.closeOutbound();
+        throw new SSLHandshakeException(message);
+    }
+
+    /**
+     * Set the JA3 values in the handshake session once the engine has created it.
+     */
+    private void putSessionValues() {
+        final SSLSession handshakeSession = engine.getHandshakeSession();
+        if (handshakeSession != null) {
+            // Set ja3 signature in handshake session
+            final ClientHelloFingerprints fingerprints = tracker.fingerprints();
+            if (tracker.lazySignature() != null) {
+                handshakeSession.putValue(JA3Constants.JA3_FINGERPRINT, tracker.lazySignature());
+            }
+            if (tracker.registryEntry() != null) {
+                // The JA3 string and hash are read from the shared entry, which the session holds a reference to while bound
+                handshakeSession.putValue(JA3Constants.JA3_ID, tracker.registryEntry());
+            } else {
+                if (fingerprints.getJa3() != null) {
+                    handshakeSession.putValue(JA3Constants.JA3_FINGERPRINT, fingerprints.getJa3());
+                }
+                if (fingerprints.getJa3Hash() != null) {
+                    handshakeSession.putValue(JA3Constants.JA3_HASH, fingerprints.getJa3Hash());
                 }
             }
+            if (fingerprints.getJa3n() != null) {
+                handshakeSession.putValue(JA3Constants.JA3N_FINGERPRINT, fingerprints.getJa3n());
+            }
+            if (fingerprints.getJa3nHash() != null) {
+                handshakeSession.putValue(JA3Constants.JA3N_HASH, fingerprints.getJa3nHash());
+            }
+            if (fingerprints.getJa4() != null) {
+                handshakeSession.putValue(JA3Constants.JA4_FINGERPRINT, fingerprints.getJa4());
+            }
+            ja3Done = true;
+            tracker.release();
         }
+    }
 
-        return engine.unwrap(src, dsts, offset, length);
+    /**
+     * Set the JA3S values in the handshake session if the first bytes produced by the engine hold a ServerHello.
+     *
+     * @param dst buffer the engine wrote to
+     * @param start offset of the first byte produced
+     * @param produced number of bytes produced
+     */
+    private void putServerValues(final ByteBuffer dst, final int start, final int produced) {
+        final ByteBuffer serverHello = dst.duplicate();
+        serverHello.limit(start + produced).position(start);
+        final JA3Signature signature = signatures.get();
+        final String ja3s = signature.ja3sSignature(serverHello);
+        final JA3Fingerprint ja3sHash = ja3s == null ? null : signature.lastSignatureFingerprint();
+        final SSLSession handshakeSession = engine.getHandshakeSession();
+        if (ja3s != null && handshakeSession != null) {
+            handshakeSession.putValue(JA3Constants.JA3S_FINGERPRINT, ja3s);
+            handshakeSession.putValue(JA3Constants.JA3S_HASH, ja3sHash);
+        }
+        tracker.log(engine.getPeerHost(), engine.getPeerPort(), ja3sHash);
     }
 
     /* Wrapped methods */
@@ -81,6 +258,9 @@ public class JA3SSLEngineWrapper extends SSLEngine {
 
     @Override
     public Runnable getDelegatedTask() {
+        if (rejected) {
+            return null;
+        }
         return engine.getDelegatedTask();
     }
 
@@ -134,6 +314,31 @@ public class JA3SSLEngineWrapper extends SSLEngine {
         engine.setEnabledProtocols(strings);
     }
 
+    @Override
+    public String getPeerHost() {
+        return engine.getPeerHost();
+    }
+
+    @Override
+    public int getPeerPort() {
+        return engine.getPeerPort();
+    }
+
+    @Override
+    public SSLParameters getSSLParameters() {
+        return engine.getSSLParameters();
+    }
+
+    @Override
+    public void setSSLParameters(final SSLParameters parameters) {
+        engine.setSSLParameters(parameters);
+    }
+
+    @Override
+    public SSLSession getHandshakeSession() {
+        return engine.getHandshakeSession();
+    }
+
     @Override
     public SSLSession getSession() {
         return engine.getSession();
@@ -0,0 +1,62 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+/**
+ * Decides which connections get fingerprinted. Connections that are not sampled get the underlying engine, unwrapped, so they pay
+ * nothing beyond the sampling decision.
+ * <p>
+ * Policies are shared by all the engines of a configuration and must be thread safe.
+ *
+ * @see JA3Configuration.Builder#sampling(JA3SamplingPolicy)
+ * @see JA3SSLEngineWrapper#wrapIfSampled(javax.net.ssl.SSLEngine, JA3Configuration)
+ */
+// Checkstyle predates static interface methods and takes their modifier for a redundant one
+@SuppressWarnings("checkstyle:redundantmodifier")
+public interface JA3SamplingPolicy {
+    /**
+     * Decide whether a new connection is fingerprinted.
+     *
+     * @return true to fingerprint the connection
+     */
+    boolean sample();
+
+    /**
+     * @return policy that fingerprints every connection
+     */
+    static JA3SamplingPolicy all() {
+        return SamplingPolicies.ALL;
+    }
+
+    /**
+     * Fingerprint a random percentage of connections.
+     *
+     * @param percentage percentage of connections to fingerprint, from 0 to 100
+     * @return the policy
+     * @throws IllegalArgumentException when the percentage is out of range
+     */
+    static JA3SamplingPolicy percentage(final double percentage) throws IllegalArgumentException {
+        if (!(percentage >= 0 && percentage <= SamplingPolicies.MAX_PERCENTAGE)) {
+            throw new IllegalArgumentException("percentage must be between 0 and 100: " + percentage);
+        }
+        return new SamplingPolicies.Percentage(percentage / SamplingPolicies.MAX_PERCENTAGE);
+    }
+
+    /**
+     * Fingerprint at most the given number of connections per second, shared by all engines using the policy. Up to one second worth of
+     * connections can be fingerprinted in a burst after an idle period.
+     *
+     * @param permitsPerSecond maximum number of connections fingerprinted per second
+     * @return the policy
+     * @throws IllegalArgumentException when the rate is not positive
+     */
+    static JA3SamplingPolicy perSecond(final long permitsPerSecond) throws IllegalArgumentException {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond must be positive: " + permitsPerSecond);
+        }
+        return new SamplingPolicies.RateLimited(permitsPerSecond);
+    }
+}
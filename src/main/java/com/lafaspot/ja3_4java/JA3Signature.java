@@ -5,332 +5,1363 @@
  */
 package com.lafaspot.ja3_4java;
 
+import java.nio.BufferOverflowException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Set;
 
 /**
  * Generates JA3 signature based on the implementation described at https://github.com/salesforce/ja3.
+ * <p>
+ * The JA3 text is written straight from the packet into a reusable buffer, so an instance that is kept around (per thread or per connection)
+ * parses without allocating. Instances are therefore not thread safe.
  *
  */
 public final class JA3Signature {
     /**
-     * Handshake identifier.
+     * Server hello.
      */
-    private static final byte HANDSHAKE = 22;
+    private static final byte SERVER_HELLO = 2;
 
     /**
-     * Client hello.
+     * Minimum packet length to build JA3S signature.
      */
-    private static final byte CLIENT_HELLO = 1;
+    private static final int MIN_PACKET_LENGTH = 4;
 
     /**
-     * Client hello random length.
+     * Byte bit mask.
      */
-    private static final byte CLIENT_HELLO_RANDOM_LEN = 32;
+    private static final int BITMASK = 0xFF;
 
     /**
-     * Minimum packet length to build JA3 signature.
+     * Bytes in 16 bit unsigned integer.
      */
-    private static final int MIN_PACKET_LENGTH = 4;
+    private static final int UINT16_LENGTH = ClientHelloView.UINT16_LENGTH;
 
     /**
-     * Number of bytes used to identify the SSL Version Length in payload.
+     * Bytes used by an extension type and length header.
      */
-    private static final int SSL_VERSION_LENGTH = 3;
+    private static final int EXTENSION_HEADER_LENGTH = ClientHelloView.EXTENSION_HEADER_LENGTH;
 
     /**
-     * Number of bits in byte.
+     * Mask of the low nibble of both bytes of a 16-bit value. GREASE (Generate Random Extensions And Sustain Extensibility) values, as described
+     * here: https://tools.ietf.org/html/draft-davidben-tls-grease-01, are 0x0a0a, 0x1a1a, ... 0xfafa: two equal bytes with a low nibble of 0xa.
      */
-    private static final int ONE_BYTE = 8;
+    private static final int GREASE_MASK = 0x0f0f;
 
     /**
-     * Number of bits in 2 bytes.
+     * Low nibbles of both bytes of a GREASE value.
      */
-    private static final int TWO_BYTES = 16;
+    private static final int GREASE_PATTERN = 0x0a0a;
 
     /**
-     * Bytes in 16 bit unsigned integer.
+     * Number of bits in a byte.
      */
-    private static final int UINT16_LENGTH = 2;
+    private static final int BYTE_BITS = 8;
 
     /**
-     * Bytes in 24 bit unsigned integer.
+     * Number of characters in each entry of {@link #DIGITS}.
      */
-    private static final int UINT24_LENGTH = 3;
+    private static final int DIGITS_WIDTH = 3;
 
     /**
-     * Newline character.
+     * Decimal radix.
      */
-    private static final byte NEWLINE = 0x0a;
+    private static final int RADIX = 10;
 
     /**
-     * Vertical Tab character.
+     * Number of values in {@link #DIGITS}.
      */
-    private static final byte VERTICALTAB = 0x0b;
+    private static final int DIGITS_COUNT = RADIX * RADIX * RADIX;
 
     /**
-     * Byte bit mask.
+     * Zero padded ASCII digits for every value from 0 to 999, three bytes per value.
      */
-    private static final int BITMASK = 0xFF;
+    private static final byte[] DIGITS = new byte[DIGITS_COUNT * DIGITS_WIDTH];
+
+    /**
+     * Longest decimal representation of an unsigned 16-bit integer plus its separator.
+     */
+    private static final int MAX_UINT16_TEXT = 6;
+
+    /**
+     * Longest decimal representation of an unsigned 8-bit integer plus its separator.
+     */
+    private static final int MAX_UINT8_TEXT = 4;
+
+    /**
+     * Initial size of the internal text buffer, large enough for most ClientHellos.
+     */
+    private static final int INITIAL_TEXT_LENGTH = 512;
+
+    /**
+     * Initial size of the internal cache key buffer, large enough for most ClientHellos.
+     */
+    private static final int INITIAL_KEY_LENGTH = 128;
+
+    /**
+     * Fixed part of a cache key: the client version and the length of each of the four lists.
+     */
+    private static final int KEY_HEADER_LENGTH = 5;
+
+    /**
+     * Protocol versions known to JA4.
+     */
+    private static final int[] JA4_VERSIONS = new int[] { 0x0304, 0x0303, 0x0302, 0x0301, 0x0300, 0x0002, 0xfeff, 0xfefd, 0xfefc };
+
+    /**
+     * JA4 codes of {@link #JA4_VERSIONS}, two characters each.
+     */
+    private static final String JA4_VERSION_CODES = "13121110s3s2d1d2d3";
+
+    /**
+     * Largest count in a JA4 fingerprint; counts are two decimal digits.
+     */
+    private static final int JA4_MAX_COUNT = 99;
+
+    /**
+     * Number of bytes of SHA-256 hash kept in each hashed part of a JA4 fingerprint.
+     */
+    private static final int JA4_HASH_BYTES = 6;
+
+    /**
+     * Length of a JA4 fingerprint: a 10 character prefix and two 12 character hashes, separated by underscores.
+     */
+    private static final int JA4_LENGTH = 36;
+
+    /**
+     * Number of bits in a hex digit.
+     */
+    private static final int HEX_BITS = 4;
+
+    /**
+     * Hex digit bit mask.
+     */
+    private static final int HEX_MASK = 0xF;
+
+    /**
+     * Number of hex digits of an unsigned 16-bit integer.
+     */
+    private static final int UINT16_HEX_DIGITS = 4;
+
+    /**
+     * Lowercase ASCII hex digits.
+     */
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    static {
+        for (int i = 0; i < DIGITS_COUNT; i++) {
+            DIGITS[i * DIGITS_WIDTH] = (byte) ('0' + i / (RADIX * RADIX));
+            DIGITS[i * DIGITS_WIDTH + 1] = (byte) ('0' + i / RADIX % RADIX);
+            DIGITS[i * DIGITS_WIDTH + 2] = (byte) ('0' + i % RADIX);
+        }
+    }
+
+    /**
+     * Per-thread parsers without a cache.
+     */
+    static final ThreadLocal<JA3Signature> PER_THREAD = new ThreadLocal<JA3Signature>() {
+        @Override
+        protected JA3Signature initialValue() {
+            return new JA3Signature();
+        }
+    };
+
+    /**
+     * Cache of results, or null if results are not cached.
+     */
+    private final JA3Cache cache;
+
+    /**
+     * Reusable cache key of the last located ClientHello.
+     */
+    private char[] key;
+
+    /**
+     * Number of characters in use in {@link #key}.
+     */
+    private int keyLength;
+
+    /**
+     * Cache entry of the last JA3 string returned, or null when it was not cached.
+     */
+    private JA3Cache.Entry lastEntry;
+
+    /**
+     * View of the last located ClientHello.
+     */
+    private final ClientHelloView view = new ClientHelloView();
+
+    /**
+     * Server version of the last located ServerHello.
+     */
+    private int serverVersion;
+
+    /**
+     * Cipher suite chosen by the last located ServerHello.
+     */
+    private int serverCipher;
+
+    /**
+     * Start offset of the extensions of the last located ServerHello.
+     */
+    private int extensionsStart;
+
+    /**
+     * End offset (exclusive) of the extensions of the last located ServerHello.
+     */
+    private int extensionsEnd;
+
+    /**
+     * Reusable buffer the cipher suites and extension types are sorted in for JA4, created on first use.
+     */
+    private int[] sorted;
+
+    /**
+     * Reusable buffer the JA4 fingerprint is assembled in, created on first use.
+     */
+    private byte[] ja4;
+
+    /**
+     * Reusable SHA-256 digest, created on first use.
+     */
+    private MessageDigest sha256;
+
+    /**
+     * Reusable output for the SHA-256 hash, created on first use.
+     */
+    private byte[] sha256Hash;
+
+    /**
+     * Reusable buffer the JA3 text is written to by {@link #ja3Signature(ByteBuffer)}, also used to stage text fed to the MD5 digest.
+     */
+    private byte[] text = new byte[INITIAL_TEXT_LENGTH];
+
+    /**
+     * Length of the text last written to {@link #text} by {@link #ja3Signature(ByteBuffer)}.
+     */
+    private int textLength;
+
+    /**
+     * Array the JA3 text is currently written to.
+     */
+    private byte[] out;
+
+    /**
+     * Offset in {@link #out} where the current chunk of text starts.
+     */
+    private int outStart;
+
+    /**
+     * Offset in {@link #out} the next byte is written to.
+     */
+    private int outPos;
+
+    /**
+     * Offset (exclusive) up to which {@link #out} may be written.
+     */
+    private int outLimit;
+
+    /**
+     * Digest the text is streamed to when {@link #out} is full, null when writing to a caller supplied array.
+     */
+    private MessageDigest outDigest;
+
+    /**
+     * Reusable MD5 digest, created on first use.
+     */
+    private MessageDigest md5;
 
     /**
-     * Values to account for GREASE (Generate Random Extensions And Sustain Extensibility) as described here:
-     * https://tools.ietf.org/html/draft-davidben-tls-grease-01.
+     * Reusable output for the MD5 hash.
      */
-    private static final int[] GREASE = new int[] { 0x0a0a, 0x1a1a, 0x2a2a, 0x3a3a, 0x4a4a, 0x5a5a, 0x6a6a, 0x7a7a, 0x8a8a, 0x9a9a, 0xaaaa, 0xbaba,
-            0xcaca, 0xdada, 0xeaea, 0xfafa };
+    private final byte[] hash = new byte[JA3Fingerprint.LENGTH];
 
     /**
-     * Calculate JA3 string from a ClientHello packet.Note that we do not compute an MD5 hash here.
+     * Creates a parser without a cache.
+     */
+    public JA3Signature() {
+        this(null);
+    }
+
+    /**
+     * Creates a parser that looks up results in the given cache before formatting them. Only {@link #ja3Signature(ByteBuffer)} and
+     * {@link #ja3Fingerprint(ByteBuffer)} use the cache; the results they return are shared with other parsers of the same cache.
+     *
+     * @param cache cache of results, or null to not cache results
+     */
+    public JA3Signature(final JA3Cache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Calculate JA3 string from a ClientHello packet.Note that we do not compute an MD5 hash here, see {@link #ja3Fingerprint(ByteBuffer)}.
      *
      * @param packet packet to inspect
      * @return JA3 fingerprint or null if no TLS ClientHello detected in given packet
      * @see <a href="https://github.com/salesforce/ja3">Original JA3 implementation</a>
      */
     public String ja3Signature(final ByteBuffer packet) {
-        // Check there is enough remaining to be able to read TLS record header
-        if (packet.remaining() < MIN_PACKET_LENGTH) {
+        if (!locate(packet)) {
+            return null;
+        }
+        if (cache != null) {
+            lastEntry = cachedEntry();
+            return lastEntry.ja3();
+        }
+        lastEntry = null;
+        return formatText();
+    }
+
+    /**
+     * Calculate JA3 string from a ClientHello held in an array, such as a packet read from a socket or a capture file. The array is read directly,
+     * without going through a {@link ByteBuffer} per byte.
+     *
+     * @param packet array holding the packet
+     * @param offset offset of the packet in the array
+     * @param length length of the packet
+     * @return JA3 fingerprint or null if no TLS ClientHello detected in given packet
+     * @throws IndexOutOfBoundsException when the offset and length do not fit in the array
+     */
+    public String ja3Signature(final byte[] packet, final int offset, final int length) throws IndexOutOfBoundsException {
+        return ja3Signature(ByteBuffer.wrap(packet, offset, length));
+    }
+
+    /**
+     * Calculate the JA3 MD5 hash of a ClientHello packet. The JA3 text is fed to the digest in chunks while the cipher and extension lists are
+     * walked, so the full JA3 string is never built.
+     *
+     * @param packet packet to inspect
+     * @return JA3 MD5 fingerprint or null if no TLS ClientHello detected in given packet
+     */
+    public JA3Fingerprint ja3Fingerprint(final ByteBuffer packet) {
+        if (!locate(packet)) {
+            return null;
+        }
+        if (cache != null) {
+            lastEntry = cachedEntry();
+            return lastEntry.fingerprint();
+        }
+        final MessageDigest digest = md5();
+        write(text, 0, text.length, digest);
+        return digest(digest);
+    }
+
+    /**
+     * Calculate the JA4 fingerprint of a ClientHello packet, for TLS over TCP.
+     *
+     * @param packet packet to inspect
+     * @return JA4 fingerprint or null if no TLS ClientHello detected in given packet
+     * @see <a href="https://github.com/FoxIO-LLC/ja4">JA4 specification</a>
+     */
+    public String ja4Signature(final ByteBuffer packet) {
+        if (!locate(packet)) {
+            return null;
+        }
+        return formatJA4();
+    }
+
+    /**
+     * Calculate the normalized JA3 string of a ClientHello packet: the JA3 string with its extension types sorted in ascending order, so that
+     * clients shuffling their extensions on every connection, as Chrome does, keep a single fingerprint. Normalized strings are not cached.
+     *
+     * @param packet packet to inspect
+     * @return normalized JA3 string or null if no TLS ClientHello detected in given packet
+     */
+    public String ja3nSignature(final ByteBuffer packet) {
+        if (!locate(packet)) {
+            return null;
+        }
+        return formatNormalizedText();
+    }
+
+    /**
+     * Calculate several fingerprints of a ClientHello packet while walking it once. Only the requested fingerprints are computed, so asking for
+     * fewer costs less.
+     *
+     * @param packet packet to inspect
+     * @param types fingerprints to compute
+     * @param result holder the fingerprints are stored in; fingerprints that were not requested are set to null
+     * @return true if a TLS ClientHello was found, false otherwise
+     */
+    public boolean fingerprints(final ByteBuffer packet, final Set<FingerprintType> types, final ClientHelloFingerprints result) {
+        return fingerprints(packet, types, JA3ParseLimits.UNLIMITED, result);
+    }
+
+    /**
+     * Calculate several fingerprints of a ClientHello packet while walking it once, giving up on ClientHellos beyond the limits before their
+     * lists are walked.
+     *
+     * @param packet packet to inspect
+     * @param types fingerprints to compute
+     * @param limits bounds on the size of the ClientHello and on the number of cipher suites and extensions
+     * @param result holder the fingerprints are stored in; fingerprints that were not requested are set to null
+     * @return true if a TLS ClientHello within the limits was found, false otherwise
+     * @see #isOverBudget()
+     */
+    public boolean fingerprints(final ByteBuffer packet, final Set<FingerprintType> types, final JA3ParseLimits limits,
+            final ClientHelloFingerprints result) {
+        result.clear();
+        if (!view.wrap(packet, limits)) {
+            return false;
+        }
+        final boolean wantsText = types.contains(FingerprintType.JA3);
+        final boolean wantsHash = types.contains(FingerprintType.JA3_HASH);
+        if (cache != null && (wantsText || wantsHash)) {
+            lastEntry = cachedEntry();
+            result.setJa3(wantsText ? lastEntry.ja3() : null);
+            result.setJa3Hash(wantsHash ? lastEntry.fingerprint() : null);
+        } else if (wantsText) {
+            lastEntry = null;
+            result.setJa3(formatText());
+            result.setJa3Hash(wantsHash ? lastSignatureFingerprint() : null);
+        } else if (wantsHash) {
+            final MessageDigest digest = md5();
+            write(text, 0, text.length, digest);
+            result.setJa3Hash(digest(digest));
+        }
+        if (types.contains(FingerprintType.JA3N)) {
+            result.setJa3n(formatNormalizedText());
+            if (types.contains(FingerprintType.JA3N_HASH)) {
+                final MessageDigest digest = md5();
+                digest.update(text, 0, textLength);
+                result.setJa3nHash(digest(digest));
+            }
+        } else if (types.contains(FingerprintType.JA3N_HASH)) {
+            final MessageDigest digest = md5();
+            write(text, 0, text.length, digest, true);
+            result.setJa3nHash(digest(digest));
+        }
+        if (types.contains(FingerprintType.JA4)) {
+            result.setJa4(formatJA4());
+        }
+        return true;
+    }
+
+    /**
+     * Calculate JA3S string from a ServerHello packet: the server version, the chosen cipher suite and the extension types, as described at
+     * https://github.com/salesforce/ja3. JA3S strings are not cached.
+     *
+     * @param packet packet to inspect
+     * @return JA3S fingerprint or null if no TLS ServerHello detected in given packet
+     */
+    public String ja3sSignature(final ByteBuffer packet) {
+        if (!locateServerHello(packet)) {
+            return null;
+        }
+        lastEntry = null;
+        final int length = MAX_UINT16_TEXT * (2 + (extensionsEnd - extensionsStart) / EXTENSION_HEADER_LENGTH);
+        if (text.length < length) {
+            text = new byte[length];
+        }
+        textLength = writeServer(packet, text, 0, text.length, null);
+        return new String(text, 0, textLength, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Calculate the JA3S MD5 hash of a ServerHello packet without building the JA3S string.
+     *
+     * @param packet packet to inspect
+     * @return JA3S MD5 fingerprint or null if no TLS ServerHello detected in given packet
+     */
+    public JA3Fingerprint ja3sFingerprint(final ByteBuffer packet) {
+        if (!locateServerHello(packet)) {
             return null;
         }
+        final MessageDigest digest = md5();
+        writeServer(packet, text, 0, text.length, digest);
+        return digest(digest);
+    }
+
+    /**
+     * Calculate the MD5 hash of the JA3 (or JA3S) string last returned by {@link #ja3Signature(ByteBuffer)} (or
+     * {@link #ja3sSignature(ByteBuffer)}) from the bytes still held by this instance.
+     *
+     * @return MD5 fingerprint of the last string
+     */
+    JA3Fingerprint lastSignatureFingerprint() {
+        if (lastEntry != null) {
+            return lastEntry.fingerprint();
+        }
+        final MessageDigest digest = md5();
+        digest.update(text, 0, textLength);
+        return digest(digest);
+    }
+
+    /**
+     * Format the JA3 string of the last located ClientHello into the internal text buffer.
+     *
+     * @return JA3 string
+     */
+    private String formatText() {
+        ensureTextCapacity();
+        textLength = write(text, 0, text.length, null);
+        return new String(text, 0, textLength, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Format the normalized JA3 string of the last located ClientHello into the internal text buffer. The text no longer matches the last JA3
+     * string, so the cache entry of the latter is forgotten.
+     *
+     * @return normalized JA3 string
+     */
+    private String formatNormalizedText() {
+        ensureTextCapacity();
+        lastEntry = null;
+        textLength = write(text, 0, text.length, null, true);
+        return new String(text, 0, textLength, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Format the JA4 fingerprint of the last located ClientHello.
+     *
+     * @return JA4 fingerprint
+     */
+    private String formatJA4() {
+        if (ja4 == null) {
+            ja4 = new byte[JA4_LENGTH];
+        }
+        int pos = 0;
+        ja4[pos++] = 't';
+        pos = writeJA4Version(pos);
+        ja4[pos++] = (byte) (view.hasServerName() ? 'd' : 'i');
+
+        final int sortedCiphers = sortCiphers();
+        pos = writeJA4Count(sortedCiphers, pos);
+        pos = writeJA4Count(countExtensions(), pos);
+        pos = writeJA4Alpn(pos);
+        ja4[pos++] = '_';
 
+        final MessageDigest digest = sha256();
+        open(text, 0, text.length, digest);
         try {
-            int end = packet.remaining() + packet.position(); // non-inclusive
-            int off = packet.position();
+            writeHexList(sortedCiphers);
+            flush();
+        } finally {
+            out = null;
+            outDigest = null;
+        }
+        pos = writeJA4Hash(digest, sortedCiphers == 0, pos);
+        ja4[pos++] = '_';
 
-            final byte messageType = getByte(packet, off, end);
-            off += SSL_VERSION_LENGTH; // skip TLS Major/Minor
+        final int sortedExtensions = sortExtensions();
+        open(text, 0, text.length, digest);
+        boolean empty = sortedExtensions == 0;
+        try {
+            writeHexList(sortedExtensions);
+            final int signatureAlgorithms = view.signatureAlgorithmCount();
+            if (signatureAlgorithms > 0) {
+                empty = false;
+                writeSeparator('_');
+                for (int i = 0; i < signatureAlgorithms; i++) {
+                    if (i > 0) {
+                        writeSeparator(',');
+                    }
+                    writeHex(view.signatureAlgorithmAt(i));
+                }
+            }
+            flush();
+        } finally {
+            out = null;
+            outDigest = null;
+        }
+        pos = writeJA4Hash(digest, empty, pos);
+        return new String(ja4, 0, pos, StandardCharsets.US_ASCII);
+    }
 
-            if (messageType != HANDSHAKE) {
-                return null; // not a handshake message
+    /**
+     * Write the JA4 code of the highest protocol version offered by the last located ClientHello.
+     *
+     * @param pos offset in the JA4 buffer
+     * @return offset after the code
+     */
+    private int writeJA4Version(final int pos) {
+        final int versions = view.supportedVersionCount();
+        int version = versions > 0 ? 0 : view.legacyVersion();
+        for (int i = 0; i < versions; i++) {
+            final int value = view.supportedVersionAt(i);
+            if (isNotGrease(value) && value > version) {
+                version = value;
             }
+        }
+        int code = -1;
+        for (int i = 0; i < JA4_VERSIONS.length; i++) {
+            if (JA4_VERSIONS[i] == version) {
+                code = i;
+                break;
+            }
+        }
+        ja4[pos] = (byte) (code < 0 ? '0' : JA4_VERSION_CODES.charAt(code * 2));
+        ja4[pos + 1] = (byte) (code < 0 ? '0' : JA4_VERSION_CODES.charAt(code * 2 + 1));
+        return pos + 2;
+    }
 
-            final int length = getUInt16(packet, off, end);
-            off += UINT16_LENGTH;
+    /**
+     * Write a JA4 count as two decimal digits, capped at 99.
+     *
+     * @param count count to write
+     * @param pos offset in the JA4 buffer
+     * @return offset after the count
+     */
+    private int writeJA4Count(final int count, final int pos) {
+        final int capped = Math.min(count, JA4_MAX_COUNT);
+        System.arraycopy(DIGITS, capped * DIGITS_WIDTH + 1, ja4, pos, 2);
+        return pos + 2;
+    }
 
-            if (end < off + length) {
-                return null; // buffer underflow
+    /**
+     * Write the JA4 code of the first ALPN protocol of the last located ClientHello: its first and last characters, or the first and last
+     * digits of its hex representation when those characters are not alphanumeric, or 00 without ALPN.
+     *
+     * @param pos offset in the JA4 buffer
+     * @return offset after the code
+     */
+    private int writeJA4Alpn(final int pos) {
+        if (view.alpnCount() == 0 || view.alpnLength(0) == 0) {
+            ja4[pos] = '0';
+            ja4[pos + 1] = '0';
+        } else {
+            final ByteBuffer packet = view.buffer();
+            final int first = packet.get(view.alpnOffset(0)) & BITMASK;
+            final int last = packet.get(view.alpnOffset(0) + view.alpnLength(0) - 1) & BITMASK;
+            if (isAlphanumeric(first) && isAlphanumeric(last)) {
+                ja4[pos] = (byte) first;
+                ja4[pos + 1] = (byte) last;
+            } else {
+                ja4[pos] = HEX[first >>> HEX_BITS];
+                ja4[pos + 1] = HEX[last & HEX_MASK];
             }
-            // ensure if TLS message length is smaller than packet length, we don't read over
-            end = off + length;
+        }
+        return pos + 2;
+    }
 
-            final byte handshakeType = getByte(packet, off, end);
-            off++;
+    /**
+     * Complete a digest and write the first bytes of the hash as hex, as JA4 does, or zeros when nothing was hashed.
+     *
+     * @param digest digest that was fed the list
+     * @param empty true if the list was empty
+     * @param pos offset in the JA4 buffer
+     * @return offset after the hash
+     */
+    private int writeJA4Hash(final MessageDigest digest, final boolean empty, final int pos) {
+        if (sha256Hash == null) {
+            sha256Hash = new byte[digest.getDigestLength()];
+        }
+        try {
+            digest.digest(sha256Hash, 0, sha256Hash.length);
+        } catch (DigestException e) {
+            throw new IllegalStateException("Could not complete SHA-256 digest", e);
+        }
+        int p = pos;
+        for (int i = 0; i < JA4_HASH_BYTES; i++) {
+            ja4[p++] = empty ? (byte) '0' : HEX[(sha256Hash[i] >>> HEX_BITS) & HEX_MASK];
+            ja4[p++] = empty ? (byte) '0' : HEX[sha256Hash[i] & HEX_MASK];
+        }
+        return p;
+    }
+
+    /**
+     * Copy the non-GREASE cipher suites of the last located ClientHello to the sort buffer and sort them.
+     *
+     * @return number of values sorted
+     */
+    private int sortCiphers() {
+        final int ciphers = view.cipherCount();
+        ensureSortCapacity(ciphers);
+        int count = 0;
+        for (int i = 0; i < ciphers; i++) {
+            final int value = view.cipherAt(i);
+            if (isNotGrease(value)) {
+                sorted[count++] = value;
+            }
+        }
+        Arrays.sort(sorted, 0, count);
+        return count;
+    }
 
-            if (handshakeType != CLIENT_HELLO) {
-                // log.trace("TLS handshake type not clienthello: {}", handshakeType);
-                return null; // not client_hello
+    /**
+     * Count the non-GREASE extensions of the last located ClientHello.
+     *
+     * @return number of extensions
+     */
+    private int countExtensions() {
+        final int extensions = view.extensionCount();
+        int count = 0;
+        for (int i = 0; i < extensions; i++) {
+            if (isNotGrease(view.extensionTypeAt(i))) {
+                count++;
             }
+        }
+        return count;
+    }
 
-            final int handshakeLength = getUInt24(packet, off, end);
-            off += SSL_VERSION_LENGTH;
+    /**
+     * Copy the extension types hashed by JA4 (all but GREASE, server name and ALPN) to the sort buffer and sort them.
+     *
+     * @return number of extension types sorted
+     */
+    private int sortExtensions() {
+        final int extensions = view.extensionCount();
+        ensureSortCapacity(extensions);
+        int count = 0;
+        for (int i = 0; i < extensions; i++) {
+            final int extensionType = view.extensionTypeAt(i);
+            if (isNotGrease(extensionType) && extensionType != ClientHelloView.SERVER_NAME && extensionType != ClientHelloView.ALPN) {
+                sorted[count++] = extensionType;
+            }
+        }
+        Arrays.sort(sorted, 0, count);
+        return count;
+    }
 
-            if (end < off + handshakeLength) {
-                return null; // buffer underflow
+    /**
+     * Copy the non-GREASE extension types of the last located ClientHello to the sort buffer and sort them.
+     *
+     * @return number of extension types sorted
+     */
+    private int sortAllExtensions() {
+        final int extensions = view.extensionCount();
+        ensureSortCapacity(extensions);
+        int count = 0;
+        for (int i = 0; i < extensions; i++) {
+            final int extensionType = view.extensionTypeAt(i);
+            if (isNotGrease(extensionType)) {
+                sorted[count++] = extensionType;
             }
-            // ensure if handShakeLength is smaller than TLS message length, we don't read over
-            end = off + handshakeLength;
+        }
+        Arrays.sort(sorted, 0, count);
+        return count;
+    }
 
-            final int clientVersion = getUInt16(packet, off, end);
-            // Skip random
-            off += UINT16_LENGTH + CLIENT_HELLO_RANDOM_LEN;
+    /**
+     * Grow the sort buffer.
+     *
+     * @param length number of values the buffer must hold
+     */
+    private void ensureSortCapacity(final int length) {
+        if (sorted == null || sorted.length < length) {
+            sorted = new int[Math.max(length, INITIAL_KEY_LENGTH)];
+        }
+    }
+
+    /**
+     * Write the first values of the sort buffer as comma separated four digit hex numbers.
+     *
+     * @param count number of values to write
+     */
+    private void writeHexList(final int count) {
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                writeSeparator(',');
+            }
+            writeHex(sorted[i]);
+        }
+    }
 
-            off += packet.get(off) + 1; // Skip Session ID
+    /**
+     * Write an unsigned 16-bit integer as four lowercase hex digits.
+     *
+     * @param value value between 0 and 65535
+     */
+    private void writeHex(final int value) {
+        final int pos = reserve(UINT16_HEX_DIGITS);
+        for (int i = 0; i < UINT16_HEX_DIGITS; i++) {
+            out[pos + i] = HEX[(value >>> ((UINT16_HEX_DIGITS - 1 - i) * HEX_BITS)) & HEX_MASK];
+        }
+    }
 
-            final int cipherSuiteLength = getUInt16(packet, off, end);
-            off += UINT16_LENGTH;
+    /**
+     * @param c ASCII character
+     * @return true if the character is a digit or a letter
+     */
+    private static boolean isAlphanumeric(final int c) {
+        return c >= '0' && c <= '9' || c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z';
+    }
 
-            if (cipherSuiteLength % 2 != 0) {
-                return null; // invalid packet, cipher suite length must always be even
+    /**
+     * @return the reusable SHA-256 digest of this instance
+     */
+    private MessageDigest sha256() {
+        if (sha256 == null) {
+            try {
+                sha256 = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                // Every Java platform is required to support SHA-256
+                throw new IllegalStateException("SHA-256 not available", e);
             }
+        }
+        return sha256;
+    }
+
+    /**
+     * Look up the results of the last located ClientHello in the cache, formatting and adding them on a miss.
+     *
+     * @return cache entry for the ClientHello
+     */
+    private JA3Cache.Entry cachedEntry() {
+        buildKey();
+        return keyEntry(key, keyLength);
+    }
 
-            final StringBuilder ja3 = new StringBuilder();
+    /**
+     * Look up the results of a ClientHello structure key in the cache, formatting and adding them on a miss.
+     *
+     * @param k structure key
+     * @param length number of key characters in use
+     * @return cache entry for the key
+     */
+    private JA3Cache.Entry keyEntry(final char[] k, final int length) {
+        final long hash = JA3Cache.hash(k, length);
+        final JA3Cache.Entry entry = cache.get(hash, k, length);
+        if (entry != null) {
+            return entry;
+        }
+        final String ja3 = formatKey(k, length);
+        final MessageDigest digest = md5();
+        digest.update(text, 0, textLength);
+        return cache.put(hash, k, length, ja3, digest(digest));
+    }
+
+    /**
+     * Capture the structure key of a ClientHello packet, from which its JA3 string and hash can be computed later without the packet.
+     *
+     * @param packet packet to inspect
+     * @return a copy of the structure key, or null if no TLS ClientHello detected in given packet
+     */
+    char[] captureKey(final ByteBuffer packet) {
+        if (!locate(packet)) {
+            return null;
+        }
+        return lastKey();
+    }
 
-            ja3.append(clientVersion);
-            ja3.append(',');
+    /**
+     * @return first host name of the server name extension of the last ClientHello fingerprinted, or null without one
+     */
+    String lastServerName() {
+        final ByteBuffer name = view.sniBytes();
+        return name == null ? null : StandardCharsets.US_ASCII.decode(name).toString();
+    }
 
-            convertUInt16ArrayToJa3(packet, off, off + cipherSuiteLength, ja3);
-            off += cipherSuiteLength;
-            ja3.append(',');
+    /**
+     * Capture the structure key of the ClientHello last located by {@link #fingerprints(ByteBuffer, Set, ClientHelloFingerprints)}.
+     *
+     * @return a copy of the structure key
+     */
+    char[] lastKey() {
+        buildKey();
+        return Arrays.copyOf(key, keyLength);
+    }
 
-            off += packet.get(off) + SSL_VERSION_LENGTH; // Skip Compression Methods and length of extensions
+    /**
+     * Calculate the JA3 string from a structure key captured by {@link #captureKey(ByteBuffer)}.
+     *
+     * @param k structure key
+     * @return JA3 string
+     */
+    String keySignature(final char[] k) {
+        if (cache != null) {
+            lastEntry = keyEntry(k, k.length);
+            return lastEntry.ja3();
+        }
+        lastEntry = null;
+        return formatKey(k, k.length);
+    }
 
-            final StringBuilder ec = new StringBuilder(); // elliptic curves
-            final StringBuilder ecpf = new StringBuilder(); // elliptic curve point formats
+    /**
+     * Calculate the JA3 MD5 hash from a structure key captured by {@link #captureKey(ByteBuffer)}.
+     *
+     * @param k structure key
+     * @return JA3 MD5 hash
+     */
+    JA3Fingerprint keyFingerprint(final char[] k) {
+        if (cache != null) {
+            lastEntry = keyEntry(k, k.length);
+            return lastEntry.fingerprint();
+        }
+        final MessageDigest digest = md5();
+        writeKey(k, k.length, text, 0, text.length, digest);
+        return digest(digest);
+    }
 
-            parseExtensions(packet, off, end, ja3, ec, ecpf);
-            ja3.append(',');
+    /**
+     * Format the JA3 string of a structure key into the internal text buffer.
+     *
+     * @param k structure key
+     * @param length number of key characters in use
+     * @return JA3 string
+     */
+    private String formatKey(final char[] k, final int length) {
+        if (text.length < MAX_UINT16_TEXT * length) {
+            text = new byte[MAX_UINT16_TEXT * length];
+        }
+        textLength = writeKey(k, length, text, 0, text.length, null);
+        return new String(text, 0, textLength, StandardCharsets.US_ASCII);
+    }
 
-            ja3.append(ec);
-            ja3.append(',');
+    /**
+     * Build the cache key of the last located ClientHello: the client version followed by the cipher, extension type, curve and point format
+     * lists, each prefixed by its length and with GREASE values removed.
+     */
+    private void buildKey() {
+        final int max = KEY_HEADER_LENGTH + view.cipherCount() + view.extensionCount() + view.supportedGroupCount() + view.ecPointFormatCount();
+        if (key == null || key.length < max) {
+            key = new char[Math.max(max, INITIAL_KEY_LENGTH)];
+        }
+        keyLength = 0;
+        key[keyLength++] = (char) view.legacyVersion();
 
-            ja3.append(ecpf);
+        int countIndex = keyLength++;
+        for (int i = 0; i < view.cipherCount(); i++) {
+            appendKey(view.cipherAt(i));
+        }
+        key[countIndex] = (char) (keyLength - countIndex - 1);
 
-            String ja3String = ja3.toString();
+        countIndex = keyLength++;
+        for (int i = 0; i < view.extensionCount(); i++) {
+            appendKey(view.extensionTypeAt(i));
+        }
+        key[countIndex] = (char) (keyLength - countIndex - 1);
 
+        countIndex = keyLength++;
+        for (int i = 0; i < view.supportedGroupCount(); i++) {
+            appendKey(view.supportedGroupAt(i));
+        }
+        key[countIndex] = (char) (keyLength - countIndex - 1);
 
-            return ja3String;
-        } catch (BufferUnderflowException | ArrayIndexOutOfBoundsException e) {
-            return null;
+        countIndex = keyLength++;
+        for (int i = 0; i < view.ecPointFormatCount(); i++) {
+            key[keyLength++] = (char) view.ecPointFormatAt(i);
         }
+        key[countIndex] = (char) (keyLength - countIndex - 1);
     }
 
     /**
-     * Parse TLS extensions from given TLS ClientHello packet.
+     * Append a value to the cache key, skipping GREASE values.
      *
-     * @param packet clienthello packet
-     * @param off offset to start reading extensions
-     * @param packetEnd offset where packet ends
-     * @param ei string builder to output the generated ja3 string for extensions identifiers
-     * @param ec string builder to output the generated ja3 string for elliptic curves
-     * @param ecpf string builder to output the generated ja3 string for elliptic curve points
+     * @param value unsigned 16-bit value
      */
-    private void parseExtensions(final ByteBuffer packet, final int off, final int packetEnd, final StringBuilder ei, final StringBuilder ec,
-            final StringBuilder ecpf) {
-        boolean first = true;
-        int offset = off;
-        while (offset < packetEnd) {
-            int extensionType = getUInt16(packet, offset, packetEnd);
-            offset += UINT16_LENGTH;
-            int extensionLength = getUInt16(packet, offset, packetEnd);
-            offset += UINT16_LENGTH;
-
-            if (extensionType == NEWLINE) {
-                // Elliptic curve points
-                int curveListLength = getUInt16(packet, offset, packetEnd);
-                convertUInt16ArrayToJa3(packet, offset + UINT16_LENGTH, offset + UINT16_LENGTH + curveListLength, ec);
-            } else if (extensionType == VERTICALTAB) {
-                // Elliptic curve point formats
-                int curveFormatLength = packet.get(offset) & BITMASK;
-                convertUInt8ArrayToJa3(packet, offset + 1, offset + 1 + curveFormatLength, ecpf);
+    private void appendKey(final int value) {
+        if (isNotGrease(value)) {
+            key[keyLength++] = (char) value;
+        }
+    }
+
+    /**
+     * @return the reusable MD5 digest of this instance
+     */
+    private MessageDigest md5() {
+        if (md5 == null) {
+            try {
+                md5 = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                // Every Java platform is required to support MD5
+                throw new IllegalStateException("MD5 not available", e);
             }
+        }
+        return md5;
+    }
 
-            if (isNotGrease(extensionType)) {
-                if (!first) {
-                    ei.append('-');
+    /**
+     * Complete the digest into the reusable hash buffer and convert it to a fingerprint.
+     *
+     * @param digest digest that was fed the JA3 text
+     * @return fingerprint of the digest
+     */
+    private JA3Fingerprint digest(final MessageDigest digest) {
+        try {
+            digest.digest(hash, 0, hash.length);
+        } catch (DigestException e) {
+            throw new IllegalStateException("Could not complete MD5 digest", e);
+        }
+        return JA3Fingerprint.fromBytes(hash, 0);
+    }
+
+    /**
+     * Writes the ASCII JA3 string of a ClientHello packet to the given array without allocating.
+     *
+     * @param packet packet to inspect
+     * @param out array to write the JA3 string to
+     * @param offset offset in the array to start writing at
+     * @return number of bytes written or -1 if no TLS ClientHello detected in given packet
+     * @throws BufferOverflowException when the JA3 string does not fit in the array
+     */
+    public int ja3Signature(final ByteBuffer packet, final byte[] out, final int offset) throws BufferOverflowException {
+        if (!locate(packet)) {
+            return -1;
+        }
+        return write(out, offset, out.length, null);
+    }
+
+    /**
+     * Writes the ASCII JA3 string of a ClientHello packet to the given buffer, starting at its position. On success the position of the buffer
+     * is advanced by the number of bytes written.
+     *
+     * @param packet packet to inspect
+     * @param out buffer to write the JA3 string to
+     * @return number of bytes written or -1 if no TLS ClientHello detected in given packet
+     * @throws BufferOverflowException when the JA3 string does not fit in the remaining space of the buffer
+     */
+    public int ja3Signature(final ByteBuffer packet, final ByteBuffer out) throws BufferOverflowException {
+        if (!locate(packet)) {
+            return -1;
+        }
+        final int length;
+        if (out.hasArray()) {
+            length = write(out.array(), out.arrayOffset() + out.position(), out.arrayOffset() + out.limit(), null);
+            out.position(out.position() + length);
+        } else {
+            ensureTextCapacity();
+            length = write(text, 0, text.length, null);
+            out.put(text, 0, length);
+        }
+        return length;
+    }
+
+    /**
+     * Locate the fields of a ClientHello packet used by JA3 and JA4 in the view of this instance.
+     *
+     * @param packet packet to inspect
+     * @return true if a TLS ClientHello was found, false otherwise
+     */
+    private boolean locate(final ByteBuffer packet) {
+        return view.wrap(packet);
+    }
+
+    /**
+     * @return reason why the last ClientHello could not be parsed, null if it was
+     */
+    ParseFailure lastFailure() {
+        return view.failure();
+    }
+
+    /**
+     * @return true if the last ClientHello was given up because it exceeded the limits passed to
+     *         {@link #fingerprints(ByteBuffer, Set, JA3ParseLimits, ClientHelloFingerprints)}
+     */
+    public boolean isOverBudget() {
+        return view.isOverBudget();
+    }
+
+    /**
+     * Locate the version, cipher suite and extensions of a ServerHello packet.
+     *
+     * @param packet packet to inspect
+     * @return true if the packet holds a ServerHello, false otherwise
+     */
+    private boolean locateServerHello(final ByteBuffer packet) {
+        if (packet.remaining() < MIN_PACKET_LENGTH) {
+            return false;
+        }
+        try {
+            int off = ClientHelloView.handshakeBody(packet, SERVER_HELLO);
+            if (off < 0) {
+                return false;
+            }
+            final int end = ClientHelloView.handshakeBodyEnd(packet, off);
+            serverVersion = ClientHelloView.getUInt16(packet, off, end);
+            off += UINT16_LENGTH + ClientHelloView.RANDOM_LENGTH;
+            off += (ClientHelloView.getByte(packet, off, end) & BITMASK) + 1; // Skip Session ID
+            serverCipher = ClientHelloView.getUInt16(packet, off, end);
+            off += UINT16_LENGTH + 1 + UINT16_LENGTH; // Skip compression method and length of extensions
+
+            extensionsStart = off;
+            extensionsEnd = Math.max(off, end);
+            int offset = off;
+            while (offset < end) {
+                offset += EXTENSION_HEADER_LENGTH + ClientHelloView.getUInt16(packet, offset + UINT16_LENGTH, end);
+            }
+            return offset == extensionsEnd;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Upper bound of the JA3 text length for the last located ClientHello.
+     *
+     * @return maximum number of bytes {@link #write} may produce without streaming
+     */
+    private int maxTextLength() {
+        return MAX_UINT16_TEXT * (1 + view.cipherCount() + view.extensionCount() + view.supportedGroupCount())
+                + MAX_UINT8_TEXT * view.ecPointFormatCount() + EXTENSION_HEADER_LENGTH;
+    }
+
+    /**
+     * Grow the internal text buffer so that it can hold the JA3 text of the last located ClientHello.
+     */
+    private void ensureTextCapacity() {
+        final int length = maxTextLength();
+        if (text.length < length) {
+            text = new byte[length];
+        }
+    }
+
+    /**
+     * Write the JA3 text of the last located ClientHello.
+     *
+     * @param array array to write to
+     * @param off offset to start writing at
+     * @param limit offset (exclusive) up to which the array may be written
+     * @param digest digest to stream the text to whenever the array is full, or null to fail when the array is full
+     * @return number of bytes written, or left in the array when streaming to a digest
+     * @throws BufferOverflowException when the text does not fit before limit and no digest is given
+     */
+    private int write(final byte[] array, final int off, final int limit, final MessageDigest digest) {
+        return write(array, off, limit, digest, false);
+    }
+
+    /**
+     * Write the JA3 text, or its normalized form, of the last located ClientHello.
+     *
+     * @param array array to write to
+     * @param off offset to start writing at
+     * @param limit offset (exclusive) up to which the array may be written
+     * @param digest digest to stream the text to whenever the array is full, or null to fail when the array is full
+     * @param normalized true to write the extension types sorted in ascending order rather than in the order of the ClientHello
+     * @return number of bytes written, or left in the array when streaming to a digest
+     * @throws BufferOverflowException when the text does not fit before limit and no digest is given
+     */
+    private int write(final byte[] array, final int off, final int limit, final MessageDigest digest, final boolean normalized) {
+        final int sortedExtensions = normalized ? sortAllExtensions() : 0;
+        open(array, off, limit, digest);
+        try {
+            writeUInt16(view.legacyVersion());
+            writeSeparator(',');
+            boolean first = true;
+            for (int i = 0; i < view.cipherCount(); i++) {
+                first = writeListValue(view.cipherAt(i), first);
+            }
+            writeSeparator(',');
+            if (normalized) {
+                for (int i = 0; i < sortedExtensions; i++) {
+                    if (i > 0) {
+                        writeSeparator('-');
+                    }
+                    writeUInt16(sorted[i]);
+                }
+            } else {
+                first = true;
+                for (int i = 0; i < view.extensionCount(); i++) {
+                    first = writeListValue(view.extensionTypeAt(i), first);
                 }
-                ei.append(extensionType);
-                first = false;
             }
+            writeSeparator(',');
+            first = true;
+            for (int i = 0; i < view.supportedGroupCount(); i++) {
+                first = writeListValue(view.supportedGroupAt(i), first);
+            }
+            writeSeparator(',');
+            for (int i = 0; i < view.ecPointFormatCount(); i++) {
+                if (i > 0) {
+                    writeSeparator('-');
+                }
+                writeUInt16(view.ecPointFormatAt(i));
+            }
+            return flush();
+        } finally {
+            out = null;
+            outDigest = null;
+        }
+    }
 
-            offset += extensionLength;
+    /**
+     * Write the JA3S text of the last located ServerHello.
+     *
+     * @param packet serverhello packet
+     * @param array array to write to
+     * @param off offset to start writing at
+     * @param limit offset (exclusive) up to which the array may be written
+     * @param digest digest to stream the text to whenever the array is full, or null to fail when the array is full
+     * @return number of bytes written, or left in the array when streaming to a digest
+     */
+    private int writeServer(final ByteBuffer packet, final byte[] array, final int off, final int limit, final MessageDigest digest) {
+        open(array, off, limit, digest);
+        try {
+            writeUInt16(serverVersion);
+            writeSeparator(',');
+            writeUInt16(serverCipher);
+            writeSeparator(',');
+            writeExtensionTypes(packet);
+            return flush();
+        } finally {
+            out = null;
+            outDigest = null;
         }
     }
 
     /**
-     * Check if TLS protocols cipher, extension, named groups, signature algorithms and version values match GREASE values. <blockquote
-     * cite="https://tools.ietf.org/html/draft-ietf-tls-grease"> GREASE (Generate Random Extensions And Sustain Extensibility), a mechanism to prevent
-     * extensibility failures in the TLS ecosystem. It reserves a set of TLS protocol values that may be advertised to ensure peers correctly handle
-     * unknown values </blockquote>
+     * Write the JA3 text of a structure key.
      *
-     * @param value value to be checked against GREASE values
-     * @return false if value matches GREASE value, true otherwise
-     * @see <a href="https://tools.ietf.org/html/draft-ietf-tls-grease">draft-ietf-tls-grease</a>
+     * @param k structure key
+     * @param length number of key characters in use
+     * @param array array to write to
+     * @param off offset to start writing at
+     * @param limit offset (exclusive) up to which the array may be written
+     * @param digest digest to stream the text to whenever the array is full, or null to fail when the array is full
+     * @return number of bytes written, or left in the array when streaming to a digest
      */
-    private boolean isNotGrease(final int value) {
-        for (int i = 0; i < GREASE.length; i++) {
-            if (value == GREASE[i]) {
-                return false;
+    private int writeKey(final char[] k, final int length, final byte[] array, final int off, final int limit, final MessageDigest digest) {
+        open(array, off, limit, digest);
+        try {
+            writeUInt16(k[0]);
+            int list = 1;
+            while (list < length) {
+                writeSeparator(',');
+                final int end = list + 1 + k[list];
+                for (int i = list + 1; i < end; i++) {
+                    if (i > list + 1) {
+                        writeSeparator('-');
+                    }
+                    writeUInt16(k[i]);
+                }
+                list = end;
             }
+            return flush();
+        } finally {
+            out = null;
+            outDigest = null;
         }
+    }
 
-        return true;
+    /**
+     * Start writing text to an array.
+     *
+     * @param array array to write to
+     * @param off offset to start writing at
+     * @param limit offset (exclusive) up to which the array may be written
+     * @param digest digest to stream the text to whenever the array is full, or null to fail when the array is full
+     */
+    private void open(final byte[] array, final int off, final int limit, final MessageDigest digest) {
+        out = array;
+        outStart = off;
+        outPos = off;
+        outLimit = limit;
+        outDigest = digest;
+    }
+
+    /**
+     * Finish writing text, feeding what is left in the array to the digest if streaming.
+     *
+     * @return number of bytes written, or left in the array when streaming to a digest
+     */
+    private int flush() {
+        if (outDigest != null) {
+            outDigest.update(out, outStart, outPos - outStart);
+        }
+        return outPos - outStart;
     }
 
     /**
-     * Convert unsigned 16-bit integer array to JA3 string.
-     * <p>
-     * Note: This method does not check alignment of the start and end are 2-bytes. The caller is responsible for ensuring a valid 16-bit integer
-     * array is provided.
+     * Write the TLS extension identifiers of the last located ServerHello, skipping GREASE values.
      *
-     * @param source packet source
-     * @param start start offset of array in packet
-     * @param end end offset of array in packet
-     * @param out string builder to output the generated JA3 string
-     * @throws BufferUnderflowException when source packet does not have enough bytes to read
+     * @param packet serverhello packet
      */
-    private void convertUInt16ArrayToJa3(final ByteBuffer source, final int start, final int end, final StringBuilder out) {
+    private void writeExtensionTypes(final ByteBuffer packet) {
         boolean first = true;
-        int st = start;
-        for (; st < end; st += UINT16_LENGTH) {
-            int value = getUInt16(source, st, end);
-            if (isNotGrease(value)) {
+        int offset = extensionsStart;
+        while (offset < extensionsEnd) {
+            final int extensionType = ClientHelloView.getUInt16(packet, offset, extensionsEnd);
+            if (isNotGrease(extensionType)) {
                 if (!first) {
-                    out.append('-');
+                    writeSeparator('-');
                 }
-                out.append(value);
+                writeUInt16(extensionType);
                 first = false;
             }
+            offset += EXTENSION_HEADER_LENGTH + ClientHelloView.getUInt16(packet, offset + UINT16_LENGTH, extensionsEnd);
         }
     }
 
     /**
-     * Convert unsigned 8-bit integer array to JA3 string.
+     * Check if TLS protocols cipher, extension, named groups, signature algorithms and version values match GREASE values. <blockquote
+     * cite="https://tools.ietf.org/html/draft-ietf-tls-grease"> GREASE (Generate Random Extensions And Sustain Extensibility), a mechanism to prevent
+     * extensibility failures in the TLS ecosystem. It reserves a set of TLS protocol values that may be advertised to ensure peers correctly handle
+     * unknown values </blockquote>
      *
-     * @param source packet source
-     * @param start start offset of array in packet
-     * @param end end offset of array in packet
-     * @param out string builder to output the generated JA3 string
-     * @throws BufferUnderflowException when source packet does not have enough bytes to read
+     * @param value value to be checked against GREASE values
+     * @return false if value matches GREASE value, true otherwise
+     * @see <a href="https://tools.ietf.org/html/draft-ietf-tls-grease">draft-ietf-tls-grease</a>
      */
-    private void convertUInt8ArrayToJa3(final ByteBuffer source, final int start, final int end, final StringBuilder out) {
-       int st = start;
-        for (; st < end; st++) {
-            out.append(getByte(source, st, end));
-            if (st < end - 1) {
-                out.append('-');
-            }
-        }
+    static boolean isNotGrease(final int value) {
+        return (value & GREASE_MASK) != GREASE_PATTERN || (value >>> BYTE_BITS) != (value & BITMASK);
     }
 
     /**
-     * Read unsigned 24-bit integer from a network byte ordered buffer.
+     * Write a value of a dash separated JA3 list, skipping GREASE values.
      *
-     * @param source buffer to read from
-     * @param start start offset of integer in buffer
-     * @param end end offset of integer in buffer
-     * @return 24-bit integer from network
-     * @throws BufferUnderflowException when source buffer does not have enough bytes to read
+     * @param value value to write
+     * @param first true if no value of the list was written yet
+     * @return true if still no value of the list was written
      */
-    private int getUInt24(final ByteBuffer source, final int start, final int end) {
-        if (start + UINT24_LENGTH > end) {
-            throw new BufferUnderflowException();
+    private boolean writeListValue(final int value, final boolean first) {
+        if (!isNotGrease(value)) {
+            return first;
         }
+        if (!first) {
+            writeSeparator('-');
+        }
+        writeUInt16(value);
+        return false;
+    }
 
-        return ((source.get(start) & BITMASK) << TWO_BYTES)
-                + ((source.get(start + 1) & BITMASK) << ONE_BYTE) + (source.get(start + 2) & BITMASK);
+    /**
+     * Write a single separator character.
+     *
+     * @param separator separator to write
+     */
+    private void writeSeparator(final char separator) {
+        out[reserve(1)] = (byte) separator;
     }
 
     /**
-     * Read unsigned 16-bit integer from a network byte ordered buffer.
+     * Write the decimal representation of an unsigned 16-bit integer using the precomputed digit table.
      *
-     * @param source buffer to read from
-     * @param start start offset of integer in buffer
-     * @param end end offset of integer in buffer
-     * @return unsigned integer
-     * @throws BufferUnderflowException when source buffer does not have enough bytes to read
+     * @param value value between 0 and 65535
      */
-    private int getUInt16(final ByteBuffer source, final int start, final int end) {
-        if (start + UINT16_LENGTH > end) {
-            throw new BufferUnderflowException();
+    private void writeUInt16(final int value) {
+        final int high = value / DIGITS_COUNT;
+        final int low = value - high * DIGITS_COUNT;
+        if (high == 0) {
+            writeDigits(low, low >= RADIX * RADIX ? DIGITS_WIDTH : low >= RADIX ? 2 : 1);
+        } else {
+            writeDigits(high, high >= RADIX ? 2 : 1);
+            writeDigits(low, DIGITS_WIDTH);
         }
+    }
 
-        return ((source.get(start) & BITMASK) << ONE_BYTE) + (source.get(start + 1) & BITMASK);
+    /**
+     * Write the last digits of a value below 1000 from the precomputed digit table.
+     *
+     * @param value value between 0 and 999
+     * @param count number of trailing digits to write, between 1 and 3
+     */
+    private void writeDigits(final int value, final int count) {
+        System.arraycopy(DIGITS, value * DIGITS_WIDTH + DIGITS_WIDTH - count, out, reserve(count), count);
     }
 
     /**
-     * Read a single byte from a network byte ordered buffer.
+     * Reserve space in the output array, streaming the text written so far to the digest if the array is full.
      *
-     * @param source buffer to read from
-     * @param start start offset of integer in buffer
-     * @param end end offset of integer in buffer
-     * @return a byte
-     * @throws BufferUnderflowException when source buffer does not have enough bytes to read
+     * @param count number of bytes to reserve
+     * @return offset of the reserved space
+     * @throws BufferOverflowException when there is no space left before the limit and no digest to stream to
      */
-    private byte getByte(final ByteBuffer source, final int start, final int end) {
-        if (start + 1 > end) {
-            throw new BufferUnderflowException();
+    private int reserve(final int count) {
+        if (outPos + count > outLimit) {
+            if (outDigest == null || outStart + count > outLimit) {
+                throw new BufferOverflowException();
+            }
+            outDigest.update(out, outStart, outPos - outStart);
+            outPos = outStart;
         }
-
-        return source.get(start);
+        final int pos = outPos;
+        outPos += count;
+        return pos;
     }
 }
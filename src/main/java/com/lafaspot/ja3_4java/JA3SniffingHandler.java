@@ -0,0 +1,223 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.AttributeKey;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * Netty handler that fingerprints the ClientHello of a connection and stores the results as attributes of the {@link Channel}. It is added
+ * to the pipeline in front of the {@code SslHandler}, whose engine is left unwrapped:
+ *
+ * <pre>
+ * pipeline.addLast(new JA3SniffingHandler(configuration), sslContext.newHandler(alloc));
+ * ...
+ * JA3Fingerprint ja3Hash = channel.attr(JA3SniffingHandler.JA3_HASH).get();
+ * </pre>
+ *
+ * The inbound buffers are read in place, pooled and direct memory included, and forwarded untouched. Only a ClientHello split over
+ * several TLS records or reads is copied. The handler removes itself from the pipeline as soon as the ClientHello is parsed, or the stream
+ * turned out not to start with one, so nothing is left to pay for the rest of the connection. It also removes itself when added to the
+ * pipeline of a connection the sampling policy of the configuration does not pick. When a {@link JA3HandshakeFilter} of the configuration
+ * rejects the handshake, the ClientHello is dropped and the channel closed before the {@code SslHandler} sees it.
+ * <p>
+ * Netty is an optional dependency of this library, it must be on the class path to use this class. A handler is bound to one channel and
+ * cannot be shared.
+ */
+public class JA3SniffingHandler extends ChannelInboundHandlerAdapter {
+    /**
+     * Channel attribute holding the JA3 signature of the client, as {@link JA3Constants#JA3_FINGERPRINT} in the {@code SSLSession}. Not set
+     * when the fingerprint has an entry under {@link #JA3_ID}, except for a lazy signature.
+     */
+    public static final AttributeKey<CharSequence> JA3_FINGERPRINT = AttributeKey.valueOf(JA3Constants.JA3_FINGERPRINT);
+
+    /**
+     * Channel attribute holding the MD5 digest of the JA3 signature of the client, as {@link JA3Constants#JA3_HASH} in the
+     * {@code SSLSession}. Not set when the fingerprint has an entry under {@link #JA3_ID}.
+     */
+    public static final AttributeKey<JA3Fingerprint> JA3_HASH = AttributeKey.valueOf(JA3Constants.JA3_HASH);
+
+    /**
+     * Channel attribute holding the registry entry of the JA3 fingerprint of the client, as {@link JA3Constants#JA3_ID} in the
+     * {@code SSLSession}. The channel holds a reference to the entry until it is closed.
+     */
+    public static final AttributeKey<JA3FingerprintRegistry.Entry> JA3_ID = AttributeKey.valueOf(JA3Constants.JA3_ID);
+
+    /**
+     * Channel attribute holding the normalized JA3 string of the client, as {@link JA3Constants#JA3N_FINGERPRINT} in the {@code SSLSession}.
+     */
+    public static final AttributeKey<String> JA3N_FINGERPRINT = AttributeKey.valueOf(JA3Constants.JA3N_FINGERPRINT);
+
+    /**
+     * Channel attribute holding the MD5 digest of the normalized JA3 string of the client, as {@link JA3Constants#JA3N_HASH} in the
+     * {@code SSLSession}.
+     */
+    public static final AttributeKey<JA3Fingerprint> JA3N_HASH = AttributeKey.valueOf(JA3Constants.JA3N_HASH);
+
+    /**
+     * Channel attribute holding the JA4 fingerprint of the client, as {@link JA3Constants#JA4_FINGERPRINT} in the {@code SSLSession}.
+     */
+    public static final AttributeKey<String> JA4_FINGERPRINT = AttributeKey.valueOf(JA3Constants.JA4_FINGERPRINT);
+
+    /**
+     * Options of the handler.
+     */
+    private final JA3Configuration configuration;
+
+    /**
+     * Fingerprints the ClientHello read from the inbound stream.
+     */
+    private final ClientHelloTracker tracker;
+
+    /**
+     * Creates a handler with the default options.
+     */
+    public JA3SniffingHandler() {
+        this(JA3Configuration.DEFAULT);
+    }
+
+    /**
+     * Creates a handler with the given options.
+     *
+     * @param configuration options of the handler
+     */
+    public JA3SniffingHandler(final JA3Configuration configuration) {
+        final JA3Cache cache = configuration.getCache();
+        this.configuration = configuration;
+        this.tracker = new ClientHelloTracker(configuration, cache == null ? JA3Signature.PER_THREAD : cache.signatures());
+    }
+
+    @Override
+    public void handlerAdded(final ChannelHandlerContext ctx) throws Exception {
+        if (!configuration.getSampling().sample()) {
+            ctx.pipeline().remove(this);
+        }
+    }
+
+    @Override
+    public void channelRead(final ChannelHandlerContext ctx, final Object msg) throws Exception {
+        // Parsed before forwarding, the ClientHello may be a view of the buffer released down the pipeline
+        if (msg instanceof ByteBuf && feed((ByteBuf) msg)) {
+            report(ctx.channel());
+            if (tracker.isRejected()) {
+                tracker.release();
+                ReferenceCountUtil.release(msg);
+                ctx.pipeline().remove(this);
+                ctx.close();
+                return;
+            }
+            putAttributes(ctx.channel());
+            tracker.release();
+        }
+        ctx.fireChannelRead(msg);
+        if (tracker.isDone() && !ctx.isRemoved()) {
+            ctx.pipeline().remove(this);
+        }
+    }
+
+    /**
+     * Feed the readable bytes of a buffer to the tracker, leaving the indexes of the buffer unchanged.
+     *
+     * @param buf inbound buffer
+     * @return true once the tracker is done
+     */
+    private boolean feed(final ByteBuf buf) {
+        final int index = buf.readerIndex();
+        final int length = buf.readableBytes();
+        final int count = buf.nioBufferCount();
+        if (count == 1) {
+            final ByteBuffer nio = buf.internalNioBuffer(index, length);
+            return tracker.feed(nio, nio.position(), nio.limit());
+        }
+        if (count > 1) {
+            for (final ByteBuffer nio : buf.nioBuffers(index, length)) {
+                if (tracker.feed(nio, nio.position(), nio.limit())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return tracker.feed(ByteBuffer.wrap(ByteBufUtil.getBytes(buf, index, length, false)), 0, length);
+    }
+
+    /**
+     * Publish the event of the ClientHello and append its record to the log, with the remote address of the channel. The ServerHello is
+     * not seen by the handler, so the record has no JA3S hash.
+     *
+     * @param channel channel of the connection
+     */
+    private void report(final Channel channel) {
+        if (configuration.getEvents() == null && configuration.getLog() == null) {
+            return;
+        }
+        final SocketAddress remote = channel.remoteAddress();
+        final String host;
+        final int port;
+        if (remote instanceof InetSocketAddress) {
+            host = ((InetSocketAddress) remote).getHostString();
+            port = ((InetSocketAddress) remote).getPort();
+        } else {
+            host = remote == null ? null : remote.toString();
+            port = -1;
+        }
+        tracker.publish(host, port);
+        tracker.log(host, port, null);
+    }
+
+    /**
+     * Set the fingerprints of the ClientHello as attributes of the channel.
+     *
+     * @param channel channel of the connection
+     */
+    private void putAttributes(final Channel channel) {
+        final ClientHelloFingerprints fingerprints = tracker.fingerprints();
+        if (fingerprints == null) {
+            return;
+        }
+        if (tracker.lazySignature() != null) {
+            channel.attr(JA3_FINGERPRINT).set(tracker.lazySignature());
+        }
+        final JA3FingerprintRegistry.Entry entry = tracker.registryEntry();
+        if (entry != null) {
+            // The JA3 string and hash are read from the shared entry, which the channel holds a reference to until closed
+            channel.attr(JA3_ID).set(entry);
+            entry.retain();
+            channel.closeFuture().addListener(new ChannelFutureListener() {
+                @Override
+                public void operationComplete(final ChannelFuture future) {
+                    entry.release();
+                }
+            });
+        } else {
+            if (fingerprints.getJa3() != null) {
+                channel.attr(JA3_FINGERPRINT).set(fingerprints.getJa3());
+            }
+            if (fingerprints.getJa3Hash() != null) {
+                channel.attr(JA3_HASH).set(fingerprints.getJa3Hash());
+            }
+        }
+        if (fingerprints.getJa3n() != null) {
+            channel.attr(JA3N_FINGERPRINT).set(fingerprints.getJa3n());
+        }
+        if (fingerprints.getJa3nHash() != null) {
+            channel.attr(JA3N_HASH).set(fingerprints.getJa3nHash());
+        }
+        if (fingerprints.getJa4() != null) {
+            channel.attr(JA4_FINGERPRINT).set(fingerprints.getJa4());
+        }
+    }
+}
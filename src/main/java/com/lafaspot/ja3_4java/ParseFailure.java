@@ -0,0 +1,46 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+/**
+ * Reasons why the start of an inbound stream could not be fingerprinted, counted by {@link JA3Metrics}.
+ */
+enum ParseFailure {
+    /**
+     * The stream does not start with a handshake record, or a record of another type interrupts the ClientHello.
+     */
+    NOT_HANDSHAKE,
+
+    /**
+     * The first handshake message is not a ClientHello.
+     */
+    NOT_CLIENT_HELLO,
+
+    /**
+     * A length runs past the end of its record, message or field.
+     */
+    UNDERFLOW,
+
+    /**
+     * The cipher suite list has an odd length.
+     */
+    ODD_CIPHER_LENGTH,
+
+    /**
+     * The supported groups or point formats extension is malformed.
+     */
+    MALFORMED_EXTENSION,
+
+    /**
+     * The ClientHello does not fit in one synthetic record once reassembled.
+     */
+    TOO_LARGE,
+
+    /**
+     * The ClientHello exceeds a {@link JA3ParseLimits} limit.
+     */
+    OVER_BUDGET
+}
@@ -0,0 +1,526 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Streams the packets of a pcap or pcapng capture file. The file is memory mapped one window at a time, so the memory used does not depend
+ * on the size of the file; a window stays valid for as long as it is referenced, even after the reader moved past it.
+ * <p>
+ * Instances are not thread safe.
+ */
+final class PcapReader implements Closeable {
+    /**
+     * Default size of a mapped window.
+     */
+    static final int DEFAULT_WINDOW = 67108864;
+
+    /**
+     * Magic number of a pcap file with microsecond timestamps.
+     */
+    private static final int PCAP_MICROS = 0xa1b2c3d4;
+
+    /**
+     * Magic number of a pcap file with nanosecond timestamps.
+     */
+    private static final int PCAP_NANOS = 0xa1b23c4d;
+
+    /**
+     * Type of a pcapng section header block.
+     */
+    private static final int SECTION_HEADER = 0x0a0d0d0a;
+
+    /**
+     * Byte order magic of a pcapng section header block.
+     */
+    private static final int BYTE_ORDER_MAGIC = 0x1a2b3c4d;
+
+    /**
+     * Type of a pcapng interface description block.
+     */
+    private static final int INTERFACE_DESCRIPTION = 1;
+
+    /**
+     * Type of a pcapng simple packet block.
+     */
+    private static final int SIMPLE_PACKET = 3;
+
+    /**
+     * Type of a pcapng enhanced packet block.
+     */
+    private static final int ENHANCED_PACKET = 6;
+
+    /**
+     * Interface option holding the timestamp resolution.
+     */
+    private static final int IF_TSRESOL = 9;
+
+    /**
+     * Length of the pcap file header.
+     */
+    private static final int PCAP_HEADER_LENGTH = 24;
+
+    /**
+     * Offset of the link type in the pcap file header.
+     */
+    private static final int PCAP_LINK_TYPE_OFFSET = 20;
+
+    /**
+     * Length of a pcap record header.
+     */
+    private static final int PCAP_RECORD_HEADER_LENGTH = 16;
+
+    /**
+     * Length of the type and length that start a pcapng block.
+     */
+    private static final int BLOCK_HEADER_LENGTH = 8;
+
+    /**
+     * Length of the fixed fields of an enhanced packet block, between the block header and the packet data.
+     */
+    private static final int ENHANCED_PACKET_FIELDS = 20;
+
+    /**
+     * Offset of the high timestamp word in an enhanced packet block body.
+     */
+    private static final int TIMESTAMP_HIGH_OFFSET = 4;
+
+    /**
+     * Offset of the low timestamp word in an enhanced packet block body.
+     */
+    private static final int TIMESTAMP_LOW_OFFSET = 8;
+
+    /**
+     * Offset of the captured length in an enhanced packet block body.
+     */
+    private static final int CAPTURED_LENGTH_OFFSET = 12;
+
+    /**
+     * Length of the fixed fields of a simple packet block, between the block header and the packet data.
+     */
+    private static final int SIMPLE_PACKET_FIELDS = 4;
+
+    /**
+     * Length of the fixed fields of an interface description block, between the block header and the options.
+     */
+    private static final int INTERFACE_FIELDS = 8;
+
+    /**
+     * Largest packet or block accepted; anything larger means the file is corrupt.
+     */
+    private static final int MAX_RECORD_LENGTH = 16777216;
+
+    /**
+     * Microseconds per second.
+     */
+    private static final long MICROS = 1000000L;
+
+    /**
+     * Nanoseconds per microsecond.
+     */
+    private static final long NANOS_PER_MICRO = 1000L;
+
+    /**
+     * Mask of the base bit of the if_tsresol option.
+     */
+    private static final int TSRESOL_POWER_OF_TWO = 0x80;
+
+    /**
+     * Mask of the exponent of the if_tsresol option.
+     */
+    private static final int TSRESOL_EXPONENT = 0x7f;
+
+    /**
+     * Decimal radix.
+     */
+    private static final int RADIX = 10;
+
+    /**
+     * Number of bits in 4 bytes.
+     */
+    private static final int FOUR_BYTES = 32;
+
+    /**
+     * Mask of an unsigned 32-bit integer.
+     */
+    private static final long UINT32_MASK = 0xffffffffL;
+
+    /**
+     * Initial number of pcapng interfaces.
+     */
+    private static final int INITIAL_INTERFACES = 4;
+
+    /**
+     * Channel of the capture file.
+     */
+    private final FileChannel channel;
+
+    /**
+     * Size of the capture file.
+     */
+    private final long size;
+
+    /**
+     * Size of a mapped window.
+     */
+    private final int windowSize;
+
+    /**
+     * True for pcapng, false for pcap.
+     */
+    private final boolean pcapng;
+
+    /**
+     * Byte order of the file, or of the current pcapng section.
+     */
+    private ByteOrder order;
+
+    /**
+     * True if pcap timestamps are in nanoseconds.
+     */
+    private boolean nanos;
+
+    /**
+     * Link type of a pcap file.
+     */
+    private int pcapLinkType;
+
+    /**
+     * Link type of each interface of the current pcapng section.
+     */
+    private int[] interfaceLinkTypes = new int[INITIAL_INTERFACES];
+
+    /**
+     * Timestamp units per second of each interface of the current pcapng section.
+     */
+    private long[] interfaceUnits = new long[INITIAL_INTERFACES];
+
+    /**
+     * Number of interfaces of the current pcapng section.
+     */
+    private int interfaceCount;
+
+    /**
+     * Mapped window, in network byte order. Only read with absolute gets, so that workers can share it.
+     */
+    private MappedByteBuffer window;
+
+    /**
+     * View of {@link #window} in the byte order of the file, used to read record and block headers.
+     */
+    private ByteBuffer headers;
+
+    /**
+     * Offset of the window in the file.
+     */
+    private long windowStart;
+
+    /**
+     * Offset in the file of the next record.
+     */
+    private long next;
+
+    /**
+     * Link type of the current packet.
+     */
+    private int linkType;
+
+    /**
+     * Timestamp of the current packet, in microseconds since the epoch.
+     */
+    private long timestamp;
+
+    /**
+     * Offset of the current packet data in {@link #window()}.
+     */
+    private int dataOffset;
+
+    /**
+     * Length of the captured data of the current packet.
+     */
+    private int dataLength;
+
+    /**
+     * Opens a capture file with the default window size.
+     *
+     * @param file capture file
+     * @throws IOException when the file cannot be read or is neither pcap nor pcapng
+     */
+    PcapReader(final Path file) throws IOException {
+        this(file, DEFAULT_WINDOW);
+    }
+
+    /**
+     * Opens a capture file.
+     *
+     * @param file capture file
+     * @param windowSize size of a mapped window
+     * @throws IOException when the file cannot be read or is neither pcap nor pcapng
+     */
+    PcapReader(final Path file, final int windowSize) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.size = channel.size();
+        this.windowSize = windowSize;
+        boolean ok = false;
+        try {
+            if (!ensure(0, PCAP_HEADER_LENGTH)) {
+                throw new IOException("Not a capture file: " + file);
+            }
+            final int magic = window.getInt(0);
+            final int swapped = Integer.reverseBytes(magic);
+            if (magic == SECTION_HEADER) {
+                pcapng = true;
+            } else if (magic == PCAP_MICROS || magic == PCAP_NANOS) {
+                pcapng = false;
+                order = ByteOrder.BIG_ENDIAN;
+                nanos = magic == PCAP_NANOS;
+            } else if (swapped == PCAP_MICROS || swapped == PCAP_NANOS) {
+                pcapng = false;
+                order = ByteOrder.LITTLE_ENDIAN;
+                nanos = swapped == PCAP_NANOS;
+            } else {
+                throw new IOException("Not a capture file: " + file);
+            }
+            if (!pcapng) {
+                pcapLinkType = headers.order(order).getInt(PCAP_LINK_TYPE_OFFSET);
+                next = PCAP_HEADER_LENGTH;
+            }
+            ok = true;
+        } finally {
+            if (!ok) {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Move to the next packet. A truncated record at the end of the file ends the capture.
+     *
+     * @return true if there is a packet, false at the end of the capture
+     * @throws IOException when the file cannot be read or is corrupt
+     */
+    boolean next() throws IOException {
+        return pcapng ? nextBlock() : nextRecord();
+    }
+
+    /**
+     * @return window holding the current packet, in network byte order
+     */
+    ByteBuffer window() {
+        return window;
+    }
+
+    /**
+     * @return link type of the current packet, such as 1 for Ethernet
+     */
+    int linkType() {
+        return linkType;
+    }
+
+    /**
+     * @return timestamp of the current packet, in microseconds since the epoch
+     */
+    long timestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return offset of the current packet data in {@link #window()}
+     */
+    int dataOffset() {
+        return dataOffset;
+    }
+
+    /**
+     * @return length of the captured data of the current packet
+     */
+    int dataLength() {
+        return dataLength;
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        headers = null;
+        channel.close();
+    }
+
+    /**
+     * Read the next record of a pcap file.
+     *
+     * @return true if there is a packet, false at the end of the file
+     * @throws IOException when the file cannot be read or is corrupt
+     */
+    private boolean nextRecord() throws IOException {
+        if (!ensure(next, PCAP_RECORD_HEADER_LENGTH)) {
+            return false;
+        }
+        int off = (int) (next - windowStart);
+        final long seconds = headers.getInt(off) & UINT32_MASK;
+        final long fraction = headers.getInt(off + Integer.BYTES) & UINT32_MASK;
+        final int length = headers.getInt(off + 2 * Integer.BYTES);
+        if (length < 0 || length > MAX_RECORD_LENGTH) {
+            throw new IOException("Corrupt pcap record at offset " + next);
+        }
+        if (!ensure(next, PCAP_RECORD_HEADER_LENGTH + length)) {
+            return false;
+        }
+        off = (int) (next - windowStart);
+        linkType = pcapLinkType;
+        timestamp = seconds * MICROS + (nanos ? fraction / NANOS_PER_MICRO : fraction);
+        dataOffset = off + PCAP_RECORD_HEADER_LENGTH;
+        dataLength = length;
+        next += PCAP_RECORD_HEADER_LENGTH + length;
+        return true;
+    }
+
+    /**
+     * Read blocks of a pcapng file up to the next packet.
+     *
+     * @return true if there is a packet, false at the end of the file
+     * @throws IOException when the file cannot be read or is corrupt
+     */
+    private boolean nextBlock() throws IOException {
+        while (ensure(next, BLOCK_HEADER_LENGTH)) {
+            int off = (int) (next - windowStart);
+            final int type = headers.getInt(off);
+            if (type == SECTION_HEADER) {
+                if (!ensure(next, BLOCK_HEADER_LENGTH + Integer.BYTES)) {
+                    return false;
+                }
+                off = (int) (next - windowStart);
+                final int magic = headers.getInt(off + BLOCK_HEADER_LENGTH);
+                if (magic == BYTE_ORDER_MAGIC) {
+                    order = ByteOrder.BIG_ENDIAN;
+                } else if (Integer.reverseBytes(magic) == BYTE_ORDER_MAGIC) {
+                    order = ByteOrder.LITTLE_ENDIAN;
+                } else {
+                    throw new IOException("Corrupt pcapng section at offset " + next);
+                }
+                interfaceCount = 0;
+            }
+            headers.order(order);
+            final int length = headers.getInt(off + Integer.BYTES);
+            if (length < BLOCK_HEADER_LENGTH + Integer.BYTES || length > MAX_RECORD_LENGTH || length % Integer.BYTES != 0) {
+                throw new IOException("Corrupt pcapng block at offset " + next);
+            }
+            if (!ensure(next, length)) {
+                return false;
+            }
+            off = (int) (next - windowStart);
+            next += length;
+            final int body = off + BLOCK_HEADER_LENGTH;
+            final int bodyEnd = off + length - Integer.BYTES;
+            if (type == INTERFACE_DESCRIPTION && body + INTERFACE_FIELDS <= bodyEnd) {
+                addInterface(headers.getShort(body) & Character.MAX_VALUE, body + INTERFACE_FIELDS, bodyEnd);
+            } else if (type == ENHANCED_PACKET && body + ENHANCED_PACKET_FIELDS <= bodyEnd) {
+                final int id = headers.getInt(body);
+                final long units = id >= 0 && id < interfaceCount ? interfaceUnits[id] : MICROS;
+                final long ts = ((headers.getInt(body + TIMESTAMP_HIGH_OFFSET) & UINT32_MASK) << FOUR_BYTES)
+                        | (headers.getInt(body + TIMESTAMP_LOW_OFFSET) & UINT32_MASK);
+                final int captured = headers.getInt(body + CAPTURED_LENGTH_OFFSET);
+                if (captured >= 0 && body + ENHANCED_PACKET_FIELDS + captured <= bodyEnd) {
+                    linkType = id >= 0 && id < interfaceCount ? interfaceLinkTypes[id] : -1;
+                    timestamp = toMicros(ts, units);
+                    dataOffset = body + ENHANCED_PACKET_FIELDS;
+                    dataLength = captured;
+                    return true;
+                }
+            } else if (type == SIMPLE_PACKET && body + SIMPLE_PACKET_FIELDS <= bodyEnd) {
+                final int original = headers.getInt(body);
+                linkType = interfaceCount > 0 ? interfaceLinkTypes[0] : -1;
+                timestamp = 0;
+                dataOffset = body + SIMPLE_PACKET_FIELDS;
+                dataLength = Math.min(bodyEnd - dataOffset, original < 0 ? Integer.MAX_VALUE : original);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Record an interface of the current pcapng section.
+     *
+     * @param type link type of the interface
+     * @param options offset of the options of the interface description block
+     * @param end end offset (exclusive) of the options
+     */
+    private void addInterface(final int type, final int options, final int end) {
+        if (interfaceCount == interfaceLinkTypes.length) {
+            interfaceLinkTypes = Arrays.copyOf(interfaceLinkTypes, interfaceCount * 2);
+            interfaceUnits = Arrays.copyOf(interfaceUnits, interfaceCount * 2);
+        }
+        long units = MICROS;
+        int off = options;
+        while (off + Integer.BYTES <= end) {
+            final int code = headers.getShort(off) & Character.MAX_VALUE;
+            final int length = headers.getShort(off + 2) & Character.MAX_VALUE;
+            if (code == 0) {
+                break;
+            }
+            if (code == IF_TSRESOL && length >= 1 && off + Integer.BYTES < end) {
+                final int resolution = headers.get(off + Integer.BYTES) & TSRESOL_EXPONENT;
+                final boolean powerOfTwo = (headers.get(off + Integer.BYTES) & TSRESOL_POWER_OF_TWO) != 0;
+                units = 1;
+                for (int i = 0; i < resolution && units < Long.MAX_VALUE / RADIX; i++) {
+                    units *= powerOfTwo ? 2 : RADIX;
+                }
+            }
+            off += Integer.BYTES + (length + Integer.BYTES - 1) / Integer.BYTES * Integer.BYTES;
+        }
+        interfaceLinkTypes[interfaceCount] = type;
+        interfaceUnits[interfaceCount] = units;
+        interfaceCount++;
+    }
+
+    /**
+     * Convert a pcapng timestamp to microseconds.
+     *
+     * @param ts timestamp in interface units
+     * @param units interface units per second
+     * @return microseconds since the epoch
+     */
+    private static long toMicros(final long ts, final long units) {
+        if (units == MICROS) {
+            return ts;
+        }
+        if (units % MICROS == 0) {
+            return ts / (units / MICROS);
+        }
+        return (long) (ts * ((double) MICROS / units));
+    }
+
+    /**
+     * Make sure a range of the file is in the mapped window, mapping a new window starting at the range if needed.
+     *
+     * @param position offset of the range in the file
+     * @param length length of the range
+     * @return true if the range is mapped, false if the file ends before the range does
+     * @throws IOException when the file cannot be mapped
+     */
+    private boolean ensure(final long position, final int length) throws IOException {
+        if (position + length > size) {
+            return false;
+        }
+        if (window != null && position >= windowStart && position + length <= windowStart + window.limit()) {
+            return true;
+        }
+        final long mapped = Math.min(size - position, Math.max(windowSize, length));
+        window = channel.map(FileChannel.MapMode.READ_ONLY, position, mapped);
+        headers = window.duplicate().order(order == null ? ByteOrder.BIG_ENDIAN : order);
+        windowStart = position;
+        return true;
+    }
+}
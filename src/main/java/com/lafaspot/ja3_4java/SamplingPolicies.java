@@ -0,0 +1,116 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Implementations of the {@link JA3SamplingPolicy} factory methods.
+ */
+final class SamplingPolicies {
+    /**
+     * Policy that fingerprints every connection.
+     */
+    static final JA3SamplingPolicy ALL = new JA3SamplingPolicy() {
+        @Override
+        public boolean sample() {
+            return true;
+        }
+    };
+
+    /**
+     * Largest percentage.
+     */
+    static final double MAX_PERCENTAGE = 100;
+
+    /**
+     * Private constructor so that class is not initialized.
+     */
+    private SamplingPolicies() {
+    }
+
+    /**
+     * Policy that fingerprints a random fraction of connections.
+     */
+    static final class Percentage implements JA3SamplingPolicy {
+        /**
+         * Fraction of connections to fingerprint, from 0 to 1.
+         */
+        private final double fraction;
+
+        /**
+         * Creates the policy.
+         *
+         * @param fraction fraction of connections to fingerprint, from 0 to 1
+         */
+        Percentage(final double fraction) {
+            this.fraction = fraction;
+        }
+
+        @Override
+        public boolean sample() {
+            return ThreadLocalRandom.current().nextDouble() < fraction;
+        }
+    }
+
+    /**
+     * Policy that fingerprints at most a number of connections per second. Implemented as a lock-free generic cell rate algorithm: a
+     * single atomic holds the theoretical arrival time of the next permit.
+     */
+    static final class RateLimited implements JA3SamplingPolicy {
+        /**
+         * Nanoseconds between two permits.
+         */
+        private final long interval;
+
+        /**
+         * How far ahead of the clock the theoretical arrival time may run, which bounds bursts to one second worth of permits.
+         */
+        private final long tolerance;
+
+        /**
+         * Theoretical arrival time of the next permit, in {@link System#nanoTime()} units.
+         */
+        private final AtomicLong arrival;
+
+        /**
+         * Creates the policy.
+         *
+         * @param permitsPerSecond maximum number of connections fingerprinted per second
+         */
+        RateLimited(final long permitsPerSecond) {
+            this.interval = Math.max(1, TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+            this.tolerance = TimeUnit.SECONDS.toNanos(1) - interval;
+            this.arrival = new AtomicLong(System.nanoTime() - TimeUnit.SECONDS.toNanos(1));
+        }
+
+        @Override
+        public boolean sample() {
+            return sample(System.nanoTime());
+        }
+
+        /**
+         * Take a permit at the given time.
+         *
+         * @param now current time in {@link System#nanoTime()} units
+         * @return true if a permit was available
+         */
+        boolean sample(final long now) {
+            while (true) {
+                final long current = arrival.get();
+                final long start = current - now < 0 ? now : current;
+                if (start - now > tolerance) {
+                    return false;
+                }
+                if (arrival.compareAndSet(current, start + interval)) {
+                    return true;
+                }
+            }
+        }
+    }
+}
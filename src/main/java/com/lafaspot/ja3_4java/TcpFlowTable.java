@@ -0,0 +1,500 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Lightweight TCP reassembly of the start of each client stream, enough to extract its ClientHello. Segments are fed in capture order;
+ * retransmissions and overlaps are trimmed and a bounded number of out of order bytes is held until the gap is filled. A flow is forgotten
+ * as soon as its ClientHello is fingerprinted or found missing, and the least recently seen flows are evicted beyond a maximum number of
+ * flows, or beyond a maximum number of bytes held by all flows, out of order and reassembled, so memory is bounded whatever the size of the
+ * capture.
+ * <p>
+ * Instances are not thread safe.
+ */
+final class TcpFlowTable {
+    /**
+     * Largest number of out of order bytes held per flow.
+     */
+    static final int MAX_PENDING_BYTES = 65536;
+
+    /**
+     * Fingerprints computed for each ClientHello.
+     */
+    private static final Set<FingerprintType> TYPES = EnumSet.allOf(FingerprintType.class);
+
+    /**
+     * Number of bytes of the ports at the start of a TCP header.
+     */
+    private static final int PORTS_LENGTH = 4;
+
+    /**
+     * Byte bit mask.
+     */
+    private static final int BITMASK = 0xFF;
+
+    /**
+     * Initial capacity of the flow map.
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * Load factor of the flow map.
+     */
+    private static final float LOAD_FACTOR = 0.75f;
+
+    /**
+     * Multiplier of the flow key hash.
+     */
+    private static final int HASH_MULTIPLIER = 31;
+
+    /**
+     * Flows by direction, in least recently seen order.
+     */
+    private final Map<FlowKey, Flow> flows;
+
+    /**
+     * Largest number of bytes held by all flows.
+     */
+    private final long maxBytes;
+
+    /**
+     * Number of bytes held by all flows.
+     */
+    private long heldBytes;
+
+    /**
+     * Reusable key to look up flows.
+     */
+    private final FlowKey probe = new FlowKey();
+
+    /**
+     * Parser of the ClientHellos.
+     */
+    private final JA3Signature signature;
+
+    /**
+     * Reusable fingerprints of the last ClientHello.
+     */
+    private final ClientHelloFingerprints fingerprints = new ClientHelloFingerprints();
+
+    /**
+     * Creates a flow table.
+     *
+     * @param maxFlows largest number of flows tracked at once
+     * @param maxBytes largest number of bytes held by all flows, out of order and reassembled
+     * @param cache cache of JA3 results shared between tables, or null
+     */
+    TcpFlowTable(final int maxFlows, final long maxBytes, final JA3Cache cache) {
+        this.signature = new JA3Signature(cache);
+        this.maxBytes = maxBytes;
+        this.flows = new LinkedHashMap<FlowKey, Flow>(INITIAL_CAPACITY, LOAD_FACTOR, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<FlowKey, Flow> eldest) {
+                if (size() > maxFlows) {
+                    heldBytes -= eldest.getValue().held;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return number of flows tracked
+     */
+    int size() {
+        return flows.size();
+    }
+
+    /**
+     * @return number of bytes held by all flows
+     */
+    long heldBytes() {
+        return heldBytes;
+    }
+
+    /**
+     * Forget all flows, at the end of a capture.
+     */
+    void clear() {
+        flows.clear();
+        heldBytes = 0;
+    }
+
+    /**
+     * Feed a TCP segment decoded by {@link TcpSegment}.
+     *
+     * @param frame buffer holding the segment
+     * @param ip offset of the IP header
+     * @param tcp offset of the TCP header
+     * @param payload offset of the TCP payload
+     * @param length length of the TCP payload
+     * @return the fingerprints of the flow if the segment completed its ClientHello, null otherwise
+     */
+    ClientHelloFingerprints segment(final ByteBuffer frame, final int ip, final int tcp, final int payload, final int length) {
+        final int flags = TcpSegment.flags(frame, tcp);
+        final int sequence = TcpSegment.sequence(frame, tcp);
+        probe.set(frame, ip, tcp);
+        Flow flow = flows.get(probe);
+        if ((flags & TcpSegment.RST) != 0) {
+            remove();
+            return null;
+        }
+        final boolean syn = (flags & TcpSegment.SYN) != 0;
+        if (flow == null || syn) {
+            if (flow == null && length == 0 && !syn) {
+                return null;
+            }
+            // A SYN starts a new connection on the same ports, whatever the state of the previous one
+            if (flow != null) {
+                heldBytes -= flow.held;
+            }
+            flow = new Flow(syn ? sequence + 1 : sequence);
+            flows.put(probe.copy(), flow);
+        }
+
+        ClientHelloFingerprints result = null;
+        if (flow.accumulator != null && length > 0) {
+            if (flow.offer(frame, payload, length, sequence)) {
+                result = complete(flow);
+            }
+            final int held = flow.held();
+            heldBytes += held - flow.held;
+            flow.held = held;
+            if (heldBytes > maxBytes) {
+                evict();
+            }
+        }
+        if ((flags & TcpSegment.FIN) != 0) {
+            remove();
+        }
+        return result;
+    }
+
+    /**
+     * Forget the flow of the last segment fed, if tracked.
+     */
+    private void remove() {
+        final Flow removed = flows.remove(probe);
+        if (removed != null) {
+            heldBytes -= removed.held;
+        }
+    }
+
+    /**
+     * Evict the least recently seen flows until the bytes they hold are within the maximum.
+     */
+    private void evict() {
+        final Iterator<Flow> it = flows.values().iterator();
+        while (heldBytes > maxBytes && it.hasNext()) {
+            heldBytes -= it.next().held;
+            it.remove();
+        }
+    }
+
+    /**
+     * Check the state of a flow after it was fed, fingerprinting its ClientHello once complete.
+     *
+     * @param flow flow that was fed
+     * @return the fingerprints if the ClientHello is complete, null otherwise
+     */
+    private ClientHelloFingerprints complete(final Flow flow) {
+        final int state = flow.accumulator.state();
+        if (state == ClientHelloAccumulator.NEED_MORE) {
+            return null;
+        }
+        final ByteBuffer clientHello = flow.accumulator.clientHello();
+        flow.done();
+        if (state == ClientHelloAccumulator.COMPLETE && signature.fingerprints(clientHello, TYPES, fingerprints)) {
+            return fingerprints;
+        }
+        return null;
+    }
+
+    /**
+     * @return source address of the last segment fed
+     */
+    String sourceAddress() {
+        return probe.address(0);
+    }
+
+    /**
+     * @return destination address of the last segment fed
+     */
+    String destinationAddress() {
+        return probe.address(1);
+    }
+
+    /**
+     * @return source port of the last segment fed
+     */
+    int sourcePort() {
+        return probe.port(0);
+    }
+
+    /**
+     * @return destination port of the last segment fed
+     */
+    int destinationPort() {
+        return probe.port(1);
+    }
+
+    /**
+     * State of the reassembly of one direction of a TCP connection.
+     */
+    private static final class Flow {
+        /**
+         * Sequence number of the next byte expected.
+         */
+        private int next;
+
+        /**
+         * Collector of the ClientHello, null once the flow is done.
+         */
+        private ClientHelloAccumulator accumulator = new ClientHelloAccumulator();
+
+        /**
+         * Segments received ahead of {@link #next}, or null if none.
+         */
+        private List<Pending> pending;
+
+        /**
+         * Number of bytes held in {@link #pending}.
+         */
+        private int pendingBytes;
+
+        /**
+         * Number of bytes held by the flow, as last added to the total of the table.
+         */
+        private int held;
+
+        /**
+         * Creates a flow.
+         *
+         * @param next sequence number of the first byte expected
+         */
+        Flow(final int next) {
+            this.next = next;
+        }
+
+        /**
+         * Feed a segment, in sequence or not.
+         *
+         * @param frame buffer holding the segment
+         * @param payload offset of the payload
+         * @param length length of the payload
+         * @param sequence sequence number of the first byte of the payload
+         * @return true if the state of the flow changed
+         */
+        boolean offer(final ByteBuffer frame, final int payload, final int length, final int sequence) {
+            final int ahead = sequence - next;
+            if (ahead > 0) {
+                if (pendingBytes + length > MAX_PENDING_BYTES) {
+                    done();
+                    return false;
+                }
+                if (pending == null) {
+                    pending = new ArrayList<>();
+                }
+                final byte[] copy = new byte[length];
+                for (int i = 0; i < length; i++) {
+                    copy[i] = frame.get(payload + i);
+                }
+                pending.add(new Pending(sequence, copy));
+                pendingBytes += length;
+                return false;
+            }
+            if (-ahead >= length) {
+                return false; // retransmission
+            }
+            accumulator.feed(frame, payload - ahead, payload + length);
+            next = sequence + length;
+            boolean drained = pending != null;
+            while (drained && accumulator.state() == ClientHelloAccumulator.NEED_MORE) {
+                drained = drain();
+            }
+            return accumulator.state() != ClientHelloAccumulator.NEED_MORE;
+        }
+
+        /**
+         * Feed the first held segment that is no longer ahead of the stream.
+         *
+         * @return true if a segment was removed
+         */
+        private boolean drain() {
+            final Iterator<Pending> it = pending.iterator();
+            while (it.hasNext()) {
+                final Pending segment = it.next();
+                final int ahead = segment.sequence - next;
+                if (ahead <= 0) {
+                    it.remove();
+                    pendingBytes -= segment.data.length;
+                    if (-ahead < segment.data.length) {
+                        accumulator.feed(ByteBuffer.wrap(segment.data), -ahead, segment.data.length);
+                        next = segment.sequence + segment.data.length;
+                    }
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return number of bytes held out of order and in the reassembly buffer
+         */
+        int held() {
+            return accumulator == null ? 0 : pendingBytes + accumulator.bufferedBytes();
+        }
+
+        /**
+         * Release the reassembly state; later segments of the flow are ignored.
+         */
+        void done() {
+            accumulator = null;
+            pending = null;
+            pendingBytes = 0;
+        }
+    }
+
+    /**
+     * Segment held until the gap before it is filled.
+     */
+    private static final class Pending {
+        /**
+         * Sequence number of the first byte.
+         */
+        private final int sequence;
+
+        /**
+         * Copy of the payload.
+         */
+        private final byte[] data;
+
+        /**
+         * Creates a held segment.
+         *
+         * @param sequence sequence number of the first byte
+         * @param data copy of the payload
+         */
+        Pending(final int sequence, final byte[] data) {
+            this.sequence = sequence;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Direction of a TCP connection: source and destination addresses, then source and destination ports.
+     */
+    private static final class FlowKey {
+        /**
+         * Addresses followed by ports.
+         */
+        private byte[] bytes = new byte[2 * TcpSegment.IPV6_ADDRESS_LENGTH + PORTS_LENGTH];
+
+        /**
+         * Number of bytes in use.
+         */
+        private int length;
+
+        /**
+         * Hash of the bytes in use.
+         */
+        private int hash;
+
+        /**
+         * Set the key to the flow of a segment.
+         *
+         * @param frame buffer holding the segment
+         * @param ip offset of the IP header
+         * @param tcp offset of the TCP header
+         */
+        void set(final ByteBuffer frame, final int ip, final int tcp) {
+            final int addresses = TcpSegment.addressOffset(frame, ip);
+            final int addressesLength = 2 * TcpSegment.addressLength(frame, ip);
+            length = 0;
+            for (int i = 0; i < addressesLength; i++) {
+                bytes[length++] = frame.get(addresses + i);
+            }
+            for (int i = 0; i < PORTS_LENGTH; i++) {
+                bytes[length++] = frame.get(tcp + i);
+            }
+            int h = 1;
+            for (int i = 0; i < length; i++) {
+                h = HASH_MULTIPLIER * h + bytes[i];
+            }
+            hash = h;
+        }
+
+        /**
+         * @return a copy of this key
+         */
+        FlowKey copy() {
+            final FlowKey key = new FlowKey();
+            key.bytes = Arrays.copyOf(bytes, length);
+            key.length = length;
+            key.hash = hash;
+            return key;
+        }
+
+        /**
+         * @param index 0 for the source, 1 for the destination
+         * @return text of the address
+         */
+        String address(final int index) {
+            final int addressLength = (length - PORTS_LENGTH) / 2;
+            try {
+                return InetAddress.getByAddress(Arrays.copyOfRange(bytes, index * addressLength, (index + 1) * addressLength)).getHostAddress();
+            } catch (UnknownHostException e) {
+                throw new IllegalStateException("Invalid address length " + addressLength, e);
+            }
+        }
+
+        /**
+         * @param index 0 for the source, 1 for the destination
+         * @return the port
+         */
+        int port(final int index) {
+            final int off = length - PORTS_LENGTH + index * 2;
+            return ((bytes[off] & BITMASK) << Byte.SIZE) | (bytes[off + 1] & BITMASK);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof FlowKey)) {
+                return false;
+            }
+            final FlowKey other = (FlowKey) obj;
+            if (other.hash != hash || other.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (bytes[i] != other.bytes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
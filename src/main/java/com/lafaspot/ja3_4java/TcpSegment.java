@@ -0,0 +1,488 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reusable decoder of the link, IP and TCP headers of a captured frame. Supports Ethernet (with VLAN tags), Linux cooked capture, BSD
+ * loopback and raw IP link types, IPv4 and IPv6 (with the common extension headers). IP fragments are not reassembled.
+ * <p>
+ * All the offsets are absolute indexes in the buffer the frame was decoded from. Instances are not thread safe.
+ */
+final class TcpSegment {
+    /**
+     * SYN flag.
+     */
+    static final int SYN = 0x02;
+
+    /**
+     * FIN flag.
+     */
+    static final int FIN = 0x01;
+
+    /**
+     * RST flag.
+     */
+    static final int RST = 0x04;
+
+    /**
+     * BSD loopback link type.
+     */
+    private static final int LINKTYPE_NULL = 0;
+
+    /**
+     * Ethernet link type.
+     */
+    private static final int LINKTYPE_ETHERNET = 1;
+
+    /**
+     * Raw IP link type.
+     */
+    private static final int LINKTYPE_RAW = 101;
+
+    /**
+     * OpenBSD loopback link type.
+     */
+    private static final int LINKTYPE_LOOP = 108;
+
+    /**
+     * Linux cooked capture link type.
+     */
+    private static final int LINKTYPE_LINUX_SLL = 113;
+
+    /**
+     * Raw IPv4 link type.
+     */
+    private static final int LINKTYPE_IPV4 = 228;
+
+    /**
+     * Raw IPv6 link type.
+     */
+    private static final int LINKTYPE_IPV6 = 229;
+
+    /**
+     * IPv4 ether type.
+     */
+    private static final int ETHERTYPE_IPV4 = 0x0800;
+
+    /**
+     * IPv6 ether type.
+     */
+    private static final int ETHERTYPE_IPV6 = 0x86dd;
+
+    /**
+     * 802.1Q VLAN ether type.
+     */
+    private static final int ETHERTYPE_VLAN = 0x8100;
+
+    /**
+     * 802.1ad QinQ ether type.
+     */
+    private static final int ETHERTYPE_QINQ = 0x88a8;
+
+    /**
+     * Length of an Ethernet header.
+     */
+    private static final int ETHERNET_HEADER_LENGTH = 14;
+
+    /**
+     * Offset of the ether type in an Ethernet header.
+     */
+    private static final int ETHERNET_TYPE_OFFSET = 12;
+
+    /**
+     * Length of a VLAN tag.
+     */
+    private static final int VLAN_TAG_LENGTH = 4;
+
+    /**
+     * Length of a Linux cooked capture header.
+     */
+    private static final int SLL_HEADER_LENGTH = 16;
+
+    /**
+     * Offset of the protocol in a Linux cooked capture header.
+     */
+    private static final int SLL_PROTOCOL_OFFSET = 14;
+
+    /**
+     * Length of a BSD loopback header.
+     */
+    private static final int LOOPBACK_HEADER_LENGTH = 4;
+
+    /**
+     * TCP protocol number.
+     */
+    private static final int TCP = 6;
+
+    /**
+     * IPv6 hop-by-hop options header.
+     */
+    private static final int IPV6_HOP_BY_HOP = 0;
+
+    /**
+     * IPv6 routing header.
+     */
+    private static final int IPV6_ROUTING = 43;
+
+    /**
+     * IPv6 destination options header.
+     */
+    private static final int IPV6_DESTINATION = 60;
+
+    /**
+     * Minimum length of an IPv4 header.
+     */
+    private static final int IPV4_HEADER_LENGTH = 20;
+
+    /**
+     * Length of an IPv6 header.
+     */
+    private static final int IPV6_HEADER_LENGTH = 40;
+
+    /**
+     * Offset of the total length in an IPv4 header.
+     */
+    private static final int IPV4_LENGTH_OFFSET = 2;
+
+    /**
+     * Offset of the fragment fields in an IPv4 header.
+     */
+    private static final int IPV4_FRAGMENT_OFFSET = 6;
+
+    /**
+     * Mask of the more fragments flag and fragment offset.
+     */
+    private static final int IPV4_FRAGMENT_MASK = 0x3fff;
+
+    /**
+     * Offset of the protocol in an IPv4 header.
+     */
+    private static final int IPV4_PROTOCOL_OFFSET = 9;
+
+    /**
+     * Offset of the source address in an IPv4 header.
+     */
+    private static final int IPV4_SOURCE_OFFSET = 12;
+
+    /**
+     * Offset of the payload length in an IPv6 header.
+     */
+    private static final int IPV6_LENGTH_OFFSET = 4;
+
+    /**
+     * Offset of the next header in an IPv6 header.
+     */
+    private static final int IPV6_NEXT_HEADER_OFFSET = 6;
+
+    /**
+     * Offset of the source address in an IPv6 header.
+     */
+    private static final int IPV6_SOURCE_OFFSET = 8;
+
+    /**
+     * Length of an IPv4 address.
+     */
+    static final int IPV4_ADDRESS_LENGTH = 4;
+
+    /**
+     * Length of an IPv6 address.
+     */
+    static final int IPV6_ADDRESS_LENGTH = 16;
+
+    /**
+     * IP version 4.
+     */
+    private static final int IPV4 = 4;
+
+    /**
+     * IP version 6.
+     */
+    private static final int IPV6 = 6;
+
+    /**
+     * Minimum length of a TCP header.
+     */
+    private static final int TCP_HEADER_LENGTH = 20;
+
+    /**
+     * Offset of the sequence number in a TCP header.
+     */
+    private static final int TCP_SEQUENCE_OFFSET = 4;
+
+    /**
+     * Offset of the data offset in a TCP header.
+     */
+    private static final int TCP_DATA_OFFSET = 12;
+
+    /**
+     * Offset of the flags in a TCP header.
+     */
+    private static final int TCP_FLAGS_OFFSET = 13;
+
+    /**
+     * Number of bits in a nibble.
+     */
+    private static final int NIBBLE = 4;
+
+    /**
+     * Nibble bit mask.
+     */
+    private static final int NIBBLE_MASK = 0xF;
+
+    /**
+     * Byte bit mask.
+     */
+    private static final int BITMASK = 0xFF;
+
+    /**
+     * Unsigned 16-bit integer mask.
+     */
+    private static final int UINT16_MASK = 0xFFFF;
+
+    /**
+     * Length of an IPv6 extension header length unit.
+     */
+    private static final int IPV6_EXTENSION_UNIT = 8;
+
+    /**
+     * Multiplier of the flow hash.
+     */
+    private static final int HASH_MULTIPLIER = 31;
+
+    /**
+     * Offset of the IP header.
+     */
+    private int ipOffset;
+
+    /**
+     * Offset of the TCP header.
+     */
+    private int tcpOffset;
+
+    /**
+     * Offset of the TCP payload.
+     */
+    private int payloadOffset;
+
+    /**
+     * Length of the TCP payload.
+     */
+    private int payloadLength;
+
+    /**
+     * Decode a captured frame.
+     *
+     * @param frame buffer holding the frame
+     * @param offset offset of the frame
+     * @param length captured length of the frame
+     * @param linkType link type of the frame
+     * @return true if the frame holds a complete TCP header over IPv4 or IPv6
+     */
+    boolean decode(final ByteBuffer frame, final int offset, final int length, final int linkType) {
+        final int end = offset + length;
+        int ip;
+        int etherType;
+        switch (linkType) {
+        case LINKTYPE_ETHERNET:
+            ip = offset + ETHERNET_HEADER_LENGTH;
+            if (ip > end) {
+                return false;
+            }
+            etherType = frame.getShort(offset + ETHERNET_TYPE_OFFSET) & UINT16_MASK;
+            while ((etherType == ETHERTYPE_VLAN || etherType == ETHERTYPE_QINQ) && ip + VLAN_TAG_LENGTH <= end) {
+                etherType = frame.getShort(ip + 2) & UINT16_MASK;
+                ip += VLAN_TAG_LENGTH;
+            }
+            if (etherType != ETHERTYPE_IPV4 && etherType != ETHERTYPE_IPV6) {
+                return false;
+            }
+            break;
+        case LINKTYPE_LINUX_SLL:
+            ip = offset + SLL_HEADER_LENGTH;
+            if (ip > end) {
+                return false;
+            }
+            etherType = frame.getShort(offset + SLL_PROTOCOL_OFFSET) & UINT16_MASK;
+            if (etherType != ETHERTYPE_IPV4 && etherType != ETHERTYPE_IPV6) {
+                return false;
+            }
+            break;
+        case LINKTYPE_NULL:
+        case LINKTYPE_LOOP:
+            ip = offset + LOOPBACK_HEADER_LENGTH;
+            break;
+        case LINKTYPE_RAW:
+        case LINKTYPE_IPV4:
+        case LINKTYPE_IPV6:
+            ip = offset;
+            break;
+        default:
+            return false;
+        }
+        if (ip >= end) {
+            return false;
+        }
+        final int version = (frame.get(ip) & BITMASK) >>> NIBBLE;
+        if (version == IPV4) {
+            return decodeIPv4(frame, ip, end);
+        } else if (version == IPV6) {
+            return decodeIPv6(frame, ip, end);
+        }
+        return false;
+    }
+
+    /**
+     * @return offset of the IP header
+     */
+    int ipOffset() {
+        return ipOffset;
+    }
+
+    /**
+     * @return offset of the TCP header
+     */
+    int tcpOffset() {
+        return tcpOffset;
+    }
+
+    /**
+     * @return offset of the TCP payload
+     */
+    int payloadOffset() {
+        return payloadOffset;
+    }
+
+    /**
+     * @return length of the TCP payload
+     */
+    int payloadLength() {
+        return payloadLength;
+    }
+
+    /**
+     * Hash of the direction of the flow of the last decoded segment: its addresses and ports.
+     *
+     * @param frame buffer the segment was decoded from
+     * @return hash of the flow
+     */
+    int flowHash(final ByteBuffer frame) {
+        final int addresses = addressOffset(frame, ipOffset);
+        int hash = frame.getInt(tcpOffset);
+        for (int i = addresses; i < addresses + 2 * addressLength(frame, ipOffset); i += Integer.BYTES) {
+            hash = hash * HASH_MULTIPLIER + frame.getInt(i);
+        }
+        return hash ^ (hash >>> (Integer.SIZE / 2));
+    }
+
+    /**
+     * @param frame buffer holding the segment
+     * @param ip offset of the IP header
+     * @return offset of the source address, followed by the destination address
+     */
+    static int addressOffset(final ByteBuffer frame, final int ip) {
+        return ip + ((frame.get(ip) & BITMASK) >>> NIBBLE == IPV4 ? IPV4_SOURCE_OFFSET : IPV6_SOURCE_OFFSET);
+    }
+
+    /**
+     * @param frame buffer holding the segment
+     * @param ip offset of the IP header
+     * @return length of each address
+     */
+    static int addressLength(final ByteBuffer frame, final int ip) {
+        return (frame.get(ip) & BITMASK) >>> NIBBLE == IPV4 ? IPV4_ADDRESS_LENGTH : IPV6_ADDRESS_LENGTH;
+    }
+
+    /**
+     * @param frame buffer holding the segment
+     * @param tcp offset of the TCP header
+     * @return sequence number
+     */
+    static int sequence(final ByteBuffer frame, final int tcp) {
+        return frame.getInt(tcp + TCP_SEQUENCE_OFFSET);
+    }
+
+    /**
+     * @param frame buffer holding the segment
+     * @param tcp offset of the TCP header
+     * @return flags
+     */
+    static int flags(final ByteBuffer frame, final int tcp) {
+        return frame.get(tcp + TCP_FLAGS_OFFSET) & BITMASK;
+    }
+
+    /**
+     * Decode an IPv4 packet.
+     *
+     * @param frame buffer holding the frame
+     * @param ip offset of the IP header
+     * @param frameEnd end offset (exclusive) of the captured frame
+     * @return true if the packet holds a complete TCP header
+     */
+    private boolean decodeIPv4(final ByteBuffer frame, final int ip, final int frameEnd) {
+        if (ip + IPV4_HEADER_LENGTH > frameEnd) {
+            return false;
+        }
+        final int headerLength = (frame.get(ip) & NIBBLE_MASK) * Integer.BYTES;
+        final int totalLength = frame.getShort(ip + IPV4_LENGTH_OFFSET) & UINT16_MASK;
+        if (frame.get(ip + IPV4_PROTOCOL_OFFSET) != TCP || (frame.getShort(ip + IPV4_FRAGMENT_OFFSET) & IPV4_FRAGMENT_MASK) != 0
+                || headerLength < IPV4_HEADER_LENGTH || totalLength < headerLength) {
+            return false;
+        }
+        // Trailing link layer padding is not part of the payload
+        return decodeTcp(frame, ip, ip + headerLength, Math.min(frameEnd, ip + totalLength));
+    }
+
+    /**
+     * Decode an IPv6 packet.
+     *
+     * @param frame buffer holding the frame
+     * @param ip offset of the IP header
+     * @param frameEnd end offset (exclusive) of the captured frame
+     * @return true if the packet holds a complete TCP header
+     */
+    private boolean decodeIPv6(final ByteBuffer frame, final int ip, final int frameEnd) {
+        if (ip + IPV6_HEADER_LENGTH > frameEnd) {
+            return false;
+        }
+        final int end = Math.min(frameEnd, ip + IPV6_HEADER_LENGTH + (frame.getShort(ip + IPV6_LENGTH_OFFSET) & UINT16_MASK));
+        int next = frame.get(ip + IPV6_NEXT_HEADER_OFFSET) & BITMASK;
+        int off = ip + IPV6_HEADER_LENGTH;
+        while (next == IPV6_HOP_BY_HOP || next == IPV6_ROUTING || next == IPV6_DESTINATION) {
+            if (off + 2 > end) {
+                return false;
+            }
+            next = frame.get(off) & BITMASK;
+            off += ((frame.get(off + 1) & BITMASK) + 1) * IPV6_EXTENSION_UNIT;
+        }
+        return next == TCP && decodeTcp(frame, ip, off, end);
+    }
+
+    /**
+     * Decode a TCP header.
+     *
+     * @param frame buffer holding the frame
+     * @param ip offset of the IP header
+     * @param tcp offset of the TCP header
+     * @param end end offset (exclusive) of the IP packet
+     * @return true if the header is complete
+     */
+    private boolean decodeTcp(final ByteBuffer frame, final int ip, final int tcp, final int end) {
+        if (tcp + TCP_HEADER_LENGTH > end) {
+            return false;
+        }
+        final int headerLength = ((frame.get(tcp + TCP_DATA_OFFSET) & BITMASK) >>> NIBBLE) * Integer.BYTES;
+        if (headerLength < TCP_HEADER_LENGTH || tcp + headerLength > end) {
+            return false;
+        }
+        ipOffset = ip;
+        tcpOffset = tcp;
+        payloadOffset = tcp + headerLength;
+        payloadLength = end - payloadOffset;
+        return true;
+    }
+}
@@ -0,0 +1,290 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Builds synthetic TLS ClientHello records for tests and benchmarks.
+ *
+ */
+public class ClientHelloBuilder {
+    private final Random random;
+    private int recordVersion = 0x0301;
+    private int clientVersion = 0x0303;
+    private int sessionIdLength = 32;
+    private int[] ciphers = new int[0];
+    private final ByteArrayOutputStream extensions = new ByteArrayOutputStream();
+    private boolean hasExtensions = false;
+    private int maxFragmentLength = 16384;
+
+    /**
+     * Creates a builder whose random bytes are derived from the given seed.
+     *
+     * @param seed seed for random, session id and key share bytes
+     */
+    public ClientHelloBuilder(final long seed) {
+        this.random = new Random(seed);
+    }
+
+    public ClientHelloBuilder recordVersion(final int version) {
+        this.recordVersion = version;
+        return this;
+    }
+
+    public ClientHelloBuilder clientVersion(final int version) {
+        this.clientVersion = version;
+        return this;
+    }
+
+    public ClientHelloBuilder sessionIdLength(final int length) {
+        this.sessionIdLength = length;
+        return this;
+    }
+
+    public ClientHelloBuilder ciphers(final int... values) {
+        this.ciphers = values.clone();
+        return this;
+    }
+
+    /**
+     * Splits the handshake message into records of at most the given size.
+     *
+     * @param length maximum record payload length
+     * @return this builder
+     */
+    public ClientHelloBuilder maxFragmentLength(final int length) {
+        this.maxFragmentLength = length;
+        return this;
+    }
+
+    public ClientHelloBuilder extension(final int type, final byte[] data) {
+        hasExtensions = true;
+        writeUInt16(extensions, type);
+        writeUInt16(extensions, data.length);
+        extensions.write(data, 0, data.length);
+        return this;
+    }
+
+    public ClientHelloBuilder serverName(final String host) {
+        final byte[] name = host.getBytes(StandardCharsets.US_ASCII);
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        writeUInt16(data, name.length + 3);
+        data.write(0);
+        writeUInt16(data, name.length);
+        data.write(name, 0, name.length);
+        return extension(0x0000, data.toByteArray());
+    }
+
+    public ClientHelloBuilder supportedGroups(final int... groups) {
+        return extension(0x000a, uint16List(groups));
+    }
+
+    public ClientHelloBuilder ecPointFormats(final int... formats) {
+        final byte[] data = new byte[formats.length + 1];
+        data[0] = (byte) formats.length;
+        for (int i = 0; i < formats.length; i++) {
+            data[i + 1] = (byte) formats[i];
+        }
+        return extension(0x000b, data);
+    }
+
+    public ClientHelloBuilder signatureAlgorithms(final int... algorithms) {
+        return extension(0x000d, uint16List(algorithms));
+    }
+
+    public ClientHelloBuilder alpn(final String... protocols) {
+        final ByteArrayOutputStream list = new ByteArrayOutputStream();
+        for (final String protocol : protocols) {
+            final byte[] p = protocol.getBytes(StandardCharsets.US_ASCII);
+            list.write(p.length);
+            list.write(p, 0, p.length);
+        }
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        writeUInt16(data, list.size());
+        data.write(list.toByteArray(), 0, list.size());
+        return extension(0x0010, data.toByteArray());
+    }
+
+    public ClientHelloBuilder supportedVersions(final int... versions) {
+        final byte[] data = new byte[versions.length * 2 + 1];
+        data[0] = (byte) (versions.length * 2);
+        for (int i = 0; i < versions.length; i++) {
+            data[1 + i * 2] = (byte) (versions[i] >> 8);
+            data[2 + i * 2] = (byte) versions[i];
+        }
+        return extension(0x002b, data);
+    }
+
+    /**
+     * Adds a key_share extension with one random key exchange entry per group.
+     *
+     * @param groupsAndLengths pairs of named group and key exchange length
+     * @return this builder
+     */
+    public ClientHelloBuilder keyShare(final int... groupsAndLengths) {
+        final ByteArrayOutputStream shares = new ByteArrayOutputStream();
+        for (int i = 0; i < groupsAndLengths.length; i += 2) {
+            writeUInt16(shares, groupsAndLengths[i]);
+            writeUInt16(shares, groupsAndLengths[i + 1]);
+            final byte[] key = randomBytes(groupsAndLengths[i + 1]);
+            shares.write(key, 0, key.length);
+        }
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        writeUInt16(data, shares.size());
+        data.write(shares.toByteArray(), 0, shares.size());
+        return extension(0x0033, data.toByteArray());
+    }
+
+    public ClientHelloBuilder empty(final int type) {
+        return extension(type, new byte[0]);
+    }
+
+    public ClientHelloBuilder opaque(final int type, final int length) {
+        return extension(type, randomBytes(length));
+    }
+
+    public ClientHelloBuilder padding(final int length) {
+        return extension(0x0015, new byte[length]);
+    }
+
+    /**
+     * @return a GREASE value picked from the seeded random
+     */
+    public int grease() {
+        final int nibble = random.nextInt(16);
+        return (nibble << 12) | 0x0a00 | (nibble << 4) | 0x0a;
+    }
+
+    /**
+     * @return the handshake message without any record framing
+     */
+    public byte[] buildHandshake() {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        writeUInt16(body, clientVersion);
+        final byte[] r = randomBytes(32);
+        body.write(r, 0, r.length);
+        body.write(sessionIdLength);
+        final byte[] sessionId = randomBytes(sessionIdLength);
+        body.write(sessionId, 0, sessionId.length);
+        writeUInt16(body, ciphers.length * 2);
+        for (final int cipher : ciphers) {
+            writeUInt16(body, cipher);
+        }
+        body.write(1);
+        body.write(0);
+        if (hasExtensions) {
+            writeUInt16(body, extensions.size());
+            body.write(extensions.toByteArray(), 0, extensions.size());
+        }
+
+        final ByteArrayOutputStream handshake = new ByteArrayOutputStream();
+        handshake.write(1);
+        handshake.write(body.size() >> 16);
+        writeUInt16(handshake, body.size());
+        handshake.write(body.toByteArray(), 0, body.size());
+        return handshake.toByteArray();
+    }
+
+    /**
+     * @return the ClientHello framed in one or more TLS handshake records
+     */
+    public byte[] build() {
+        final byte[] handshake = buildHandshake();
+        final ByteArrayOutputStream records = new ByteArrayOutputStream();
+        for (int off = 0; off < handshake.length; off += maxFragmentLength) {
+            final int len = Math.min(maxFragmentLength, handshake.length - off);
+            records.write(22);
+            writeUInt16(records, recordVersion);
+            writeUInt16(records, len);
+            records.write(handshake, off, len);
+        }
+        return records.toByteArray();
+    }
+
+    private byte[] randomBytes(final int length) {
+        final byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] uint16List(final int[] values) {
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        writeUInt16(data, values.length * 2);
+        for (final int value : values) {
+            writeUInt16(data, value);
+        }
+        return data.toByteArray();
+    }
+
+    private static void writeUInt16(final ByteArrayOutputStream out, final int value) {
+        out.write(value >> 8);
+        out.write(value);
+    }
+
+    /**
+     * Chrome-like TLS 1.3 ClientHello with GREASE, X25519 key share and 16 extensions.
+     *
+     * @param seed random seed
+     * @return ClientHello record
+     */
+    public static byte[] chrome(final long seed) {
+        final ClientHelloBuilder b = new ClientHelloBuilder(seed);
+        final int grease = b.grease();
+        return b.ciphers(grease, 0x1301, 0x1302, 0x1303, 0xc02b, 0xc02f, 0xc02c, 0xc030, 0xcca9, 0xcca8, 0xc013, 0xc014, 0x009c, 0x009d,
+                0x002f, 0x0035)
+                .empty(b.grease())
+                .serverName("www.example.com")
+                .empty(0x0017)
+                .extension(0xff01, new byte[] { 0 })
+                .supportedGroups(b.grease(), 0x001d, 0x0017, 0x0018)
+                .ecPointFormats(0)
+                .empty(0x0023)
+                .alpn("h2", "http/1.1")
+                .extension(0x0005, new byte[] { 1, 0, 0, 0, 0 })
+                .signatureAlgorithms(0x0403, 0x0804, 0x0401, 0x0503, 0x0805, 0x0501, 0x0806, 0x0601)
+                .empty(0x0012)
+                .keyShare(b.grease(), 1, 0x001d, 32)
+                .extension(0x002d, new byte[] { 1, 1 })
+                .supportedVersions(b.grease(), 0x0304, 0x0303)
+                .extension(0x001b, new byte[] { 2, 0, 2 })
+                .opaque(0x4469, 5)
+                .empty(b.grease())
+                .padding(200)
+                .build();
+    }
+
+    /**
+     * Firefox-like TLS 1.3 ClientHello with two key shares and 17 extensions.
+     *
+     * @param seed random seed
+     * @return ClientHello record
+     */
+    public static byte[] firefox(final long seed) {
+        return new ClientHelloBuilder(seed)
+                .ciphers(0x1301, 0x1303, 0x1302, 0xc02b, 0xc02f, 0xcca9, 0xcca8, 0xc02c, 0xc030, 0xc00a, 0xc009, 0xc013, 0xc014, 0x009c,
+                        0x009d, 0x002f, 0x0035)
+                .serverName("www.example.com")
+                .empty(0x0017)
+                .extension(0xff01, new byte[] { 0 })
+                .supportedGroups(0x001d, 0x0017, 0x0018, 0x0019, 0x0100, 0x0101)
+                .ecPointFormats(0)
+                .empty(0x0023)
+                .alpn("h2", "http/1.1")
+                .extension(0x0005, new byte[] { 1, 0, 0, 0, 0 })
+                .extension(0x0022, new byte[] { 0, 8, 4, 3, 5, 3, 6, 3, 2, 3 })
+                .keyShare(0x001d, 32, 0x0017, 65)
+                .supportedVersions(0x0304, 0x0303)
+                .signatureAlgorithms(0x0403, 0x0503, 0x0603, 0x0804, 0x0805, 0x0806, 0x0401, 0x0501, 0x0601, 0x0203, 0x0201)
+                .extension(0x002d, new byte[] { 1, 1 })
+                .extension(0x001c, new byte[] { 0x40, 0x01 })
+                .extension(0x001b, new byte[] { 2, 0, 2 })
+                .padding(120)
+                .build();
+    }
+}
@@ -0,0 +1,503 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic corpus of synthetic ClientHellos shaped after the clients seen in production traffic, for correctness tests and the
+ * throughput gate. The same seed always gives the same corpus.
+ *
+ */
+public final class ClientHelloCorpus {
+
+    /**
+     * Client stacks of the corpus, with their share of the traffic in percent.
+     */
+    public enum Profile {
+        CHROME(30), CHROME_PQ(10), FIREFOX(10), SAFARI(10), CURL(7), GO(8), JAVA(8), PYTHON(5), IOT(7), MALFORMED(5);
+
+        private final int weight;
+
+        Profile(final int weight) {
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * A ClientHello of the corpus.
+     */
+    public static final class Sample {
+        private final Profile profile;
+        private final long seed;
+        private final byte[] packet;
+
+        Sample(final Profile profile, final long seed, final byte[] packet) {
+            this.profile = profile;
+            this.seed = seed;
+            this.packet = packet;
+        }
+
+        public Profile getProfile() {
+            return profile;
+        }
+
+        /**
+         * @return a copy of the record bytes
+         */
+        public byte[] getPacket() {
+            return packet.clone();
+        }
+
+        /**
+         * @return true if the ClientHello was deliberately broken
+         */
+        public boolean isMalformed() {
+            return profile == Profile.MALFORMED;
+        }
+
+        @Override
+        public String toString() {
+            return profile + "#" + seed;
+        }
+    }
+
+    // Named groups
+    private static final int SECP256R1 = 0x0017;
+    private static final int SECP384R1 = 0x0018;
+    private static final int SECP521R1 = 0x0019;
+    private static final int X25519 = 0x001d;
+    private static final int X448 = 0x001e;
+    private static final int X25519_MLKEM768 = 0x11ec;
+    private static final int X25519_KYBER768_DRAFT = 0x6399;
+
+    // Key share lengths
+    private static final int X25519_SHARE = 32;
+    private static final int SECP256R1_SHARE = 65;
+    private static final int X25519_MLKEM768_SHARE = 1216;
+
+    private static final int[] TLS13_CIPHERS = { 0x1301, 0x1302, 0x1303 };
+
+    private static final int[] CHROME_CIPHERS = { 0x1301, 0x1302, 0x1303, 0xc02b, 0xc02f, 0xc02c, 0xc030, 0xcca9, 0xcca8, 0xc013, 0xc014,
+            0x009c, 0x009d, 0x002f, 0x0035 };
+
+    private static final int[] CHROME_SIGNATURES = { 0x0403, 0x0804, 0x0401, 0x0503, 0x0805, 0x0501, 0x0806, 0x0601 };
+
+    private static final int[] OPENSSL_SIGNATURES = { 0x0403, 0x0503, 0x0603, 0x0807, 0x0808, 0x0809, 0x080a, 0x080b, 0x0804, 0x0805, 0x0806,
+            0x0401, 0x0501, 0x0601, 0x0303, 0x0301, 0x0302, 0x0402, 0x0502, 0x0602 };
+
+    private static final String[] HOSTS = { "www.example.com", "api.example.net", "mail.example.org", "login.example.com", "cdn.example.io",
+            "a.very.long.subdomain.name.of.an.example.com" };
+
+    private ClientHelloCorpus() {
+    }
+
+    /**
+     * Generate a corpus with the profiles in proportion to their weights.
+     *
+     * @param seed seed of the corpus
+     * @param size number of ClientHellos
+     * @return the samples, in a shuffled order
+     */
+    public static List<Sample> generate(final long seed, final int size) {
+        final Random random = new Random(seed);
+        final List<Sample> samples = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            int pick = random.nextInt(100);
+            Profile profile = null;
+            for (final Profile candidate : Profile.values()) {
+                pick -= candidate.weight;
+                if (pick < 0) {
+                    profile = candidate;
+                    break;
+                }
+            }
+            final long sampleSeed = random.nextLong();
+            samples.add(new Sample(profile, sampleSeed, build(profile, sampleSeed)));
+        }
+        return samples;
+    }
+
+    /**
+     * Build a ClientHello of a profile.
+     *
+     * @param profile client stack
+     * @param seed seed of the random parts: GREASE values, extension order, session id, keys, host name
+     * @return ClientHello record
+     */
+    public static byte[] build(final Profile profile, final long seed) {
+        final Random random = new Random(seed);
+        switch (profile) {
+        case CHROME:
+            return chrome(seed, random, false);
+        case CHROME_PQ:
+            return chrome(seed, random, true);
+        case FIREFOX:
+            return firefox(seed, random);
+        case SAFARI:
+            return safari(seed, random);
+        case CURL:
+            return openssl(seed, random, concat(new int[] { 0x1302, 0x1303, 0x1301 }, 0xc02c, 0xc030, 0x009f, 0xcca9, 0xcca8, 0xccaa, 0xc02b,
+                    0xc02f, 0x009e, 0xc024, 0xc028, 0x006b, 0xc023, 0xc027, 0x0067, 0xc00a, 0xc014, 0x0039, 0xc009, 0xc013, 0x0033, 0x009d,
+                    0x009c, 0x003d, 0x003c, 0x0035, 0x002f, 0x00ff), true);
+        case PYTHON:
+            return openssl(seed, random, concat(TLS13_CIPHERS, 0xc02c, 0xc030, 0xc02b, 0xc02f, 0xcca9, 0xcca8, 0x009f, 0x009e, 0xccaa, 0xc0af,
+                    0xc0ad, 0xc0ae, 0xc0ac, 0xc024, 0xc028, 0xc023, 0xc027, 0xc00a, 0xc014, 0xc009, 0xc013, 0x00ff), false);
+        case GO:
+            return go(seed, random);
+        case JAVA:
+            return java(seed, random);
+        case IOT:
+            return iot(seed, random);
+        default:
+            return malformed(random);
+        }
+    }
+
+    /**
+     * Chrome: GREASE in every list, extensions in a random order as since Chrome 110, optionally the X25519MLKEM768 hybrid key share.
+     */
+    private static byte[] chrome(final long seed, final Random random, final boolean postQuantum) {
+        final ClientHelloBuilder b = new ClientHelloBuilder(seed);
+        final int grease = b.grease();
+        final List<Extension> extensions = new ArrayList<>();
+        extensions.add(new Extension() {
+            @Override
+            public void add(final ClientHelloBuilder builder) {
+                builder.serverName(host(random));
+            }
+        });
+        extensions.add(empty(0x0017));
+        extensions.add(raw(0xff01, new byte[] { 0 }));
+        extensions.add(new Extension() {
+            @Override
+            public void add(final ClientHelloBuilder builder) {
+                if (postQuantum) {
+                    builder.supportedGroups(builder.grease(), X25519_MLKEM768, X25519, SECP256R1, SECP384R1);
+                } else {
+                    builder.supportedGroups(builder.grease(), X25519, SECP256R1, SECP384R1);
+                }
+            }
+        });
+        extensions.add(new Extension() {
+            @Override
+            public void add(final ClientHelloBuilder builder) {
+                builder.ecPointFormats(0);
+            }
+        });
+        extensions.add(empty(0x0023));
+        extensions.add(new Extension() {
+            @Override
+            public void add(final ClientHelloBuilder builder) {
+                builder.alpn("h2", "http/1.1");
+            }
+        });
+        extensions.add(raw(0x0005, new byte[] { 1, 0, 0, 0, 0 }));
+        extensions.add(new Extension() {
+            @Override
+            public void add(final ClientHelloBuilder builder) {
+                builder.signatureAlgorithms(CHROME_SIGNATURES);
+            }
+        });
+        extensions.add(empty(0x0012));
+        extensions.add(new Extension() {
+            @Override
+            public void add(final ClientHelloBuilder builder) {
+                if (postQuantum) {
+                    builder.keyShare(builder.grease(), 1, X25519_MLKEM768, X25519_MLKEM768_SHARE, X25519, X25519_SHARE);
+                } else {
+                    builder.keyShare(builder.grease(), 1, X25519, X25519_SHARE);
+                }
+            }
+        });
+        extensions.add(raw(0x002d, new byte[] { 1, 1 }));
+        extensions.add(new Extension() {
+            @Override
+            public void add(final ClientHelloBuilder builder) {
+                builder.supportedVersions(builder.grease(), 0x0304, 0x0303);
+            }
+        });
+        extensions.add(raw(0x001b, new byte[] { 2, 0, 2 }));
+        extensions.add(new Extension() {
+            @Override
+            public void add(final ClientHelloBuilder builder) {
+                builder.opaque(0x4469, 5);
+            }
+        });
+        extensions.add(new Extension() {
+            @Override
+            public void add(final ClientHelloBuilder builder) {
+                // Encrypted ClientHello GREASE
+                builder.opaque(0xfe0d, 186 + 32 * random.nextInt(4));
+            }
+        });
+        Collections.shuffle(extensions, random);
+        b.ciphers(concat(new int[] { grease }, CHROME_CIPHERS));
+        b.empty(b.grease());
+        for (final Extension extension : extensions) {
+            extension.add(b);
+        }
+        b.empty(b.grease());
+        if (!postQuantum) {
+            b.padding(random.nextInt(200) + 1);
+        }
+        return b.build();
+    }
+
+    /**
+     * Firefox: no GREASE, two or three key shares, the hybrid one in recent versions, record size limit and delegated credentials.
+     */
+    private static byte[] firefox(final long seed, final Random random) {
+        final ClientHelloBuilder b = new ClientHelloBuilder(seed);
+        final boolean postQuantum = random.nextBoolean();
+        b.ciphers(0x1301, 0x1303, 0x1302, 0xc02b, 0xc02f, 0xcca9, 0xcca8, 0xc02c, 0xc030, 0xc00a, 0xc009, 0xc013, 0xc014, 0x009c, 0x009d,
+                0x002f, 0x0035)
+                .serverName(host(random))
+                .empty(0x0017)
+                .extension(0xff01, new byte[] { 0 });
+        if (postQuantum) {
+            b.supportedGroups(X25519_MLKEM768, X25519, SECP256R1, SECP384R1, SECP521R1, 0x0100, 0x0101);
+        } else {
+            b.supportedGroups(X25519, SECP256R1, SECP384R1, SECP521R1, 0x0100, 0x0101);
+        }
+        b.ecPointFormats(0)
+                .empty(0x0023)
+                .alpn("h2", "http/1.1")
+                .extension(0x0005, new byte[] { 1, 0, 0, 0, 0 })
+                .extension(0x0022, new byte[] { 0, 8, 4, 3, 5, 3, 6, 3, 2, 3 });
+        if (postQuantum) {
+            b.keyShare(X25519_MLKEM768, X25519_MLKEM768_SHARE, X25519, X25519_SHARE, SECP256R1, SECP256R1_SHARE);
+        } else {
+            b.keyShare(X25519, X25519_SHARE, SECP256R1, SECP256R1_SHARE);
+        }
+        b.supportedVersions(0x0304, 0x0303)
+                .signatureAlgorithms(0x0403, 0x0503, 0x0603, 0x0804, 0x0805, 0x0806, 0x0401, 0x0501, 0x0601, 0x0203, 0x0201)
+                .extension(0x002d, new byte[] { 1, 1 })
+                .extension(0x001c, new byte[] { 0x40, 0x01 })
+                .extension(0x001b, new byte[] { 6, 0, 1, 0, 2, 0, 3 })
+                .opaque(0xfe0d, 186 + 32 * random.nextInt(4));
+        if (!postQuantum) {
+            b.padding(random.nextInt(150) + 1);
+        }
+        return b.build();
+    }
+
+    /**
+     * Safari: GREASE, legacy CBC suites still offered, no padding.
+     */
+    private static byte[] safari(final long seed, final Random random) {
+        final ClientHelloBuilder b = new ClientHelloBuilder(seed);
+        return b.ciphers(b.grease(), 0x1301, 0x1302, 0x1303, 0xc02c, 0xc02b, 0xcca9, 0xc030, 0xc02f, 0xcca8, 0xc00a, 0xc009, 0xc014, 0xc013,
+                0x009d, 0x009c, 0x0035, 0x002f, 0xc008, 0xc012, 0x000a)
+                .empty(b.grease())
+                .serverName(host(random))
+                .empty(0x0017)
+                .extension(0xff01, new byte[] { 0 })
+                .supportedGroups(b.grease(), X25519, SECP256R1, SECP384R1, SECP521R1)
+                .ecPointFormats(0)
+                .alpn("h2", "http/1.1")
+                .extension(0x0005, new byte[] { 1, 0, 0, 0, 0 })
+                .signatureAlgorithms(0x0403, 0x0804, 0x0401, 0x0503, 0x0203, 0x0805, 0x0805, 0x0501, 0x0806, 0x0601, 0x0201)
+                .empty(0x0012)
+                .keyShare(b.grease(), 1, X25519, X25519_SHARE)
+                .extension(0x002d, new byte[] { 1, 1 })
+                .supportedVersions(b.grease(), 0x0304, 0x0303, 0x0302, 0x0301)
+                .extension(0x001b, new byte[] { 2, 0, 1 })
+                .empty(b.grease())
+                .build();
+    }
+
+    /**
+     * OpenSSL 1.1.1 and 3.x clients (curl, Python): no GREASE, encrypt-then-MAC, padding up to 512 bytes when the hello falls in the
+     * 256-511 byte range that upsets some middleboxes.
+     */
+    private static byte[] openssl(final long seed, final Random random, final int[] ciphers, final boolean alpn) {
+        final ClientHelloBuilder b = new ClientHelloBuilder(seed).ciphers(ciphers)
+                .serverName(host(random))
+                .ecPointFormats(0, 1, 2)
+                .supportedGroups(X25519, SECP256R1, X448, SECP521R1, SECP384R1, 0x0100, 0x0101, 0x0102, 0x0103, 0x0104)
+                .empty(0x0023);
+        if (alpn) {
+            b.alpn("h2", "http/1.1");
+        }
+        b.empty(0x0016)
+                .empty(0x0017)
+                .signatureAlgorithms(OPENSSL_SIGNATURES)
+                .supportedVersions(0x0304, 0x0303)
+                .extension(0x002d, new byte[] { 1, 1 })
+                .keyShare(X25519, X25519_SHARE);
+        final int length = b.buildHandshake().length;
+        if (length >= 256 && length < 512) {
+            b.padding(Math.max(1, 512 - length - 4));
+        }
+        return b.build();
+    }
+
+    /**
+     * Go crypto/tls: TLS 1.2 suites first, the Kyber draft hybrid share in Go 1.23.
+     */
+    private static byte[] go(final long seed, final Random random) {
+        final boolean kyber = random.nextBoolean();
+        final ClientHelloBuilder b = new ClientHelloBuilder(seed)
+                .ciphers(0xc02b, 0xc02f, 0xc02c, 0xc030, 0xcca9, 0xcca8, 0xc009, 0xc013, 0xc00a, 0xc014, 0x009c, 0x009d, 0x002f, 0x0035,
+                        0xc012, 0x000a, 0x1301, 0x1302, 0x1303)
+                .serverName(host(random))
+                .extension(0x0005, new byte[] { 1, 0, 0, 0, 0 });
+        if (kyber) {
+            b.supportedGroups(X25519_KYBER768_DRAFT, X25519, SECP256R1, SECP384R1, SECP521R1);
+        } else {
+            b.supportedGroups(X25519, SECP256R1, SECP384R1, SECP521R1);
+        }
+        b.ecPointFormats(0)
+                .signatureAlgorithms(0x0804, 0x0403, 0x0807, 0x0805, 0x0806, 0x0401, 0x0501, 0x0601, 0x0503, 0x0603, 0x0201, 0x0203)
+                .extension(0xff01, new byte[] { 0 });
+        if (random.nextBoolean()) {
+            b.alpn("h2", "http/1.1");
+        }
+        b.empty(0x0012)
+                .supportedVersions(0x0304, 0x0303)
+                .extension(0x002d, new byte[] { 1, 1 });
+        if (kyber) {
+            b.keyShare(X25519_KYBER768_DRAFT, 1216, X25519, X25519_SHARE);
+        } else {
+            b.keyShare(X25519, X25519_SHARE);
+        }
+        return b.build();
+    }
+
+    /**
+     * SunJSSE (Java 11+): a long cipher list, both signature algorithm extensions, FFDHE groups.
+     */
+    private static byte[] java(final long seed, final Random random) {
+        return new ClientHelloBuilder(seed)
+                .ciphers(0x1302, 0x1301, 0x1303, 0xc02c, 0xc02b, 0xcca9, 0xc030, 0xcca8, 0xc02f, 0x009f, 0xccaa, 0x00a3, 0x009e, 0x00a2, 0xc024,
+                        0xc028, 0xc023, 0xc027, 0x006b, 0x006a, 0x0067, 0x0040, 0xc02e, 0xc032, 0xc02d, 0xc031, 0xc026, 0xc02a, 0xc025, 0xc029,
+                        0xc00a, 0xc014, 0x0039, 0x0038, 0xc009, 0xc013, 0x0033, 0x0032, 0xc005, 0xc00f, 0xc004, 0xc00e, 0x009d, 0x009c, 0x003d,
+                        0x003c, 0x0035, 0x002f, 0x00ff)
+                .serverName(host(random))
+                .extension(0x0005, new byte[] { 1, 0, 0, 0, 0 })
+                .supportedGroups(X25519, SECP256R1, SECP384R1, SECP521R1, X448, 0x0100, 0x0101, 0x0102, 0x0103, 0x0104)
+                .ecPointFormats(0)
+                .signatureAlgorithms(0x0403, 0x0503, 0x0603, 0x0807, 0x0808, 0x0804, 0x0805, 0x0806, 0x0809, 0x080a, 0x080b, 0x0401, 0x0501,
+                        0x0601, 0x0402, 0x0303, 0x0301, 0x0302, 0x0203, 0x0201, 0x0202)
+                .extension(0x0032, new byte[] { 0, 6, 4, 3, 5, 3, 6, 3 })
+                .empty(0x0017)
+                .supportedVersions(0x0304, 0x0303)
+                .extension(0x002d, new byte[] { 1, 1 })
+                .keyShare(X25519, X25519_SHARE)
+                .extension(0xff01, new byte[] { 0 })
+                .build();
+    }
+
+    /**
+     * Embedded TLS 1.2 stacks (mbedTLS, wolfSSL): a handful of suites, no session id, often no SNI, a small maximum fragment length.
+     */
+    private static byte[] iot(final long seed, final Random random) {
+        final ClientHelloBuilder b = new ClientHelloBuilder(seed).recordVersion(0x0303)
+                .sessionIdLength(0)
+                .ciphers(0xc0ac, 0xc0ae, 0xc02b, 0xc023, 0xc009, 0x00ae, 0x00a8, 0x008c);
+        if (random.nextBoolean()) {
+            b.serverName("device-" + random.nextInt(10000) + ".iot.example.com");
+        }
+        b.signatureAlgorithms(0x0403, 0x0401, 0x0303, 0x0301)
+                .supportedGroups(SECP256R1)
+                .ecPointFormats(0)
+                .extension(0x0001, new byte[] { (byte) (1 + random.nextInt(4)) })
+                .empty(0x0016)
+                .empty(0x0017);
+        return b.build();
+    }
+
+    /**
+     * A ClientHello of another profile broken in one of the ways seen on the wire: cut short, inconsistent lengths, garbage.
+     */
+    private static byte[] malformed(final Random random) {
+        final Profile[] valid = Arrays.copyOf(Profile.values(), Profile.MALFORMED.ordinal());
+        final byte[] hello = build(valid[random.nextInt(valid.length)], random.nextLong());
+        final byte[] broken;
+        switch (random.nextInt(6)) {
+        case 0:
+            // Truncated record
+            broken = Arrays.copyOf(hello, 1 + random.nextInt(hello.length - 1));
+            break;
+        case 1:
+            // Truncated handshake with consistent record and handshake lengths, cut inside the body
+            broken = Arrays.copyOf(hello, 9 + 40 + random.nextInt(hello.length - 49));
+            setLength(broken, 3, 2, broken.length - 5);
+            setLength(broken, 6, 3, broken.length - 9);
+            break;
+        case 2:
+            // Odd cipher suite length
+            broken = hello.clone();
+            final int ciphers = 9 + 2 + 32 + 1 + (broken[9 + 2 + 32] & 0xFF);
+            broken[ciphers + 1] |= 1;
+            break;
+        case 3:
+            // Extension length running past the end
+            broken = hello.clone();
+            final int sessionId = 9 + 2 + 32;
+            final int cipherLength = ((broken[sessionId + 1 + (broken[sessionId] & 0xFF)] & 0xFF) << 8)
+                    | (broken[sessionId + 2 + (broken[sessionId] & 0xFF)] & 0xFF);
+            final int firstExtension = sessionId + 1 + (broken[sessionId] & 0xFF) + 2 + cipherLength + 2 + 2;
+            broken[firstExtension + 2] = (byte) 0xFF;
+            break;
+        case 4:
+            // Random garbage after a valid handshake record header
+            broken = hello.clone();
+            for (int i = 9 + 2 + 32 + 1; i < broken.length; i++) {
+                if (random.nextInt(8) == 0) {
+                    broken[i] = (byte) random.nextInt(256);
+                }
+            }
+            break;
+        default:
+            // Not a handshake at all: plain text or an alert
+            broken = random.nextBoolean() ? "GET / HTTP/1.1\r\nHost: www.example.com\r\n\r\n".getBytes() : new byte[] { 21, 3, 3, 0, 2, 2, 40 };
+            break;
+        }
+        return broken;
+    }
+
+    private static void setLength(final byte[] packet, final int offset, final int width, final int value) {
+        for (int i = 0; i < width; i++) {
+            packet[offset + i] = (byte) (value >>> (8 * (width - 1 - i)));
+        }
+    }
+
+    private static String host(final Random random) {
+        return HOSTS[random.nextInt(HOSTS.length)];
+    }
+
+    private static int[] concat(final int[] first, final int... second) {
+        final int[] all = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, all, first.length, second.length);
+        return all;
+    }
+
+    private static Extension empty(final int type) {
+        return raw(type, new byte[0]);
+    }
+
+    private static Extension raw(final int type, final byte[] data) {
+        return new Extension() {
+            @Override
+            public void add(final ClientHelloBuilder builder) {
+                builder.extension(type, data);
+            }
+        };
+    }
+
+    /**
+     * Extension added to a builder, so that extensions can be shuffled.
+     */
+    private interface Extension {
+        void add(ClientHelloBuilder builder);
+    }
+}
@@ -0,0 +1,56 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Test class for {@link ClientHelloTracker}.
+ *
+ */
+public class ClientHelloTrackerTest {
+
+    @Test
+    public void testRelease() throws Exception {
+        final byte[] hello = ClientHelloBuilder.chrome(7);
+        final JA3FingerprintRegistry registry = new JA3FingerprintRegistry(16);
+        final Path directory = Files.createTempDirectory("ja3-log");
+        try (JA3FingerprintLog log = new JA3FingerprintLog(directory, 16, 1)) {
+            final ClientHelloTracker tracker = new ClientHelloTracker(JA3Configuration.builder().registry(registry).log(log).lazy(true).build(),
+                    JA3Signature.PER_THREAD);
+            Assert.assertTrue(tracker.feed(ByteBuffer.wrap(hello), 0, hello.length));
+            Assert.assertNotNull(tracker.fingerprints());
+            Assert.assertNotNull(tracker.lazySignature());
+            final JA3FingerprintRegistry.Entry entry = tracker.registryEntry();
+            Assert.assertEquals(entry.references(), 1);
+
+            tracker.release();
+            Assert.assertEquals(entry.references(), 0);
+            Assert.assertNull(tracker.fingerprints());
+            Assert.assertNull(tracker.lazySignature());
+            Assert.assertNull(tracker.registryEntry());
+            Assert.assertTrue(tracker.isDone());
+            // The hash is kept for the log, written once
+            tracker.log("10.0.0.1", 443, null);
+            tracker.log("10.0.0.1", 443, null);
+        }
+        try (JA3FingerprintLogReader reader = new JA3FingerprintLogReader(directory, Long.MIN_VALUE, Long.MAX_VALUE)) {
+            Assert.assertTrue(reader.next());
+            Assert.assertEquals(reader.ja3Hash(), new JA3Signature().ja3Fingerprint(ByteBuffer.wrap(hello)));
+            Assert.assertFalse(reader.next());
+        } finally {
+            for (final Path path : JA3FingerprintLog.list(directory)) {
+                Files.delete(path);
+            }
+            Files.delete(directory);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Test class for {@link ClientHelloView}.
+ *
+ */
+public class ClientHelloViewTest {
+
+    @Test
+    public void testFields() throws Exception {
+        final ClientHelloBuilder builder = new ClientHelloBuilder(1).clientVersion(0x0303);
+        final int grease = builder.grease();
+        final byte[] packet = builder.ciphers(grease, 0x1301, 0xc02b).serverName("example.com").supportedGroups(29, 23).ecPointFormats(0)
+                .signatureAlgorithms(0x0403, 0x0804).alpn("h2", "http/1.1").supportedVersions(grease, 0x0304, 0x0303).build();
+        final ClientHelloView view = new ClientHelloView();
+        Assert.assertTrue(view.wrap(ByteBuffer.wrap(packet)));
+        Assert.assertTrue(view.isValid());
+
+        Assert.assertEquals(view.legacyVersion(), 0x0303);
+        Assert.assertEquals(view.cipherCount(), 3);
+        Assert.assertEquals(view.cipherAt(0), grease);
+        Assert.assertEquals(view.cipherAt(2), 0xc02b);
+
+        Assert.assertEquals(view.extensionCount(), 6);
+        Assert.assertEquals(view.extensionTypeAt(0), 0x0000);
+        Assert.assertEquals(view.extensionTypeAt(5), 0x002b);
+        Assert.assertEquals(view.extensionDataLength(5), 7);
+        Assert.assertEquals(view.buffer().get(view.extensionDataOffset(5)), 6);
+
+        Assert.assertTrue(view.hasServerName());
+        Assert.assertEquals(StandardCharsets.US_ASCII.decode(view.sniBytes()).toString(), "example.com");
+        Assert.assertEquals(view.serverNameLength(), "example.com".length());
+
+        Assert.assertEquals(view.supportedGroupCount(), 2);
+        Assert.assertEquals(view.supportedGroupAt(1), 23);
+        Assert.assertEquals(view.ecPointFormatCount(), 1);
+        Assert.assertEquals(view.ecPointFormatAt(0), 0);
+
+        Assert.assertEquals(view.alpnCount(), 2);
+        Assert.assertEquals(StandardCharsets.US_ASCII.decode(view.alpnBytes(1)).toString(), "http/1.1");
+        Assert.assertEquals(view.alpnLength(0), 2);
+
+        Assert.assertEquals(view.supportedVersionCount(), 3);
+        Assert.assertEquals(view.supportedVersionAt(1), 0x0304);
+        Assert.assertEquals(view.signatureAlgorithmCount(), 2);
+        Assert.assertEquals(view.signatureAlgorithmAt(1), 0x0804);
+    }
+
+    @Test
+    public void testReuse() throws Exception {
+        final ClientHelloView view = new ClientHelloView();
+        Assert.assertTrue(view.wrap(ByteBuffer.wrap(ClientHelloBuilder.chrome(1))));
+        Assert.assertTrue(view.hasServerName());
+
+        Assert.assertTrue(view.wrap(ByteBuffer.wrap(new ClientHelloBuilder(2).ciphers(0x1301).build())));
+        Assert.assertEquals(view.cipherCount(), 1);
+        Assert.assertFalse(view.hasServerName());
+        Assert.assertNull(view.sniBytes());
+        Assert.assertEquals(view.alpnCount(), 0);
+        Assert.assertEquals(view.supportedGroupCount(), 0);
+    }
+
+    @Test
+    public void testManyExtensions() throws Exception {
+        final ClientHelloBuilder builder = new ClientHelloBuilder(1).ciphers(0x1301);
+        for (int i = 0; i < 100; i++) {
+            builder.empty(0x1000 + i);
+        }
+        final ClientHelloView view = new ClientHelloView();
+        Assert.assertTrue(view.wrap(ByteBuffer.wrap(builder.build())));
+        Assert.assertEquals(view.extensionCount(), 100);
+        Assert.assertEquals(view.extensionTypeAt(99), 0x1000 + 99);
+    }
+
+    @Test
+    public void testPositionAndLimitUnchanged() throws Exception {
+        final byte[] hello = ClientHelloBuilder.chrome(1);
+        final byte[] padded = new byte[hello.length + 10];
+        System.arraycopy(hello, 0, padded, 5, hello.length);
+        final ByteBuffer buffer = ByteBuffer.wrap(padded, 5, hello.length);
+        final ClientHelloView view = new ClientHelloView();
+        Assert.assertTrue(view.wrap(buffer));
+        Assert.assertEquals(buffer.position(), 5);
+        Assert.assertEquals(buffer.limit(), 5 + hello.length);
+        Assert.assertEquals(view.buffer(), buffer);
+    }
+
+    @Test
+    public void testInvalid() throws Exception {
+        final ClientHelloView view = new ClientHelloView();
+        Assert.assertFalse(view.wrap(ByteBuffer.allocate(2)));
+        final byte[] packet = ClientHelloBuilder.chrome(1);
+        Assert.assertFalse(view.wrap(ByteBuffer.wrap(Arrays.copyOf(packet, packet.length - 1))));
+        Assert.assertFalse(view.isValid());
+        packet[0] = 23;
+        Assert.assertFalse(view.wrap(ByteBuffer.wrap(packet)));
+    }
+
+    @Test(expectedExceptions = IndexOutOfBoundsException.class)
+    public void testIndexOutOfBounds() throws Exception {
+        final ClientHelloView view = new ClientHelloView();
+        Assert.assertTrue(view.wrap(ByteBuffer.wrap(new ClientHelloBuilder(1).ciphers(0x1301).build())));
+        view.cipherAt(1);
+    }
+
+    @Test
+    public void testMatchesJA3() throws Exception {
+        final byte[] packet = ClientHelloBuilder.firefox(1);
+        final ClientHelloView view = new ClientHelloView();
+        Assert.assertTrue(view.wrap(ByteBuffer.wrap(packet)));
+        final String ja3 = new JA3Signature().ja3Signature(ByteBuffer.wrap(packet));
+        Assert.assertTrue(ja3.startsWith(view.legacyVersion() + ","));
+        Assert.assertEquals(ja3.split(",", -1)[4].split("-").length, view.ecPointFormatCount());
+    }
+}
@@ -0,0 +1,28 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.util.Random;
+
+/**
+ * {@link JA3Fingerprint}s used as keys in tests.
+ */
+final class Fingerprints {
+
+    private Fingerprints() {
+    }
+
+    /**
+     * Derives a well spread fingerprint from an index, so that consecutive indexes do not hash to neighbouring slots.
+     *
+     * @param i index of the fingerprint
+     * @return the same fingerprint for the same index
+     */
+    static JA3Fingerprint fingerprint(final int i) {
+        final Random random = new Random(i);
+        return new JA3Fingerprint(random.nextLong(), random.nextLong());
+    }
+}
@@ -0,0 +1,172 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLSession;
+
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Test class for {@link JA3Blocklist}.
+ *
+ */
+public class JA3BlocklistTest {
+
+    @Test
+    public void testContains() {
+        final Random random = new Random(42);
+        final List<JA3Fingerprint> digests = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            digests.add(new JA3Fingerprint(random.nextLong(), random.nextLong()));
+        }
+        digests.add(new JA3Fingerprint(0, 0));
+        digests.add(digests.get(0));
+        final JA3Blocklist blocklist = new JA3Blocklist(digests);
+        Assert.assertEquals(blocklist.size(), 10001);
+        for (final JA3Fingerprint digest : digests) {
+            Assert.assertTrue(blocklist.contains(digest));
+        }
+        for (int i = 0; i < 10000; i++) {
+            Assert.assertFalse(blocklist.contains(new JA3Fingerprint(random.nextLong(), random.nextLong())));
+        }
+        // Same low half, different high half
+        Assert.assertFalse(blocklist.contains(new JA3Fingerprint(digests.get(1).getHigh() + 1, digests.get(1).getLow())));
+
+        blocklist.update(Collections.<JA3Fingerprint>emptyList());
+        Assert.assertEquals(blocklist.size(), 0);
+        Assert.assertFalse(blocklist.contains(digests.get(1)));
+        Assert.assertFalse(blocklist.contains(new JA3Fingerprint(0, 0)));
+    }
+
+    @Test
+    public void testReload() throws Exception {
+        final JA3Fingerprint digest = new JA3Signature().ja3Fingerprint(ByteBuffer.wrap(ClientHelloBuilder.chrome(1)));
+        final Path file = Files.createTempFile("ja3", ".txt");
+        file.toFile().deleteOnExit();
+        Files.write(file, Arrays.asList("# known bad tooling", "", "  " + digest.toHex() + "  "), StandardCharsets.US_ASCII);
+        final JA3Blocklist blocklist = new JA3Blocklist();
+        blocklist.reload(file);
+        Assert.assertEquals(blocklist.size(), 1);
+        Assert.assertTrue(blocklist.contains(digest));
+
+        Files.write(file, Arrays.asList("not a digest"), StandardCharsets.US_ASCII);
+        try {
+            blocklist.reload(file);
+            Assert.fail("reload of an invalid file");
+        } catch (IllegalArgumentException e) {
+            // expected, the previous set is kept
+        }
+        Assert.assertTrue(blocklist.contains(digest));
+    }
+
+    @Test
+    public void testRejectedHandshake() throws Exception {
+        final byte[] packet = ClientHelloBuilder.chrome(2);
+        final JA3Fingerprint digest = new JA3Signature().ja3Fingerprint(ByteBuffer.wrap(packet));
+        final SSLEngine engine = MockEngines.consumingEngine();
+        final SSLSession session = Mockito.mock(SSLSession.class);
+        Mockito.doReturn(session).when(engine).getHandshakeSession();
+        final JA3Configuration configuration = JA3Configuration.builder().filter(new JA3Blocklist(Collections.singleton(digest))).build();
+        final JA3SSLEngineWrapper wrapper = new JA3SSLEngineWrapper(engine, configuration);
+        final ByteBuffer[] dsts = new ByteBuffer[] { ByteBuffer.allocate(100) };
+        try {
+            wrapper.unwrap(ByteBuffer.wrap(packet), dsts, 0, 1);
+            Assert.fail("handshake not rejected");
+        } catch (SSLHandshakeException e) {
+            Assert.assertTrue(e.getMessage().contains(digest.toHex()));
+        }
+        Assert.assertNull(wrapper.getDelegatedTask());
+        Mockito.verify(engine).closeOutbound();
+        Mockito.verify(engine, Mockito.never()).getDelegatedTask();
+        Mockito.verify(session, Mockito.never()).putValue(Matchers.anyString(), Matchers.any());
+        try {
+            wrapper.unwrap(ByteBuffer.wrap(packet), dsts, 0, 1);
+            Assert.fail("handshake not rejected");
+        } catch (SSLHandshakeException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testRejectedLoopbackHandshake() throws Exception {
+        final String protocol = "TLSv1.2";
+        final String cipherSuite = "TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256";
+        LoopbackHandshakeTest.assumeSupported(protocol, cipherSuite);
+        // The JA3 hash of the JDK client, from a handshake that goes through
+        final JA3Fingerprint digest = (JA3Fingerprint) new LoopbackHandshake(true, JA3Configuration.DEFAULT, protocol, cipherSuite).run()
+                .getSession().getValue(JA3Constants.JA3_HASH);
+        Assert.assertNotNull(digest);
+        final JA3Configuration configuration = JA3Configuration.builder().filter(new JA3Blocklist(Collections.singleton(digest))).build();
+        final LoopbackHandshake loopback = new LoopbackHandshake(true, configuration, protocol, cipherSuite);
+        final SSLEngine client = loopback.newClientEngine();
+        final SSLEngine server = loopback.newServerEngine();
+        final ByteBuffer empty = ByteBuffer.allocate(0);
+        final ByteBuffer clientToServer = ByteBuffer.allocate(client.getSession().getPacketBufferSize());
+        final ByteBuffer serverToClient = ByteBuffer.allocate(server.getSession().getPacketBufferSize());
+        final ByteBuffer application = ByteBuffer.allocate(client.getSession().getApplicationBufferSize());
+        client.beginHandshake();
+        server.beginHandshake();
+
+        client.wrap(empty, clientToServer);
+        clientToServer.flip();
+        try {
+            server.unwrap(clientToServer, application);
+            Assert.fail("handshake not rejected");
+        } catch (SSLHandshakeException e) {
+            Assert.assertTrue(e.getMessage().contains(digest.toHex()), e.getMessage());
+        }
+        // No key exchange nor signature: the engine never hands out the tasks processing the ClientHello
+        Assert.assertNull(server.getDelegatedTask());
+
+        // The server can only send the alerts closing the connection, which close the client
+        for (int i = 0; i < 10 && !client.isInboundDone(); i++) {
+            serverToClient.clear();
+            server.wrap(empty, serverToClient);
+            serverToClient.flip();
+            try {
+                while (serverToClient.hasRemaining() && !client.isInboundDone()) {
+                    client.unwrap(serverToClient, application);
+                }
+            } catch (SSLException e) {
+                // closed during the handshake
+            }
+        }
+        Assert.assertTrue(server.isOutboundDone());
+        Assert.assertTrue(client.isInboundDone());
+    }
+
+    @Test
+    public void testAcceptedHandshake() throws Exception {
+        final byte[] packet = ClientHelloBuilder.chrome(3);
+        final SSLEngine engine = MockEngines.consumingEngine();
+        final SSLSession session = Mockito.mock(SSLSession.class);
+        Mockito.doReturn(session).when(engine).getHandshakeSession();
+        final JA3Blocklist blocklist = new JA3Blocklist(Collections.singleton(new JA3Fingerprint(1, 2)));
+        // JA3 hash is computed for the filter but not stored in lazy mode
+        final JA3Configuration configuration = JA3Configuration.builder().lazy(true).filter(blocklist).build();
+        final JA3SSLEngineWrapper wrapper = new JA3SSLEngineWrapper(engine, configuration);
+        wrapper.unwrap(ByteBuffer.wrap(packet), new ByteBuffer[] { ByteBuffer.allocate(100) }, 0, 1);
+        Assert.assertNotNull(wrapper.getDelegatedTask());
+        Mockito.verify(session).putValue(Matchers.eq(JA3Constants.JA3_FINGERPRINT), Matchers.any(JA3LazySignature.class));
+        Mockito.verify(session, Mockito.never()).putValue(Matchers.eq(JA3Constants.JA3_HASH), Matchers.any());
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Test class for {@link JA3Cache}.
+ *
+ */
+public class JA3CacheTest {
+
+    @Test
+    public void testHitReturnsSameInstance() throws Exception {
+        final JA3Cache cache = new JA3Cache(100);
+        final JA3Signature signature = new JA3Signature(cache);
+        // Different GREASE values, random and session id, same structure
+        final String first = signature.ja3Signature(ByteBuffer.wrap(ClientHelloBuilder.chrome(1)));
+        final String second = new JA3Signature(cache).ja3Signature(ByteBuffer.wrap(ClientHelloBuilder.chrome(2)));
+        Assert.assertSame(second, first);
+        Assert.assertEquals(first, new JA3Signature().ja3Signature(ByteBuffer.wrap(ClientHelloBuilder.chrome(1))));
+        Assert.assertEquals(cache.missCount(), 1);
+        Assert.assertEquals(cache.hitCount(), 1);
+        Assert.assertEquals(cache.size(), 1);
+
+        final JA3Fingerprint fingerprint = signature.ja3Fingerprint(ByteBuffer.wrap(ClientHelloBuilder.chrome(3)));
+        Assert.assertEquals(fingerprint, new JA3Signature().ja3Fingerprint(ByteBuffer.wrap(ClientHelloBuilder.chrome(3))));
+        Assert.assertSame(signature.lastSignatureFingerprint(), fingerprint);
+        Assert.assertEquals(cache.hitCount(), 2);
+    }
+
+    @Test
+    public void testDistinctStructures() throws Exception {
+        final JA3Cache cache = new JA3Cache(100);
+        final JA3Signature signature = new JA3Signature(cache);
+        final byte[] chrome = ClientHelloBuilder.chrome(1);
+        final byte[] firefox = ClientHelloBuilder.firefox(1);
+        Assert.assertEquals(signature.ja3Signature(ByteBuffer.wrap(chrome)), new JA3Signature().ja3Signature(ByteBuffer.wrap(chrome)));
+        Assert.assertEquals(signature.ja3Signature(ByteBuffer.wrap(firefox)), new JA3Signature().ja3Signature(ByteBuffer.wrap(firefox)));
+        // Same values split differently between lists must not collide
+        final byte[] a = new ClientHelloBuilder(1).ciphers(10, 11).supportedGroups(12).build();
+        final byte[] b = new ClientHelloBuilder(1).ciphers(10).supportedGroups(11, 12).build();
+        Assert.assertNotEquals(signature.ja3Signature(ByteBuffer.wrap(a)), signature.ja3Signature(ByteBuffer.wrap(b)));
+        Assert.assertEquals(cache.size(), 4);
+        Assert.assertNull(signature.ja3Signature(ByteBuffer.wrap(new byte[] { 21, 3, 3, 0, 0 })));
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        final JA3Cache cache = new JA3Cache(16);
+        final JA3Signature signature = new JA3Signature(cache);
+        for (int i = 0; i < 1000; i++) {
+            final byte[] packet = new ClientHelloBuilder(i).ciphers(i + 1, 0x1301).build();
+            Assert.assertEquals(signature.ja3Signature(ByteBuffer.wrap(packet)), "771," + (i + 1) + "-4865,,,");
+        }
+        Assert.assertTrue(cache.size() <= 16);
+        Assert.assertEquals(cache.evictionCount(), 1000 - cache.size());
+        Assert.assertEquals(cache.missCount(), 1000);
+
+        // Most recently used entry survives
+        signature.ja3Signature(ByteBuffer.wrap(new ClientHelloBuilder(1).ciphers(1000, 0x1301).build()));
+        Assert.assertEquals(cache.hitCount(), 1);
+
+        cache.clear();
+        Assert.assertEquals(cache.size(), 0);
+    }
+
+    @Test
+    public void testHotEntriesSurviveEviction() throws Exception {
+        final JA3Cache cache = new JA3Cache(256);
+        final JA3Signature signature = new JA3Signature(cache);
+        final ByteBuffer hot = ByteBuffer.wrap(new ClientHelloBuilder(1).ciphers(1, 0x1301).build());
+        signature.ja3Signature(hot);
+        for (int i = 2; i < 1000; i++) {
+            signature.ja3Signature(ByteBuffer.wrap(new ClientHelloBuilder(i).ciphers(i, 0x1301).build()));
+            // Looked up between every miss, the hot entry is spared by the clock hand
+            signature.ja3Signature(hot);
+        }
+        Assert.assertEquals(cache.hitCount(), 998);
+        Assert.assertEquals(cache.missCount(), 999);
+    }
+
+    @Test
+    public void testConcurrentLookups() throws Exception {
+        final JA3Cache cache = new JA3Cache(16);
+        final AtomicReference<String> failure = new AtomicReference<>();
+        final Thread[] workers = new Thread[4];
+        for (int t = 0; t < workers.length; t++) {
+            workers[t] = new Thread() {
+                @Override
+                public void run() {
+                    final JA3Signature signature = new JA3Signature(cache);
+                    for (int i = 0; i < 20000; i++) {
+                        final int cipher = 1 + i % 64;
+                        final String ja3 = signature.ja3Signature(ByteBuffer.wrap(new ClientHelloBuilder(i).ciphers(cipher, 0x1301).build()));
+                        if (!("771," + cipher + "-4865,,,").equals(ja3)) {
+                            failure.compareAndSet(null, cipher + ": " + ja3);
+                        }
+                    }
+                }
+            };
+            workers[t].start();
+        }
+        for (final Thread worker : workers) {
+            worker.join();
+        }
+        Assert.assertNull(failure.get());
+        Assert.assertTrue(cache.size() <= 16);
+        Assert.assertEquals(cache.hitCount() + cache.missCount(), 80000);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidSize() throws Exception {
+        new JA3Cache(0);
+    }
+}
@@ -0,0 +1,241 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLEngine;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+/**
+ * Test class for {@link JA3EventPublisher}.
+ *
+ */
+public class JA3EventPublisherTest {
+
+    /**
+     * Listener collecting every event, optionally waiting for a latch before the first batch.
+     */
+    private static final class Collector implements JA3EventListener {
+        private final List<JA3Event> events = new ArrayList<>();
+        private final List<Integer> batchSizes = new ArrayList<>();
+        private final CountDownLatch gate;
+
+        Collector(final CountDownLatch gate) {
+            this.gate = gate;
+        }
+
+        @Override
+        public void onEvents(final List<JA3Event> batch) {
+            try {
+                gate.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (this) {
+                events.addAll(batch);
+                batchSizes.add(batch.size());
+            }
+        }
+
+        synchronized List<JA3Event> events() {
+            return new ArrayList<>(events);
+        }
+    }
+
+    private static JA3Event event(final int port) {
+        return new JA3Event("10.0.0.1", port, "www.example.com", new JA3Fingerprint(port, port), null, null, false);
+    }
+
+    @Test
+    public void testBatches() {
+        final Collector collector = new Collector(new CountDownLatch(1));
+        final JA3EventPublisher publisher = new JA3EventPublisher(collector, 100, 16);
+        Assert.assertEquals(publisher.getCapacity(), 128);
+        for (int i = 0; i < 100; i++) {
+            Assert.assertTrue(publisher.offer(event(i)));
+        }
+        collector.gate.countDown();
+        publisher.close();
+
+        final List<JA3Event> events = collector.events();
+        Assert.assertEquals(events.size(), 100);
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(events.get(i).getPeerPort(), i);
+        }
+        for (final int size : collector.batchSizes) {
+            Assert.assertTrue(size > 0 && size <= 16, "batch of " + size);
+        }
+        Assert.assertEquals(publisher.getDelivered(), 100);
+        Assert.assertEquals(publisher.getDropped(), 0);
+        Assert.assertEquals(publisher.size(), 0);
+
+        Assert.assertFalse(publisher.offer(event(100)));
+        Assert.assertEquals(publisher.getDropped(), 1);
+        publisher.close();
+    }
+
+    @Test
+    public void testDropWhenFull() throws Exception {
+        final CountDownLatch gate = new CountDownLatch(1);
+        final Collector collector = new Collector(gate);
+        final JA3EventPublisher publisher = new JA3EventPublisher(collector, 8, 1);
+        // The first event is taken by the blocked listener, the next 8 fill the ring
+        Assert.assertTrue(publisher.offer(event(0)));
+        while (publisher.size() > 0) {
+            Thread.sleep(1);
+        }
+        for (int i = 1; i <= 8; i++) {
+            Assert.assertTrue(publisher.offer(event(i)));
+        }
+        for (int i = 9; i < 20; i++) {
+            Assert.assertFalse(publisher.offer(event(i)));
+        }
+        Assert.assertEquals(publisher.getDropped(), 11);
+        gate.countDown();
+        publisher.close();
+        Assert.assertEquals(collector.events().size(), 9);
+        Assert.assertEquals(collector.events().get(8).getPeerPort(), 8);
+    }
+
+    @Test
+    public void testOverflowSampling() throws Exception {
+        final CountDownLatch gate = new CountDownLatch(1);
+        final Collector collector = new Collector(gate);
+        final JA3EventPublisher publisher = new JA3EventPublisher(collector, 16, 1, JA3SamplingPolicy.percentage(0));
+        publisher.offer(event(0));
+        while (publisher.size() > 0) {
+            Thread.sleep(1);
+        }
+        // Kept until half full, then none is sampled
+        for (int i = 1; i <= 20; i++) {
+            Assert.assertEquals(publisher.offer(event(i)), i <= 9, "event " + i);
+        }
+        Assert.assertEquals(publisher.getDropped(), 11);
+        gate.countDown();
+        publisher.close();
+        Assert.assertEquals(publisher.getDelivered(), 10);
+    }
+
+    @Test
+    public void testFailingListener() {
+        final List<JA3Event> seen = new ArrayList<>();
+        final JA3EventPublisher publisher = new JA3EventPublisher(new JA3EventListener() {
+            @Override
+            public void onEvents(final List<JA3Event> events) {
+                seen.addAll(events);
+                throw new IllegalStateException("analytics down");
+            }
+        }, 16, 1);
+        publisher.offer(event(1));
+        publisher.offer(event(2));
+        publisher.close();
+        Assert.assertEquals(seen.size(), 2);
+        Assert.assertEquals(publisher.getFailures(), 2);
+        Assert.assertEquals(publisher.getDelivered(), 0);
+    }
+
+    @Test
+    public void testConcurrentProducers() throws Exception {
+        final Collector collector = new Collector(new CountDownLatch(0));
+        final JA3EventPublisher publisher = new JA3EventPublisher(collector, 1 << 16, 64);
+        final int threads = 4;
+        final int perThread = 10000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final Thread[] producers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            producers[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (final InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < perThread; i++) {
+                        publisher.offer(new JA3Event(null, thread * perThread + i, null, new JA3Fingerprint(thread, i), null, null, false));
+                    }
+                }
+            };
+            producers[t].start();
+        }
+        start.countDown();
+        for (final Thread producer : producers) {
+            producer.join();
+        }
+        publisher.close();
+
+        final List<JA3Event> events = collector.events();
+        Assert.assertEquals(events.size() + publisher.getDropped(), threads * perThread);
+        Assert.assertEquals(publisher.getDropped(), 0);
+        // Each producer's events arrive in the order it published them
+        final int[] last = new int[threads];
+        for (final JA3Event event : events) {
+            final int thread = (int) event.getJa3Hash().getHigh();
+            final int index = (int) event.getJa3Hash().getLow();
+            Assert.assertEquals(index, last[thread]++);
+        }
+    }
+
+    @Test
+    public void testSniffingHandler() throws Exception {
+        final Collector collector = new Collector(new CountDownLatch(0));
+        final JA3EventPublisher publisher = new JA3EventPublisher(collector, 16, 16);
+        final JA3Configuration configuration = JA3Configuration.builder().events(publisher).fingerprints(EnumSet.of(FingerprintType.JA4)).build();
+        final byte[] hello = ClientHelloBuilder.chrome(3);
+        final EmbeddedChannel channel = new EmbeddedChannel(new JA3SniffingHandler(configuration));
+        channel.writeInbound(Unpooled.wrappedBuffer(hello));
+        channel.finishAndReleaseAll();
+        publisher.close();
+
+        final List<JA3Event> events = collector.events();
+        Assert.assertEquals(events.size(), 1);
+        final JA3Event event = events.get(0);
+        Assert.assertEquals(event.getServerName(), "www.example.com");
+        Assert.assertEquals(event.getPeerHost(), "embedded");
+        Assert.assertEquals(event.getPeerPort(), -1);
+        Assert.assertEquals(event.getJa3Hash(), new JA3Signature().ja3Fingerprint(ByteBuffer.wrap(hello)));
+        Assert.assertNull(event.getJa3());
+        Assert.assertEquals(event.getJa4(), channel.attr(JA3SniffingHandler.JA4_FINGERPRINT).get());
+        Assert.assertFalse(event.isRejected());
+        Assert.assertTrue(Math.abs(event.getTimestamp() - System.currentTimeMillis()) < TimeUnit.MINUTES.toMillis(1));
+        // The hash was only computed for the event
+        Assert.assertNull(channel.attr(JA3SniffingHandler.JA3_HASH).get());
+    }
+
+    @Test
+    public void testWrappedHandshake() throws Exception {
+        LoopbackHandshakeTest.assumeSupported("TLSv1.2", "TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256");
+        final Collector collector = new Collector(new CountDownLatch(0));
+        final JA3EventPublisher publisher = new JA3EventPublisher(collector, 16, 16);
+        final SSLEngine server = new LoopbackHandshake(true, JA3Configuration.builder().events(publisher).build(), "TLSv1.2",
+                "TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256").run();
+        publisher.close();
+
+        final List<JA3Event> events = collector.events();
+        Assert.assertEquals(events.size(), 1);
+        // The JDK client sends no server name for a host name without a dot
+        Assert.assertNull(events.get(0).getServerName());
+        Assert.assertEquals(events.get(0).getJa3(), server.getSession().getValue(JA3Constants.JA3_FINGERPRINT));
+        Assert.assertEquals(events.get(0).getJa3Hash(), server.getSession().getValue(JA3Constants.JA3_HASH));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidBatchSize() {
+        new JA3EventPublisher(new Collector(new CountDownLatch(0)), 16, 0);
+    }
+}
@@ -0,0 +1,332 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import javax.net.ssl.SSLEngine;
+
+import org.testng.Assert;
+import org.testng.SkipException;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+/**
+ * Test class for {@link JA3FingerprintLog} and {@link JA3FingerprintLogReader}.
+ *
+ */
+public class JA3FingerprintLogTest {
+
+    private Path directory;
+
+    @BeforeMethod
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("ja3-log");
+    }
+
+    @AfterMethod
+    public void deleteDirectory() throws IOException {
+        for (final Path path : JA3FingerprintLog.list(directory)) {
+            Files.delete(path);
+        }
+        Files.delete(directory);
+    }
+
+    private static JA3Fingerprint fingerprint(final int i) {
+        return new JA3Fingerprint(i, -i);
+    }
+
+    private List<String> hosts(final long from, final long to) throws IOException {
+        final List<String> hosts = new ArrayList<>();
+        try (JA3FingerprintLogReader reader = new JA3FingerprintLogReader(directory, from, to)) {
+            while (reader.next()) {
+                hosts.add(reader.peerHost());
+            }
+        }
+        return hosts;
+    }
+
+    @Test
+    public void testAppendAndRead() throws IOException {
+        final long before = System.currentTimeMillis();
+        try (JA3FingerprintLog log = new JA3FingerprintLog(directory, 4, 10)) {
+            for (int i = 0; i < 10; i++) {
+                Assert.assertTrue(log.append("10.0.0." + i, 1000 + i, fingerprint(i), i % 2 == 0 ? fingerprint(100 + i) : null, i == 3));
+            }
+        }
+        Assert.assertEquals(JA3FingerprintLog.list(directory).size(), 3);
+
+        try (JA3FingerprintLogReader reader = new JA3FingerprintLogReader(directory, Long.MIN_VALUE, Long.MAX_VALUE)) {
+            for (int i = 0; i < 10; i++) {
+                Assert.assertTrue(reader.next());
+                Assert.assertTrue(reader.timestamp() >= before && reader.timestamp() <= System.currentTimeMillis());
+                Assert.assertEquals(reader.peerHost(), "10.0.0." + i);
+                Assert.assertEquals(reader.peerPort(), 1000 + i);
+                Assert.assertEquals(reader.ja3Hash(), fingerprint(i));
+                Assert.assertEquals(reader.ja3sHash(), i % 2 == 0 ? fingerprint(100 + i) : null);
+                Assert.assertEquals(reader.isRejected(), i == 3);
+            }
+            Assert.assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void testUnknownAndLongHosts() throws IOException {
+        final StringBuilder longHost = new StringBuilder();
+        while (longHost.length() < 100) {
+            longHost.append("sub.");
+        }
+        try (JA3FingerprintLog log = new JA3FingerprintLog(directory, 16, 1)) {
+            log.append(null, -1, fingerprint(1), null, false);
+            log.append(longHost.toString(), 443, fingerprint(2), null, false);
+            log.append("h\u00f4te", 443, fingerprint(3), null, false);
+        }
+        try (JA3FingerprintLogReader reader = new JA3FingerprintLogReader(directory, Long.MIN_VALUE, Long.MAX_VALUE)) {
+            Assert.assertTrue(reader.next());
+            Assert.assertNull(reader.peerHost());
+            Assert.assertEquals(reader.peerPort(), -1);
+            Assert.assertTrue(reader.next());
+            Assert.assertEquals(reader.peerHost(), longHost.substring(0, JA3FingerprintLog.MAX_HOST_LENGTH));
+            Assert.assertTrue(reader.next());
+            Assert.assertEquals(reader.peerHost(), "h?te");
+            Assert.assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void testRetentionAndReopen() throws IOException {
+        try (JA3FingerprintLog log = new JA3FingerprintLog(directory, 2, 3)) {
+            for (int i = 0; i < 10; i++) {
+                log.append("host" + i, i, fingerprint(i), null, false);
+            }
+            Assert.assertFalse(log.getDropped() > 0);
+        }
+        // Segments 0 and 1 were deleted when segments 3 and 4 were created
+        final List<Path> segments = JA3FingerprintLog.list(directory);
+        Assert.assertEquals(segments.size(), 3);
+        Assert.assertTrue(segments.get(0).getFileName().toString().endsWith("0000002.log"), segments.toString());
+        Assert.assertEquals(hosts(Long.MIN_VALUE, Long.MAX_VALUE).toString(), "[host4, host5, host6, host7, host8, host9]");
+
+        final JA3FingerprintLog log = new JA3FingerprintLog(directory, 2, 3);
+        log.append("again", 1, fingerprint(1), null, false);
+        // Readable before the log is closed
+        Assert.assertEquals(hosts(Long.MIN_VALUE, Long.MAX_VALUE).toString(), "[host6, host7, host8, host9, again]");
+        log.close();
+        Assert.assertFalse(log.append("closed", 1, fingerprint(1), null, false));
+        Assert.assertEquals(log.getDropped(), 1);
+        Assert.assertEquals(JA3FingerprintLog.list(directory).get(2).getFileName().toString(), "ja3-0000000000000000005.log");
+    }
+
+    @Test
+    public void testRollFailure() throws Exception {
+        try (JA3FingerprintLog log = new JA3FingerprintLog(directory, 2, 10)) {
+            // The next segment cannot be created while a file has its name
+            final Path blocker = Files.createFile(directory.resolve("ja3-0000000000000000001.log"));
+            Assert.assertTrue(log.append("first", 1, fingerprint(1), null, false));
+            Assert.assertTrue(log.append("second", 2, fingerprint(2), null, false));
+            for (int i = 0; i < 1000; i++) {
+                Assert.assertFalse(log.append("dropped", i, fingerprint(i), null, false));
+            }
+            Assert.assertEquals(log.getDropped(), 1000);
+
+            Files.delete(blocker);
+            Thread.sleep(JA3FingerprintLog.ROLL_RETRY_MILLIS + 50);
+            Assert.assertTrue(log.append("third", 3, fingerprint(3), null, false));
+            Assert.assertEquals(log.getDropped(), 1000);
+        }
+        Assert.assertEquals(JA3FingerprintLog.list(directory).size(), 2);
+        Assert.assertEquals(hosts(Long.MIN_VALUE, Long.MAX_VALUE).toString(), "[first, second, third]");
+    }
+
+    @Test
+    public void testRangeScan() throws Exception {
+        final long start;
+        final long middle;
+        try (JA3FingerprintLog log = new JA3FingerprintLog(directory, 2, 100)) {
+            start = System.currentTimeMillis();
+            for (int i = 0; i < 4; i++) {
+                log.append("early" + i, i, fingerprint(i), null, false);
+            }
+            Thread.sleep(20);
+            middle = System.currentTimeMillis();
+            Thread.sleep(20);
+            for (int i = 0; i < 3; i++) {
+                log.append("late" + i, i, fingerprint(i), null, false);
+            }
+        }
+        Assert.assertEquals(hosts(start, middle).toString(), "[early0, early1, early2, early3]");
+        Assert.assertEquals(hosts(middle, Long.MAX_VALUE).toString(), "[late0, late1, late2]");
+        Assert.assertEquals(hosts(Long.MIN_VALUE, start - 1).size(), 0);
+    }
+
+    @Test
+    public void testConcurrentAppend() throws Exception {
+        final int threads = 4;
+        final int perThread = 2000;
+        try (JA3FingerprintLog log = new JA3FingerprintLog(directory, 16, 1000)) {
+            final CountDownLatch start = new CountDownLatch(1);
+            final Thread[] writers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                writers[t] = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                        } catch (final InterruptedException e) {
+                            return;
+                        }
+                        for (int i = 0; i < perThread; i++) {
+                            log.append(null, i, new JA3Fingerprint(thread, i), null, false);
+                        }
+                    }
+                };
+                writers[t].start();
+            }
+            start.countDown();
+            for (final Thread writer : writers) {
+                writer.join();
+            }
+            Assert.assertEquals(log.getDropped(), 0);
+        }
+        // Every segment is sealed with a time range covering all its records
+        for (final Path path : JA3FingerprintLog.list(directory)) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                final MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                final long first = segment.getLong(JA3FingerprintLog.HEADER_FIRST);
+                final long last = segment.getLong(JA3FingerprintLog.HEADER_LAST);
+                Assert.assertTrue(last != 0, path.toString());
+                for (int i = 0; i < segment.getInt(JA3FingerprintLog.HEADER_COUNT); i++) {
+                    final int base = JA3FingerprintLog.HEADER_SIZE + i * JA3FingerprintLog.RECORD_SIZE;
+                    Assert.assertEquals(segment.getInt(base + JA3FingerprintLog.RECORD_COMMIT), JA3FingerprintLog.RECORD_MAGIC);
+                    final long timestamp = segment.getLong(base + JA3FingerprintLog.RECORD_TIMESTAMP);
+                    Assert.assertTrue(timestamp >= first && timestamp <= last, path + " record " + i);
+                }
+            }
+        }
+        final Set<JA3Fingerprint> seen = new HashSet<>();
+        try (JA3FingerprintLogReader reader = new JA3FingerprintLogReader(directory, Long.MIN_VALUE, Long.MAX_VALUE)) {
+            while (reader.next()) {
+                Assert.assertEquals(reader.ja3Hash().getLow(), reader.peerPort());
+                Assert.assertTrue(seen.add(reader.ja3Hash()));
+            }
+        }
+        Assert.assertEquals(seen.size(), threads * perThread);
+    }
+
+    @Test
+    public void testFullSegmentsUnmapped() throws IOException {
+        final Path maps = Paths.get("/proc/self/maps");
+        if (!Files.isReadable(maps)) {
+            throw new SkipException("No " + maps);
+        }
+        try (JA3FingerprintLog log = new JA3FingerprintLog(directory, 4, 10)) {
+            for (int i = 0; i < 20; i++) {
+                log.append("host" + i, i, fingerprint(i), null, false);
+            }
+            Assert.assertEquals(JA3FingerprintLog.list(directory).size(), 5);
+            Assert.assertEquals(mapped(maps), 1);
+        }
+        Assert.assertEquals(mapped(maps), 0);
+        Assert.assertEquals(hosts(Long.MIN_VALUE, Long.MAX_VALUE).size(), 20);
+    }
+
+    private int mapped(final Path maps) throws IOException {
+        int count = 0;
+        for (final String line : Files.readAllLines(maps, StandardCharsets.US_ASCII)) {
+            if (line.contains(directory.toString())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void testSniffingHandler() throws IOException {
+        final byte[] hello = ClientHelloBuilder.firefox(5);
+        try (JA3FingerprintLog log = new JA3FingerprintLog(directory, 16, 1)) {
+            final EmbeddedChannel channel = new EmbeddedChannel(new JA3SniffingHandler(JA3Configuration.builder().log(log).build()));
+            channel.writeInbound(Unpooled.wrappedBuffer(hello));
+            channel.finishAndReleaseAll();
+        }
+        try (JA3FingerprintLogReader reader = new JA3FingerprintLogReader(directory, Long.MIN_VALUE, Long.MAX_VALUE)) {
+            Assert.assertTrue(reader.next());
+            Assert.assertEquals(reader.peerHost(), "embedded");
+            Assert.assertEquals(reader.ja3Hash(), new JA3Signature().ja3Fingerprint(ByteBuffer.wrap(hello)));
+            Assert.assertNull(reader.ja3sHash());
+            Assert.assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void testWrappedHandshake() throws Exception {
+        LoopbackHandshakeTest.assumeSupported("TLSv1.2", "TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256");
+        final SSLEngine server;
+        try (JA3FingerprintLog log = new JA3FingerprintLog(directory, 16, 1)) {
+            server = new LoopbackHandshake(true, JA3Configuration.builder().log(log).build(), "TLSv1.2", "TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256")
+                    .run();
+        }
+        try (JA3FingerprintLogReader reader = new JA3FingerprintLogReader(directory, Long.MIN_VALUE, Long.MAX_VALUE)) {
+            Assert.assertTrue(reader.next());
+            Assert.assertEquals(reader.ja3Hash(), server.getSession().getValue(JA3Constants.JA3_HASH));
+            Assert.assertEquals(reader.ja3sHash(), server.getSession().getValue(JA3Constants.JA3S_HASH));
+            Assert.assertFalse(reader.isRejected());
+            Assert.assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void testExport() throws IOException {
+        try (JA3FingerprintLog log = new JA3FingerprintLog(directory, 16, 1)) {
+            log.append("192.0.2.1", 51000, fingerprint(1), fingerprint(2), true);
+            log.append(null, -1, fingerprint(3), null, false);
+        }
+        final StringWriter csv = new StringWriter();
+        try (JA3FingerprintLogReader reader = new JA3FingerprintLogReader(directory, Long.MIN_VALUE, Long.MAX_VALUE)) {
+            Assert.assertEquals(JA3FingerprintLogReader.export(reader, JA3OutputFormat.CSV, csv), 2);
+        }
+        final String[] lines = csv.toString().split("\n");
+        Assert.assertEquals(lines[0], "timestamp,peer_host,peer_port,ja3_hash,ja3s_hash,rejected");
+        Assert.assertTrue(lines[1].endsWith(",192.0.2.1,51000," + fingerprint(1).toHex() + "," + fingerprint(2).toHex() + ",true"), lines[1]);
+        Assert.assertTrue(lines[2].endsWith(",,-1," + fingerprint(3).toHex() + ",,false"), lines[2]);
+
+        final Path out = Files.createTempFile("ja3-log", ".json");
+        try {
+            JA3FingerprintLogReader.main(new String[] { "--format", "ndjson", "--from", "2000-01-01T00:00:00Z", "--out", out.toString(),
+                    directory.toString() });
+            final List<String> json = Files.readAllLines(out, StandardCharsets.UTF_8);
+            Assert.assertEquals(json.size(), 2);
+            Assert.assertTrue(json.get(0).contains("\"peer\":\"192.0.2.1\",\"port\":51000,\"ja3_hash\":\"" + fingerprint(1).toHex()), json.get(0));
+            Assert.assertTrue(json.get(1).contains("\"peer\":null,\"port\":-1,"), json.get(1));
+            Assert.assertTrue(json.get(1).endsWith("\"ja3s_hash\":null,\"rejected\":false}"), json.get(1));
+        } finally {
+            Files.delete(out);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidSegmentSize() throws IOException {
+        new JA3FingerprintLog(directory, 0, 1);
+    }
+}
@@ -0,0 +1,210 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.net.ssl.SSLSession;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+/**
+ * Test class for {@link JA3FingerprintRegistry}.
+ *
+ */
+public class JA3FingerprintRegistryTest {
+
+    @Test
+    public void testRegister() {
+        final JA3FingerprintRegistry registry = new JA3FingerprintRegistry(10);
+        final JA3FingerprintRegistry.Entry first = registry.register(Fingerprints.fingerprint(1), null);
+        Assert.assertNull(first.getJa3());
+        Assert.assertEquals(first.getId(), 0);
+
+        final String ja3 = new String("771,4865,0-23,29,0");
+        final JA3Fingerprint copy = new JA3Fingerprint(Fingerprints.fingerprint(1).getHigh(), Fingerprints.fingerprint(1).getLow());
+        Assert.assertSame(registry.register(copy, ja3), first);
+        Assert.assertSame(first.getJa3(), ja3);
+        Assert.assertSame(registry.register(Fingerprints.fingerprint(1), new String(ja3)).getJa3(), ja3);
+
+        Assert.assertEquals(first.references(), 3);
+        final JA3FingerprintRegistry.Entry second = registry.register(Fingerprints.fingerprint(2), "771,4866,,,");
+        Assert.assertEquals(second.getId(), 1);
+        Assert.assertSame(registry.get(1), second);
+        Assert.assertSame(registry.get(Fingerprints.fingerprint(1)), first);
+        Assert.assertNull(registry.get(2));
+        Assert.assertNull(registry.get(-1));
+        Assert.assertNull(registry.get(10));
+        Assert.assertNull(registry.get(Fingerprints.fingerprint(3)));
+        Assert.assertNull(registry.register(null, ja3));
+        Assert.assertEquals(registry.size(), 2);
+    }
+
+    @Test
+    public void testFullAndCompact() {
+        final JA3FingerprintRegistry registry = new JA3FingerprintRegistry(4);
+        for (int i = 0; i < 4; i++) {
+            final JA3FingerprintRegistry.Entry entry = registry.register(Fingerprints.fingerprint(i), null);
+            Assert.assertEquals(entry.getId(), i);
+            entry.release();
+        }
+        Assert.assertNull(registry.register(Fingerprints.fingerprint(4), null));
+        registry.register(Fingerprints.fingerprint(0), null).release();
+
+        // Everything was used since the start
+        Assert.assertEquals(registry.compact(), 0);
+        registry.register(Fingerprints.fingerprint(1), null).release();
+        registry.register(Fingerprints.fingerprint(3), null).release();
+        Assert.assertEquals(registry.compact(), 2);
+        Assert.assertEquals(registry.size(), 2);
+        Assert.assertNull(registry.get(Fingerprints.fingerprint(0)));
+        Assert.assertNull(registry.get(0));
+        Assert.assertEquals(registry.get(Fingerprints.fingerprint(3)).getId(), 3);
+
+        // Freed ids are reused
+        final Set<Integer> ids = new HashSet<>();
+        final JA3FingerprintRegistry.Entry fourth = registry.register(Fingerprints.fingerprint(4), null);
+        final JA3FingerprintRegistry.Entry fifth = registry.register(Fingerprints.fingerprint(5), null);
+        ids.add(fourth.getId());
+        ids.add(fifth.getId());
+        Assert.assertEquals(ids, new HashSet<>(Arrays.asList(0, 2)));
+        Assert.assertNull(registry.register(Fingerprints.fingerprint(6), null));
+        fourth.release();
+        fifth.release();
+        Assert.assertEquals(registry.compact(), 2);
+        Assert.assertEquals(registry.compact(), 2);
+        Assert.assertEquals(registry.size(), 0);
+    }
+
+    @Test
+    public void testCompactHeldEntry() throws Exception {
+        final String protocol = "TLSv1.2";
+        final String cipherSuite = "TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256";
+        LoopbackHandshakeTest.assumeSupported(protocol, cipherSuite);
+        final JA3FingerprintRegistry registry = new JA3FingerprintRegistry(1);
+        final JA3Configuration configuration = JA3Configuration.builder().registry(registry).build();
+        final SSLSession session = new LoopbackHandshake(true, configuration, protocol, cipherSuite).run().getSession();
+        final JA3FingerprintRegistry.Entry entry = (JA3FingerprintRegistry.Entry) session.getValue(JA3Constants.JA3_ID);
+        Assert.assertEquals(entry.references(), 1);
+
+        // Held by the session, the entry keeps its id however long it goes unseen
+        Assert.assertEquals(registry.compact(), 0);
+        Assert.assertEquals(registry.compact(), 0);
+        Assert.assertSame(registry.get(entry.getId()), entry);
+        Assert.assertNull(registry.register(Fingerprints.fingerprint(1), null));
+
+        session.removeValue(JA3Constants.JA3_ID);
+        Assert.assertEquals(entry.references(), 0);
+        Assert.assertEquals(registry.compact(), 1);
+        Assert.assertEquals(entry.references(), -1);
+        final JA3FingerprintRegistry.Entry other = registry.register(Fingerprints.fingerprint(1), null);
+        Assert.assertEquals(other.getId(), entry.getId());
+        // A compacted entry cannot be taken again
+        Assert.assertFalse(entry.retain());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidCapacity() {
+        new JA3FingerprintRegistry(0);
+    }
+
+    @Test
+    public void testConcurrentRegister() throws Exception {
+        final JA3FingerprintRegistry registry = new JA3FingerprintRegistry(1000);
+        final int threads = 4;
+        final AtomicReferenceArray<JA3FingerprintRegistry.Entry> seen = new AtomicReferenceArray<>(threads * 500);
+        final CountDownLatch start = new CountDownLatch(1);
+        final Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            workers[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (final InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < 500; i++) {
+                        seen.set(thread * 500 + i, registry.register(Fingerprints.fingerprint(i), "ja3-" + i));
+                    }
+                }
+            };
+            workers[t].start();
+        }
+        start.countDown();
+        for (final Thread worker : workers) {
+            worker.join();
+        }
+        Assert.assertEquals(registry.size(), 500);
+        final Set<Integer> ids = new HashSet<>();
+        for (int i = 0; i < 500; i++) {
+            final JA3FingerprintRegistry.Entry entry = seen.get(i);
+            for (int t = 1; t < threads; t++) {
+                Assert.assertSame(seen.get(t * 500 + i), entry);
+            }
+            Assert.assertSame(registry.get(entry.getId()), entry);
+            Assert.assertEquals(entry.getJa3(), "ja3-" + i);
+            ids.add(entry.getId());
+        }
+        Assert.assertEquals(ids.size(), 500);
+    }
+
+    @Test
+    public void testOnlyIdOnSession() throws Exception {
+        final String protocol = "TLSv1.2";
+        final String cipherSuite = "TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256";
+        LoopbackHandshakeTest.assumeSupported(protocol, cipherSuite);
+        final JA3FingerprintRegistry registry = new JA3FingerprintRegistry(16);
+        final JA3Configuration configuration = JA3Configuration.builder().registry(registry).build();
+        final SSLSession session = new LoopbackHandshake(true, configuration, protocol, cipherSuite).run().getSession();
+        // Only the id of the ClientHello, next to the values of the ServerHello
+        Assert.assertEquals(new HashSet<>(Arrays.asList(session.getValueNames())),
+                new HashSet<>(Arrays.asList(JA3Constants.JA3_ID, JA3Constants.JA3S_FINGERPRINT, JA3Constants.JA3S_HASH)));
+        final JA3FingerprintRegistry.Entry entry = (JA3FingerprintRegistry.Entry) session.getValue(JA3Constants.JA3_ID);
+        Assert.assertSame(registry.get(entry.getId()), entry);
+        Assert.assertTrue(entry.getJa3().startsWith("771,"), entry.getJa3());
+    }
+
+    @Test
+    public void testSharedAcrossConnections() {
+        final JA3FingerprintRegistry registry = new JA3FingerprintRegistry(16);
+        final JA3Configuration configuration = JA3Configuration.builder().registry(registry).build();
+        final byte[] hello = ClientHelloBuilder.chrome(1);
+        final EmbeddedChannel first = new EmbeddedChannel(new JA3SniffingHandler(configuration));
+        first.writeInbound(Unpooled.wrappedBuffer(hello));
+        final EmbeddedChannel second = new EmbeddedChannel(new JA3SniffingHandler(configuration));
+        second.writeInbound(Unpooled.wrappedBuffer(hello.clone()));
+
+        final JA3FingerprintRegistry.Entry entry = first.attr(JA3SniffingHandler.JA3_ID).get();
+        Assert.assertNotNull(entry);
+        Assert.assertSame(second.attr(JA3SniffingHandler.JA3_ID).get(), entry);
+        // The JA3 string and hash are only held by the entry
+        Assert.assertNull(first.attr(JA3SniffingHandler.JA3_FINGERPRINT).get());
+        Assert.assertNull(second.attr(JA3SniffingHandler.JA3_HASH).get());
+        Assert.assertEquals(entry.getJa3(), new JA3Signature().ja3Signature(ByteBuffer.wrap(hello)));
+        Assert.assertEquals(registry.size(), 1);
+        Assert.assertEquals(entry.references(), 2);
+
+        // Each channel holds the entry until closed
+        first.finishAndReleaseAll();
+        Assert.assertEquals(entry.references(), 1);
+        Assert.assertEquals(registry.compact(), 0);
+        Assert.assertEquals(registry.compact(), 0);
+        second.finishAndReleaseAll();
+        Assert.assertEquals(entry.references(), 0);
+        Assert.assertEquals(registry.compact(), 1);
+    }
+}
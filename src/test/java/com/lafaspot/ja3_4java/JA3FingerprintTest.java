@@ -0,0 +1,90 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Test class for {@link JA3Fingerprint} and {@link JA3Signature#ja3Fingerprint(ByteBuffer)}.
+ *
+ */
+public class JA3FingerprintTest {
+
+    private static String md5Hex(final String value) throws Exception {
+        final byte[] hash = MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.US_ASCII));
+        return String.format("%032x", new BigInteger(1, hash));
+    }
+
+    private static byte[] resource(final String name) throws IOException, URISyntaxException {
+        return Files.readAllBytes(Paths.get(JA3FingerprintTest.class.getClassLoader().getResource(name).toURI()));
+    }
+
+    @Test
+    public void testMatchesMd5OfJa3String() throws Exception {
+        final JA3Signature signature = new JA3Signature();
+        for (final byte[] packet : new byte[][] { resource("openssl-ssl3.bin"), resource("openssl-tls1.bin"), resource("openssl-tls1_1.bin"),
+                resource("openssl-tls1_2.bin"), ClientHelloBuilder.chrome(3), ClientHelloBuilder.firefox(4) }) {
+            final String ja3 = signature.ja3Signature(ByteBuffer.wrap(packet));
+            final JA3Fingerprint fingerprint = signature.ja3Fingerprint(ByteBuffer.wrap(packet));
+            Assert.assertEquals(fingerprint.toHex(), md5Hex(ja3));
+            Assert.assertEquals(signature.ja3Fingerprint(ByteBuffer.wrap(packet)), fingerprint);
+            signature.ja3Signature(ByteBuffer.wrap(packet));
+            Assert.assertEquals(signature.lastSignatureFingerprint(), fingerprint);
+        }
+    }
+
+    @Test
+    public void testStreamsLongSignatures() throws Exception {
+        final int[] ciphers = new int[2000];
+        for (int i = 0; i < ciphers.length; i++) {
+            ciphers[i] = 0xc000 + i;
+        }
+        final byte[] packet = new ClientHelloBuilder(1).ciphers(ciphers).supportedGroups(29, 23).ecPointFormats(0).build();
+        final JA3Signature signature = new JA3Signature();
+        final String ja3 = signature.ja3Signature(ByteBuffer.wrap(packet));
+        Assert.assertTrue(ja3.length() > 10000);
+        Assert.assertEquals(new JA3Signature().ja3Fingerprint(ByteBuffer.wrap(packet)).toHex(), md5Hex(ja3));
+    }
+
+    @Test
+    public void testNotClientHello() throws Exception {
+        Assert.assertNull(new JA3Signature().ja3Fingerprint(ByteBuffer.wrap(new byte[] { 21, 3, 3, 0, 0 })));
+    }
+
+    @Test
+    public void testHexAndBytesRoundTrip() throws Exception {
+        final JA3Fingerprint fingerprint = JA3Fingerprint.fromHex("E7D705A3286E19EA42F587B344EE6865");
+        Assert.assertEquals(fingerprint.toHex(), "e7d705a3286e19ea42f587b344ee6865");
+        Assert.assertEquals(fingerprint.toString(), "e7d705a3286e19ea42f587b344ee6865");
+        Assert.assertEquals(fingerprint.getHigh(), 0xe7d705a3286e19eaL);
+        Assert.assertEquals(fingerprint.getLow(), 0x42f587b344ee6865L);
+        final byte[] bytes = new byte[18];
+        fingerprint.toBytes(bytes, 2);
+        Assert.assertEquals(JA3Fingerprint.fromBytes(bytes, 2), fingerprint);
+        Assert.assertEquals(JA3Fingerprint.fromBytes(bytes, 2).hashCode(), fingerprint.hashCode());
+        Assert.assertNotEquals(new JA3Fingerprint(1, 2), new JA3Fingerprint(2, 1));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidHex() throws Exception {
+        JA3Fingerprint.fromHex("z7d705a3286e19ea42f587b344ee6865");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidHexLength() throws Exception {
+        JA3Fingerprint.fromHex("e7d705a3");
+    }
+}
@@ -0,0 +1,166 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+/**
+ * Test class for {@link JA3HeavyHitters}.
+ *
+ */
+public class JA3HeavyHittersTest {
+
+    @Test
+    public void testSkewedStream() {
+        final JA3HeavyHitters top = new JA3HeavyHitters(5);
+        final Random random = new Random(42);
+        // 5 heavy fingerprints among 20000 occurrences of a long tail
+        for (int i = 0; i < 20000; i++) {
+            top.add(Fingerprints.fingerprint(1000 + random.nextInt(10000)));
+            if (i % 4 == 0) {
+                top.add(Fingerprints.fingerprint(i % 20 / 4));
+            }
+        }
+        final List<JA3HeavyHitters.Entry> entries = top.snapshot();
+        Assert.assertEquals(entries.size(), 5);
+        for (int i = 0; i < 5; i++) {
+            final long count = top.estimate(Fingerprints.fingerprint(i));
+            Assert.assertTrue(count >= 1000 && count < 1100, "count " + count);
+            boolean found = false;
+            for (final JA3HeavyHitters.Entry entry : entries) {
+                found |= entry.getFingerprint().equals(Fingerprints.fingerprint(i));
+            }
+            Assert.assertTrue(found, entries.toString());
+        }
+        for (int i = 1; i < entries.size(); i++) {
+            Assert.assertTrue(entries.get(i - 1).getCount() >= entries.get(i).getCount());
+        }
+    }
+
+    @Test
+    public void testLateHeavyHitter() {
+        final JA3HeavyHitters top = new JA3HeavyHitters(2);
+        for (int i = 0; i < 100; i++) {
+            top.add(Fingerprints.fingerprint(1));
+            top.add(Fingerprints.fingerprint(2));
+        }
+        for (int i = 0; i < 300; i++) {
+            top.add(Fingerprints.fingerprint(3));
+        }
+        final List<JA3HeavyHitters.Entry> entries = top.snapshot();
+        Assert.assertEquals(entries.size(), 2);
+        Assert.assertEquals(entries.get(0).getFingerprint(), Fingerprints.fingerprint(3));
+        Assert.assertEquals(entries.get(0).getCount(), 300);
+    }
+
+    @Test
+    public void testDecayAndReset() {
+        final JA3HeavyHitters top = new JA3HeavyHitters(1, 16);
+        for (int i = 0; i < 10; i++) {
+            top.add(Fingerprints.fingerprint(1));
+        }
+        top.decay();
+        Assert.assertEquals(top.estimate(Fingerprints.fingerprint(1)), 5);
+        // After the decay a new fingerprint can overtake the old one sooner
+        for (int i = 0; i < 6; i++) {
+            top.add(Fingerprints.fingerprint(2));
+        }
+        Assert.assertEquals(top.snapshot().get(0).getFingerprint(), Fingerprints.fingerprint(2));
+        top.reset();
+        Assert.assertTrue(top.snapshot().isEmpty());
+        Assert.assertEquals(top.estimate(Fingerprints.fingerprint(2)), 0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidK() {
+        new JA3HeavyHitters(0);
+    }
+
+    @Test
+    public void testStripedCounts() throws Exception {
+        final JA3HeavyHitters top = new JA3HeavyHitters(2, 1024, 4);
+        final Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        top.add(Fingerprints.fingerprint(i % 4 == 0 ? 1 : 2));
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        // Spread over the stripes of the threads, the counts add up
+        Assert.assertEquals(top.estimate(Fingerprints.fingerprint(1)), 8 * 2500);
+        Assert.assertEquals(top.estimate(Fingerprints.fingerprint(2)), 8 * 7500);
+        Assert.assertEquals(top.snapshot().get(0).getFingerprint(), Fingerprints.fingerprint(2));
+        top.decay();
+        Assert.assertTrue(top.estimate(Fingerprints.fingerprint(2)) >= 4 * 7500 - 4);
+        top.reset();
+        Assert.assertEquals(top.estimate(Fingerprints.fingerprint(2)), 0);
+    }
+
+    @Test
+    public void testConcurrentAdds() throws Exception {
+        final JA3HeavyHitters top = new JA3HeavyHitters(3);
+        final CountDownLatch start = new CountDownLatch(1);
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int seed = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    final Random random = new Random(seed);
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < 10000; i++) {
+                        top.add(Fingerprints.fingerprint(i % 2 == 0 ? i % 6 / 2 : 100 + random.nextInt(1000)));
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        start.countDown();
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(top.snapshot().size(), 3);
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(top.estimate(Fingerprints.fingerprint(i)) >= 4 * 1666);
+        }
+    }
+
+    @Test
+    public void testFedByHandler() {
+        final JA3HeavyHitters top = new JA3HeavyHitters(2);
+        final JA3Configuration configuration = JA3Configuration.builder().heavyHitters(top).build();
+        for (int i = 0; i < 3; i++) {
+            final EmbeddedChannel channel = new EmbeddedChannel(new JA3SniffingHandler(configuration));
+            channel.writeInbound(Unpooled.wrappedBuffer(ClientHelloBuilder.firefox(i)));
+            channel.finishAndReleaseAll();
+        }
+        final List<JA3HeavyHitters.Entry> entries = top.snapshot();
+        Assert.assertEquals(entries.size(), 1);
+        Assert.assertEquals(entries.get(0).getFingerprint(), new JA3Signature().ja3Fingerprint(ByteBuffer.wrap(ClientHelloBuilder.firefox(0))));
+        Assert.assertEquals(entries.get(0).getCount(), 3);
+    }
+}
@@ -0,0 +1,153 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLHandshakeException;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+/**
+ * Test class for {@link JA3Metrics}.
+ *
+ */
+public class JA3MetricsTest {
+
+    private static void sniff(final JA3Configuration configuration, final byte[] data) {
+        final EmbeddedChannel channel = new EmbeddedChannel(new JA3SniffingHandler(configuration));
+        channel.writeInbound(Unpooled.wrappedBuffer(data));
+        channel.finishAndReleaseAll();
+    }
+
+    private static byte[] tiny() {
+        return new ClientHelloBuilder(1).sessionIdLength(0).ciphers(0x1301, 0x1302).build();
+    }
+
+    @Test
+    public void testHistogramBuckets() {
+        for (long value = 0; value < 100000; value += value < 64 ? 1 : 37) {
+            final int bucket = JA3Metrics.Histogram.bucket(value);
+            Assert.assertTrue(JA3Metrics.Histogram.lowestValue(bucket) <= value, "value " + value);
+            Assert.assertTrue(JA3Metrics.Histogram.lowestValue(bucket + 1) > value, "value " + value);
+            // Within 1/16 of the value
+            Assert.assertTrue(JA3Metrics.Histogram.lowestValue(bucket + 1) - JA3Metrics.Histogram.lowestValue(bucket) <= Math.max(1, value / 16));
+        }
+        Assert.assertEquals(JA3Metrics.Histogram.bucket(-5), 0);
+        Assert.assertEquals(JA3Metrics.Histogram.bucket(Long.MAX_VALUE), JA3Metrics.Histogram.bucket(1L << 50));
+    }
+
+    @Test
+    public void testPercentiles() {
+        final JA3Metrics.Histogram histogram = new JA3Metrics.Histogram();
+        Assert.assertEquals(histogram.snapshot().getCount(), 0);
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 100);
+        }
+        final JA3Metrics.Latency latency = histogram.snapshot();
+        Assert.assertEquals(latency.getCount(), 1000);
+        Assert.assertEquals(latency.getMean(), 50050.0, 0.001);
+        Assert.assertEquals(latency.getMax(), 100000);
+        Assert.assertEquals(latency.getP50(), 50000, 50000 / 16);
+        Assert.assertEquals(latency.getP99(), 99000, 99000 / 16);
+        Assert.assertTrue(latency.getP999() <= latency.getMax());
+        histogram.reset();
+        Assert.assertEquals(histogram.snapshot().getMax(), 0);
+    }
+
+    @Test
+    public void testOutcomes() {
+        final JA3Metrics metrics = new JA3Metrics();
+        final JA3Configuration configuration = JA3Configuration.builder().metrics(metrics).build();
+
+        sniff(configuration, ClientHelloBuilder.chrome(1));
+        sniff(configuration, new ClientHelloBuilder(2).ciphers(0x1301).serverName("example.com").maxFragmentLength(20).build());
+        Assert.assertEquals(metrics.getFingerprints(), 2);
+        Assert.assertEquals(metrics.getReassembledClientHellos(), 1);
+        Assert.assertEquals(metrics.getParseLatency().getCount(), 2);
+
+        sniff(configuration, "GET / HTTP/1.1\r\n".getBytes(StandardCharsets.US_ASCII));
+        final byte[] serverHello = tiny();
+        serverHello[5] = 2;
+        sniff(configuration, serverHello);
+        final byte[] odd = tiny();
+        odd[45]++; // cipher suite length
+        sniff(configuration, odd);
+        final byte[] underflow = tiny();
+        underflow[43] = (byte) 0xFF; // session id length
+        sniff(configuration, underflow);
+        final byte[] groups = new ClientHelloBuilder(3).ciphers(0x1301).supportedGroups(29, 23).build();
+        groups[groups.length - 5]++; // supported groups list length
+        sniff(configuration, groups);
+        sniff(configuration, new byte[] { 22, 3, 1, 0, 4, 1, 1, 0, 0 });
+        final int[] ciphers = new int[1000];
+        Arrays.fill(ciphers, 0x1301);
+        sniff(configuration, new ClientHelloBuilder(4).ciphers(ciphers).build());
+
+        final Map<String, Long> failures = metrics.getParseFailures();
+        for (final ParseFailure reason : ParseFailure.values()) {
+            Assert.assertEquals(failures.get(reason.name()), Long.valueOf(1), reason.name());
+        }
+        Assert.assertEquals(metrics.getFingerprints(), 2);
+
+        metrics.reset();
+        Assert.assertEquals(metrics.getFingerprints(), 0);
+        Assert.assertEquals(metrics.getParseFailures().get(ParseFailure.UNDERFLOW.name()), Long.valueOf(0));
+    }
+
+    @Test
+    public void testWrapper() throws Exception {
+        final SSLEngine engine = MockEngines.consumingEngine();
+        final JA3Metrics metrics = new JA3Metrics();
+        final byte[] hello = ClientHelloBuilder.firefox(1);
+        final JA3Blocklist blocklist = new JA3Blocklist(Collections.singleton(new JA3Signature().ja3Fingerprint(ByteBuffer.wrap(hello))));
+        final JA3Configuration configuration = JA3Configuration.builder().metrics(metrics).filter(blocklist).build();
+        final ByteBuffer[] dsts = new ByteBuffer[] { ByteBuffer.allocate(100) };
+
+        new JA3SSLEngineWrapper(engine, configuration).unwrap(ByteBuffer.wrap(ClientHelloBuilder.chrome(1)), dsts, 0, 1);
+        try {
+            new JA3SSLEngineWrapper(engine, configuration).unwrap(ByteBuffer.wrap(hello), dsts, 0, 1);
+            Assert.fail("handshake not rejected");
+        } catch (SSLHandshakeException e) {
+            // expected
+        }
+        Assert.assertEquals(metrics.getFingerprints(), 2);
+        Assert.assertEquals(metrics.getRejectedHandshakes(), 1);
+        Assert.assertEquals(metrics.getUnwrapOverhead().getCount(), 1);
+        Assert.assertTrue(metrics.getUnwrapOverhead().getMax() > 0);
+    }
+
+    @Test
+    public void testRegister() throws Exception {
+        final JA3Metrics metrics = new JA3Metrics();
+        sniff(JA3Configuration.builder().metrics(metrics).build(), ClientHelloBuilder.chrome(2));
+        final ObjectName name = metrics.register("test:listener");
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            Assert.assertEquals(server.getAttribute(name, "Fingerprints"), 1L);
+            final CompositeData latency = (CompositeData) server.getAttribute(name, "ParseLatency");
+            Assert.assertEquals(latency.get("count"), 1L);
+            Assert.assertNotNull(server.getAttribute(name, "ParseFailures"));
+            server.invoke(name, "reset", new Object[0], new String[0]);
+            Assert.assertEquals(metrics.getFingerprints(), 0);
+        } finally {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        }
+    }
+}
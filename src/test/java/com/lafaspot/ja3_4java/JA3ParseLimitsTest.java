@@ -0,0 +1,141 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.EnumSet;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLHandshakeException;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+/**
+ * Test class for {@link JA3ParseLimits}.
+ *
+ */
+public class JA3ParseLimitsTest {
+
+    private static byte[] manyCiphers(final int count) {
+        final int[] ciphers = new int[count];
+        Arrays.fill(ciphers, 0x002f);
+        return new ClientHelloBuilder(1).ciphers(ciphers).supportedGroups(29).build();
+    }
+
+    private static byte[] manyExtensions(final int count) {
+        final ClientHelloBuilder builder = new ClientHelloBuilder(2).ciphers(0x1301);
+        for (int i = 0; i < count; i++) {
+            builder.empty(0x1000 + i);
+        }
+        return builder.build();
+    }
+
+    private static boolean parse(final byte[] packet, final JA3ParseLimits limits, final JA3Signature signature) {
+        return signature.fingerprints(ByteBuffer.wrap(packet), EnumSet.allOf(FingerprintType.class), limits, new ClientHelloFingerprints());
+    }
+
+    @Test
+    public void testLimits() {
+        final JA3ParseLimits limits = new JA3ParseLimits(100, 20, 2000, 2000);
+        final JA3Signature signature = new JA3Signature();
+
+        Assert.assertTrue(parse(manyCiphers(100), limits, signature));
+        Assert.assertFalse(signature.isOverBudget());
+        Assert.assertFalse(parse(manyCiphers(101), limits, signature));
+        Assert.assertTrue(signature.isOverBudget());
+
+        Assert.assertTrue(parse(manyExtensions(20), limits, signature));
+        Assert.assertFalse(parse(manyExtensions(21), limits, signature));
+        Assert.assertTrue(signature.isOverBudget());
+
+        final byte[] padded = new ClientHelloBuilder(3).ciphers(0x1301).padding(3000).build();
+        Assert.assertFalse(parse(padded, limits, signature));
+        Assert.assertTrue(signature.isOverBudget());
+        Assert.assertTrue(parse(padded, JA3ParseLimits.UNLIMITED, signature));
+
+        // Other failures are not over budget
+        Assert.assertFalse(parse(new byte[] { 21, 3, 3, 0, 2, 2, 40 }, limits, signature));
+        Assert.assertFalse(signature.isOverBudget());
+
+        // The plain methods are not limited
+        Assert.assertNotNull(signature.ja3Signature(ByteBuffer.wrap(manyCiphers(5000))));
+        final ClientHelloView view = new ClientHelloView();
+        Assert.assertFalse(view.wrap(ByteBuffer.wrap(manyCiphers(101)), limits));
+        Assert.assertTrue(view.isOverBudget());
+        Assert.assertTrue(view.wrap(ByteBuffer.wrap(manyCiphers(101))));
+    }
+
+    @Test
+    public void testCorpusWithinDefaults() {
+        final JA3Signature signature = new JA3Signature();
+        for (final ClientHelloCorpus.Sample sample : ClientHelloCorpus.generate(20, 300)) {
+            if (!sample.isMalformed()) {
+                Assert.assertTrue(parse(sample.getPacket(), JA3ParseLimits.DEFAULT, signature), sample.toString());
+            }
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalid() {
+        new JA3ParseLimits(10, 0, 10, 10);
+    }
+
+    @Test
+    public void testReassembledLength() {
+        final JA3Metrics metrics = new JA3Metrics();
+        final JA3Configuration configuration = JA3Configuration.builder().metrics(metrics)
+                .parseLimits(new JA3ParseLimits(512, 128, 16384, 1000)).build();
+        // Fragmented into records of 500 bytes: given up on the length in the handshake header, before buffering the rest
+        final byte[] large = new ClientHelloBuilder(4).ciphers(0x1301).padding(1500).maxFragmentLength(500).build();
+        final EmbeddedChannel channel = new EmbeddedChannel(new JA3SniffingHandler(configuration));
+        channel.writeInbound(Unpooled.wrappedBuffer(large, 0, 100));
+        Assert.assertNull(channel.pipeline().get(JA3SniffingHandler.class));
+        Assert.assertNull(channel.attr(JA3SniffingHandler.JA3_FINGERPRINT).get());
+        Assert.assertTrue(channel.isOpen());
+        channel.finishAndReleaseAll();
+        Assert.assertEquals(metrics.getParseFailures().get("OVER_BUDGET"), Long.valueOf(1));
+
+        final byte[] small = new ClientHelloBuilder(5).ciphers(0x1301).padding(500).maxFragmentLength(300).build();
+        final EmbeddedChannel other = new EmbeddedChannel(new JA3SniffingHandler(configuration));
+        other.writeInbound(Unpooled.wrappedBuffer(small));
+        Assert.assertNotNull(other.attr(JA3SniffingHandler.JA3_FINGERPRINT).get());
+        other.finishAndReleaseAll();
+    }
+
+    @Test
+    public void testRejectOverBudget() throws Exception {
+        final JA3Metrics metrics = new JA3Metrics();
+        final JA3Configuration configuration = JA3Configuration.builder().metrics(metrics)
+                .parseLimits(new JA3ParseLimits(50, 128, 16384, 16384)).rejectOverBudget(true).build();
+
+        final EmbeddedChannel channel = new EmbeddedChannel(new JA3SniffingHandler(configuration));
+        channel.writeInbound(Unpooled.wrappedBuffer(manyCiphers(51)));
+        Assert.assertFalse(channel.isOpen());
+        Assert.assertNull(channel.readInbound());
+
+        final SSLEngine engine = MockEngines.consumingEngine();
+        final JA3SSLEngineWrapper wrapper = new JA3SSLEngineWrapper(engine, configuration);
+        try {
+            wrapper.unwrap(ByteBuffer.wrap(manyCiphers(51)), new ByteBuffer[] { ByteBuffer.allocate(100) }, 0, 1);
+            Assert.fail("handshake not rejected");
+        } catch (SSLHandshakeException e) {
+            Assert.assertTrue(e.getMessage().contains("parse limits"), e.getMessage());
+        }
+        Assert.assertNull(wrapper.getDelegatedTask());
+        Assert.assertEquals(metrics.getRejectedHandshakes(), 2);
+        Assert.assertEquals(metrics.getParseFailures().get("OVER_BUDGET"), Long.valueOf(2));
+
+        // Within the limits the handshake goes on
+        new JA3SSLEngineWrapper(engine, configuration).unwrap(ByteBuffer.wrap(manyCiphers(50)), new ByteBuffer[] { ByteBuffer.allocate(100) }, 0,
+                1);
+        Assert.assertEquals(metrics.getRejectedHandshakes(), 2);
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Test class for {@link JA3PcapTool}.
+ *
+ */
+public class JA3PcapToolTest {
+    private static final byte[] CLIENT = { 10, 0, 0, 1 };
+    private static final byte[] SERVER = { 10, 0, 0, 2 };
+
+    private static Path temp(final PcapWriter writer) throws IOException {
+        final Path file = Files.createTempFile("ja3", ".pcap");
+        file.toFile().deleteOnExit();
+        return writer.write(file);
+    }
+
+    private static String[] run(final JA3PcapTool tool, final Path file) throws IOException {
+        final StringWriter out = new StringWriter();
+        tool.process(file, out);
+        return out.toString().split("\n");
+    }
+
+    @Test
+    public void testSingleSegment() throws Exception {
+        final byte[] hello = ClientHelloBuilder.chrome(1);
+        final PcapWriter writer = new PcapWriter(false, ByteOrder.LITTLE_ENDIAN)
+                .connection(1571234567000001L, CLIENT, 40000, SERVER, hello, hello.length, null)
+                .tcp(1571234567000100L, SERVER, 443, CLIENT, 40000, 1, PcapWriter.ACK, new byte[] { 1, 2, 3 });
+        try (JA3PcapTool tool = new JA3PcapTool(2, JA3OutputFormat.CSV)) {
+            final String[] lines = run(tool, temp(writer));
+            Assert.assertEquals(lines.length, 2);
+            Assert.assertEquals(lines[0], "timestamp,src_ip,src_port,dst_ip,dst_port,ja3_hash,ja4,ja3");
+            final JA3Signature signature = new JA3Signature();
+            final JA3Fingerprint hash = signature.ja3Fingerprint(ByteBuffer.wrap(hello));
+            Assert.assertEquals(lines[1], "1571234567.000002,10.0.0.1,40000,10.0.0.2,443," + hash.toHex() + ","
+                    + signature.ja4Signature(ByteBuffer.wrap(hello)) + ",\"" + signature.ja3Signature(ByteBuffer.wrap(hello)) + "\"");
+            Assert.assertEquals(tool.packetCount(), 3);
+            Assert.assertEquals(tool.clientHelloCount(), 1);
+            Assert.assertEquals(tool.count(hash), 1);
+        }
+    }
+
+    @Test
+    public void testOutOfOrderSegments() throws Exception {
+        final byte[] hello = ClientHelloBuilder.firefox(1);
+        final int segments = (hello.length + 99) / 100;
+        final int[] order = new int[segments];
+        for (int i = 0; i < segments; i++) {
+            order[i] = i;
+        }
+        order[0] = 1;
+        order[1] = 0;
+        order[segments - 1] = segments - 2;
+        order[segments - 2] = segments - 1;
+        final PcapWriter writer = new PcapWriter(false, ByteOrder.BIG_ENDIAN).connection(1000000, CLIENT, 40001, SERVER, hello, 100, order);
+        // Retransmission of the first segment
+        final byte[] first = new byte[100];
+        System.arraycopy(hello, 0, first, 0, 100);
+        writer.tcp(2000000, CLIENT, 40001, SERVER, 443, 40001 * 7919 + 1, PcapWriter.ACK, first);
+        try (JA3PcapTool tool = new JA3PcapTool(1, JA3OutputFormat.CSV)) {
+            final String[] lines = run(tool, temp(writer));
+            Assert.assertEquals(lines.length, 2);
+            Assert.assertTrue(lines[1].contains(new JA3Signature().ja3Fingerprint(ByteBuffer.wrap(hello)).toHex()));
+        }
+    }
+
+    @Test
+    public void testPcapngIPv6() throws Exception {
+        final byte[] client = new byte[16];
+        client[0] = 0x20;
+        client[1] = 0x01;
+        client[15] = 1;
+        final byte[] server = client.clone();
+        server[15] = 2;
+        final byte[] hello = ClientHelloBuilder.chrome(2);
+        for (final ByteOrder byteOrder : new ByteOrder[] { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN }) {
+            final PcapWriter writer = new PcapWriter(true, byteOrder).connection(1571234567123456L, client, 50000, server, hello, 300, null);
+            try (JA3PcapTool tool = new JA3PcapTool(2, JA3OutputFormat.NDJSON)) {
+                final String[] lines = run(tool, temp(writer));
+                Assert.assertEquals(lines.length, 1);
+                Assert.assertTrue(lines[0].startsWith("{\"ts\":1571234567.1234"), lines[0]);
+                Assert.assertTrue(lines[0].contains("\"src\":\"2001:0:0:0:0:0:0:1\",\"sport\":50000,\"dst\":\"2001:0:0:0:0:0:0:2\",\"dport\":443"),
+                        lines[0]);
+                Assert.assertTrue(lines[0].contains("\"ja3_hash\":\"" + new JA3Signature().ja3Fingerprint(ByteBuffer.wrap(hello)).toHex()));
+            }
+        }
+    }
+
+    @Test
+    public void testManyFlowsInParallel() throws Exception {
+        final PcapWriter writer = new PcapWriter(false, ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < 200; i++) {
+            final byte[] hello = i % 2 == 0 ? ClientHelloBuilder.chrome(i) : ClientHelloBuilder.firefox(i);
+            writer.connection(1000000L * (i + 1), CLIENT, 1024 + i, SERVER, hello, 500, null);
+        }
+        // Small windows to map the file many times over
+        try (JA3PcapTool tool = new JA3PcapTool(4, JA3OutputFormat.CSV, 4096, 1000, JA3PcapTool.DEFAULT_MAX_BYTES)) {
+            final String[] lines = run(tool, temp(writer));
+            Assert.assertEquals(lines.length, 201);
+            for (int i = 1; i < lines.length; i++) {
+                Assert.assertTrue(lines[i].contains(",10.0.0.1," + (1024 + i - 1) + ","), lines[i]);
+            }
+            Assert.assertEquals(tool.count(new JA3Signature().ja3Fingerprint(ByteBuffer.wrap(ClientHelloBuilder.chrome(0)))), 100);
+            Assert.assertEquals(tool.count(new JA3Signature().ja3Fingerprint(ByteBuffer.wrap(ClientHelloBuilder.firefox(1)))), 100);
+
+            final StringWriter counts = new StringWriter();
+            tool.writeCounts(counts);
+            final String[] countLines = counts.toString().split("\n");
+            Assert.assertEquals(countLines.length, 3);
+            Assert.assertTrue(countLines[1].startsWith("100,"));
+        }
+    }
+
+    @Test
+    public void testNotTls() throws Exception {
+        final byte[] http = "GET / HTTP/1.1\r\nHost: example.com\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+        final PcapWriter writer = new PcapWriter(false, ByteOrder.LITTLE_ENDIAN).connection(1000000, CLIENT, 40002, SERVER, http, 10, null);
+        try (JA3PcapTool tool = new JA3PcapTool(1, JA3OutputFormat.NDJSON)) {
+            Assert.assertEquals(run(tool, temp(writer))[0], "");
+            Assert.assertEquals(tool.clientHelloCount(), 0);
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testNotCapture() throws Exception {
+        final Path file = Files.createTempFile("ja3", ".pcap");
+        file.toFile().deleteOnExit();
+        Files.write(file, new byte[64]);
+        try (JA3PcapTool tool = new JA3PcapTool(1, JA3OutputFormat.CSV)) {
+            tool.process(file, new StringWriter());
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.Security;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Test class for {@link JA3Provider} and {@link JA3SSLContextSpi}.
+ */
+public class JA3ProviderTest {
+
+    @Test
+    public void testExplicitProvider() throws Exception {
+        final SSLContext context = SSLContext.getInstance("TLS", new JA3Provider());
+        context.init(null, null, null);
+        Assert.assertEquals(context.getProvider().getName(), JA3Provider.NAME);
+        Assert.assertTrue(context.createSSLEngine() instanceof JA3SSLEngineWrapper);
+        final SSLEngine engine = context.createSSLEngine("example.com", 443);
+        Assert.assertTrue(engine instanceof JA3SSLEngineWrapper);
+        Assert.assertEquals(engine.getPeerHost(), "example.com");
+        Assert.assertEquals(engine.getPeerPort(), 443);
+        Assert.assertTrue(context.getDefaultSSLParameters().getProtocols().length > 0);
+        Assert.assertNotNull(context.getServerSessionContext());
+        Assert.assertNotNull(context.getSocketFactory());
+    }
+
+    @Test
+    public void testSampling() throws Exception {
+        final JA3Configuration configuration = JA3Configuration.builder().sampling(JA3SamplingPolicy.percentage(0)).build();
+        final SSLContext context = SSLContext.getInstance("TLSv1.2", new JA3Provider(configuration));
+        context.init(null, null, null);
+        Assert.assertFalse(context.createSSLEngine() instanceof JA3SSLEngineWrapper);
+    }
+
+    @Test
+    public void testInstalledFirst() throws Exception {
+        Assert.assertEquals(Security.insertProviderAt(new JA3Provider(), 1), 1);
+        try {
+            final SSLContext context = SSLContext.getInstance("TLS");
+            Assert.assertEquals(context.getProvider().getName(), JA3Provider.NAME);
+            context.init(null, null, null);
+            Assert.assertTrue(context.createSSLEngine() instanceof JA3SSLEngineWrapper);
+        } finally {
+            Security.removeProvider(JA3Provider.NAME);
+        }
+    }
+
+    @Test(expectedExceptions = NoSuchAlgorithmException.class)
+    public void testNoProviderToWrap() throws Exception {
+        SSLContext.getInstance("NoSuchProtocol", new JA3Provider());
+    }
+}
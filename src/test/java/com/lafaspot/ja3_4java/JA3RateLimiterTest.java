@@ -0,0 +1,107 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+/**
+ * Test class for {@link JA3RateLimiter}.
+ *
+ */
+public class JA3RateLimiterTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testBurstAndRefill() {
+        final JA3RateLimiter limiter = new JA3RateLimiter(10, 5, 1024);
+        final long now = 123456789L;
+        for (int i = 0; i < 5; i++) {
+            Assert.assertTrue(limiter.tryAcquire(1, 2, now), "permit " + i);
+        }
+        Assert.assertFalse(limiter.tryAcquire(1, 2, now));
+        // Another fingerprint has its own bucket
+        Assert.assertTrue(limiter.tryAcquire(3, 4, now));
+        // One permit every 100ms
+        Assert.assertFalse(limiter.tryAcquire(1, 2, now + SECOND / 20));
+        Assert.assertTrue(limiter.tryAcquire(1, 2, now + SECOND / 10));
+        Assert.assertFalse(limiter.tryAcquire(1, 2, now + SECOND / 10));
+        // Refilled after an idle period, up to the burst
+        for (int i = 0; i < 5; i++) {
+            Assert.assertTrue(limiter.tryAcquire(1, 2, now + 10 * SECOND), "permit " + i);
+        }
+        Assert.assertFalse(limiter.tryAcquire(1, 2, now + 10 * SECOND));
+    }
+
+    @Test
+    public void testBoundedMemory() {
+        final JA3RateLimiter limiter = new JA3RateLimiter(1, 1, 5);
+        Assert.assertEquals(limiter.capacity(), 8);
+        final long now = -SECOND; // nanoTime may be negative
+        // Throttled fingerprint in a set of 4 slots
+        Assert.assertTrue(limiter.tryAcquire(7, 0, now));
+        Assert.assertFalse(limiter.tryAcquire(7, 0, now));
+        // Three other fingerprints fill the set, and stay throttled while the first one is tracked
+        for (int i = 1; i < 4; i++) {
+            Assert.assertTrue(limiter.tryAcquire(7, i << 1, now + i));
+        }
+        Assert.assertFalse(limiter.tryAcquire(7, 0, now + 10));
+        // Once the first bucket refilled, its slot is reclaimed by a new fingerprint
+        Assert.assertTrue(limiter.tryAcquire(9, 0, now + SECOND + 10));
+        Assert.assertFalse(limiter.tryAcquire(9, 0, now + SECOND + 10));
+        Assert.assertFalse(limiter.tryAcquire(7, 2, now + 10));
+    }
+
+    @Test
+    public void testContention() throws Exception {
+        final JA3RateLimiter limiter = new JA3RateLimiter(1, 100, 64);
+        final AtomicInteger granted = new AtomicInteger();
+        final Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 1000; i++) {
+                        if (limiter.tryAcquire(5, 6, 0)) {
+                            granted.incrementAndGet();
+                        }
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(granted.get(), 100);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidRate() {
+        new JA3RateLimiter(0, 1, 1);
+    }
+
+    @Test
+    public void testFilter() {
+        final byte[] hello = ClientHelloBuilder.firefox(1);
+        final JA3RateLimiter limiter = new JA3RateLimiter(0.001, 2, 16);
+        final JA3Configuration configuration = JA3Configuration.builder().filter(limiter).build();
+        for (int i = 0; i < 3; i++) {
+            final EmbeddedChannel channel = new EmbeddedChannel(new JA3SniffingHandler(configuration));
+            channel.writeInbound(Unpooled.wrappedBuffer(hello));
+            Assert.assertEquals(channel.isOpen(), i < 2, "handshake " + i);
+            channel.finishAndReleaseAll();
+        }
+        Assert.assertFalse(limiter.tryAcquire(new JA3Signature().ja3Fingerprint(ByteBuffer.wrap(hello))));
+    }
+}
@@ -6,11 +6,21 @@
 package com.lafaspot.ja3_4java;
 
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.EnumSet;
+
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLEngineResult;
 import javax.net.ssl.SSLSession;
 
+import org.mockito.ArgumentCaptor;
+import org.mockito.Matchers;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
@@ -75,5 +85,214 @@ public class JA3SSLEngineWrapperTest {
         wrapper.setEnableSessionCreation(false);
         Assert.assertTrue(wrapper.getEnableSessionCreation());
     }
-}
 
+    /**
+     * Feeds the packet to the wrapper in reads of at most {@code readSize} bytes, keeping unconsumed bytes like a network layer would.
+     */
+    private static void unwrapInReads(final JA3SSLEngineWrapper wrapper, final byte[] packet, final int readSize) throws Exception {
+        final ByteBuffer network = ByteBuffer.allocate(packet.length);
+        final ByteBuffer[] dsts = new ByteBuffer[] { ByteBuffer.allocate(100) };
+        for (int off = 0; off < packet.length; off += readSize) {
+            network.put(packet, off, Math.min(readSize, packet.length - off));
+            network.flip();
+            while (wrapper.unwrap(network, dsts, 0, 1).bytesConsumed() > 0) {
+                continue;
+            }
+            network.compact();
+        }
+    }
+
+    @Test
+    public void testSingleRecordClientHello() throws Exception {
+        final SSLEngine engine = MockEngines.recordConsumingEngine(1);
+        final SSLSession session = Mockito.mock(SSLSession.class);
+        Mockito.doReturn(session).when(engine).getHandshakeSession();
+        final byte[] packet = ClientHelloBuilder.chrome(1);
+
+        final JA3SSLEngineWrapper wrapper = new JA3SSLEngineWrapper(engine);
+        unwrapInReads(wrapper, packet, packet.length);
+        final String ja3 = new JA3Signature().ja3Signature(ByteBuffer.wrap(packet));
+        Mockito.verify(session).putValue(JA3Constants.JA3_FINGERPRINT, ja3);
+        Mockito.verify(session).putValue(JA3Constants.JA3_HASH, new JA3Signature().ja3Fingerprint(ByteBuffer.wrap(packet)));
+
+        // Out of the hot path once the values are set
+        unwrapInReads(wrapper, packet, packet.length);
+        Mockito.verify(engine, Mockito.times(1)).getHandshakeSession();
+        Mockito.verify(session, Mockito.times(2)).putValue(Matchers.anyString(), Matchers.any());
+    }
+
+    @Test
+    public void testFragmentedClientHello() throws Exception {
+        // Post-quantum key share pushes the ClientHello over several records
+        final byte[] packet = new ClientHelloBuilder(7).ciphers(0x1301, 0x1302).serverName("example.com").supportedGroups(29, 0x11ec)
+                .ecPointFormats(0).keyShare(0x11ec, 1216, 29, 32).maxFragmentLength(300).build();
+        final String ja3 = "771,4865-4866,0-10-11-51,29-4588,0";
+        Assert.assertNull(new JA3Signature().ja3Signature(ByteBuffer.wrap(packet)));
+
+        for (final int readSize : new int[] { 1, 7, 100, 512, packet.length }) {
+            for (final int maxRecords : new int[] { 1, 3 }) {
+                final SSLEngine engine = MockEngines.recordConsumingEngine(maxRecords);
+                final SSLSession session = Mockito.mock(SSLSession.class);
+                Mockito.doReturn(session).when(engine).getHandshakeSession();
+                unwrapInReads(new JA3SSLEngineWrapper(engine), packet, readSize);
+                Mockito.verify(session).putValue(JA3Constants.JA3_FINGERPRINT, ja3);
+            }
+        }
+    }
+
+    @Test
+    public void testSessionSetOnWrap() throws Exception {
+        final SSLEngine engine = MockEngines.recordConsumingEngine(1);
+        final SSLSession session = Mockito.mock(SSLSession.class);
+        Mockito.doReturn(null).when(engine).getHandshakeSession();
+        final byte[] packet = ClientHelloBuilder.firefox(1);
+
+        final JA3SSLEngineWrapper wrapper = new JA3SSLEngineWrapper(engine);
+        unwrapInReads(wrapper, packet, packet.length);
+        Mockito.verify(session, Mockito.never()).putValue(Matchers.anyString(), Matchers.any());
+
+        // Handshake session is created by the delegated task, before the ServerHello is wrapped
+        Mockito.doReturn(session).when(engine).getHandshakeSession();
+        wrapper.wrap(new ByteBuffer[] { ByteBuffer.allocate(0) }, 0, 1, ByteBuffer.allocate(100));
+        Mockito.verify(session).putValue(JA3Constants.JA3_FINGERPRINT, new JA3Signature().ja3Signature(ByteBuffer.wrap(packet)));
+    }
+
+    @Test
+    public void testNotClientHello() throws Exception {
+        final SSLEngine engine = MockEngines.recordConsumingEngine(1);
+        final byte[] serverHello = Arrays.copyOf(ClientHelloBuilder.chrome(1), 200);
+        serverHello[5] = 2;
+        serverHello[3] = 0;
+        serverHello[4] = (byte) 195;
+
+        final JA3SSLEngineWrapper wrapper = new JA3SSLEngineWrapper(engine);
+        unwrapInReads(wrapper, serverHello, serverHello.length);
+        unwrapInReads(wrapper, ClientHelloBuilder.chrome(1), 10000);
+        Mockito.verify(engine, Mockito.never()).getHandshakeSession();
+    }
+
+    @Test
+    public void testLazySignature() throws Exception {
+        for (final JA3Cache cache : new JA3Cache[] { null, new JA3Cache(16) }) {
+            final SSLEngine engine = MockEngines.recordConsumingEngine(1);
+            final SSLSession session = Mockito.mock(SSLSession.class);
+            Mockito.doReturn(session).when(engine).getHandshakeSession();
+            final byte[] packet = ClientHelloBuilder.chrome(3);
+
+            final JA3Configuration configuration = JA3Configuration.builder().cache(cache).lazy(true).build();
+            unwrapInReads(new JA3SSLEngineWrapper(engine, configuration), packet, 100);
+            final ArgumentCaptor<Object> value = ArgumentCaptor.forClass(Object.class);
+            Mockito.verify(session).putValue(Matchers.eq(JA3Constants.JA3_FINGERPRINT), value.capture());
+            Mockito.verify(session, Mockito.never()).putValue(Matchers.eq(JA3Constants.JA3_HASH), Matchers.any());
+
+            final JA3LazySignature lazy = (JA3LazySignature) value.getValue();
+            final JA3Signature signature = new JA3Signature();
+            Assert.assertEquals(lazy.fingerprint(), signature.ja3Fingerprint(ByteBuffer.wrap(packet)));
+            Assert.assertEquals(lazy.toString(), signature.ja3Signature(ByteBuffer.wrap(packet)));
+            Assert.assertSame(lazy.toString(), lazy.toString());
+            Assert.assertSame(lazy.fingerprint(), lazy.fingerprint());
+            Assert.assertEquals(lazy.length(), lazy.toString().length());
+        }
+    }
+
+    @Test
+    public void testLazyNotClientHello() throws Exception {
+        final SSLEngine engine = MockEngines.recordConsumingEngine(1);
+        final byte[] packet = ClientHelloBuilder.chrome(1);
+        packet[5] = 2;
+
+        final JA3SSLEngineWrapper wrapper = new JA3SSLEngineWrapper(engine, JA3Configuration.builder().lazy(true).build());
+        unwrapInReads(wrapper, packet, packet.length);
+        Mockito.verify(engine, Mockito.never()).getHandshakeSession();
+    }
+
+    /**
+     * Mocks an engine whose wrap writes the given records, one call at a time.
+     */
+    private static SSLEngine producingEngine(final byte[]... outputs) throws Exception {
+        final SSLEngine engine = Mockito.mock(SSLEngine.class);
+        final int[] call = new int[1];
+        Mockito.doAnswer(new Answer<SSLEngineResult>() {
+            @Override
+            public SSLEngineResult answer(final InvocationOnMock invocation) {
+                final ByteBuffer dst = (ByteBuffer) invocation.getArguments()[3];
+                final byte[] output = outputs[call[0]++];
+                dst.put(output);
+                return new SSLEngineResult(SSLEngineResult.Status.OK, SSLEngineResult.HandshakeStatus.NEED_WRAP, 0, output.length);
+            }
+        }).when(engine).wrap(Matchers.any(ByteBuffer[].class), Matchers.anyInt(), Matchers.anyInt(), Matchers.any(ByteBuffer.class));
+        return engine;
+    }
+
+    @Test
+    public void testServerHelloOnWrap() throws Exception {
+        final byte[] serverHello = JA3SignatureTest.serverHello(0x0303, 0xc02f, 65281, 0, 11, 35, 16);
+        final byte[] changeCipherSpec = new byte[] { 20, 3, 3, 0, 1, 1 };
+        final byte[] output = Arrays.copyOf(serverHello, serverHello.length + changeCipherSpec.length);
+        System.arraycopy(changeCipherSpec, 0, output, serverHello.length, changeCipherSpec.length);
+        final SSLEngine engine = producingEngine(new byte[0], output, serverHello);
+        final SSLSession session = Mockito.mock(SSLSession.class);
+        Mockito.doReturn(session).when(engine).getHandshakeSession();
+
+        final JA3SSLEngineWrapper wrapper = new JA3SSLEngineWrapper(engine);
+        final ByteBuffer dst = ByteBuffer.allocateDirect(1000);
+        dst.position(17);
+        final ByteBuffer[] srcs = new ByteBuffer[] { ByteBuffer.allocate(0) };
+        for (int i = 0; i < 3; i++) {
+            wrapper.wrap(srcs, 0, 1, dst);
+        }
+        final String ja3s = "771,49199,65281-0-11-35-16";
+        Mockito.verify(session).putValue(JA3Constants.JA3S_FINGERPRINT, ja3s);
+        Mockito.verify(session).putValue(JA3Constants.JA3S_HASH,
+                JA3Fingerprint.fromBytes(MessageDigest.getInstance("MD5").digest(ja3s.getBytes(StandardCharsets.US_ASCII)), 0));
+        Mockito.verify(session, Mockito.times(2)).putValue(Matchers.anyString(), Matchers.any());
+    }
+
+    @Test
+    public void testClientModeWrap() throws Exception {
+        final SSLEngine engine = producingEngine(ClientHelloBuilder.chrome(1), ClientHelloBuilder.chrome(2));
+        final SSLSession session = Mockito.mock(SSLSession.class);
+        Mockito.doReturn(session).when(engine).getHandshakeSession();
+
+        final JA3SSLEngineWrapper wrapper = new JA3SSLEngineWrapper(engine);
+        wrapper.wrap(new ByteBuffer[] { ByteBuffer.allocate(0) }, 0, 1, ByteBuffer.allocate(1000));
+        Mockito.verify(session, Mockito.never()).putValue(Matchers.anyString(), Matchers.any());
+    }
+
+    @Test
+    public void testClientModeEngine() throws Exception {
+        final SSLEngine engine = MockEngines.recordConsumingEngine(1);
+        Mockito.doReturn(true).when(engine).getUseClientMode();
+        final JA3Metrics metrics = new JA3Metrics();
+        final JA3SSLEngineWrapper wrapper = new JA3SSLEngineWrapper(engine, JA3Configuration.builder().metrics(metrics).build());
+
+        wrapper.wrap(new ByteBuffer[] { ByteBuffer.allocate(0) }, 0, 1, ByteBuffer.allocate(1000));
+        unwrapInReads(wrapper, JA3SignatureTest.serverHello(0x0303, 0xc02f, 65281, 0, 11, 35, 16), 10000);
+        // Neither the inbound ServerHello nor a later ClientHello is fingerprinted or counted as a parse failure
+        unwrapInReads(wrapper, ClientHelloBuilder.chrome(1), 10000);
+        Assert.assertEquals(metrics.getFingerprints(), 0);
+        for (final ParseFailure reason : ParseFailure.values()) {
+            Assert.assertEquals(metrics.getParseFailures().get(reason.name()), Long.valueOf(0), reason.name());
+        }
+        Mockito.verify(engine, Mockito.never()).getHandshakeSession();
+    }
+
+    @Test
+    public void testJA4() throws Exception {
+        for (final boolean lazy : new boolean[] { false, true }) {
+            final SSLEngine engine = MockEngines.recordConsumingEngine(1);
+            final SSLSession session = Mockito.mock(SSLSession.class);
+            Mockito.doReturn(session).when(engine).getHandshakeSession();
+            final byte[] packet = ClientHelloBuilder.chrome(5);
+
+            final JA3Configuration configuration = JA3Configuration.builder().lazy(lazy)
+                    .fingerprints(EnumSet.of(FingerprintType.JA3, FingerprintType.JA4, FingerprintType.JA3N)).build();
+            unwrapInReads(new JA3SSLEngineWrapper(engine, configuration), packet, packet.length);
+            Mockito.verify(session).putValue(JA3Constants.JA4_FINGERPRINT, "t13d1516h2_8daaf6152771_e5627efa2ab1");
+            Mockito.verify(session).putValue(JA3Constants.JA3N_FINGERPRINT, new JA3Signature().ja3nSignature(ByteBuffer.wrap(packet)));
+            Mockito.verify(session, Mockito.never()).putValue(Matchers.eq(JA3Constants.JA3N_HASH), Matchers.any());
+            Mockito.verify(session).putValue(Matchers.eq(JA3Constants.JA3_FINGERPRINT), Matchers.any());
+            Mockito.verify(session, Mockito.never()).putValue(Matchers.eq(JA3Constants.JA3_HASH), Matchers.any());
+        }
+    }
+}
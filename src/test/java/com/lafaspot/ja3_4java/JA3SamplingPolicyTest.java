@@ -0,0 +1,87 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLEngine;
+
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Test class for {@link JA3SamplingPolicy}.
+ */
+public class JA3SamplingPolicyTest {
+
+    @Test
+    public void testAll() {
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertTrue(JA3SamplingPolicy.all().sample());
+        }
+    }
+
+    @Test
+    public void testPercentage() {
+        final JA3SamplingPolicy none = JA3SamplingPolicy.percentage(0);
+        final JA3SamplingPolicy all = JA3SamplingPolicy.percentage(100);
+        final JA3SamplingPolicy some = JA3SamplingPolicy.percentage(25);
+        int sampled = 0;
+        for (int i = 0; i < 10000; i++) {
+            Assert.assertFalse(none.sample());
+            Assert.assertTrue(all.sample());
+            if (some.sample()) {
+                sampled++;
+            }
+        }
+        Assert.assertTrue(sampled > 2000 && sampled < 3000, "sampled " + sampled);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidPercentage() {
+        JA3SamplingPolicy.percentage(100.5);
+    }
+
+    @Test
+    public void testPerSecond() {
+        final SamplingPolicies.RateLimited policy = (SamplingPolicies.RateLimited) JA3SamplingPolicy.perSecond(10);
+        final long second = TimeUnit.SECONDS.toNanos(1);
+        long now = System.nanoTime();
+
+        // Burst of one second worth of permits, then nothing until the next permit is due
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(policy.sample(now));
+        }
+        Assert.assertFalse(policy.sample(now));
+        Assert.assertFalse(policy.sample(now + second / 20));
+        Assert.assertTrue(policy.sample(now + second / 10));
+        Assert.assertFalse(policy.sample(now + second / 10));
+
+        // Steady rate
+        now += 10 * second;
+        int sampled = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (policy.sample(now + i * second / 100)) {
+                sampled++;
+            }
+        }
+        Assert.assertEquals(sampled, 10 + 99);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidRate() {
+        JA3SamplingPolicy.perSecond(0);
+    }
+
+    @Test
+    public void testUnsampledEngineNotWrapped() {
+        final SSLEngine engine = Mockito.mock(SSLEngine.class);
+        final JA3Configuration none = JA3Configuration.builder().sampling(JA3SamplingPolicy.percentage(0)).build();
+        Assert.assertSame(JA3SSLEngineWrapper.wrapIfSampled(engine, none), engine);
+        Assert.assertTrue(JA3SSLEngineWrapper.wrapIfSampled(engine, JA3Configuration.DEFAULT) instanceof JA3SSLEngineWrapper);
+    }
+}
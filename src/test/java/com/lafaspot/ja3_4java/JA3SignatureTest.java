@@ -7,9 +7,18 @@ package com.lafaspot.ja3_4java;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
 
 import org.testng.Assert;
 import org.testng.annotations.BeforeClass;
@@ -61,6 +70,73 @@ public class JA3SignatureTest {
                 new JA3Signature().ja3Signature(ByteBuffer.wrap(openSSL_TLS1_2)));
     }
 
+    @Test
+    public void testChrome() throws Exception {
+        Assert.assertEquals(
+                "771,4865-4866-4867-49195-49199-49196-49200-52393-52392-49171-49172-156-157-47-53,0-23-65281-10-11-35-16-5-13-18-51-45-43-27-17513-21,29-23-24,0",
+                new JA3Signature().ja3Signature(ByteBuffer.wrap(ClientHelloBuilder.chrome(1))));
+    }
+
+    @Test
+    public void testFirefox() throws Exception {
+        Assert.assertEquals(
+                "771,4865-4867-4866-49195-49199-52393-52392-49196-49200-49162-49161-49171-49172-156-157-47-53,0-23-65281-10-11-35-16-5-34-51-43-13-45-28-27-21,29-23-24-25-256-257,0",
+                new JA3Signature().ja3Signature(ByteBuffer.wrap(ClientHelloBuilder.firefox(1))));
+    }
+
+    @Test
+    public void testByteArrayOutput() throws Exception {
+        final JA3Signature signature = new JA3Signature();
+        final String expected = signature.ja3Signature(ByteBuffer.wrap(openSSL_TLS1_2));
+        final byte[] out = new byte[1024];
+        out[0] = 'x';
+        final int length = signature.ja3Signature(ByteBuffer.wrap(openSSL_TLS1_2), out, 1);
+        Assert.assertEquals(length, expected.length());
+        Assert.assertEquals(out[0], 'x');
+        Assert.assertEquals(new String(out, 1, length, StandardCharsets.US_ASCII), expected);
+        Assert.assertEquals(signature.ja3Signature(ByteBuffer.wrap(new byte[] { 21, 3, 3, 0, 0 }), out, 0), -1);
+    }
+
+    @Test
+    public void testByteBufferOutput() throws Exception {
+        final JA3Signature signature = new JA3Signature();
+        final String expected = signature.ja3Signature(ByteBuffer.wrap(ClientHelloBuilder.chrome(1)));
+        for (final ByteBuffer out : new ByteBuffer[] { ByteBuffer.allocate(1024), ByteBuffer.allocateDirect(1024) }) {
+            out.position(3);
+            final int length = signature.ja3Signature(ByteBuffer.wrap(ClientHelloBuilder.chrome(2)), out);
+            Assert.assertEquals(length, expected.length());
+            Assert.assertEquals(out.position(), 3 + length);
+            out.flip().position(3);
+            Assert.assertEquals(StandardCharsets.US_ASCII.decode(out).toString(), expected);
+        }
+    }
+
+    @Test(expectedExceptions = BufferOverflowException.class)
+    public void testOutputOverflow() throws Exception {
+        new JA3Signature().ja3Signature(ByteBuffer.wrap(openSSL_TLS1_2), new byte[100], 0);
+    }
+
+    @Test
+    public void testInstanceReuse() throws Exception {
+        final JA3Signature signature = new JA3Signature();
+        final String tls12 = signature.ja3Signature(ByteBuffer.wrap(openSSL_TLS1_2));
+        Assert.assertTrue(signature.ja3Signature(ByteBuffer.wrap(openSSL_SSL3)).endsWith(",,,"));
+        Assert.assertEquals(signature.ja3Signature(ByteBuffer.wrap(openSSL_TLS1_2)), tls12);
+    }
+
+    @Test
+    public void testCapturedKey() throws Exception {
+        final JA3Signature signature = new JA3Signature();
+        for (final byte[] packet : new byte[][] { openSSL_TLS1, openSSL_TLS1_1, openSSL_TLS1_2, openSSL_SSL3, ClientHelloBuilder.chrome(1) }) {
+            final char[] key = signature.captureKey(ByteBuffer.wrap(packet));
+            Assert.assertEquals(signature.keySignature(key), signature.ja3Signature(ByteBuffer.wrap(packet)));
+            Assert.assertEquals(signature.keyFingerprint(key), signature.ja3Fingerprint(ByteBuffer.wrap(packet)));
+        }
+        final byte[] packet = openSSL_TLS1_2.clone();
+        packet[5] = 0;
+        Assert.assertNull(signature.captureKey(ByteBuffer.wrap(packet)));
+    }
+
     @Test
     public void testNotHandshake() throws Exception {
         byte[] packet = openSSL_TLS1_2.clone();
@@ -149,4 +225,282 @@ public class JA3SignatureTest {
         byte[] packet = new byte[] {};
         Assert.assertNull(new JA3Signature().ja3Signature(ByteBuffer.wrap(packet)));
     }
+
+    /**
+     * Builds a ServerHello record with empty extensions of the given types.
+     */
+    static byte[] serverHello(final int version, final int cipher, final int... extensions) {
+        final ByteBuffer body = ByteBuffer.allocate(2 + 32 + 1 + 32 + 2 + 1 + 2 + extensions.length * 4);
+        body.putShort((short) version).position(2 + 32);
+        body.put((byte) 32).position(body.position() + 32);
+        body.putShort((short) cipher).put((byte) 0).putShort((short) (extensions.length * 4));
+        for (final int extension : extensions) {
+            body.putShort((short) extension).putShort((short) 0);
+        }
+        final ByteBuffer record = ByteBuffer.allocate(5 + 4 + body.capacity());
+        record.put((byte) 22).putShort((short) 0x0303).putShort((short) (4 + body.capacity()));
+        record.putInt((2 << 24) | body.capacity()).put(body.array());
+        return record.array();
+    }
+
+    @Test
+    public void testJA3S() throws Exception {
+        final JA3Signature signature = new JA3Signature(new JA3Cache(16));
+        Assert.assertNotNull(signature.ja3Signature(ByteBuffer.wrap(openSSL_TLS1_2)));
+        final byte[] packet = serverHello(769, 47, 65281, 0, 11, 35, 5, 16);
+        Assert.assertEquals(signature.ja3sSignature(ByteBuffer.wrap(packet)), "769,47,65281-0-11-35-5-16");
+        final JA3Fingerprint expected = JA3Fingerprint
+                .fromBytes(MessageDigest.getInstance("MD5").digest("769,47,65281-0-11-35-5-16".getBytes(StandardCharsets.US_ASCII)), 0);
+        Assert.assertEquals(signature.lastSignatureFingerprint(), expected);
+        Assert.assertEquals(signature.ja3sFingerprint(ByteBuffer.wrap(packet)), expected);
+
+        Assert.assertEquals(signature.ja3sSignature(ByteBuffer.wrap(serverHello(0x0303, 0x1301))), "771,4865,");
+        Assert.assertNull(signature.ja3sSignature(ByteBuffer.wrap(openSSL_TLS1_2)));
+        Assert.assertNull(signature.ja3Signature(ByteBuffer.wrap(packet)));
+        Assert.assertNull(signature.ja3sSignature(ByteBuffer.wrap(Arrays.copyOf(packet, packet.length - 1))));
+    }
+
+    @Test
+    public void testJA4() throws Exception {
+        final JA3Signature signature = new JA3Signature();
+        Assert.assertEquals(signature.ja4Signature(ByteBuffer.wrap(ClientHelloBuilder.chrome(1))), "t13d1516h2_8daaf6152771_e5627efa2ab1");
+        // GREASE and extension order do not change JA4
+        Assert.assertEquals(signature.ja4Signature(ByteBuffer.wrap(ClientHelloBuilder.chrome(2))), "t13d1516h2_8daaf6152771_e5627efa2ab1");
+
+        final byte[] noSni = new ClientHelloBuilder(1).clientVersion(0x0302).ciphers(0x0035, 0x002f).empty(0x0017).build();
+        Assert.assertEquals(signature.ja4Signature(ByteBuffer.wrap(noSni)), "t11i020100_" + sha256Prefix("002f,0035") + "_"
+                + sha256Prefix("0017"));
+
+        final byte[] binaryAlpn = new ClientHelloBuilder(1).ciphers(0x1301).serverName("a")
+                .extension(0x0010, new byte[] { 0, 3, 2, (byte) 0xab, (byte) 0xcd }).build();
+        Assert.assertTrue(signature.ja4Signature(ByteBuffer.wrap(binaryAlpn)).startsWith("t12d0102ad_"));
+
+        final byte[] empty = new ClientHelloBuilder(1).build();
+        Assert.assertEquals(signature.ja4Signature(ByteBuffer.wrap(empty)), "t12i000000_000000000000_000000000000");
+        Assert.assertNull(signature.ja4Signature(ByteBuffer.wrap(serverHello(0x0303, 0x1301))));
+    }
+
+    private static String sha256Prefix(final String text) throws Exception {
+        final byte[] hash = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.US_ASCII));
+        final StringBuilder hex = new StringBuilder();
+        for (int i = 0; i < 6; i++) {
+            hex.append(String.format("%02x", hash[i]));
+        }
+        return hex.toString();
+    }
+
+    @Test
+    public void testFingerprints() throws Exception {
+        final ClientHelloFingerprints result = new ClientHelloFingerprints();
+        for (final JA3Signature signature : new JA3Signature[] { new JA3Signature(), new JA3Signature(new JA3Cache(16)) }) {
+            for (final byte[] packet : new byte[][] { openSSL_TLS1_2, openSSL_SSL3, ClientHelloBuilder.firefox(1) }) {
+                final JA3Signature reference = new JA3Signature();
+                Assert.assertTrue(signature.fingerprints(ByteBuffer.wrap(packet), EnumSet.allOf(FingerprintType.class), result));
+                Assert.assertEquals(result.getJa3(), reference.ja3Signature(ByteBuffer.wrap(packet)));
+                Assert.assertEquals(result.getJa3Hash(), reference.ja3Fingerprint(ByteBuffer.wrap(packet)));
+                Assert.assertEquals(result.getJa4(), reference.ja4Signature(ByteBuffer.wrap(packet)));
+
+                Assert.assertTrue(signature.fingerprints(ByteBuffer.wrap(packet), EnumSet.of(FingerprintType.JA3_HASH), result));
+                Assert.assertNull(result.getJa3());
+                Assert.assertEquals(result.getJa3Hash(), reference.ja3Fingerprint(ByteBuffer.wrap(packet)));
+                Assert.assertNull(result.getJa4());
+
+                Assert.assertTrue(signature.fingerprints(ByteBuffer.wrap(packet), EnumSet.of(FingerprintType.JA4), result));
+                Assert.assertNull(result.getJa3());
+                Assert.assertNull(result.getJa3Hash());
+                Assert.assertEquals(result.getJa4(), reference.ja4Signature(ByteBuffer.wrap(packet)));
+            }
+            Assert.assertFalse(signature.fingerprints(ByteBuffer.wrap(serverHello(0x0303, 0x1301)), EnumSet.allOf(FingerprintType.class), result));
+            Assert.assertNull(result.getJa4());
+        }
+    }
+
+    /**
+     * Sorts the extension field of a JA3 string numerically.
+     */
+    private static String normalize(final String ja3) {
+        final String[] fields = ja3.split(",", -1);
+        if (!fields[2].isEmpty()) {
+            final String[] extensions = fields[2].split("-");
+            final int[] types = new int[extensions.length];
+            for (int i = 0; i < types.length; i++) {
+                types[i] = Integer.parseInt(extensions[i]);
+            }
+            Arrays.sort(types);
+            final StringBuilder sorted = new StringBuilder();
+            for (final int type : types) {
+                sorted.append(sorted.length() == 0 ? "" : "-").append(type);
+            }
+            fields[2] = sorted.toString();
+        }
+        return String.join(",", fields);
+    }
+
+    @Test
+    public void testNormalized() throws Exception {
+        final ClientHelloFingerprints result = new ClientHelloFingerprints();
+        final JA3Signature signature = new JA3Signature(new JA3Cache(16));
+        final JA3Signature reference = new JA3Signature();
+        for (final ClientHelloCorpus.Sample sample : ClientHelloCorpus.generate(22, 500)) {
+            final ByteBuffer packet = ByteBuffer.wrap(sample.getPacket());
+            final String ja3 = reference.ja3Signature(packet);
+            if (ja3 == null) {
+                Assert.assertNull(reference.ja3nSignature(packet), sample.toString());
+                continue;
+            }
+            final String ja3n = normalize(ja3);
+            Assert.assertEquals(reference.ja3nSignature(packet), ja3n, sample.toString());
+            final JA3Fingerprint ja3nHash = JA3Fingerprint.fromBytes(MessageDigest.getInstance("MD5").digest(ja3n.getBytes(StandardCharsets.US_ASCII)),
+                    0);
+
+            Assert.assertTrue(signature.fingerprints(packet, EnumSet.allOf(FingerprintType.class), result));
+            Assert.assertEquals(result.getJa3(), ja3);
+            Assert.assertEquals(result.getJa3n(), ja3n);
+            Assert.assertEquals(result.getJa3nHash(), ja3nHash);
+            Assert.assertEquals(result.getJa3Hash(), reference.ja3Fingerprint(packet));
+            Assert.assertEquals(result.getJa4(), reference.ja4Signature(packet));
+
+            // Streamed straight to the digest when the string is not asked for
+            Assert.assertTrue(signature.fingerprints(packet, EnumSet.of(FingerprintType.JA3N_HASH), result));
+            Assert.assertNull(result.getJa3n());
+            Assert.assertEquals(result.getJa3nHash(), ja3nHash);
+        }
+        Assert.assertEquals(reference.ja3nSignature(ByteBuffer.wrap(openSSL_TLS1_2)), normalize(reference.ja3Signature(ByteBuffer.wrap(openSSL_TLS1_2))));
+    }
+
+    @Test
+    public void testNormalizedShuffledExtensions() {
+        final JA3Signature signature = new JA3Signature();
+        final Set<String> ja3 = new HashSet<>();
+        final Set<String> ja3n = new HashSet<>();
+        for (int seed = 0; seed < 200; seed++) {
+            final ByteBuffer packet = ByteBuffer.wrap(ClientHelloCorpus.build(ClientHelloCorpus.Profile.CHROME, seed));
+            ja3.add(signature.ja3Signature(packet));
+            ja3n.add(signature.ja3nSignature(packet));
+        }
+        // Extension order is shuffled on every connection; only the post-quantum key share changes the normalized string
+        Assert.assertTrue(ja3.size() > 100, "JA3 strings: " + ja3.size());
+        Assert.assertTrue(ja3n.size() <= 2, "Normalized JA3 strings: " + ja3n);
+    }
+
+    /**
+     * Copies a packet into the kinds of buffers with distinct read paths: read-only heap (through get(int), the reference), heap sliced at an
+     * array offset, heap at a non zero position, direct big-endian and direct little-endian.
+     */
+    private static ByteBuffer[] bufferKinds(final byte[] packet) {
+        final byte[] padded = new byte[packet.length + 10];
+        System.arraycopy(packet, 0, padded, 7, packet.length);
+        final ByteBuffer direct = ByteBuffer.allocateDirect(packet.length);
+        direct.put(packet).flip();
+        final ByteBuffer littleEndian = ByteBuffer.allocateDirect(packet.length).order(ByteOrder.LITTLE_ENDIAN);
+        littleEndian.put(packet).flip();
+        return new ByteBuffer[] { ByteBuffer.wrap(packet).asReadOnlyBuffer(), ByteBuffer.wrap(padded, 7, packet.length).slice(),
+                ByteBuffer.wrap(padded, 7, packet.length), direct, littleEndian };
+    }
+
+    @Test
+    public void testBufferKindsAgree() throws Exception {
+        final Random random = new Random(18);
+        final ClientHelloFingerprints result = new ClientHelloFingerprints();
+        final JA3Signature signature = new JA3Signature();
+        int valid = 0;
+        for (int i = 0; i < 400; i++) {
+            final byte[][] bases = { openSSL_TLS1_2, openSSL_SSL3, ClientHelloBuilder.chrome(i), ClientHelloBuilder.firefox(i) };
+            byte[] packet = bases[i % bases.length];
+            if (i >= bases.length * 10) {
+                // Flip a few bytes, then maybe truncate
+                packet = packet.clone();
+                for (int flips = random.nextInt(3) + 1; flips > 0; flips--) {
+                    packet[random.nextInt(packet.length)] = (byte) random.nextInt(256);
+                }
+                if (random.nextBoolean()) {
+                    packet = Arrays.copyOf(packet, random.nextInt(packet.length));
+                }
+            }
+            final ByteBuffer[] buffers = bufferKinds(packet);
+            final boolean found = signature.fingerprints(buffers[0], EnumSet.allOf(FingerprintType.class), result);
+            final String ja3 = result.getJa3();
+            final JA3Fingerprint hash = result.getJa3Hash();
+            final String ja4 = result.getJa4();
+            valid += found ? 1 : 0;
+            for (int kind = 1; kind < buffers.length; kind++) {
+                final int position = buffers[kind].position();
+                Assert.assertEquals(signature.fingerprints(buffers[kind], EnumSet.allOf(FingerprintType.class), result), found, "packet " + i);
+                Assert.assertEquals(result.getJa3(), ja3, "packet " + i + " kind " + kind);
+                Assert.assertEquals(result.getJa3Hash(), hash, "packet " + i + " kind " + kind);
+                Assert.assertEquals(result.getJa4(), ja4, "packet " + i + " kind " + kind);
+                Assert.assertEquals(buffers[kind].position(), position);
+            }
+        }
+        Assert.assertTrue(valid > 40, "valid " + valid);
+    }
+
+    @Test
+    public void testByteArrayInput() throws Exception {
+        final byte[] padded = new byte[openSSL_TLS1_2.length + 3];
+        System.arraycopy(openSSL_TLS1_2, 0, padded, 3, openSSL_TLS1_2.length);
+        final JA3Signature signature = new JA3Signature();
+        Assert.assertEquals(signature.ja3Signature(padded, 3, openSSL_TLS1_2.length), signature.ja3Signature(ByteBuffer.wrap(openSSL_TLS1_2)));
+        Assert.assertNull(signature.ja3Signature(padded, 0, openSSL_TLS1_2.length));
+        Assert.assertNull(signature.ja3Signature(padded, 3, 40));
+    }
+
+    @Test
+    public void testCipherLengthPastEnd() throws Exception {
+        // Behavior change: the parser before the view threw IndexOutOfBoundsException reading ciphers past the end of the buffer
+        final byte[] packet = openSSL_TLS1_2.clone();
+        packet[44] = 0x7f;
+        packet[45] = 0;
+        final JA3Signature signature = new JA3Signature();
+        for (final ByteBuffer buffer : bufferKinds(packet)) {
+            Assert.assertNull(signature.ja3Signature(buffer));
+        }
+        Assert.assertNull(signature.ja3Signature(packet, 0, packet.length));
+    }
+
+    @Test
+    public void testPointFormatsUnsigned() throws Exception {
+        // Behavior change: the parser before the view printed point formats as signed bytes, "0--25" for these
+        final byte[] packet = new ClientHelloBuilder(1).ciphers(0x1301).supportedGroups(29).ecPointFormats(0, 231).build();
+        final JA3Signature signature = new JA3Signature();
+        for (final ByteBuffer buffer : bufferKinds(packet)) {
+            Assert.assertEquals(signature.ja3Signature(buffer), "771,4865,10-11,29,0-231");
+        }
+        Assert.assertEquals(signature.ja3Signature(packet, 0, packet.length), "771,4865,10-11,29,0-231");
+    }
+
+    @Test
+    public void testGreaseValues() throws Exception {
+        final int[] grease = { 0x0a0a, 0x1a1a, 0x2a2a, 0x3a3a, 0x4a4a, 0x5a5a, 0x6a6a, 0x7a7a, 0x8a8a, 0x9a9a, 0xaaaa, 0xbaba, 0xcaca, 0xdada,
+                0xeaea, 0xfafa };
+        for (int value = 0; value <= 0xFFFF; value++) {
+            Assert.assertEquals(JA3Signature.isNotGrease(value), Arrays.binarySearch(grease, value) < 0, "value " + value);
+        }
+    }
+
+    @Test
+    public void testCorpus() throws Exception {
+        final JA3Signature signature = new JA3Signature();
+        final JA3Signature cached = new JA3Signature(new JA3Cache(64));
+        final ClientHelloFingerprints result = new ClientHelloFingerprints();
+        final EnumSet<ClientHelloCorpus.Profile> seen = EnumSet.noneOf(ClientHelloCorpus.Profile.class);
+        for (final ClientHelloCorpus.Sample sample : ClientHelloCorpus.generate(19, 600)) {
+            seen.add(sample.getProfile());
+            final byte[] packet = sample.getPacket();
+            final String ja3 = signature.ja3Signature(ByteBuffer.wrap(packet));
+            if (!sample.isMalformed()) {
+                Assert.assertNotNull(ja3, sample.toString());
+                Assert.assertTrue(ja3.startsWith("771,") || ja3.startsWith("772,"), sample + " " + ja3);
+                Assert.assertNotNull(signature.ja4Signature(ByteBuffer.wrap(packet)), sample.toString());
+            }
+            Assert.assertEquals(cached.ja3Signature(ByteBuffer.wrap(packet)), ja3, sample.toString());
+            Assert.assertEquals(cached.ja3Fingerprint(ByteBuffer.wrap(packet)), signature.ja3Fingerprint(ByteBuffer.wrap(packet)));
+            for (final ByteBuffer buffer : bufferKinds(packet)) {
+                Assert.assertEquals(signature.fingerprints(buffer, EnumSet.allOf(FingerprintType.class), result), ja3 != null, sample.toString());
+                Assert.assertEquals(result.getJa3(), ja3, sample.toString());
+            }
+            Assert.assertEquals(signature.ja3Signature(packet, 0, packet.length), ja3);
+        }
+        Assert.assertEquals(seen, EnumSet.allOf(ClientHelloCorpus.Profile.class));
+    }
 }
@@ -0,0 +1,164 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+/**
+ * Test class for {@link JA3SniffingHandler}.
+ *
+ */
+public class JA3SniffingHandlerTest {
+
+    private static void assertFingerprints(final EmbeddedChannel channel, final byte[] hello) {
+        final JA3Signature signature = new JA3Signature();
+        Assert.assertEquals(channel.attr(JA3SniffingHandler.JA3_FINGERPRINT).get(), signature.ja3Signature(ByteBuffer.wrap(hello)));
+        Assert.assertEquals(channel.attr(JA3SniffingHandler.JA3_HASH).get(), signature.ja3Fingerprint(ByteBuffer.wrap(hello)));
+        Assert.assertNull(channel.pipeline().get(JA3SniffingHandler.class));
+    }
+
+    /**
+     * Test a ClientHello read at once from a pooled direct buffer, which is forwarded untouched.
+     */
+    @Test
+    public void testDirectBuffer() {
+        final byte[] hello = ClientHelloBuilder.chrome(1);
+        final EmbeddedChannel channel = new EmbeddedChannel(new JA3SniffingHandler());
+        final ByteBuf buf = PooledByteBufAllocator.DEFAULT.directBuffer(hello.length).writeBytes(hello);
+        channel.writeInbound(buf);
+        assertFingerprints(channel, hello);
+        final ByteBuf read = channel.readInbound();
+        Assert.assertSame(read, buf);
+        Assert.assertEquals(read.readerIndex(), 0);
+        Assert.assertEquals(read.readableBytes(), hello.length);
+        read.release();
+        Assert.assertFalse(channel.finish());
+    }
+
+    /**
+     * Test a ClientHello split over several reads.
+     */
+    @Test
+    public void testSplitReads() {
+        final byte[] hello = ClientHelloBuilder.firefox(2);
+        final EmbeddedChannel channel = new EmbeddedChannel(new JA3SniffingHandler());
+        for (int off = 0; off < hello.length; off += 100) {
+            Assert.assertNotNull(channel.pipeline().get(JA3SniffingHandler.class));
+            channel.writeInbound(Unpooled.wrappedBuffer(hello, off, Math.min(100, hello.length - off)));
+        }
+        assertFingerprints(channel, hello);
+        channel.finishAndReleaseAll();
+    }
+
+    /**
+     * Test the ClientHellos of the corpus split over reads at random points, which must give the same fingerprints as the whole record.
+     */
+    @Test
+    public void testCorpusSplitReads() {
+        final Random random = new Random(19);
+        final JA3Signature signature = new JA3Signature();
+        for (final ClientHelloCorpus.Sample sample : ClientHelloCorpus.generate(13, 200)) {
+            final byte[] hello = sample.getPacket();
+            final EmbeddedChannel channel = new EmbeddedChannel(new JA3SniffingHandler());
+            for (int off = 0; off < hello.length && channel.pipeline().get(JA3SniffingHandler.class) != null;) {
+                final int length = Math.min(1 + random.nextInt(300), hello.length - off);
+                channel.writeInbound(Unpooled.wrappedBuffer(hello, off, length));
+                off += length;
+            }
+            Assert.assertEquals(channel.attr(JA3SniffingHandler.JA3_FINGERPRINT).get(), signature.ja3Signature(ByteBuffer.wrap(hello)),
+                    sample.toString());
+            channel.finishAndReleaseAll();
+        }
+    }
+
+    /**
+     * Test a ClientHello in a composite buffer with a heap and a direct component, with JA4 enabled.
+     */
+    @Test
+    public void testCompositeBuffer() {
+        final byte[] hello = ClientHelloBuilder.chrome(3);
+        final JA3Configuration configuration = JA3Configuration.builder().fingerprints(EnumSet.allOf(FingerprintType.class)).build();
+        final EmbeddedChannel channel = new EmbeddedChannel(new JA3SniffingHandler(configuration));
+        final CompositeByteBuf buf = Unpooled.compositeBuffer();
+        buf.addComponent(true, Unpooled.wrappedBuffer(hello, 0, 50));
+        buf.addComponent(true, Unpooled.directBuffer(hello.length - 50).writeBytes(hello, 50, hello.length - 50));
+        channel.writeInbound(buf);
+        assertFingerprints(channel, hello);
+        Assert.assertEquals(channel.attr(JA3SniffingHandler.JA4_FINGERPRINT).get(), new JA3Signature().ja4Signature(ByteBuffer.wrap(hello)));
+        Assert.assertEquals(channel.attr(JA3SniffingHandler.JA3N_FINGERPRINT).get(), new JA3Signature().ja3nSignature(ByteBuffer.wrap(hello)));
+        Assert.assertNotNull(channel.attr(JA3SniffingHandler.JA3N_HASH).get());
+        channel.finishAndReleaseAll();
+    }
+
+    /**
+     * Test the handler removes itself when the stream does not start with a ClientHello.
+     */
+    @Test
+    public void testNotClientHello() {
+        final EmbeddedChannel channel = new EmbeddedChannel(new JA3SniffingHandler());
+        channel.writeInbound(Unpooled.copiedBuffer("GET / HTTP/1.1\r\n", StandardCharsets.US_ASCII));
+        Assert.assertNull(channel.pipeline().get(JA3SniffingHandler.class));
+        Assert.assertNull(channel.attr(JA3SniffingHandler.JA3_HASH).get());
+        channel.finishAndReleaseAll();
+    }
+
+    /**
+     * Test the handler removes itself from the connections not sampled.
+     */
+    @Test
+    public void testNotSampled() {
+        final JA3Configuration configuration = JA3Configuration.builder().sampling(JA3SamplingPolicy.percentage(0)).build();
+        final EmbeddedChannel channel = new EmbeddedChannel(new JA3SniffingHandler(configuration));
+        Assert.assertNull(channel.pipeline().get(JA3SniffingHandler.class));
+        channel.writeInbound(Unpooled.wrappedBuffer(ClientHelloBuilder.chrome(4)));
+        Assert.assertNull(channel.attr(JA3SniffingHandler.JA3_HASH).get());
+        channel.finishAndReleaseAll();
+    }
+
+    /**
+     * Test the JA3 signature is set as a lazy signature in lazy mode.
+     */
+    @Test
+    public void testLazy() {
+        final byte[] hello = ClientHelloBuilder.chrome(5);
+        final JA3Configuration configuration = JA3Configuration.builder().lazy(true).build();
+        final EmbeddedChannel channel = new EmbeddedChannel(new JA3SniffingHandler(configuration));
+        channel.writeInbound(Unpooled.wrappedBuffer(hello));
+        final CharSequence ja3 = channel.attr(JA3SniffingHandler.JA3_FINGERPRINT).get();
+        Assert.assertTrue(ja3 instanceof JA3LazySignature);
+        Assert.assertEquals(ja3.toString(), new JA3Signature().ja3Signature(ByteBuffer.wrap(hello)));
+        channel.finishAndReleaseAll();
+    }
+
+    /**
+     * Test a ClientHello rejected by a filter is dropped and the channel closed.
+     */
+    @Test
+    public void testRejected() {
+        final byte[] hello = ClientHelloBuilder.chrome(6);
+        final JA3Blocklist blocklist = new JA3Blocklist(Collections.singleton(new JA3Signature().ja3Fingerprint(ByteBuffer.wrap(hello))));
+        final EmbeddedChannel channel = new EmbeddedChannel(new JA3SniffingHandler(JA3Configuration.builder().filter(blocklist).build()));
+        final ByteBuf buf = Unpooled.wrappedBuffer(hello);
+        channel.writeInbound(buf);
+        Assert.assertEquals(buf.refCnt(), 0);
+        Assert.assertNull(channel.readInbound());
+        Assert.assertFalse(channel.isOpen());
+        Assert.assertNull(channel.attr(JA3SniffingHandler.JA3_HASH).get());
+    }
+}
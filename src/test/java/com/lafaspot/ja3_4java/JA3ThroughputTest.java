@@ -0,0 +1,143 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.Reporter;
+import org.testng.annotations.Test;
+
+/**
+ * Throughput gate over the synthetic corpus, run by the {@code throughput} profile only:
+ *
+ * <pre>
+ * mvn -P throughput test                                              # records target/ja3-throughput.properties
+ * mvn -P throughput test -Dja3.throughput.baseline=baseline.properties -Dja3.throughput.maxSlowdown=0.10
+ * </pre>
+ *
+ * Each operation is timed over the corpus, held half in heap and half in direct buffers, and the best of several rounds is kept in
+ * nanoseconds per ClientHello. When a baseline recorded on the same machine is given, the test fails if an operation got slower than allowed.
+ *
+ */
+public class JA3ThroughputTest {
+    private static final int CORPUS_SIZE = 4096;
+    private static final long WARMUP_NANOS = TimeUnit.SECONDS.toNanos(2);
+    private static final int ROUNDS = 7;
+    private static final int PASSES_PER_ROUND = 20;
+
+    private enum Operation {
+        JA3_SIGNATURE, JA3_FINGERPRINT, ALL_FINGERPRINTS
+    }
+
+    @Test(groups = "throughput")
+    public void testThroughput() throws IOException {
+        final List<ByteBuffer> corpus = new ArrayList<>(CORPUS_SIZE);
+        for (final ClientHelloCorpus.Sample sample : ClientHelloCorpus.generate(2019, CORPUS_SIZE)) {
+            final byte[] packet = sample.getPacket();
+            if (corpus.size() % 2 == 0) {
+                corpus.add(ByteBuffer.wrap(packet));
+            } else {
+                final ByteBuffer direct = ByteBuffer.allocateDirect(packet.length);
+                direct.put(packet).flip();
+                corpus.add(direct);
+            }
+        }
+
+        final Properties measured = new Properties();
+        for (final Operation operation : Operation.values()) {
+            measured.setProperty(operation.name(), String.format(Locale.ROOT, "%.1f", measure(operation, corpus)));
+        }
+        final Path output = Paths.get("target", "ja3-throughput.properties");
+        Files.createDirectories(output.getParent());
+        try (OutputStream out = Files.newOutputStream(output)) {
+            measured.store(out, "Nanoseconds per ClientHello over a corpus of " + CORPUS_SIZE);
+        }
+        Reporter.log("Throughput in ns per ClientHello: " + measured + ", written to " + output);
+
+        final String baselinePath = System.getProperty("ja3.throughput.baseline", "");
+        final Path baselineFile = Paths.get(baselinePath);
+        if (baselinePath.isEmpty() || !Files.isRegularFile(baselineFile)) {
+            Reporter.log("No throughput baseline at '" + baselinePath + "', nothing to compare to");
+            return;
+        }
+        final Properties baseline = new Properties();
+        try (InputStream in = Files.newInputStream(baselineFile)) {
+            baseline.load(in);
+        }
+        final double maxSlowdown = Double.parseDouble(System.getProperty("ja3.throughput.maxSlowdown", "0.10"));
+        final StringBuilder regressions = new StringBuilder();
+        for (final Operation operation : Operation.values()) {
+            final String reference = baseline.getProperty(operation.name());
+            if (reference == null) {
+                continue;
+            }
+            final double before = Double.parseDouble(reference);
+            final double after = Double.parseDouble(measured.getProperty(operation.name()));
+            if (after > before * (1 + maxSlowdown)) {
+                regressions.append(String.format(Locale.ROOT, "%s: %.1f ns, baseline %.1f ns (+%.0f%%, allowed +%.0f%%)%n", operation, after, before,
+                        (after / before - 1) * 100, maxSlowdown * 100));
+            }
+        }
+        Assert.assertTrue(regressions.length() == 0, "Throughput regression against " + baselineFile + ":\n" + regressions);
+    }
+
+    /**
+     * @return best time in nanoseconds per ClientHello over the rounds
+     */
+    private static double measure(final Operation operation, final List<ByteBuffer> corpus) {
+        final JA3Signature signature = new JA3Signature();
+        final ClientHelloFingerprints result = new ClientHelloFingerprints();
+        final Set<FingerprintType> all = EnumSet.allOf(FingerprintType.class);
+        long sink = 0;
+        final long warmupEnd = System.nanoTime() + WARMUP_NANOS;
+        while (System.nanoTime() < warmupEnd) {
+            sink += run(operation, corpus, signature, result, all);
+        }
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            final long start = System.nanoTime();
+            for (int pass = 0; pass < PASSES_PER_ROUND; pass++) {
+                sink += run(operation, corpus, signature, result, all);
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        Assert.assertTrue(sink > 0);
+        return (double) best / PASSES_PER_ROUND / corpus.size();
+    }
+
+    private static long run(final Operation operation, final List<ByteBuffer> corpus, final JA3Signature signature,
+            final ClientHelloFingerprints result, final Set<FingerprintType> all) {
+        long found = 0;
+        for (final ByteBuffer packet : corpus) {
+            switch (operation) {
+            case JA3_SIGNATURE:
+                found += signature.ja3Signature(packet) == null ? 0 : 1;
+                break;
+            case JA3_FINGERPRINT:
+                found += signature.ja3Fingerprint(packet) == null ? 0 : 1;
+                break;
+            default:
+                found += signature.fingerprints(packet, all, result) ? 1 : 0;
+                break;
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,370 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.TrustManagerFactory;
+
+/**
+ * In-JVM loopback of a client and a server {@link SSLEngine}, with no sockets: the records written by one engine are handed to the other
+ * until both finish the handshake, then a short request and response are exchanged. Delegated tasks run on the calling thread.
+ *
+ * The server engines come either from the JDK provider or from {@link JA3Provider}, so the cost of {@link JA3SSLEngineWrapper} across a
+ * real handshake can be compared with the engine it wraps. The RSA key and its self-signed certificate are generated once per JVM with the
+ * {@code keytool} of the running JDK.
+ */
+public final class LoopbackHandshake {
+    /**
+     * Password of the key store and of the key.
+     */
+    private static final char[] PASSWORD = "ja3_4java".toCharArray();
+
+    /**
+     * Largest number of round trips of a handshake before it is considered stuck.
+     */
+    private static final int MAX_STEPS = 1000;
+
+    /**
+     * Application data sent by the client once the handshake is done.
+     */
+    private static final byte[] REQUEST = "GET / HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Application data sent back by the server.
+     */
+    private static final byte[] RESPONSE = "HTTP/1.1 204 No Content\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Key and self-signed certificate of the server, also trusted by the client, generated on first use.
+     */
+    private static KeyStore keyStore;
+
+    /**
+     * Context of the client engines, from the JDK provider.
+     */
+    private final SSLContext clientContext;
+
+    /**
+     * Context of the server engines, from {@link JA3Provider} or the JDK provider.
+     */
+    private final SSLContext serverContext;
+
+    /**
+     * Protocol enabled on both engines.
+     */
+    private final String protocol;
+
+    /**
+     * Only cipher suite enabled on the client, or null for the defaults.
+     */
+    private final String cipherSuite;
+
+    /**
+     * Creates a loopback whose server engines are wrapped or not.
+     *
+     * @param wrapped whether the server engines come from {@link JA3Provider}
+     * @param configuration options of the wrapped engines, ignored when not wrapped
+     * @param protocol protocol enabled on both engines, such as {@code TLSv1.2} or {@code TLSv1.3}
+     * @param cipherSuite only cipher suite enabled on the client, or null for the defaults
+     * @throws GeneralSecurityException if the contexts cannot be built
+     * @throws IOException if the key cannot be generated
+     */
+    public LoopbackHandshake(final boolean wrapped, final JA3Configuration configuration, final String protocol, final String cipherSuite)
+            throws GeneralSecurityException, IOException {
+        final KeyStore keys = keyStore();
+        final KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(keys, PASSWORD);
+        final TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(keys);
+
+        clientContext = SSLContext.getInstance("TLS");
+        clientContext.init(null, trustManagers.getTrustManagers(), null);
+        serverContext = wrapped ? SSLContext.getInstance("TLS", new JA3Provider(configuration)) : SSLContext.getInstance("TLS");
+        serverContext.init(keyManagers.getKeyManagers(), null, null);
+        this.protocol = protocol;
+        this.cipherSuite = cipherSuite;
+    }
+
+    /**
+     * @return a new server engine, wrapped or not
+     */
+    public SSLEngine newServerEngine() {
+        final SSLEngine server = serverContext.createSSLEngine();
+        server.setUseClientMode(false);
+        server.setEnabledProtocols(new String[] { protocol });
+        return server;
+    }
+
+    /**
+     * @return a new client engine
+     */
+    public SSLEngine newClientEngine() {
+        final SSLEngine client = clientContext.createSSLEngine("localhost", 443);
+        client.setUseClientMode(true);
+        client.setEnabledProtocols(new String[] { protocol });
+        if (cipherSuite != null) {
+            client.setEnabledCipherSuites(new String[] { cipherSuite });
+        }
+        return client;
+    }
+
+    /**
+     * Runs one full handshake between new engines, followed by a request and a response, without session resumption.
+     *
+     * @return the server engine, with its session established
+     * @throws SSLException if the handshake or the exchange fails
+     */
+    public SSLEngine run() throws SSLException {
+        final SSLEngine client = newClientEngine();
+        final SSLEngine server = newServerEngine();
+        new Pump(client, server).run();
+        return server;
+    }
+
+    /**
+     * Buffers of one exchange between a client and a server engine.
+     */
+    private static final class Pump {
+        /**
+         * Client engine.
+         */
+        private final SSLEngine client;
+
+        /**
+         * Server engine.
+         */
+        private final SSLEngine server;
+
+        /**
+         * Records written by the client and not yet read by the server.
+         */
+        private final ByteBuffer clientToServer;
+
+        /**
+         * Records written by the server and not yet read by the client.
+         */
+        private final ByteBuffer serverToClient;
+
+        /**
+         * Application data read by the client.
+         */
+        private final ByteBuffer clientIn;
+
+        /**
+         * Application data read by the server.
+         */
+        private final ByteBuffer serverIn;
+
+        /**
+         * No application data, wrapped during the handshake.
+         */
+        private final ByteBuffer empty = ByteBuffer.allocate(0);
+
+        /**
+         * Creates the buffers of an exchange, large enough for any record of either engine.
+         *
+         * @param client client engine
+         * @param server server engine
+         */
+        Pump(final SSLEngine client, final SSLEngine server) {
+            this.client = client;
+            this.server = server;
+            final int packetSize = Math.max(client.getSession().getPacketBufferSize(), server.getSession().getPacketBufferSize());
+            final int applicationSize = Math.max(client.getSession().getApplicationBufferSize(), server.getSession().getApplicationBufferSize());
+            clientToServer = ByteBuffer.allocate(packetSize);
+            serverToClient = ByteBuffer.allocate(packetSize);
+            clientIn = ByteBuffer.allocate(applicationSize);
+            serverIn = ByteBuffer.allocate(applicationSize);
+        }
+
+        /**
+         * Runs the handshake, then sends the request and the response.
+         *
+         * @throws SSLException if the handshake does not finish or the data does not arrive whole
+         */
+        void run() throws SSLException {
+            client.beginHandshake();
+            server.beginHandshake();
+            for (int step = 0; !(done(client) && done(server)); step++) {
+                if (step == MAX_STEPS) {
+                    throw new SSLException("Handshake did not finish: client " + client.getHandshakeStatus() + ", server "
+                            + server.getHandshakeStatus());
+                }
+                step(client, clientToServer, serverToClient, clientIn);
+                step(server, serverToClient, clientToServer, serverIn);
+            }
+            exchange(client, ByteBuffer.wrap(REQUEST), clientToServer, server, serverIn);
+            exchange(server, ByteBuffer.wrap(RESPONSE), serverToClient, client, clientIn);
+        }
+
+        /**
+         * @param engine client or server engine
+         * @return whether the engine finished its handshake
+         */
+        private static boolean done(final SSLEngine engine) {
+            final SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+            return status == SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING || status == SSLEngineResult.HandshakeStatus.FINISHED;
+        }
+
+        /**
+         * Advances the handshake of one engine as far as it can go with the records received so far.
+         *
+         * @param engine engine to advance
+         * @param out records written by the engine
+         * @param in records received by the engine
+         * @param application application data read by the engine
+         * @throws SSLException if the engine fails the handshake
+         */
+        private void step(final SSLEngine engine, final ByteBuffer out, final ByteBuffer in, final ByteBuffer application) throws SSLException {
+            while (true) {
+                switch (engine.getHandshakeStatus()) {
+                case NEED_TASK:
+                    Runnable task;
+                    while ((task = engine.getDelegatedTask()) != null) {
+                        task.run();
+                    }
+                    break;
+                case NEED_WRAP:
+                    final SSLEngineResult wrapped = engine.wrap(empty, out);
+                    if (wrapped.getStatus() != SSLEngineResult.Status.OK) {
+                        return;
+                    }
+                    break;
+                case NEED_UNWRAP:
+                    if (!unwrap(engine, in, application)) {
+                        return;
+                    }
+                    break;
+                default:
+                    // Post-handshake messages, such as TLS 1.3 session tickets, must be read for the peer to have room to write
+                    unwrap(engine, in, application);
+                    return;
+                }
+            }
+        }
+
+        /**
+         * @param engine engine reading
+         * @param in records received by the engine
+         * @param application application data read by the engine
+         * @return whether a record was consumed
+         * @throws SSLException if the record is not valid
+         */
+        private static boolean unwrap(final SSLEngine engine, final ByteBuffer in, final ByteBuffer application) throws SSLException {
+            in.flip();
+            final SSLEngineResult unwrapped = engine.unwrap(in, application);
+            in.compact();
+            application.clear();
+            return unwrapped.getStatus() == SSLEngineResult.Status.OK && unwrapped.bytesConsumed() > 0;
+        }
+
+        /**
+         * Sends application data from one engine to the other and checks it arrived whole. Records still in flight, such as a TLS 1.3
+         * NewSessionTicket, are delivered first so that the network buffer has room for a full record.
+         *
+         * @param sender engine sending the data
+         * @param data application data to send
+         * @param network records from the sender to the receiver
+         * @param receiver engine receiving the data
+         * @param application application data read by the receiver
+         * @throws SSLException if the data cannot be sent or does not arrive whole
+         */
+        private static void exchange(final SSLEngine sender, final ByteBuffer data, final ByteBuffer network, final SSLEngine receiver,
+                final ByteBuffer application) throws SSLException {
+            final int length = data.remaining();
+            deliver(receiver, network, application);
+            application.clear();
+            while (data.hasRemaining()) {
+                final SSLEngineResult result = sender.wrap(data, network);
+                if (result.getStatus() != SSLEngineResult.Status.OK || result.bytesConsumed() == 0) {
+                    throw new SSLException("Cannot send application data: " + result);
+                }
+            }
+            deliver(receiver, network, application);
+            if (application.position() != length) {
+                throw new SSLException("Received " + application.position() + " bytes instead of " + length);
+            }
+        }
+
+        /**
+         * Hands the records in flight to an engine.
+         *
+         * @param receiver engine receiving the records
+         * @param network records in flight
+         * @param application application data read by the receiver
+         * @throws SSLException if a record is not valid
+         */
+        private static void deliver(final SSLEngine receiver, final ByteBuffer network, final ByteBuffer application) throws SSLException {
+            network.flip();
+            while (network.hasRemaining() && receiver.unwrap(network, application).bytesConsumed() > 0) {
+                continue;
+            }
+            network.compact();
+        }
+    }
+
+    /**
+     * @return the key store of the server, generated with {@code keytool} on first use
+     * @throws GeneralSecurityException if the key store cannot be loaded
+     * @throws IOException if keytool fails
+     */
+    private static synchronized KeyStore keyStore() throws GeneralSecurityException, IOException {
+        if (keyStore == null) {
+            final Path directory = Files.createTempDirectory("ja3-loopback");
+            final Path file = directory.resolve("server.jks");
+            final String keytool = System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool";
+            final Process process = new ProcessBuilder(Arrays.asList(keytool, "-genkeypair", "-alias", "server", "-keyalg", "RSA", "-keysize",
+                    "2048", "-sigalg", "SHA256withRSA", "-dname", "CN=localhost", "-ext", "SAN=dns:localhost", "-validity", "2", "-storetype",
+                    "JKS", "-keystore", file.toString(), "-storepass", new String(PASSWORD), "-keypass", new String(PASSWORD)))
+                    .redirectErrorStream(true).start();
+            // Read until keytool exits, so that it never blocks on a full pipe
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            try (InputStream in = process.getInputStream()) {
+                final byte[] buffer = new byte[4096];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    output.write(buffer, 0, read);
+                }
+            }
+            try {
+                if (!process.waitFor(1, TimeUnit.MINUTES) || process.exitValue() != 0) {
+                    process.destroy();
+                    throw new IOException("keytool failed to generate a key in " + file + ": "
+                            + new String(output.toByteArray(), StandardCharsets.UTF_8));
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while generating a key", e);
+            }
+            final KeyStore keys = KeyStore.getInstance("JKS");
+            try (InputStream in = Files.newInputStream(file)) {
+                keys.load(in, PASSWORD);
+            } finally {
+                Files.delete(file);
+                Files.delete(directory);
+            }
+            keyStore = keys;
+        }
+        return keyStore;
+    }
+}
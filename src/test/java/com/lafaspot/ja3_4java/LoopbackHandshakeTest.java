@@ -0,0 +1,75 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+
+import org.testng.Assert;
+import org.testng.SkipException;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Test class for {@link LoopbackHandshake}, which runs real handshakes through {@link JA3SSLEngineWrapper}.
+ */
+public class LoopbackHandshakeTest {
+
+    @DataProvider
+    public Object[][] protocols() {
+        return new Object[][] { { "TLSv1.2", "TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256" }, { "TLSv1.2", "TLS_RSA_WITH_AES_256_CBC_SHA256" },
+                { "TLSv1.3", "TLS_AES_128_GCM_SHA256" }, { "TLSv1.3", "TLS_AES_256_GCM_SHA384" } };
+    }
+
+    @Test(dataProvider = "protocols")
+    public void testWrappedHandshake(final String protocol, final String cipherSuite) throws Exception {
+        assumeSupported(protocol, cipherSuite);
+        final JA3Metrics metrics = new JA3Metrics();
+        final LoopbackHandshake loopback = new LoopbackHandshake(true, JA3Configuration.builder().metrics(metrics).build(), protocol,
+                cipherSuite);
+        for (int i = 0; i < 3; i++) {
+            final SSLEngine server = loopback.run();
+            Assert.assertTrue(server instanceof JA3SSLEngineWrapper);
+            final SSLSession session = server.getSession();
+            Assert.assertEquals(session.getProtocol(), protocol);
+            Assert.assertEquals(session.getCipherSuite(), cipherSuite);
+
+            final String ja3 = (String) session.getValue(JA3Constants.JA3_FINGERPRINT);
+            Assert.assertNotNull(ja3, "No JA3 fingerprint on the session");
+            Assert.assertTrue(ja3.startsWith("771,"), ja3);
+            final byte[] md5 = MessageDigest.getInstance("MD5").digest(ja3.getBytes(StandardCharsets.US_ASCII));
+            Assert.assertEquals(session.getValue(JA3Constants.JA3_HASH), JA3Fingerprint.fromBytes(md5, 0));
+        }
+        Assert.assertEquals(metrics.getFingerprints(), 3);
+    }
+
+    @Test(dataProvider = "protocols")
+    public void testUnwrappedHandshake(final String protocol, final String cipherSuite) throws Exception {
+        assumeSupported(protocol, cipherSuite);
+        final SSLEngine server = new LoopbackHandshake(false, null, protocol, cipherSuite).run();
+        Assert.assertFalse(server instanceof JA3SSLEngineWrapper);
+        Assert.assertEquals(server.getSession().getCipherSuite(), cipherSuite);
+        Assert.assertNull(server.getSession().getValue(JA3Constants.JA3_FINGERPRINT));
+    }
+
+    /**
+     * Skips protocols and cipher suites the running JDK does not offer, such as TLS 1.3 before 8u261.
+     */
+    static void assumeSupported(final String protocol, final String cipherSuite) throws Exception {
+        final SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, null, null);
+        final SSLEngine engine = context.createSSLEngine();
+        if (!Arrays.asList(engine.getSupportedProtocols()).contains(protocol)
+                || !Arrays.asList(engine.getSupportedCipherSuites()).contains(cipherSuite)) {
+            throw new SkipException(protocol + " with " + cipherSuite + " is not supported by this JDK");
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.nio.ByteBuffer;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Mocked {@link SSLEngine}s wrapped by {@link JA3SSLEngineWrapper} in tests.
+ */
+final class MockEngines {
+
+    private MockEngines() {
+    }
+
+    /**
+     * Mocks a server engine whose unwrap consumes all of its source and asks for a delegated task, like an engine that just read a
+     * ClientHello.
+     *
+     * @return the mocked engine
+     * @throws Exception not expected
+     */
+    static SSLEngine consumingEngine() throws Exception {
+        final SSLEngine engine = Mockito.mock(SSLEngine.class);
+        Mockito.doAnswer(new Answer<SSLEngineResult>() {
+            @Override
+            public SSLEngineResult answer(final InvocationOnMock invocation) {
+                final ByteBuffer src = (ByteBuffer) invocation.getArguments()[0];
+                final int consumed = src.remaining();
+                src.position(src.limit());
+                return new SSLEngineResult(SSLEngineResult.Status.OK, SSLEngineResult.HandshakeStatus.NEED_TASK, consumed, 0);
+            }
+        }).when(engine).unwrap(Matchers.any(ByteBuffer.class), Matchers.any(ByteBuffer[].class), Matchers.anyInt(), Matchers.anyInt());
+        Mockito.doReturn(Mockito.mock(Runnable.class)).when(engine).getDelegatedTask();
+        return engine;
+    }
+
+    /**
+     * Mocks an engine whose unwrap consumes whole TLS records, at most {@code maxRecords} per call, like the JDK engines do.
+     *
+     * @param maxRecords maximum number of records consumed per unwrap
+     * @return the mocked engine
+     * @throws Exception not expected
+     */
+    static SSLEngine recordConsumingEngine(final int maxRecords) throws Exception {
+        final SSLEngine engine = Mockito.mock(SSLEngine.class);
+        Mockito.doAnswer(new Answer<SSLEngineResult>() {
+            @Override
+            public SSLEngineResult answer(final InvocationOnMock invocation) {
+                final ByteBuffer src = (ByteBuffer) invocation.getArguments()[0];
+                int consumed = 0;
+                for (int i = 0; i < maxRecords; i++) {
+                    final int off = src.position() + consumed;
+                    if (src.limit() - off < 5) {
+                        break;
+                    }
+                    final int length = 5 + ((src.get(off + 3) & 0xFF) << 8) + (src.get(off + 4) & 0xFF);
+                    if (src.limit() - off < length) {
+                        break;
+                    }
+                    consumed += length;
+                }
+                src.position(src.position() + consumed);
+                return new SSLEngineResult(consumed == 0 ? SSLEngineResult.Status.BUFFER_UNDERFLOW : SSLEngineResult.Status.OK,
+                        SSLEngineResult.HandshakeStatus.NEED_TASK, consumed, 0);
+            }
+        }).when(engine).unwrap(Matchers.any(ByteBuffer.class), Matchers.any(ByteBuffer[].class), Matchers.anyInt(), Matchers.anyInt());
+        Mockito.doReturn(new SSLEngineResult(SSLEngineResult.Status.OK, SSLEngineResult.HandshakeStatus.NEED_UNWRAP, 0, 0)).when(engine)
+                .wrap(Matchers.any(ByteBuffer[].class), Matchers.anyInt(), Matchers.anyInt(), Matchers.any(ByteBuffer.class));
+        return engine;
+    }
+}
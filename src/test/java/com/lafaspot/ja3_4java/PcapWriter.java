@@ -0,0 +1,147 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes synthetic pcap and pcapng captures of Ethernet frames holding TCP segments, over IPv4 or IPv6.
+ */
+public class PcapWriter {
+    public static final int SYN = 0x02;
+    public static final int ACK = 0x10;
+    public static final int PSH = 0x08;
+    public static final int FIN = 0x01;
+
+    private final boolean pcapng;
+    private final ByteOrder order;
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    /**
+     * @param pcapng true to write pcapng, false for pcap
+     * @param order byte order of the file headers
+     */
+    public PcapWriter(final boolean pcapng, final ByteOrder order) {
+        this.pcapng = pcapng;
+        this.order = order;
+        if (pcapng) {
+            // Section header block
+            final ByteBuffer shb = buffer(28);
+            shb.putInt(0x0a0d0d0a).putInt(28).putInt(0x1a2b3c4d).putShort((short) 1).putShort((short) 0).putLong(-1).putInt(28);
+            write(shb);
+            // Interface description block, Ethernet, nanosecond timestamps
+            final ByteBuffer idb = buffer(32);
+            idb.putInt(1).putInt(32).putShort((short) 1).putShort((short) 0).putInt(0);
+            idb.putShort((short) 9).putShort((short) 1).put((byte) 9).put(new byte[3]);
+            idb.putShort((short) 0).putShort((short) 0).putInt(32);
+            write(idb);
+        } else {
+            final ByteBuffer header = buffer(24);
+            header.putInt(0xa1b2c3d4).putShort((short) 2).putShort((short) 4).putInt(0).putInt(0).putInt(65535).putInt(1);
+            write(header);
+        }
+    }
+
+    /**
+     * Add a TCP segment.
+     *
+     * @param micros timestamp in microseconds since the epoch
+     * @param src source address, 4 or 16 bytes
+     * @param sport source port
+     * @param dst destination address, 4 or 16 bytes
+     * @param dport destination port
+     * @param seq sequence number
+     * @param flags TCP flags
+     * @param payload TCP payload
+     * @return this writer
+     */
+    public PcapWriter tcp(final long micros, final byte[] src, final int sport, final byte[] dst, final int dport, final int seq, final int flags,
+            final byte[] payload) {
+        final byte[] frame = frame(src, sport, dst, dport, seq, flags, payload);
+        if (pcapng) {
+            final int padded = (frame.length + 3) / 4 * 4;
+            final ByteBuffer epb = buffer(32 + padded);
+            final long nanos = micros * 1000;
+            epb.putInt(6).putInt(32 + padded).putInt(0).putInt((int) (nanos >>> 32)).putInt((int) nanos).putInt(frame.length)
+                    .putInt(frame.length).put(frame).put(new byte[padded - frame.length]).putInt(32 + padded);
+            write(epb);
+        } else {
+            final ByteBuffer record = buffer(16 + frame.length);
+            record.putInt((int) (micros / 1000000)).putInt((int) (micros % 1000000)).putInt(frame.length).putInt(frame.length).put(frame);
+            write(record);
+        }
+        return this;
+    }
+
+    /**
+     * Add a client connection: the SYN, then the ClientHello cut in segments, in the given order.
+     *
+     * @param micros timestamp of the SYN
+     * @param src client address
+     * @param sport client port
+     * @param dst server address
+     * @param clientHello ClientHello records
+     * @param segmentLength length of each segment
+     * @param order order in which the segments are written, null for in order
+     * @return this writer
+     */
+    public PcapWriter connection(final long micros, final byte[] src, final int sport, final byte[] dst, final byte[] clientHello,
+            final int segmentLength, final int[] order) {
+        final int isn = sport * 7919;
+        tcp(micros, src, sport, dst, 443, isn, SYN, new byte[0]);
+        final int count = (clientHello.length + segmentLength - 1) / segmentLength;
+        for (int i = 0; i < count; i++) {
+            final int segment = order == null ? i : order[i];
+            final int off = segment * segmentLength;
+            final byte[] payload = new byte[Math.min(segmentLength, clientHello.length - off)];
+            System.arraycopy(clientHello, off, payload, 0, payload.length);
+            tcp(micros + i + 1, src, sport, dst, 443, isn + 1 + off, ACK | PSH, payload);
+        }
+        return this;
+    }
+
+    public byte[] build() {
+        return out.toByteArray();
+    }
+
+    public Path write(final Path file) throws IOException {
+        Files.write(file, build());
+        return file;
+    }
+
+    /**
+     * @return an Ethernet frame holding the segment
+     */
+    public static byte[] frame(final byte[] src, final int sport, final byte[] dst, final int dport, final int seq, final int flags,
+            final byte[] payload) {
+        final boolean v6 = src.length == 16;
+        final int ipHeader = v6 ? 40 : 20;
+        final ByteBuffer frame = ByteBuffer.allocate(14 + ipHeader + 20 + payload.length);
+        frame.put(new byte[12]).putShort((short) (v6 ? 0x86dd : 0x0800));
+        if (v6) {
+            frame.putInt(0x60000000).putShort((short) (20 + payload.length)).put((byte) 6).put((byte) 64).put(src).put(dst);
+        } else {
+            frame.put((byte) 0x45).put((byte) 0).putShort((short) (20 + 20 + payload.length)).putInt(0x4000).put((byte) 64).put((byte) 6)
+                    .putShort((short) 0).put(src).put(dst);
+        }
+        frame.putShort((short) sport).putShort((short) dport).putInt(seq).putInt(0).put((byte) 0x50).put((byte) flags).putShort((short) 65535)
+                .putInt(0).put(payload);
+        return frame.array();
+    }
+
+    private ByteBuffer buffer(final int length) {
+        return ByteBuffer.allocate(length).order(order);
+    }
+
+    private void write(final ByteBuffer buffer) {
+        out.write(buffer.array(), 0, buffer.position());
+    }
+}
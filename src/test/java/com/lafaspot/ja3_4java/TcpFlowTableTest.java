@@ -0,0 +1,78 @@
+/**
+ *  Copyright 2019, Oath Inc.
+ *  Licensed under the terms of the Apache 2.0 license.
+ *  See LICENSE file in {@link https://github.com/lafaspot/ja3_4java/blob/master/LICENSE} for terms.
+ */
+package com.lafaspot.ja3_4java;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Test class for {@link TcpFlowTable}.
+ *
+ */
+public class TcpFlowTableTest {
+    private static final byte[] CLIENT = { 10, 0, 0, 1 };
+    private static final byte[] SERVER = { 10, 0, 0, 2 };
+
+    /** Offsets of the IPv4 and TCP headers and of the payload in a frame of {@link PcapWriter#frame}. */
+    private static final int IP = 14;
+    private static final int TCP = IP + 20;
+    private static final int PAYLOAD = TCP + 20;
+
+    private static ClientHelloFingerprints feed(final TcpFlowTable table, final int port, final int seq, final int flags, final byte[] payload) {
+        final byte[] frame = PcapWriter.frame(CLIENT, port, SERVER, 443, seq, flags, payload);
+        return table.segment(ByteBuffer.wrap(frame), IP, TCP, PAYLOAD, payload.length);
+    }
+
+    @Test
+    public void testByteBudget() {
+        final byte[] hello = ClientHelloBuilder.chrome(1);
+        final TcpFlowTable table = new TcpFlowTable(1000, 10000, null);
+        for (int port = 1024; port < 1124; port++) {
+            feed(table, port, 0, PcapWriter.SYN, new byte[0]);
+            // The start of the ClientHello is reassembled, the rest held out of order
+            feed(table, port, 1, PcapWriter.ACK, Arrays.copyOfRange(hello, 0, 100));
+            feed(table, port, 201, PcapWriter.ACK, Arrays.copyOfRange(hello, 200, 300));
+            Assert.assertTrue(table.heldBytes() <= 10000, Long.toString(table.heldBytes()));
+        }
+        Assert.assertTrue(table.heldBytes() > 0);
+        Assert.assertTrue(table.size() < 10, Integer.toString(table.size()));
+
+        // The most recent flow was kept and completes
+        Assert.assertNull(feed(table, 1123, 101, PcapWriter.ACK, Arrays.copyOfRange(hello, 100, 200)));
+        final ClientHelloFingerprints found = feed(table, 1123, 301, PcapWriter.ACK, Arrays.copyOfRange(hello, 300, hello.length));
+        Assert.assertNotNull(found);
+        Assert.assertEquals(found.getJa3Hash(), new JA3Signature().ja3Fingerprint(ByteBuffer.wrap(hello)));
+
+        // The oldest flow was evicted, its ClientHello cannot complete
+        Assert.assertNull(feed(table, 1024, 101, PcapWriter.ACK, Arrays.copyOfRange(hello, 100, hello.length)));
+        table.clear();
+        Assert.assertEquals(table.heldBytes(), 0);
+    }
+
+    @Test
+    public void testSynReplacesFlow() {
+        final byte[] hello = ClientHelloBuilder.firefox(1);
+        final TcpFlowTable table = new TcpFlowTable(1000, 10000, null);
+        feed(table, 1024, 0, PcapWriter.SYN, new byte[0]);
+        Assert.assertNull(feed(table, 1024, 1, PcapWriter.ACK, "GET / HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.US_ASCII)));
+        // A new connection on the same ports, after the previous one was given up
+        feed(table, 1024, 5000, PcapWriter.SYN, new byte[0]);
+        Assert.assertEquals(table.size(), 1);
+        Assert.assertNotNull(feed(table, 1024, 5001, PcapWriter.ACK, hello));
+
+        // A SYN also restarts a flow still reassembling
+        feed(table, 1025, 0, PcapWriter.SYN, new byte[0]);
+        feed(table, 1025, 1, PcapWriter.ACK, Arrays.copyOfRange(hello, 0, 100));
+        Assert.assertTrue(table.heldBytes() > 0);
+        feed(table, 1025, 9000, PcapWriter.SYN, new byte[0]);
+        Assert.assertEquals(table.heldBytes(), 0);
+        Assert.assertNotNull(feed(table, 1025, 9001, PcapWriter.ACK, hello));
+    }
+}